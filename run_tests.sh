@@ -25,16 +25,35 @@ mkdir -p "$LOG_DIR" "$PIPES_DIR"
 
 banner () { echo -e "\n====================== $1 ======================\n"; }
 
+# With TRACE=1, members of scenarios 3a-3c also write spans next to their log
+# usage: trace_flag logs/scenarioX/M4.log  ->  --trace=logs/scenarioX/M4.trace.json
+trace_flag () {
+  if [[ "${TRACE:-0}" == "1" ]]; then echo "--trace=${1%.log}.trace.json"; fi
+}
+
+# Merge a scenario's member traces into one timeline and a hop-latency report
+merge_traces () {
+  local dir="$1"
+  if [[ "${TRACE:-0}" != "1" ]]; then return; fi
+  mvn -q exec:java \
+    "-Dexec.mainClass=au.edu.adelaide.ds.assignment3.TraceMerge" \
+    "-Dexec.args=--out=${dir}/merged.trace.json ${dir}" \
+    > "${dir}/trace-report.txt" 2>&1 || true
+  echo "Trace report in ${dir}/trace-report.txt"
+}
+
 usage () {
   cat <<EOF
 Usage:
-  $(basename "$0") [clean | all | 1 | 2 | 3a | 3b | 3c]...
+  $(basename "$0") [clean | all | 1 | 2 | 3a | 3b | 3c | load]...
 
 Examples:
   $(basename "$0") 1
   $(basename "$0") 2 3a 3c
   $(basename "$0") all
   $(basename "$0") clean          # deletes everything under '$LOG_DIR/'
+  LOAD_ARGS="--mode=open --rate=500" $(basename "$0") load
+  TRACE=1 $(basename "$0") 3a     # also trace scenarios 3a-3c and merge the traces
 EOF
 }
 
@@ -240,12 +259,12 @@ scenario_3a () {
       # M4 will propose after 2s
       nohup mvn -q exec:java \
         "-Dexec.mainClass=${PROJECT_MAIN}" \
-        "-Dexec.args=${id} --profile=${profile} --propose=LEADER_M5 --trigger-after=2000" \
+        "-Dexec.args=${id} --profile=${profile} --propose=LEADER_M5 --trigger-after=2000 $(trace_flag "$log")" \
         > "$log" 2>&1 &
     else
       nohup mvn -q exec:java \
         "-Dexec.mainClass=${PROJECT_MAIN}" \
-        "-Dexec.args=${id} --profile=${profile}" \
+        "-Dexec.args=${id} --profile=${profile} $(trace_flag "$log")" \
         > "$log" 2>&1 &
     fi
 
@@ -263,6 +282,7 @@ scenario_3a () {
   echo "Cleaning up Scenario 3a processes..."
   cleanup_all
   echo "Scenario 3a logs in ${LOG_DIR}/${scenario}"
+  merge_traces "${LOG_DIR}/${scenario}"
 }
 
 # ----------------------------
@@ -288,12 +308,12 @@ scenario_3b () {
       # M2 (latent) proposes after ~2s
       nohup mvn -q exec:java \
         "-Dexec.mainClass=${PROJECT_MAIN}" \
-        "-Dexec.args=${id} --profile=${profile} --propose=LEADER_M2 --trigger-after=2000" \
+        "-Dexec.args=${id} --profile=${profile} --propose=LEADER_M2 --trigger-after=2000 $(trace_flag "$log")" \
         > "$log" 2>&1 &
     else
       nohup mvn -q exec:java \
         "-Dexec.mainClass=${PROJECT_MAIN}" \
-        "-Dexec.args=${id} --profile=${profile}" \
+        "-Dexec.args=${id} --profile=${profile} $(trace_flag "$log")" \
         > "$log" 2>&1 &
     fi
 
@@ -311,6 +331,7 @@ scenario_3b () {
   echo "Cleaning up Scenario 3b processes..."
   cleanup_all
   echo "Scenario 3b logs in ${LOG_DIR}/${scenario}"
+  merge_traces "${LOG_DIR}/${scenario}"
 }
 
 # ----------------------------
@@ -343,7 +364,7 @@ scenario_3c () {
     local log="${SC3_DIR}/${id}.log"
 
     # default args
-    local args="${id} --profile=${profile}"
+    local args="${id} --profile=${profile} $(trace_flag "$log")"
 
     # M3: propose LEADER_M3 at 1000 ms, then we'll kill it shortly after
     if [[ "$id" == "M3" ]]; then
@@ -382,6 +403,44 @@ scenario_3c () {
   echo "Cleaning up Scenario 3c processes..."
   cleanup_all
   echo "Scenario 3c logs in ${SC3_DIR}"
+  merge_traces "${SC3_DIR}"
+}
+
+# ----------------------------
+# Load: 9 reliable key-value members driven by LoadGenerator
+# ----------------------------
+scenario_load () {
+  local scenario="load"
+  banner "LOAD: LoadGenerator against 9 reliable members"
+  local LOAD_DIR="${LOG_DIR}/${scenario}"
+  mkdir -p "${LOAD_DIR}"
+
+  for i in {1..9}; do
+    local id="M${i}"
+    nohup mvn -q exec:java \
+      "-Dexec.mainClass=${PROJECT_MAIN}" \
+      "-Dexec.args=${id} --profile=reliable --state-machine=kv --log-level=info" \
+      > "${LOAD_DIR}/${id}.log" 2>&1 &
+
+    local pid=$!
+    PIDS+=("$pid")
+    PID_MAP["$id"]=$pid
+  done
+
+  echo "Load cluster launched. Waiting ${STARTUP_WAIT}s for sockets..."
+  sleep "$STARTUP_WAIT"
+
+  # Extra LoadGenerator flags (e.g. --mode=open --rate=500) come from LOAD_ARGS.
+  echo "Running LoadGenerator ${LOAD_ARGS:-}..."
+  mvn -q exec:java \
+    "-Dexec.mainClass=au.edu.adelaide.ds.assignment3.LoadGenerator" \
+    "-Dexec.args=${LOAD_ARGS:-}" \
+    > "${LOAD_DIR}/summary.json" 2> "${LOAD_DIR}/loadgen.log" || true
+  cat "${LOAD_DIR}/summary.json"
+
+  echo "Cleaning up load processes..."
+  cleanup_all
+  echo "Load logs and summary.json in ${LOAD_DIR}"
 }
 
 # ----------------------------
@@ -430,6 +489,9 @@ main () {
       3c|s3c|scenario3c)
         scenario_3c
         ;;
+      load)
+        scenario_load
+        ;;
       -h|--help|help)
         usage
         ;;
@@ -0,0 +1,145 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Acceptor throughput under contention, 1 to 8 threads: each operation accepts a value for a fresh
+ * slot under the leader's ballot and then forgets the slot (as a decision would); one in 64
+ * operations also builds the entry list of a PROMISE.
+ * <p>
+ * {@code cas} is the lock-free {@link Acceptor}; {@code monitor} is the previous design, one
+ * {@code synchronized} object guarding the promise and a {@link HashMap} of accepted entries.
+ * The score is per thread count, so scaling shows up as growing ops/µs across the methods.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptorContentionBenchmark {
+
+    @Param({"cas", "monitor"})
+    public String impl;
+
+    private static final long BALLOT = Ballot.of(3, 4);
+
+    private Acceptor cas;
+    private MonitorAcceptor monitor;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TimerService clock = new TimerService("bench-timers");
+        cas = new Acceptor(null, 0, new NodeLogger("bench", clock), clock);
+        cas.promise(BALLOT);
+        monitor = new MonitorAcceptor();
+        monitor.promise(BALLOT);
+    }
+
+    /**
+     * Per-thread slot sequence; threads use disjoint slots, as concurrent ACCEPT_REQUESTs for a
+     * pipelined window do.
+     */
+    @State(Scope.Thread)
+    public static class Slots {
+        long next;
+        long ops;
+
+        @Setup(Level.Trial)
+        public void setUp(AcceptorContentionBenchmark bench) {
+            next = bench.threadIds.getAndIncrement();
+        }
+    }
+
+    private long operation(Slots slots) {
+        long slot = slots.next;
+        slots.next += 64;
+        boolean scan = (++slots.ops & 63) == 0;
+        if (impl.equals("cas")) {
+            long seq = cas.accept(slot, BALLOT, "LEADER_M5", false);
+            if (scan) seq += cas.acceptedFrom(0).size();
+            cas.forget(slot);
+            return seq;
+        }
+        long seq = monitor.accept(slot, BALLOT, "LEADER_M5");
+        if (scan) seq += monitor.acceptedFrom(0).size();
+        monitor.forget(slot);
+        return seq;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads1(Slots slots) {
+        return operation(slots);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long threads2(Slots slots) {
+        return operation(slots);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads4(Slots slots) {
+        return operation(slots);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long threads8(Slots slots) {
+        return operation(slots);
+    }
+
+    /**
+     * The single-monitor acceptor this change replaced, for comparison.
+     */
+    static final class MonitorAcceptor {
+        private long promisedN = Ballot.NONE;
+        private final Map<Long, Message.Entry> accepted = new HashMap<>();
+
+        synchronized void promise(long ballot) {
+            if (ballot > promisedN) promisedN = ballot;
+        }
+
+        synchronized long accept(long slot, long ballot, String value) {
+            if (ballot < promisedN) return Acceptor.REJECTED;
+            promisedN = ballot;
+            accepted.put(slot, new Message.Entry(slot, ballot, value));
+            return 0;
+        }
+
+        synchronized List<Message.Entry> acceptedFrom(long from) {
+            List<Message.Entry> out = new ArrayList<>();
+            for (Message.Entry e : accepted.values()) {
+                if (e.getSlot() >= from) out.add(e);
+            }
+            return out;
+        }
+
+        synchronized void forget(long slot) {
+            accepted.remove(slot);
+        }
+    }
+}
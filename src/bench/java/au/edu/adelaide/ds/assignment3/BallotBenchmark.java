@@ -0,0 +1,61 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proposal number comparison: packed {@link Ballot} longs as the roles compare them, and the
+ * {@code "round.node"} text form parsed first, as a JSON message's ballot is on arrival.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BallotBenchmark {
+
+    private static final int SIZE = 1 << 10;
+
+    private final long[] ballots = new long[SIZE];
+    private final String[] texts = new String[SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            ballots[i] = Ballot.of(random.nextInt(64), 1 + random.nextInt(9));
+            texts[i] = Ballot.toString(ballots[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean compare() {
+        int i = next++ & (SIZE - 1);
+        return ballots[i] > ballots[(i + 1) & (SIZE - 1)];
+    }
+
+    @Benchmark
+    public boolean parseAndCompare() {
+        int i = next++ & (SIZE - 1);
+        return Ballot.parse(texts[i]) > Ballot.parse(texts[(i + 1) & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public long of() {
+        int i = next++;
+        return Ballot.of(i & 0xFFFF, 1 + (i & 7));
+    }
+}
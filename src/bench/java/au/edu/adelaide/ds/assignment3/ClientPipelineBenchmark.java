@@ -0,0 +1,98 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client throughput against an in-process 3-member cluster (pooled TCP between members, NIO
+ * listeners) through one {@link PaxosClient} connection, with 1 to 256 requests outstanding.
+ * <p>
+ * Each invocation submits one key-value PUT, first waiting while {@code outstanding} requests
+ * are in flight; the score is completed requests per second. Member logging is discarded.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientPipelineBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int outstanding;
+
+    private PrintStream stdout;
+    private PaxosClient client;
+    private Semaphore window;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= 3; i++) {
+            config.addMember("M" + i, "127.0.0.1", freePort());
+        }
+        for (int i = 1; i <= 3; i++) {
+            String id = "M" + i;
+            PaxosHandler h = new PaxosHandler(id, config, Profile.RELIABLE,
+                    new PeerConnectionManager(id, config), null, null, new KeyValueStore());
+            NioServer server = new NioServer(config.getPort(id), 1, 2, 1024, h.getWireProtocol(), h::handleMessage);
+            Thread t = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "bench-" + id);
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread.sleep(200);
+        client = new PaxosClient("bench", config, "M2", PaxosClient.DEFAULT_TIMEOUT_MS);
+        client.put("warmup", "x").get(10, TimeUnit.SECONDS);
+        window = new Semaphore(outstanding);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        window.acquire(outstanding);
+        client.close();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void put() throws InterruptedException {
+        window.acquire();
+        long n = next++;
+        client.put("key-" + (n & 1023), "v" + n).whenComplete((r, e) -> window.release());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end decisions on an in-process cluster of 3 to 15 members connected by a
+ * {@link LoopbackTransport}, each running a {@link KeyValueStore}; commands are submitted to the
+ * leader ({@link PaxosHandler#submit}) and complete once applied there.
+ * <ul>
+ *     <li>{@code decide}: one command at a time, so the score is the latency of a decision;</li>
+ *     <li>{@code pipelined}: up to {@value #WINDOW} commands outstanding, so the score is
+ *     throughput with batching and the proposer window in play.</li>
+ * </ul>
+ * Member logging is discarded.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBenchmark {
+
+    private static final int WINDOW = 64;
+
+    @Param({"3", "5", "9", "15"})
+    public int members;
+
+    private final List<PaxosHandler> handlers = new ArrayList<>();
+    private final Semaphore window = new Semaphore(WINDOW);
+    private PrintStream stdout;
+    private LoopbackTransport loopback;
+    private PaxosHandler leader;
+    private long seq;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= members; i++) {
+            config.addMember("M" + i, "127.0.0.1", 0);
+        }
+        loopback = new LoopbackTransport(config);
+        for (int i = 1; i <= members; i++) {
+            PaxosHandler h = new PaxosHandler("M" + i, config, Profile.RELIABLE, loopback, null, null,
+                    new KeyValueStore());
+            loopback.register("M" + i, h);
+            handlers.add(h);
+        }
+        leader = handlers.get(0);
+        leader.submit(KeyValueStore.put("bench", seq++, "warmup", "x")).get(10, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        window.acquire(WINDOW);
+        loopback.closeAll();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String decide() {
+        long s = seq++;
+        return leader.submit(KeyValueStore.put("bench", s, "key-" + (s & 1023), "v" + s)).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void pipelined() throws InterruptedException {
+        window.acquire();
+        long s = seq++;
+        leader.submit(KeyValueStore.put("bench", s, "key-" + (s & 1023), "v" + s))
+                .whenComplete((r, e) -> window.release());
+    }
+}
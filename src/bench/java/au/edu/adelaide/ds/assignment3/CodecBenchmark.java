@@ -0,0 +1,66 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode throughput of the JSON and binary {@link MessageCodec}s for a PROMISE reporting one
+ * previously accepted entry (the largest regular Paxos message). Encoded sizes are printed at
+ * setup so bytes per message can be read alongside the scores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"json", "binary"})
+    public String codecName;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= 9; i++) {
+            config.addMember("M" + i, "localhost", 9000 + i);
+        }
+        codec = new WireProtocol(config).byName(codecName);
+
+        message = new Message();
+        message.setType(Message.MessageType.PROMISE);
+        message.setSenderId("M7");
+        message.setProposalNumber(Ballot.of(42, 4));
+        message.setSlot(17);
+        message.setEntries(List.of(new Message.Entry(17, Ballot.of(41, 3), "LEADER_M5")));
+        encoded = codec.encode(message);
+        System.out.printf("%n[%s] bytes/message = %d%n", codecName, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() {
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
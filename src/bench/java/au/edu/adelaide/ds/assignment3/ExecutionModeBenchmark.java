@@ -0,0 +1,174 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Footprint and round-trip latency of the blocking accept loop's execution modes with many
+ * concurrent clients connected.
+ * <p>
+ * Every client holds an open connection, served by one task on a {@link TaskExecutor} in the
+ * given mode (as {@code CouncilMember --exec=...} does); 8 benchmark threads send 64-byte frames
+ * over disjoint subsets of the clients and wait for the echo. Latency percentiles come from
+ * JMH's sample mode; once all clients are connected the setup prints the process footprint
+ * (resident set size, heap, thread count).
+ * </p>
+ * <p>
+ * {@code virtual} needs a Java 21 runtime and fails its setup on older JVMs; the jar built for
+ * Java 11 runs unchanged on one, e.g. {@code $JAVA21_HOME/bin/java -jar target/benchmarks.jar}.
+ * The default of 10000 clients needs about 20000 open files ({@code ulimit -n}); pass
+ * {@code -p clients=...} to scale down.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xss512k"})
+@Threads(8)
+public class ExecutionModeBenchmark {
+
+    private static final int FRAME = 64;
+
+    @Param({"platform", "pooled", "virtual"})
+    public String mode;
+
+    @Param({"10000"})
+    public int clients;
+
+    private TaskExecutor executor;
+    private ServerSocket server;
+    private Socket[] sockets;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        executor = new TaskExecutor(TaskExecutor.Mode.parse(mode), "echo", clients + 1);
+        server = new ServerSocket(0, clients, InetAddress.getLoopbackAddress());
+        Thread acceptLoop = new Thread(this::acceptLoop, "accept");
+        acceptLoop.setDaemon(true);
+        acceptLoop.start();
+
+        sockets = new Socket[clients];
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        for (int i = 0; i < clients; i++) {
+            Socket s = new Socket();
+            s.setTcpNoDelay(true);
+            s.connect(address);
+            sockets[i] = s;
+        }
+        while (executor.active() < clients) {
+            Thread.sleep(10);
+        }
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("%n[footprint] mode=%s clients=%d rss=%dMB heap=%dMB threads=%d%n", mode, clients,
+                residentMb(), (rt.totalMemory() - rt.freeMemory()) >> 20,
+                ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        for (Socket s : sockets) {
+            if (s != null) s.close();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Clients owned by one benchmark thread: every 8th connection from its index.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        final byte[] frame = new byte[FRAME];
+        int next;
+        int stride;
+
+        @Setup(Level.Trial)
+        public void setUp(ExecutionModeBenchmark bench) {
+            next = bench.threadIds.getAndIncrement();
+            stride = 8;
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client c) throws IOException {
+        Socket s = sockets[c.next];
+        c.next += c.stride;
+        if (c.next >= clients) c.next %= c.stride;
+        OutputStream out = s.getOutputStream();
+        out.write(c.frame);
+        out.flush();
+        InputStream in = s.getInputStream();
+        int read = 0;
+        while (read < FRAME) {
+            int n = in.read(c.frame, read, FRAME - read);
+            if (n < 0) throw new IOException("Connection closed");
+            read += n;
+        }
+        return read;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                executor.execute(() -> echo(socket));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void echo(Socket socket) {
+        byte[] buf = new byte[FRAME];
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long residentMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) >> 10;
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast latency with one unreachable member in the configuration, sequential sends vs the
+ * concurrent quorum fan-out of {@link PeerConnectionManager#broadcast}.
+ * <p>
+ * The first configured peer is a closed port (connections are refused at once). The sequential
+ * loop is the old {@code sendToAllExceptSelf}: every round waits for the dead peer's send to fail
+ * before the live peers after it are written to. The fan-out waits only for a majority of peers.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"4"})
+    public int livePeers;
+
+    private final List<ServerSocket> sinks = new ArrayList<>();
+    private final List<String> targets = new ArrayList<>();
+    private PeerConnectionManager connections;
+    private Message message;
+    private int quorum;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        NetworkConfig config = new NetworkConfig();
+        WireProtocol wire = new WireProtocol(config);
+        ServerSocket dead = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        config.addMember("DEAD", "127.0.0.1", dead.getLocalPort());
+        dead.close();
+        targets.add("DEAD");
+        for (int i = 1; i <= livePeers; i++) {
+            ServerSocket server = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+            sinks.add(server);
+            config.addMember("P" + i, "127.0.0.1", server.getLocalPort());
+            targets.add("P" + i);
+            startSink(server, wire);
+        }
+        connections = new PeerConnectionManager("BENCH", config, wire, null);
+        quorum = (targets.size() + 1) / 2 + 1;
+        message = new Message();
+        message.setType(Message.MessageType.PREPARE);
+        message.setSenderId("BENCH");
+        message.setProposalNumber(Ballot.of(12, 4));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        connections.closeAll();
+        for (ServerSocket s : sinks) {
+            s.close();
+        }
+    }
+
+    /**
+     * One peer after another, each with its own retries (the previous broadcast).
+     */
+    @Benchmark
+    public void sequential() {
+        for (String target : targets) {
+            connections.sendAsync(target, message).join();
+        }
+    }
+
+    /**
+     * All peers at once; returns when a majority has been written to.
+     */
+    @Benchmark
+    public boolean quorumFanOut() {
+        return connections.broadcast(targets, message, quorum).join();
+    }
+
+    private static void startSink(ServerSocket server, WireProtocol wire) {
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> {
+                        try (BufferedInputStream in = new BufferedInputStream(socket.getInputStream())) {
+                            MessageCodec codec = wire.accept(in, socket.getOutputStream());
+                            if (codec == null) return;
+                            WireProtocol.FrameReader frames = new WireProtocol.FrameReader(in, codec);
+                            while (frames.next() != null) {
+                                // drain
+                            }
+                        } catch (IOException ignored) {
+                        }
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException ignored) {
+                }
+            }
+        }, "sink-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
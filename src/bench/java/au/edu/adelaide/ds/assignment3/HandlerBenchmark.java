@@ -0,0 +1,106 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-threaded {@link PaxosHandler#handleMessage(Message)} throughput on a follower of a
+ * 3-member cluster, with its replies going over a {@link LoopbackTransport} to two stub peers that
+ * only count them.
+ * <ul>
+ *     <li>{@code prepare}: a PREPARE with a higher ballot each time, answered with a PROMISE;</li>
+ *     <li>{@code acceptRequest}: an ACCEPT_REQUEST for the next slot (broadcasting ACCEPTED and
+ *     counting its own vote), then the leader's ACCEPTED that decides the slot, so acceptor and
+ *     learner state stay bounded; two messages per operation;</li>
+ *     <li>{@code accepted}: the two peers' ACCEPTED votes for the next slot, the second deciding
+ *     and applying it; two messages per operation.</li>
+ * </ul>
+ * Member logging is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+
+    private final AtomicLong delivered = new AtomicLong();
+    private PrintStream stdout;
+    private LoopbackTransport loopback;
+    private PaxosHandler handler;
+    private long round;
+    private long slot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= 3; i++) {
+            config.addMember("M" + i, "127.0.0.1", 0);
+        }
+        loopback = new LoopbackTransport(config);
+        handler = new PaxosHandler("M1", config, Profile.RELIABLE, loopback, null, null);
+        loopback.register("M1", handler);
+        loopback.register("M2", m -> delivered.incrementAndGet());
+        loopback.register("M3", m -> delivered.incrementAndGet());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        loopback.closeAll();
+        System.setOut(stdout);
+        System.out.printf("%n%d replies delivered to the stub peers%n", delivered.get());
+    }
+
+    @Benchmark
+    public void prepare() {
+        handler.handleMessage(message(Message.MessageType.PREPARE, "M2", Ballot.of(++round, 2), 0, null));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void acceptRequest() {
+        long s = slot++;
+        long ballot = Ballot.of(1, 2);
+        handler.handleMessage(message(Message.MessageType.ACCEPT_REQUEST, "M2", ballot, s, "LEADER_M2"));
+        handler.handleMessage(message(Message.MessageType.ACCEPTED, "M2", ballot, s, "LEADER_M2"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void accepted() {
+        long s = slot++;
+        long ballot = Ballot.of(1, 2);
+        handler.handleMessage(message(Message.MessageType.ACCEPTED, "M2", ballot, s, "LEADER_M2"));
+        handler.handleMessage(message(Message.MessageType.ACCEPTED, "M3", ballot, s, "LEADER_M2"));
+    }
+
+    private static Message message(Message.MessageType type, String sender, long ballot, long slot, String value) {
+        Message m = new Message();
+        m.setType(type);
+        m.setSenderId(sender);
+        m.setProposalNumber(ballot);
+        m.setSlot(slot);
+        m.setValue(value);
+        return m;
+    }
+}
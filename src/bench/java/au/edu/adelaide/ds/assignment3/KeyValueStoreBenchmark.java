@@ -0,0 +1,84 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link KeyValueStore} throughput: applying PUT commands (decode, dedup check, write), a
+ * duplicate being answered from the dedup window, and local reads running alongside the applying
+ * thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyValueStoreBenchmark {
+
+    private static final int KEYS = 1 << 14;
+
+    private final KeyValueStore store = new KeyValueStore();
+    private final String[] keys = new String[KEYS];
+    private String duplicate;
+    private long seq;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+            store.apply(i, KeyValueStore.put("loader", i, keys[i], "value-" + i));
+        }
+        duplicate = KeyValueStore.put("loader", KEYS - 1, keys[KEYS - 1], "value");
+    }
+
+    @Benchmark
+    @Group("applyAndRead")
+    @GroupThreads(1)
+    public String apply() {
+        long s = seq++;
+        return store.apply(s, KeyValueStore.put("bench", s, keys[(int) (s & (KEYS - 1))], "v"));
+    }
+
+    @Benchmark
+    @Group("applyAndRead")
+    @GroupThreads(3)
+    public String read() {
+        return store.read(keys[ThreadLocalIndex.next() & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public String applyDuplicate() {
+        return store.apply(0, duplicate);
+    }
+
+    @Benchmark
+    public String encodePut() {
+        int n = next++;
+        return KeyValueStore.put("bench", n, keys[n & (KEYS - 1)], "value");
+    }
+
+    /**
+     * Per-thread key cursor for the readers.
+     */
+    private static final class ThreadLocalIndex {
+        private static final ThreadLocal<int[]> CURSOR = ThreadLocal.withInitial(() -> new int[1]);
+
+        static int next() {
+            return CURSOR.get()[0]++;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link PaxosHandler#read()} on an in-process 3-member cluster connected by a
+ * {@link LoopbackTransport}: on the leader (lease read, a local lookup) and on a follower
+ * (ReadIndex, one round trip to the leader).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaseReadBenchmark {
+
+    @Param({"leader", "follower"})
+    public String on;
+
+    private final List<PaxosHandler> members = new ArrayList<>();
+    private LoopbackTransport loopback;
+    private PaxosHandler reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= 3; i++) {
+            config.addMember("M" + i, "127.0.0.1", 0);
+        }
+        loopback = new LoopbackTransport(config);
+        for (int i = 1; i <= 3; i++) {
+            PaxosHandler h = new PaxosHandler("M" + i, config, Profile.RELIABLE, loopback, null, null);
+            loopback.register("M" + i, h);
+            members.add(h);
+        }
+        members.get(0).propose("LEADER_M1");
+        reader = on.equals("leader") ? members.get(0) : members.get(1);
+
+        // The follower learns the leader from its heartbeats; wait until reads succeed.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                if ("LEADER_M1".equals(reader.read().get(1, TimeUnit.SECONDS))) break;
+            } catch (Exception ignored) {
+            }
+            if (System.nanoTime() > deadline) throw new IllegalStateException("no lease read succeeded");
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        loopback.closeAll();
+    }
+
+    @Benchmark
+    public String read() {
+        return reader.read().join();
+    }
+}
@@ -0,0 +1,78 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * In-memory {@link Transport} connecting {@link PaxosHandler}s in one JVM, for benchmarks.
+ * <p>
+ * Messages go through the binary codec, so handlers never share a {@link Message} instance, and
+ * are delivered on one thread per receiving member, so each link stays FIFO like a TCP connection.
+ * </p>
+ */
+final class LoopbackTransport implements Transport {
+
+    private final MessageCodec codec;
+    private final Map<String, Consumer<Message>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, ExecutorService> inboxes = new ConcurrentHashMap<>();
+
+    /**
+     * @param config members of the in-process cluster
+     */
+    LoopbackTransport(NetworkConfig config) {
+        this.codec = new WireProtocol(config).byName("binary");
+    }
+
+    /**
+     * Makes a handler reachable under its member ID.
+     *
+     * @param memberId the member ID
+     * @param handler  receives the messages sent to it
+     */
+    void register(String memberId, PaxosHandler handler) {
+        register(memberId, (Consumer<Message>) handler::handleMessage);
+    }
+
+    /**
+     * Makes a member reachable whose messages go to a plain consumer, e.g. a stub peer that only
+     * counts what it receives.
+     *
+     * @param memberId the member ID
+     * @param inbox    receives the messages sent to it
+     */
+    void register(String memberId, Consumer<Message> inbox) {
+        handlers.put(memberId, inbox);
+        inboxes.computeIfAbsent(memberId, id -> Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "loopback-" + id);
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendAsync(String targetMember, Message msg) {
+        Consumer<Message> target = handlers.get(targetMember);
+        if (target == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        byte[] bytes = codec.encode(msg);
+        try {
+            inboxes.get(targetMember).execute(() -> target.accept(codec.decode(bytes, 0, bytes.length)));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(false); // closed
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public void closeAll() {
+        for (ExecutorService inbox : inboxes.values()) {
+            inbox.shutdownNow();
+        }
+    }
+}
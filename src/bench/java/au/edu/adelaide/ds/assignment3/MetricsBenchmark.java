@@ -0,0 +1,114 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of recording a metric on the protocol's hot paths, on 1 and 4 threads sharing one series:
+ * a {@link Metrics} counter (a striped {@link LongAdder}), an {@link AtomicLong} for comparison,
+ * a latency histogram record, and a quorum-latency measurement as the proposer takes it (two
+ * clock reads and a record). Rendering the whole registry as text is measured once for scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private Metrics metrics;
+    private LongAdder counter;
+    private final AtomicLong atomic = new AtomicLong();
+    private LatencyHistogram histogram;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = new Metrics();
+        counter = metrics.counter("bench_total", "Benchmark counter");
+        histogram = metrics.histogram("bench_latency_us", "Benchmark latency");
+        for (String peer : new String[]{"M2", "M3", "M4", "M5", "M6", "M7", "M8", "M9"}) {
+            metrics.counter("bench_retries_total{peer=\"" + peer + "\"}", "Benchmark per-peer counter");
+        }
+        for (int i = 0; i < 4; i++) {
+            LatencyHistogram h = metrics.histogram("bench_phase" + i + "_us", "Benchmark phase latency");
+            for (int v = 1; v < 100_000; v += 7) h.record(v);
+        }
+    }
+
+    /**
+     * Per-thread values to record, so each thread records a spread of latencies.
+     */
+    @State(Scope.Thread)
+    public static class Values {
+        long next = 1;
+
+        long next() {
+            next = next * 6364136223846793005L + 1442695040888963407L;
+            return (next >>> 44) + 1; // up to ~1M µs
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void counter1() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counter4() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long atomic1() {
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long atomic4() {
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void histogram1(Values values) {
+        histogram.record(values.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogram4(Values values) {
+        histogram.record(values.next());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void quorumLatency1() {
+        long sentAt = System.nanoTime();
+        histogram.record((System.nanoTime() - sentAt) / 1000);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String text() {
+        return metrics.text();
+    }
+}
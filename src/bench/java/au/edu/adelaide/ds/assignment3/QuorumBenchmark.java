@@ -0,0 +1,85 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Learner} vote counting: every invocation delivers a quorum of ACCEPTED votes for a new
+ * slot, the last of which decides and applies it. The score is decided slots per microsecond for
+ * 3 to 15 members, with majority quorums counted by size or the same quorums counted by weight
+ * (the {@link QuorumSystem}'s slowest check). Learner logging is discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuorumBenchmark {
+
+    @Param({"3", "5", "9", "15"})
+    public int members;
+
+    @Param({"majority", "weighted"})
+    public String quorum;
+
+    private PrintStream stdout;
+    private Learner learner;
+    private Message[] votes;
+    private long slot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= members; i++) {
+            config.addMember("M" + i, "127.0.0.1", 0);
+        }
+        int majority = members / 2 + 1;
+        config.setQuorum(quorum.equals("weighted") ? "weighted," + majority + "," + majority : quorum);
+        NodeLogger logger = new NodeLogger("M1", new TimerService("bench-timers"));
+        learner = new Learner(logger, config, config.quorums(), null, new CouncilPresident());
+        votes = new Message[config.quorums().phase2Size()];
+        for (int i = 0; i < votes.length; i++) {
+            Message m = new Message();
+            m.setType(Message.MessageType.ACCEPTED);
+            m.setSenderId("M" + (i + 1));
+            m.setProposalNumber(Ballot.of(1, 1));
+            m.setValue("LEADER_M1");
+            votes[i] = m;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Learner.Decision decide() {
+        long s = slot++;
+        Learner.Decision d = null;
+        for (Message m : votes) {
+            m.setSlot(s);
+            d = learner.onAccepted(m);
+        }
+        return d;
+    }
+}
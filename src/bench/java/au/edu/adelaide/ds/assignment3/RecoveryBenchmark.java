@@ -0,0 +1,87 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Recovery time of the {@link DecidedLog} against the number of decided slots, with and without
+ * snapshots. Each invocation does what a restarting member does: open the log (load the snapshot,
+ * scan the remaining segments) and replay every entry after the snapshot.
+ * <p>
+ * Without snapshots recovery grows linearly with the log; with them it stays roughly flat.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int slots;
+
+    //Slots between snapshots; 0 disables them.
+    @Param({"0", "65536"})
+    public long snapshotEvery;
+
+    private Path dir;
+    private NodeLogger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("decided-bench");
+        logger = new NodeLogger("bench", new TimerService("bench-timers"));
+        long interval = snapshotEvery == 0 ? Long.MAX_VALUE : snapshotEvery;
+        try (DecidedLog log = open(interval)) {
+            String president = null;
+            for (long s = 0; s < slots; s++) {
+                president = "LEADER_M" + (s % 9 + 1);
+                log.append(s, president);
+                if (log.snapshotDue(s)) {
+                    log.snapshot(s, president.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long recover() throws IOException {
+        try (DecidedLog log = open(Long.MAX_VALUE)) {
+            long[] replayed = new long[1];
+            log.replay(0, (slot, value) -> replayed[0] += value.length());
+            return replayed[0] + log.nextSlot();
+        }
+    }
+
+    private DecidedLog open(long interval) throws IOException {
+        return new DecidedLog(logger, dir, DecidedLog.DEFAULT_SEGMENT_BYTES, DecidedLog.DEFAULT_SLOTS_PER_SEGMENT, interval);
+    }
+}
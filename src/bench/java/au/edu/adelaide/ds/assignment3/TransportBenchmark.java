@@ -0,0 +1,132 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares broadcast rounds per second for the original socket-per-message sender against
+ * the pooled {@link PeerConnectionManager}.
+ * <p>
+ * One benchmark invocation is one "round": a PREPARE-sized frame sent to every peer, as
+ * {@code sendToAllExceptSelf} does. Peers are in-process sinks that mimic
+ * {@link CouncilMember}'s blocking accept loop (a new reader thread per accepted connection).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final String FRAME =
+            "{\"type\":\"PREPARE\",\"proposalNumber\":\"12.4\",\"senderId\":\"M4\"}";
+
+    @Param({"8"})
+    public int peers;
+
+    private final List<ServerSocket> sinks = new ArrayList<>();
+    private NetworkConfig config;
+    private WireProtocol wire;
+    private PeerConnectionManager pooled;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        config = new NetworkConfig();
+        wire = new WireProtocol(config);
+        for (int i = 1; i <= peers; i++) {
+            ServerSocket server = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+            sinks.add(server);
+            config.addMember("P" + i, "127.0.0.1", server.getLocalPort());
+            startSink(server);
+        }
+        // JSON on both paths, so only the connection strategy differs (see CodecBenchmark for codecs).
+        pooled = new PeerConnectionManager("BENCH", config, wire, wire.json());
+        message = wire.json().decode(FRAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pooled.closeAll();
+        for (ServerSocket s : sinks) {
+            s.close();
+        }
+    }
+
+    /**
+     * Original behaviour: a fresh socket, writer and handshake for every frame.
+     */
+    @Benchmark
+    public void socketPerMessage() throws IOException {
+        for (String target : config.getAllMembers()) {
+            try (Socket socket = new Socket(config.getHost(target), config.getPort(target));
+                 BufferedWriter out = new BufferedWriter(
+                         new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                out.write(FRAME);
+                out.newLine();
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Pooled behaviour: every frame rides the peer's long-lived connection.
+     */
+    @Benchmark
+    public void pooledConnections() {
+        for (String target : config.getAllMembers()) {
+            pooled.sendAsync(target, message).join();
+        }
+    }
+
+    private void startSink(ServerSocket server) {
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> {
+                        try (BufferedInputStream in = new BufferedInputStream(socket.getInputStream())) {
+                            MessageCodec codec = wire.accept(in, socket.getOutputStream());
+                            if (codec == null) return;
+                            WireProtocol.FrameReader frames = new WireProtocol.FrameReader(in, codec);
+                            while (frames.next() != null) {
+                                // drain
+                            }
+                        } catch (IOException ignored) {
+                        }
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException ignored) {
+                }
+            }
+        }, "sink-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
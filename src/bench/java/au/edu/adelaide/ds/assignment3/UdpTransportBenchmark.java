@@ -0,0 +1,155 @@
+package au.edu.adelaide.ds.assignment3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Message throughput of the pooled TCP transport vs the {@link UdpTransport}, end to end.
+ * <p>
+ * One invocation broadcasts {@value #BURST} ACCEPT_REQUEST-sized messages to every peer and waits
+ * until the peers have received all of them; the score is messages per second per peer. TCP peers
+ * are in-process frame readers; UDP peers are {@link UdpTransport}s whose handler only counts.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UdpTransportBenchmark {
+
+    private static final int BURST = 1000;
+
+    @Param({"tcp", "udp"})
+    public String transport;
+
+    @Param({"4"})
+    public int peers;
+
+    private final AtomicLong received = new AtomicLong();
+    private final List<ServerSocket> sinks = new ArrayList<>();
+    private final List<UdpTransport> udpPeers = new ArrayList<>();
+    private final List<String> targets = new ArrayList<>();
+    private Transport sender;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        NetworkConfig config = new NetworkConfig();
+        WireProtocol wire = new WireProtocol(config);
+        config.addMember("BENCH", "127.0.0.1", freeUdpPort());
+        for (int i = 1; i <= peers; i++) {
+            String id = "P" + i;
+            targets.add(id);
+            if (transport.equals("tcp")) {
+                ServerSocket server = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+                sinks.add(server);
+                config.addMember(id, "127.0.0.1", server.getLocalPort());
+                startSink(server, wire);
+            } else {
+                config.addMember(id, "127.0.0.1", freeUdpPort());
+            }
+        }
+        if (transport.equals("tcp")) {
+            sender = new PeerConnectionManager("BENCH", config, wire, null);
+        } else {
+            for (String id : targets) {
+                UdpTransport peer = new UdpTransport(id, config, UdpTransport.DEFAULT_DATAGRAM_BYTES);
+                peer.start(m -> received.incrementAndGet(), Runnable::run);
+                udpPeers.add(peer);
+            }
+            UdpTransport udp = new UdpTransport("BENCH", config, UdpTransport.DEFAULT_DATAGRAM_BYTES);
+            udp.start(m -> { }, Runnable::run);
+            sender = udp;
+        }
+        message = new Message();
+        message.setType(Message.MessageType.ACCEPT_REQUEST);
+        message.setSenderId("BENCH");
+        message.setProposalNumber(Ballot.of(12, 4));
+        message.setSlot(123456);
+        message.setValue("LEADER_M5");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (sender instanceof UdpTransport) {
+            System.out.println();
+            System.out.println(((UdpTransport) sender).stats());
+        }
+        sender.closeAll();
+        for (UdpTransport p : udpPeers) p.closeAll();
+        for (ServerSocket s : sinks) s.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public long burst() {
+        long target = received.get() + (long) BURST * peers;
+        for (int i = 0; i < BURST; i++) {
+            sender.broadcast(targets, message, peers);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.get() < target) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("messages lost");
+            LockSupport.parkNanos(10_000);
+        }
+        return target;
+    }
+
+    private void startSink(ServerSocket server, WireProtocol wire) {
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> {
+                        try (BufferedInputStream in = new BufferedInputStream(socket.getInputStream())) {
+                            MessageCodec codec = wire.accept(in, socket.getOutputStream());
+                            if (codec == null) return;
+                            WireProtocol.FrameReader frames = new WireProtocol.FrameReader(in, codec);
+                            while (frames.next() != null) {
+                                received.incrementAndGet();
+                            }
+                        } catch (IOException ignored) {
+                        }
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException ignored) {
+                }
+            }
+        }, "sink-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static int freeUdpPort() throws IOException {
+        try (DatagramSocket s = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Acceptor role of one member, without locks.
+ * <p>
+ * The promise is a single {@link AtomicLong} that only ever grows (compare-and-set). Each
+ * undecided slot holds its highest-ballot accepted entry in an {@link AtomicReference}, also
+ * updated by compare-and-set, so PREPAREs and ACCEPT_REQUESTs for different slots (or the same
+ * ballot) never wait for one another.
+ * </p>
+ * <p>
+ * An ACCEPT_REQUEST publishes its entry first and then re-reads the promise: a PREPARE for a
+ * higher ballot either raised the promise before that re-read (and the accept is rejected, since
+ * its PROMISE may not have reported the entry) or scans the slots after it (and sees the entry).
+ * A rejected accept may leave its entry behind; reporting it in later PROMISEs is harmless.
+ * </p>
+ * <p>
+ * Promises and HEARTBEAT acknowledgements also grant the ballot's member a read lease of
+ * {@link #LEASE_MS}: until it runs out, a PROMISE to any other member is held back, so no other
+ * member can become leader (and commit writes) while a leader with a quorum of grants serves reads
+ * locally. A grant re-reads the promise after recording itself and a promise reads the lease after
+ * raising itself, so of a racing grant and promise at least one sees the other.
+ * </p>
+ */
+final class Acceptor {
+
+    //Returned instead of a log sequence number when a request is rejected.
+    static final long REJECTED = -1;
+
+    //Length of a read lease, measured on the granting member's clock.
+    static final long LEASE_MS = 2000;
+
+    private final WriteAheadLog wal;
+    private final TimerService clock;
+    private final AtomicLong promised = new AtomicLong(Ballot.NONE);
+    private final ConcurrentHashMap<Long, AtomicReference<Message.Entry>> accepted = new ConcurrentHashMap<>();
+    private final AtomicReference<Lease> lease = new AtomicReference<>(new Lease(Ballot.NONE, 0));
+
+    /**
+     * Creates the acceptor, restoring state from the write-ahead log if there is one.
+     *
+     * @param wal            write-ahead log, or {@code null} to keep state in memory only
+     * @param firstUndecided first slot not yet known decided; older recovered entries are dropped
+     * @param logger         member logger
+     * @param clock          the member's clock, for read leases
+     */
+    Acceptor(WriteAheadLog wal, long firstUndecided, NodeLogger logger, TimerService clock) {
+        this.wal = wal;
+        this.clock = clock;
+        if (wal == null) return;
+
+        WriteAheadLog.State recovered = wal.recovered();
+        promised.set(recovered.getPromisedN());
+        for (Message.Entry e : new ArrayList<>(recovered.getAccepted().values())) {
+            if (e.getSlot() >= firstUndecided) {
+                accepted.put(e.getSlot(), new AtomicReference<>(e));
+            } else {
+                wal.forget(e.getSlot());
+            }
+        }
+        if (promised.get() != Ballot.NONE || !accepted.isEmpty()) {
+            logger.log("Recovered acceptor state: promisedN=%B accepted=%d slots", promised.get(), accepted.size());
+        }
+    }
+
+    /**
+     * @return the highest ballot promised so far
+     */
+    long promised() {
+        return promised.get();
+    }
+
+    /**
+     * Promises a ballot if it is higher than every ballot promised so far.
+     *
+     * @param ballot the PREPARE's ballot
+     * @return the log sequence number to {@link #awaitDurable(long) await} before replying, or
+     * {@link #REJECTED}
+     */
+    long promise(long ballot) {
+        long p;
+        do {
+            p = promised.get();
+            if (ballot <= p) return REJECTED;
+        } while (!promised.compareAndSet(p, ballot));
+        return wal == null ? 0 : wal.appendPromise(ballot);
+    }
+
+    /**
+     * Accepts a value for a slot unless a higher ballot has been promised. Accepting also
+     * promises the ballot.
+     *
+     * @param slot    the slot
+     * @param ballot  the ACCEPT_REQUEST's ballot
+     * @param value   the value
+     * @param decided whether the slot is already known decided (only the promise is recorded)
+     * @return the log sequence number to {@link #awaitDurable(long) await} before acknowledging, or
+     * {@link #REJECTED}
+     */
+    long accept(long slot, long ballot, String value, boolean decided) {
+        long p;
+        do {
+            p = promised.get();
+            if (ballot < p) return REJECTED;
+        } while (p != ballot && !promised.compareAndSet(p, ballot));
+        if (decided) return wal == null ? 0 : wal.appendPromise(ballot);
+
+        Message.Entry entry = new Message.Entry(slot, ballot, value);
+        AtomicReference<Message.Entry> ref = accepted.computeIfAbsent(slot, k -> new AtomicReference<>());
+        Message.Entry cur;
+        do {
+            cur = ref.get();
+            if (cur != null && cur.getBallot() > ballot) return REJECTED;
+        } while (!ref.compareAndSet(cur, entry));
+
+        long seq = wal == null ? 0 : wal.appendAccept(slot, ballot, value);
+        // A higher PREPARE that slipped in after the check above may have missed the entry.
+        if (promised.get() > ballot) return REJECTED;
+        return seq;
+    }
+
+    /**
+     * Grants the member of {@code ballot} a read lease from now, unless a higher ballot holds the
+     * lease or has been promised (then the grant must not be acknowledged).
+     *
+     * @param ballot the leader's ballot
+     * @return {@code true} if the grant stands
+     */
+    boolean grantLease(long ballot) {
+        Lease granted = new Lease(ballot, clock.nanoTime() + LEASE_MS * 1_000_000L);
+        Lease cur;
+        do {
+            cur = lease.get();
+            if (cur.holder > ballot) return false;
+        } while (!lease.compareAndSet(cur, granted));
+        return promised.get() <= ballot;
+    }
+
+    /**
+     * Returns how long a PROMISE for {@code ballot} must be held back: until the lease of another
+     * member runs out. Call after {@link #promise(long)} succeeded and before granting the new
+     * ballot its own lease.
+     *
+     * @param ballot the promised ballot
+     * @return milliseconds to wait, 0 to reply at once
+     */
+    long leaseWaitMs(long ballot) {
+        Lease l = lease.get();
+        if (l.holder == Ballot.NONE || Ballot.nodeId(l.holder) == Ballot.nodeId(ballot)) return 0;
+        long left = l.expiresNanos - clock.nanoTime();
+        return left <= 0 ? 0 : (left + 999_999) / 1_000_000;
+    }
+
+    /**
+     * Returns the accepted entries of every slot from {@code from} onwards, for a PROMISE.
+     *
+     * @param from lowest slot of interest
+     * @return the entries, unordered
+     */
+    List<Message.Entry> acceptedFrom(long from) {
+        List<Message.Entry> out = new ArrayList<>();
+        for (AtomicReference<Message.Entry> ref : accepted.values()) {
+            Message.Entry e = ref.get();
+            if (e != null && e.getSlot() >= from) out.add(e);
+        }
+        return out;
+    }
+
+    /**
+     * Blocks until a promise or acceptance is durable (no-op without a write-ahead log).
+     *
+     * @param seq sequence number returned by {@link #promise} or {@link #accept}
+     */
+    void awaitDurable(long seq) {
+        if (wal != null) wal.awaitDurable(seq);
+    }
+
+    /**
+     * Drops the state of a decided slot.
+     *
+     * @param slot the decided slot
+     */
+    void forget(long slot) {
+        accepted.remove(slot);
+        if (wal != null) wal.forget(slot);
+    }
+
+    /**
+     * Drops the state of every slot below {@code slot} (all decided, or no longer retained).
+     *
+     * @param slot first slot to keep
+     */
+    void forgetBelow(long slot) {
+        if (accepted.isEmpty()) return;
+        for (Long s : accepted.keySet()) {
+            if (s < slot) forget(s);
+        }
+    }
+
+    /**
+     * @return number of slots with accepted state (undecided slots)
+     */
+    int size() {
+        return accepted.size();
+    }
+
+    /**
+     * A granted read lease: the holder's ballot and when it runs out ({@link TimerService#nanoTime()}).
+     */
+    private static final class Lease {
+        final long holder;
+        final long expiresNanos;
+
+        Lease(long holder, long expiresNanos) {
+            this.holder = holder;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+}
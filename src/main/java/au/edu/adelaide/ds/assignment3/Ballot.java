@@ -0,0 +1,134 @@
+package au.edu.adelaide.ds.assignment3;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Proposal numbers ("ballots") packed into a single {@code long}.
+ * <p>
+ * The round occupies the upper 48 bits and the proposer's numeric member ID the lower 16, so
+ * ordering ballots is a plain {@code long} comparison: higher round wins, ties are broken by
+ * member ID — the same order as the original {@code round.memberId} strings. {@link #NONE}
+ * (zero) sorts below every real ballot, since rounds start at 1.
+ * </p>
+ * <p>
+ * The dotted string form is only produced for logs and parsed at the JSON edge.
+ * </p>
+ */
+public final class Ballot {
+
+    //No ballot (nothing promised / accepted yet).
+    public static final long NONE = 0L;
+
+    //Marks an entry already known to be decided; outranks every real ballot.
+    public static final long DECIDED = Long.MAX_VALUE;
+
+    private static final int NODE_BITS = 16;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+
+    private Ballot() {
+    }
+
+    /**
+     * Packs a round and member number into a ballot.
+     *
+     * @param round  proposer-local round, starting at 1
+     * @param nodeId numeric member ID ("M4" → 4), 0–65535
+     * @return the packed ballot
+     */
+    public static long of(long round, int nodeId) {
+        return (round << NODE_BITS) | (nodeId & NODE_MASK);
+    }
+
+    /**
+     * @param ballot a packed ballot
+     * @return its round component
+     */
+    public static long round(long ballot) {
+        return ballot >>> NODE_BITS;
+    }
+
+    /**
+     * @param ballot a packed ballot
+     * @return its member-number component
+     */
+    public static int nodeId(long ballot) {
+        return (int) (ballot & NODE_MASK);
+    }
+
+    /**
+     * Formats a ballot as {@code round.memberId} (e.g. {@code 2.4}), or {@code null} for {@link #NONE}.
+     *
+     * @param ballot a packed ballot
+     * @return the dotted form
+     */
+    public static String toString(long ballot) {
+        if (ballot == NONE) return null;
+        if (ballot == DECIDED) return "decided";
+        return round(ballot) + "." + nodeId(ballot);
+    }
+
+    /**
+     * Parses the dotted {@code round.memberId} form. A bare number is read as a round with member 0.
+     *
+     * @param s the dotted form, or {@code null}
+     * @return the packed ballot, or {@link #NONE} for {@code null}/blank input
+     * @throws IllegalArgumentException if {@code s} is not a valid proposal number
+     */
+    public static long parse(String s) {
+        if (s == null || s.isBlank()) return NONE;
+        if (s.equals("decided")) return DECIDED;
+        try {
+            int dot = s.indexOf('.');
+            if (dot < 0) return of(Long.parseLong(s.trim()), 0);
+            return of(Long.parseLong(s.substring(0, dot).trim()), Integer.parseInt(s.substring(dot + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid proposal number: " + s, e);
+        }
+    }
+
+    /**
+     * Extracts the numeric part of a member ID ("M4" → 4) without regular expressions.
+     *
+     * @param memberId a member ID such as {@code M4}
+     * @return the numeric component, or 0 if there are no digits
+     */
+    public static int numericId(String memberId) {
+        int n = 0;
+        for (int i = 0; i < memberId.length(); i++) {
+            char c = memberId.charAt(i);
+            if (c >= '0' && c <= '9') n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * Gson adapter that keeps the JSON wire format ({@code "proposalNumber":"2.4"}) while
+     * {@link Message} stores packed ballots.
+     */
+    public static final class JsonAdapter extends TypeAdapter<Long> {
+        @Override
+        public void write(JsonWriter out, Long ballot) throws IOException {
+            if (ballot == null || ballot == NONE) {
+                out.nullValue();
+            } else {
+                out.value(Ballot.toString(ballot));
+            }
+        }
+
+        @Override
+        public Long read(JsonReader in) throws IOException {
+            JsonToken token = in.peek();
+            if (token == JsonToken.NULL) {
+                in.nextNull();
+                return NONE;
+            }
+            // nextString() also accepts bare numbers such as {"proposalNumber":1}
+            return parse(in.nextString());
+        }
+    }
+}
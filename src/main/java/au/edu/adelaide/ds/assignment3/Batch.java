@@ -0,0 +1,82 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packs several client values into the single value of one log slot.
+ * <p>
+ * A batch of one is the value itself, so unbatched slots look exactly as before. Larger batches
+ * are a marker followed by {@code <length>:<value>} for each value, in submission order; like
+ * {@link PaxosHandler#NO_OP}, the marker starts with a NUL character no client value is expected
+ * to contain.
+ * </p>
+ */
+public final class Batch {
+
+    private static final String MARKER = "\u0000BATCH:";
+
+    private Batch() {
+    }
+
+    /**
+     * Encodes values as one slot value.
+     *
+     * @param values one or more values, in order
+     * @return the slot value
+     */
+    public static String encode(List<String> values) {
+        if (values.size() == 1) return values.get(0);
+        int size = MARKER.length();
+        for (String v : values) size += v.length() + 8;
+        StringBuilder sb = new StringBuilder(size).append(MARKER);
+        for (String v : values) {
+            sb.append(v.length()).append(':').append(v);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits a slot value back into the values it carries.
+     *
+     * @param slotValue a decided or proposed slot value
+     * @return the values in order (a single element for an unbatched value)
+     * @throws IllegalArgumentException if the value has the batch marker but is malformed
+     */
+    public static List<String> decode(String slotValue) {
+        if (!isBatch(slotValue)) return Collections.singletonList(slotValue);
+        List<String> values = new ArrayList<>();
+        int pos = MARKER.length();
+        try {
+            while (pos < slotValue.length()) {
+                int colon = slotValue.indexOf(':', pos);
+                int len = Integer.parseInt(slotValue.substring(pos, colon));
+                values.add(slotValue.substring(colon + 1, colon + 1 + len));
+                pos = colon + 1 + len;
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed batch at offset " + pos, e);
+        }
+        return values;
+    }
+
+    /**
+     * @param slotValue a slot value
+     * @return {@code true} if it carries more than one value
+     */
+    public static boolean isBatch(String slotValue) {
+        return slotValue != null && slotValue.startsWith(MARKER);
+    }
+
+    /**
+     * Returns the last value in a slot value, i.e. the one that wins when the slot is applied.
+     *
+     * @param slotValue a slot value
+     * @return its last value
+     */
+    public static String last(String slotValue) {
+        List<String> values = decode(slotValue);
+        return values.get(values.size() - 1);
+    }
+}
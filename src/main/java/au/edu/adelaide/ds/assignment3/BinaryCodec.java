@@ -0,0 +1,278 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a {@link Message}.
+ * <p>
+ * Layout of one payload:
+ * <pre>
+ *   type      1 byte   (MessageType ordinal)
+ *   flags     1 byte   (which optional fields follow)
+ *   proposal  varint packed ballot             if FLAG_PROPOSAL
+ *   sender    varint (member index + 1)        if FLAG_SENDER; 0 means a literal string follows
+ *   value     varint length, raw UTF-8 bytes   if FLAG_VALUE
+ *   slot      varint                           if FLAG_SLOT
+ *   entries   varint count, then per entry:    if FLAG_ENTRIES
+ *               varint slot, varint ballot, varint (length + 1) and UTF-8 bytes (0 = null value)
+ *   trace     8-byte trace ID, 8-byte span ID,     if FLAG_TRACE
+ *             varint send time (µs since the epoch)
+ * </pre>
+ * Member IDs known to the {@link NetworkConfig} are sent as their index and decoded back to the
+ * configuration's canonical string, so no per-message ID string is allocated.
+ * </p>
+ */
+public class BinaryCodec implements MessageCodec {
+
+    public static final byte ID = 2;
+
+    private static final int FLAG_PROPOSAL = 1;
+    private static final int FLAG_SENDER = 1 << 1;
+    private static final int FLAG_VALUE = 1 << 2;
+    private static final int FLAG_SLOT = 1 << 3;
+    private static final int FLAG_ENTRIES = 1 << 4;
+    private static final int FLAG_TRACE = 1 << 5;
+
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    //Per-thread scratch buffer so encoding only allocates the final, exact-size array.
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final NetworkConfig config;
+
+    /**
+     * Creates a binary codec that interns member IDs against the given configuration.
+     *
+     * @param config the shared network configuration (must match on both ends)
+     */
+    public BinaryCodec(NetworkConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean lineDelimited() {
+        return false;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        byte[] senderBytes = null;
+        byte[] valueBytes = msg.getValue() == null ? null : msg.getValue().getBytes(StandardCharsets.UTF_8);
+        int senderIndex = msg.getSenderId() == null ? -1 : config.indexOf(msg.getSenderId());
+        if (msg.getSenderId() != null && senderIndex < 0) {
+            senderBytes = msg.getSenderId().getBytes(StandardCharsets.UTF_8);
+        }
+
+        List<Message.Entry> entries = msg.getEntries();
+        byte[][] entryValues = null;
+        int worst = 2 + 10 + 5 + (senderBytes == null ? 0 : senderBytes.length + 5)
+                + (valueBytes == null ? 0 : valueBytes.length + 5) + 10;
+        if (entries != null && !entries.isEmpty()) {
+            entryValues = new byte[entries.size()][];
+            worst += 5;
+            for (int i = 0; i < entryValues.length; i++) {
+                String v = entries.get(i).getValue();
+                entryValues[i] = v == null ? null : v.getBytes(StandardCharsets.UTF_8);
+                worst += 25 + (entryValues[i] == null ? 0 : entryValues[i].length);
+            }
+        }
+        Message.Trace trace = msg.getTrace();
+        if (trace != null) worst += 8 + 8 + 10;
+        byte[] buf = SCRATCH.get();
+        if (buf.length < worst) {
+            buf = new byte[Math.max(worst, buf.length * 2)];
+            SCRATCH.set(buf);
+        }
+
+        int flags = 0;
+        if (msg.getProposalNumber() != Ballot.NONE) flags |= FLAG_PROPOSAL;
+        if (msg.getSenderId() != null) flags |= FLAG_SENDER;
+        if (valueBytes != null) flags |= FLAG_VALUE;
+        if (msg.getSlot() != 0) flags |= FLAG_SLOT;
+        if (entryValues != null) flags |= FLAG_ENTRIES;
+        if (trace != null) flags |= FLAG_TRACE;
+
+        int pos = 0;
+        buf[pos++] = (byte) msg.getType().ordinal();
+        buf[pos++] = (byte) flags;
+        if ((flags & FLAG_PROPOSAL) != 0) {
+            pos = writeVarint(buf, pos, msg.getProposalNumber());
+        }
+        if ((flags & FLAG_SENDER) != 0) {
+            if (senderBytes == null) {
+                pos = writeVarint(buf, pos, senderIndex + 1);
+            } else {
+                pos = writeVarint(buf, pos, 0);
+                pos = writeVarint(buf, pos, senderBytes.length);
+                System.arraycopy(senderBytes, 0, buf, pos, senderBytes.length);
+                pos += senderBytes.length;
+            }
+        }
+        if (valueBytes != null) {
+            pos = writeVarint(buf, pos, valueBytes.length);
+            System.arraycopy(valueBytes, 0, buf, pos, valueBytes.length);
+            pos += valueBytes.length;
+        }
+        if ((flags & FLAG_SLOT) != 0) {
+            pos = writeVarint(buf, pos, msg.getSlot());
+        }
+        if (entryValues != null) {
+            pos = writeVarint(buf, pos, entryValues.length);
+            for (int i = 0; i < entryValues.length; i++) {
+                Message.Entry e = entries.get(i);
+                pos = writeVarint(buf, pos, e.getSlot());
+                pos = writeVarint(buf, pos, e.getBallot());
+                if (entryValues[i] == null) {
+                    pos = writeVarint(buf, pos, 0);
+                } else {
+                    pos = writeVarint(buf, pos, entryValues[i].length + 1L);
+                    System.arraycopy(entryValues[i], 0, buf, pos, entryValues[i].length);
+                    pos += entryValues[i].length;
+                }
+            }
+        }
+        if (trace != null) {
+            pos = writeLong(buf, pos, trace.getTraceId());
+            pos = writeLong(buf, pos, trace.getSpanId());
+            pos = writeVarint(buf, pos, trace.getSentAtMicros());
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    @Override
+    public Message decode(byte[] buf, int off, int len) {
+        Reader r = new Reader(buf, off, off + len);
+        Message msg = new Message();
+        int type = r.readByte();
+        if (type < 0 || type >= TYPES.length) {
+            throw new IllegalArgumentException("unknown message type ordinal " + type);
+        }
+        msg.setType(TYPES[type]);
+        int flags = r.readByte();
+        if ((flags & FLAG_PROPOSAL) != 0) {
+            msg.setProposalNumber(r.readVarint());
+        }
+        if ((flags & FLAG_SENDER) != 0) {
+            long idx = r.readVarint();
+            if (idx < 0 || idx > config.getAllMembers().size()) {
+                throw new IllegalArgumentException("unknown member index " + idx); // another network.config?
+            }
+            msg.setSenderId(idx == 0 ? r.readString() : config.memberAt((int) idx - 1));
+        }
+        if ((flags & FLAG_VALUE) != 0) {
+            msg.setValue(r.readString());
+        }
+        if ((flags & FLAG_SLOT) != 0) {
+            msg.setSlot(r.readVarint());
+        }
+        if ((flags & FLAG_ENTRIES) != 0) {
+            int count = (int) r.readVarint();
+            if (count < 0 || count > len) throw new IllegalArgumentException("bad entry count " + count);
+            List<Message.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long slot = r.readVarint();
+                long ballot = r.readVarint();
+                int vlen = (int) r.readVarint();
+                entries.add(new Message.Entry(slot, ballot, vlen == 0 ? null : r.readBytesAsString(vlen - 1)));
+            }
+            msg.setEntries(entries);
+        }
+        if ((flags & FLAG_TRACE) != 0) {
+            msg.setTrace(new Message.Trace(r.readLong(), r.readLong(), r.readVarint()));
+        }
+        return msg;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param buf   destination (must have room for up to 10 bytes)
+     * @param pos   write position
+     * @param value non-negative value to write
+     * @return the position after the varint
+     */
+    static int writeVarint(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Writes a long as 8 big-endian bytes (trace and span IDs are random, so a varint would not
+     * be shorter).
+     *
+     * @param buf   destination (must have room for 8 bytes)
+     * @param pos   write position
+     * @param value value to write
+     * @return the position after the value
+     */
+    static int writeLong(byte[] buf, int pos, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+        return pos;
+    }
+
+    /**
+     * Bounds-checked sequential reader over one payload.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int readByte() {
+            if (pos >= end) throw new IllegalArgumentException("truncated message");
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+
+        long readLong() {
+            long result = 0;
+            for (int i = 0; i < 8; i++) result = (result << 8) | readByte();
+            return result;
+        }
+
+        String readString() {
+            return readBytesAsString((int) readVarint());
+        }
+
+        String readBytesAsString(int len) {
+            if (len < 0 || len > end - pos) throw new IllegalArgumentException("truncated string");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
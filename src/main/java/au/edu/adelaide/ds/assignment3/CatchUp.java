@@ -0,0 +1,357 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Fetches decisions this member missed from other members.
+ * <p>
+ * A member normally learns a slot by counting ACCEPTED votes, so one lost ACCEPTED (a dropped
+ * datagram, a reconnect, a send queue dropping its oldest message) would leave a hole below which
+ * nothing more is applied. Three signs show a member is behind: a leader's HEARTBEAT reports a
+ * higher first undecided slot, a PROMISE starts above it (its sender no longer retains the
+ * decided slots below), or a slot above the first undecided one is decided while the gap stays
+ * open. Each arms a short delay, so ACCEPTEDs still in flight can arrive; if the member
+ * is still behind then, it sends a CATCH_UP for the slots from its first undecided one to the
+ * leader, or to the next member in the configuration when that goes unanswered. The DECIDE reply
+ * carries up to {@link #MAX_ENTRIES} decided entries, which are fed to the {@link Learner} like
+ * decisions reached here; a reply that leaves the member behind its sender is followed up at once.
+ * A member asked for a slot it has not decided yet itself (the leader, while the slot a follower's
+ * read waits for is still being accepted) holds the request and answers once it decides it.
+ * </p>
+ * <p>
+ * A member asked for slots it no longer retains answers with a snapshot of its applied state
+ * instead, which the asking member installs before catching up on the slots after it. The
+ * snapshot travels in chunks of {@link #SNAPSHOT_CHUNK} bytes, one per DECIDE: the asking member
+ * asks for each next chunk by the snapshot's last slot and offset, and starts over when the
+ * sender has moved on to a newer snapshot (chunk 0 arrives instead).
+ * </p>
+ * <p>
+ * Wire use: a CATCH_UP's {@code slot} is the first slot wanted, and its {@code value}, if set,
+ * is {@code <lastSlot>:<offset>} of a snapshot being fetched. A DECIDE carries decided
+ * {@code entries} and the sender's first undecided {@code slot}, or a snapshot chunk: {@code slot}
+ * is the first slot after the snapshot and {@code value} is {@code <offset>,<length>:<Base64 bytes>}.
+ * </p>
+ * <p>
+ * Guarded by its own monitor, which is never held while calling into the learner or sending.
+ * </p>
+ */
+final class CatchUp {
+
+    //How long a member may stay behind before asking: covers ACCEPTEDs still in flight.
+    static final long DELAY_MS = 500;
+
+    //How long to wait for a DECIDE before asking another member.
+    private static final long REPLY_TIMEOUT_MS = 1000;
+
+    //Caps on one DECIDE, well below WireProtocol.MAX_FRAME_BYTES.
+    static final int MAX_ENTRIES = 1024;
+    private static final int MAX_CHARS = 256 * 1024;
+
+    //Snapshot bytes per DECIDE: Base64 makes MAX_CHARS of them.
+    static final int SNAPSHOT_CHUNK = MAX_CHARS / 4 * 3;
+
+    private final String memberId;
+    private final NodeLogger logger;
+    private final NetworkConfig config;
+    private final Learner learner;
+    private final Proposer proposer;
+    private final TimerService timers;
+    private final BiConsumer<String, Message> sendTo;
+    private final Consumer<Learner.Decision> decided;
+    private final LongConsumer installed;
+
+    //Slot the member should have reached (exclusive), the pending check, and the last member asked
+    private long target;
+    private TimerService.Timeout check;
+    private String askedLast;
+    private long askedFrom = -1;
+
+    //Requests for a slot not decided here yet: the slot each asking member needs first
+    private final Map<String, Long> parked = new HashMap<>();
+
+    //Snapshot last sent, reused while the slots after it are retained, so one transfer's chunks match
+    private Learner.Snapshot serving;
+
+    //Snapshot being received: the slot it runs through, its bytes, and how many have arrived
+    private long fetchingSlot = -1;
+    private byte[] fetching;
+    private int fetched;
+
+    /**
+     * @param memberId  this member's ID
+     * @param logger    member logger
+     * @param config    network configuration (members to ask)
+     * @param learner   this member's learner
+     * @param proposer  source of the known leader
+     * @param timers    shared timer service
+     * @param sendTo    sends a message to one other member
+     * @param decided   settles a decision learned from a DECIDE, as for one reached by ACCEPTEDs
+     * @param installed told the last slot of a snapshot installed from a DECIDE
+     */
+    CatchUp(String memberId, NodeLogger logger, NetworkConfig config, Learner learner, Proposer proposer,
+            TimerService timers, BiConsumer<String, Message> sendTo, Consumer<Learner.Decision> decided,
+            LongConsumer installed) {
+        this.memberId = memberId;
+        this.logger = logger;
+        this.config = config;
+        this.learner = learner;
+        this.proposer = proposer;
+        this.timers = timers;
+        this.sendTo = sendTo;
+        this.decided = decided;
+        this.installed = installed;
+    }
+
+    /**
+     * Notes that every slot below {@code slot} is decided somewhere; if this member has not
+     * learned them within {@link #DELAY_MS}, it asks for them.
+     *
+     * @param slot a first undecided slot reported by another member, or a decided slot + 1
+     */
+    void behind(long slot) {
+        if (slot <= learner.firstUndecided()) return;
+        synchronized (this) {
+            target = Math.max(target, slot);
+            if (check == null) check = timers.schedule(DELAY_MS, this::ask);
+        }
+    }
+
+    /**
+     * Checks for a gap after a decision: a slot above the first undecided one is decided.
+     */
+    void afterDecision() {
+        long highest = learner.highestDecided();
+        if (highest >= learner.firstUndecided()) behind(highest + 1);
+        answerParked();
+    }
+
+    /**
+     * Sends a CATCH_UP if this member is still behind, and re-checks after the reply timeout.
+     * Repeated requests for the same slot go to the next member each time.
+     */
+    private void ask() {
+        long from = learner.firstUndecided();
+        String to;
+        synchronized (this) {
+            check = null;
+            if (from >= target) return;
+            to = pickSource(from);
+            askedLast = to;
+            askedFrom = from;
+            check = timers.schedule(REPLY_TIMEOUT_MS, this::ask);
+        }
+        if (to == null) return;
+        logger.log("[LEARNER] Behind at slot=%d (decided up to %d elsewhere); asking %s", from, target, to);
+        sendTo.accept(to, request(from));
+    }
+
+    /**
+     * Picks whom to ask: the trusted leader first, then, while the same slot stays missing,
+     * the members after the one asked last in configuration order.
+     */
+    private String pickSource(long from) {
+        String leader = proposer.currentLeader();
+        if (from != askedFrom && leader != null && !leader.equals(memberId)) return leader;
+        List<String> members = new ArrayList<>(config.getAllMembers());
+        int start = askedLast == null ? config.indexOf(memberId) : config.indexOf(askedLast);
+        for (int i = 1; i <= members.size(); i++) {
+            String m = members.get(Math.floorMod(start + i, members.size()));
+            if (!m.equals(memberId)) return m;
+        }
+        return null;
+    }
+
+    private Message request(long from) {
+        Message m = new Message();
+        m.setType(Message.MessageType.CATCH_UP);
+        m.setSenderId(memberId);
+        m.setSlot(from);
+        synchronized (this) {
+            if (fetching != null && fetchingSlot < from) fetching = null; // no longer needed
+            if (fetching != null) m.setValue(fetchingSlot + ":" + fetched);
+        }
+        return m;
+    }
+
+    /**
+     * Answers a CATCH_UP with the decided entries this member has from the requested slot on, or
+     * with a snapshot if it no longer retains the requested slot.
+     *
+     * @param msg the CATCH_UP
+     */
+    void onCatchUp(Message msg) {
+        Learner.Snapshot cached;
+        synchronized (this) {
+            cached = serving;
+        }
+        Learner.Snapshot snap = learner.snapshotBelow(msg.getSlot(), cached);
+        if (snap != null) {
+            synchronized (this) {
+                serving = snap;
+            }
+            sendSnapshot(msg.getSenderId(), snap, resumeAt(msg.getValue(), snap));
+            return;
+        }
+        String to = msg.getSenderId();
+        long from = msg.getSlot();
+        if (!learner.isDecided(from)) {
+            synchronized (this) {
+                parked.put(to, from);
+            }
+            // A decision between the check and parking the request would not have answered it.
+            if (!learner.isDecided(from) || !unpark(to, from)) return;
+        }
+        reply(to, from);
+    }
+
+    private void reply(String to, long from) {
+        List<Message.Entry> entries = learner.decidedFrom(from, MAX_ENTRIES, MAX_CHARS);
+        Message reply = new Message();
+        reply.setType(Message.MessageType.DECIDE);
+        reply.setSenderId(memberId);
+        reply.setSlot(learner.firstUndecided());
+        reply.setEntries(entries.isEmpty() ? null : entries);
+        sendTo.accept(to, reply);
+        logger.debug("[LEARNER][DECIDE] to=%s slot>=%d entries=%d", to, from, entries.size());
+    }
+
+    private synchronized boolean unpark(String member, long from) {
+        return parked.remove(member, from);
+    }
+
+    /**
+     * Answers the held requests whose first slot is now decided here.
+     */
+    private void answerParked() {
+        Map<String, Long> waiting;
+        synchronized (this) {
+            if (parked.isEmpty()) return;
+            waiting = new HashMap<>(parked);
+        }
+        for (Map.Entry<String, Long> e : waiting.entrySet()) {
+            if (learner.isDecided(e.getValue()) && unpark(e.getKey(), e.getValue())) reply(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Returns the offset a CATCH_UP asks to continue {@code snap} from, or 0 if it fetches another
+     * snapshot (or none).
+     */
+    private static int resumeAt(String value, Learner.Snapshot snap) {
+        if (value == null) return 0;
+        int colon = value.indexOf(':');
+        try {
+            long lastSlot = Long.parseLong(value.substring(0, Math.max(0, colon)));
+            int offset = Integer.parseInt(value.substring(colon + 1));
+            return lastSlot == snap.lastSlot && offset >= 0 && offset < snap.state.length ? offset : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Sends the chunk of a snapshot starting at {@code offset} as a DECIDE.
+     */
+    private void sendSnapshot(String to, Learner.Snapshot snap, int offset) {
+        int len = Math.min(SNAPSHOT_CHUNK, snap.state.length - offset);
+        Message reply = new Message();
+        reply.setType(Message.MessageType.DECIDE);
+        reply.setSenderId(memberId);
+        reply.setSlot(snap.lastSlot + 1);
+        reply.setValue(offset + "," + snap.state.length + ":"
+                + Base64.getEncoder().encodeToString(Arrays.copyOfRange(snap.state, offset, offset + len)));
+        sendTo.accept(to, reply);
+        if (offset == 0) {
+            logger.log("[LEARNER] Sending snapshot through slot=%d to %s (%d bytes)", snap.lastSlot, to, snap.state.length);
+        } else {
+            logger.debug("[LEARNER] Snapshot through slot=%d to %s: bytes %d-%d", snap.lastSlot, to, offset, offset + len);
+        }
+    }
+
+    /**
+     * Installs the snapshot or learns the entries of a DECIDE and settles each new decision; asks
+     * the same member again straight away if it is still ahead.
+     *
+     * @param msg the DECIDE
+     */
+    void onDecide(Message msg) {
+        boolean snapshot = msg.getValue() != null && receiveSnapshot(msg);
+        List<Message.Entry> entries = msg.getEntries();
+        int learned = 0;
+        if (entries != null) {
+            for (Learner.Decision d : learner.learn(entries)) {
+                decided.accept(d);
+                learned++;
+            }
+        }
+        long now = learner.firstUndecided();
+        if (learned > 0) answerParked();
+        if (learned > 0) {
+            logger.log("[LEARNER] Caught up %d slot(s) from %s; first undecided slot=%d", learned, msg.getSenderId(), now);
+        }
+        behind(msg.getSlot());
+        if ((learned > 0 || snapshot) && now < msg.getSlot()) {
+            synchronized (this) {
+                if (check != null) check.cancel();
+                askedLast = msg.getSenderId();
+                askedFrom = now;
+                check = timers.schedule(REPLY_TIMEOUT_MS, this::ask);
+            }
+            sendTo.accept(msg.getSenderId(), request(now));
+        }
+    }
+
+    /**
+     * Adds a snapshot chunk to the snapshot being fetched, and installs the snapshot once complete.
+     * A chunk 0 starts over; any other chunk that does not continue the snapshot is ignored.
+     *
+     * @return {@code true} if the chunk was taken, so the next one (or the slots after the
+     *         snapshot) can be asked for
+     */
+    private boolean receiveSnapshot(Message msg) {
+        long lastSlot = msg.getSlot() - 1;
+        if (lastSlot < learner.firstUndecided()) return false;
+        String value = msg.getValue();
+        byte[] state;
+        try {
+            int comma = value.indexOf(',');
+            int colon = value.indexOf(':');
+            if (comma < 0 || colon < comma) throw new IllegalArgumentException("no chunk header");
+            int offset = Integer.parseInt(value.substring(0, comma));
+            int total = Integer.parseInt(value.substring(comma + 1, colon));
+            byte[] chunk = Base64.getDecoder().decode(value.substring(colon + 1));
+            if (offset < 0 || offset > total - chunk.length) {
+                throw new IllegalArgumentException("chunk at " + offset + " exceeds " + total + " bytes");
+            }
+            synchronized (this) {
+                if (offset == 0) {
+                    fetchingSlot = lastSlot;
+                    fetching = new byte[total];
+                    fetched = 0;
+                } else if (fetching == null || fetchingSlot != lastSlot || fetching.length != total || fetched != offset) {
+                    return false;
+                }
+                System.arraycopy(chunk, 0, fetching, offset, chunk.length);
+                fetched += chunk.length;
+                if (fetched < total) return true;
+                state = fetching;
+                fetching = null;
+            }
+            if (!learner.install(lastSlot, state)) return false;
+        } catch (IllegalArgumentException e) {
+            logger.warn("[LEARNER] Bad snapshot from %s: %s", msg.getSenderId(), e.getMessage());
+            return false;
+        }
+        installed.accept(lastSlot);
+        logger.log("[LEARNER] Installed snapshot through slot=%d from %s", lastSlot, msg.getSenderId());
+        return true;
+    }
+}
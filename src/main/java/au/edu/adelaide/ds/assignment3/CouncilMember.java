@@ -1,8 +1,12 @@
 package au.edu.adelaide.ds.assignment3;
 
+import javax.management.JMException;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * The {@code CouncilMember} class represents one node in the distributed Paxos consensus system.
@@ -19,14 +23,14 @@ public class CouncilMember {
 
     /**
      * Logs a formatted message with the current member ID and milliseconds since startup.
+     * The line is written by the background log writer, in order with the protocol's own lines,
+     * whatever the log level.
      *
      * @param fmt  the message format string, as accepted by {@link String#format(String, Object...)}
      * @param args the arguments to substitute into the format string
      */
     public static void log(String fmt, Object... args) {
-        long t = System.currentTimeMillis() - T0;
-        String prefix = String.format("[%s][%dms] ", memberId, t);
-        System.out.printf(prefix + fmt + "%n", args);
+        NodeLogger.print(memberId, System.currentTimeMillis() - T0, fmt, args);
     }
 
     //Unique identifier of this CouncilMember
@@ -55,6 +59,20 @@ public class CouncilMember {
      *                 <li>{@code --profile=<reliable|standard|latent|failure>}</li>
      *                 <li>(optional) {@code --propose=<VALUE>} — initial value to propose</li>
      *                 <li>(optional) {@code --trigger-after=<ms>} — delay before automatic proposal</li>
+     *                 <li>(optional) {@code --transport=<blocking|nio|udp>} — transport (default blocking); udp sends peer traffic as datagrams and keeps a blocking TCP listener for clients</li>
+     *                 <li>(optional) {@code --udp-datagram-bytes=<n>} — target size of coalesced UDP datagrams</li>
+     *                 <li>(optional) {@code --io-threads=<n>}, {@code --workers=<n>} — NIO transport sizing</li>
+     *                 <li>(optional) {@code --codec=<binary|json>} — codec offered to peers (default binary)</li>
+     *                 <li>(optional) {@code --data-dir=<dir>} — keep acceptor state in a write-ahead log and decided entries in segment files under {@code <dir>/<MemberID>}</li>
+     *                 <li>(optional) {@code --snapshot-every=<slots>} — decided slots between snapshots of the applied state</li>
+     *                 <li>(optional) {@code --batch-size=<n>}, {@code --batch-linger-ms=<ms>}, {@code --window=<slots>} — proposer batching and pipelining</li>
+     *                 <li>(optional) {@code --heartbeat-ms=<ms>}, {@code --phi-threshold=<phi>} — leader heartbeat interval and failure detector threshold, which set how soon a failed leader is replaced</li>
+     *                 <li>(optional) {@code --exec=<platform|pooled|virtual>} — threads for inbound connections (default platform; virtual needs Java 21)</li>
+     *                 <li>(optional) {@code --max-connections=<n>} — most inbound connections served at once (blocking transport)</li>
+     *                 <li>(optional) {@code --state-machine=<president|kv>} — what decided values are applied to (default president; kv is a replicated {@link KeyValueStore})</li>
+     *                 <li>(optional) {@code --log-level=<debug|info|warn|off>} — least severe protocol log lines written (default debug, every message; info keeps leadership changes, elections and timeouts)</li>
+     *                 <li>(optional) {@code --trace=<file>}, {@code --trace-sample=<rate>} — record spans of traced consensus instances (all of them by default) into a Chrome trace file; merge members' files with {@link TraceMerge}</li>
+     *                 <li>(optional) {@code --metrics-port=<port>} — serve the node's {@link Metrics} at {@code http://127.0.0.1:<port>/metrics}</li>
      *             </ul>
      */
     public static void main(String[] args) {
@@ -70,6 +88,25 @@ public class CouncilMember {
 
         String proposeArg = null;           //--propose=LEADER_M5
         Long triggerAfterMs = null;         //--trigger-after=3000
+        String transport = "blocking";      //--transport=nio
+        int ioThreads = 2;                  //--io-threads=2 (nio only)
+        int workerThreads = 4;              //--workers=4 (nio only)
+        String codecName = "binary";        //--codec=json
+        String dataDir = null;              //--data-dir=data (durable acceptor state)
+        long snapshotEvery = DecidedLog.DEFAULT_SNAPSHOT_INTERVAL; //--snapshot-every=65536 (with --data-dir)
+        int batchSize = PaxosHandler.DEFAULT_BATCH_SIZE;           //--batch-size=64
+        long lingerMs = PaxosHandler.DEFAULT_LINGER_MS;            //--batch-linger-ms=0
+        int window = PaxosHandler.DEFAULT_WINDOW;                  //--window=32
+        long heartbeatMs = PaxosHandler.DEFAULT_HEARTBEAT_MS;      //--heartbeat-ms=1000
+        double phiThreshold = PaxosHandler.DEFAULT_PHI_THRESHOLD;  //--phi-threshold=8
+        String execMode = "platform";                              //--exec=virtual
+        int maxConnections = TaskExecutor.DEFAULT_MAX_TASKS;       //--max-connections=10000
+        int datagramBytes = UdpTransport.DEFAULT_DATAGRAM_BYTES;   //--udp-datagram-bytes=8192
+        String stateMachineName = "president";                     //--state-machine=kv
+        int metricsPort = -1;                                      //--metrics-port=9101
+        String logLevel = null;                                    //--log-level=info
+        String traceFile = null;                                   //--trace=logs/M1.trace.json
+        double traceSample = 1.0;                                  //--trace-sample=0.01
 
         for (String a : args) {
             if (a != null && a.startsWith("--propose=")) {
@@ -78,18 +115,95 @@ public class CouncilMember {
                 try {
                     triggerAfterMs = Long.parseLong(a.substring("--trigger-after=".length()).trim());
                 } catch (NumberFormatException ignore) { /* leave null */ }
+            } else if (a != null && a.startsWith("--transport=")) {
+                transport = a.substring("--transport=".length()).trim().toLowerCase();
+            } else if (a != null && a.startsWith("--io-threads=")) {
+                ioThreads = parsePositive(a.substring("--io-threads=".length()), ioThreads);
+            } else if (a != null && a.startsWith("--workers=")) {
+                workerThreads = parsePositive(a.substring("--workers=".length()), workerThreads);
+            } else if (a != null && a.startsWith("--codec=")) {
+                codecName = a.substring("--codec=".length()).trim();
+            } else if (a != null && a.startsWith("--data-dir=")) {
+                dataDir = a.substring("--data-dir=".length()).trim();
+            } else if (a != null && a.startsWith("--batch-size=")) {
+                batchSize = parsePositive(a.substring("--batch-size=".length()), batchSize);
+            } else if (a != null && a.startsWith("--batch-linger-ms=")) {
+                try {
+                    lingerMs = Math.max(0, Long.parseLong(a.substring("--batch-linger-ms=".length()).trim()));
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a != null && a.startsWith("--window=")) {
+                window = parsePositive(a.substring("--window=".length()), window);
+            } else if (a != null && a.startsWith("--heartbeat-ms=")) {
+                heartbeatMs = parsePositive(a.substring("--heartbeat-ms=".length()), (int) heartbeatMs);
+            } else if (a != null && a.startsWith("--phi-threshold=")) {
+                try {
+                    phiThreshold = Double.parseDouble(a.substring("--phi-threshold=".length()).trim());
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a != null && a.startsWith("--snapshot-every=")) {
+                snapshotEvery = parsePositive(a.substring("--snapshot-every=".length()), (int) snapshotEvery);
+            } else if (a != null && a.startsWith("--exec=")) {
+                execMode = a.substring("--exec=".length()).trim();
+            } else if (a != null && a.startsWith("--max-connections=")) {
+                maxConnections = parsePositive(a.substring("--max-connections=".length()), maxConnections);
+            } else if (a != null && a.startsWith("--udp-datagram-bytes=")) {
+                datagramBytes = parsePositive(a.substring("--udp-datagram-bytes=".length()), datagramBytes);
+            } else if (a != null && a.startsWith("--state-machine=")) {
+                stateMachineName = a.substring("--state-machine=".length()).trim().toLowerCase();
+            } else if (a != null && a.startsWith("--trace=")) {
+                traceFile = a.substring("--trace=".length()).trim();
+            } else if (a != null && a.startsWith("--trace-sample=")) {
+                try {
+                    traceSample = Double.parseDouble(a.substring("--trace-sample=".length()).trim());
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a != null && a.startsWith("--log-level=")) {
+                logLevel = a.substring("--log-level=".length()).trim();
+            } else if (a != null && a.startsWith("--metrics-port=")) {
+                metricsPort = parsePositive(a.substring("--metrics-port=".length()), metricsPort);
             }
         }
 
         profile = Profile.fromString(profileArg);
+        if (logLevel != null) {
+            try {
+                NodeLogger.setLevel(NodeLogger.Level.parse(logLevel));
+            } catch (IllegalArgumentException e) {
+                log("Unknown --log-level=%s, logging everything", logLevel);
+            }
+        }
 
         try {
             config = NetworkConfig.load();
             port = config.getPort(memberId);
             log("Starting on port %d with profile: %s", port, profileArg);
+            log("Quorums: %s", config.quorums());
 
-            ServerSocket serverSocket = new ServerSocket(port);
-            PaxosHandler paxos = new PaxosHandler(memberId, config, profile);
+            MessageCodec codec = new WireProtocol(config).byName(codecName);
+            TimerService timers = new TimerService(memberId + "-timers");
+            NodeLogger logger = new NodeLogger(memberId, timers);
+            WriteAheadLog wal = null;
+            DecidedLog decidedLog = null;
+            if (dataDir != null && !dataDir.isEmpty()) {
+                wal = new WriteAheadLog(logger, Paths.get(dataDir, memberId));
+                decidedLog = new DecidedLog(logger, Paths.get(dataDir, memberId, "decided"),
+                        DecidedLog.DEFAULT_SEGMENT_BYTES, DecidedLog.DEFAULT_SLOTS_PER_SEGMENT, snapshotEvery);
+            }
+            UdpTransport udp = transport.equals("udp") ? new UdpTransport(memberId, config, datagramBytes) : null;
+            Transport peers = udp != null ? udp : new PeerConnectionManager(memberId, config, new WireProtocol(config), codec);
+            StateMachine stateMachine;
+            if (stateMachineName.equals("kv")) {
+                stateMachine = new KeyValueStore();
+                log("Applying decided values to a key-value store");
+            } else {
+                stateMachine = new CouncilPresident();
+            }
+            PaxosHandler paxos = new PaxosHandler(memberId, config, profile, peers, wal, decidedLog, stateMachine, timers);
+            paxos.configureProposer(batchSize, lingerMs, window);
+            paxos.configureElection(heartbeatMs, phiThreshold);
+            exposeMetrics(paxos.getMetrics(), metricsPort);
+            if (traceFile != null && !traceFile.isEmpty()) {
+                paxos.startTracing(Paths.get(traceFile), traceSample);
+                log("Tracing %s of consensus instances into %s", traceSample >= 1 ? "all" : traceSample * 100 + "%", traceFile);
+            }
 
             //Schedule a proposal AFTER startup (no second process, satisfies "launch then trigger")
             if (proposeArg != null && triggerAfterMs != null && triggerAfterMs >= 0) {
@@ -103,24 +217,156 @@ public class CouncilMember {
             }
 
             //Keep your interactive stdin thread if you want, that’s fine:
-            startInteractiveProposer(paxos);
+            startInteractiveProposer(paxos, udp);
 
-            while (true) {
-                Socket socket = serverSocket.accept();
-                new Thread(() -> {
-                    try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                        String line;
-                        while ((line = in.readLine()) != null) {
-                            paxos.handleMessage(line);
+            if (transport.equals("nio")) {
+                log("Using NIO transport: %d I/O threads, %d workers", ioThreads, workerThreads);
+                NioServer server = new NioServer(port, ioThreads, workerThreads, 1024, paxos.getWireProtocol(), paxos::handleMessage);
+                server.registerMetrics(paxos.getMetrics());
+                server.serve();
+            } else if (udp != null) {
+                log("Using UDP transport on port %d (datagrams up to %d bytes)", port, datagramBytes);
+                udp.start(paxos::handleMessage, connectionExecutor("datagrams", execMode, maxConnections));
+                serveBlocking(paxos, connectionExecutor("connections", execMode, maxConnections));
+            } else {
+                serveBlocking(paxos, connectionExecutor("connections", execMode, maxConnections));
+            }
+        } catch (Exception e) {
+            System.err.println("Startup error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers the node's metrics as a JMX MBean and, if a port is given, serves them over HTTP.
+     * Neither is fatal: the node runs without them if they cannot be set up.
+     *
+     * @param metrics the node's metrics
+     * @param port    port for the HTTP endpoint, or {@code -1} for none
+     */
+    private static void exposeMetrics(Metrics metrics, int port) {
+        try {
+            metrics.registerMBean("au.edu.adelaide.ds.assignment3:type=Metrics,member=" + memberId);
+        } catch (JMException e) {
+            log("Metrics MBean not registered: %s", e.getMessage());
+        }
+        if (port < 0) return;
+        try {
+            metrics.serveHttp(port);
+            log("Serving metrics at http://127.0.0.1:%d/metrics", port);
+        } catch (IOException e) {
+            log("Metrics endpoint not started on port %d: %s", port, e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the executor for inbound connections, falling back to pooled platform threads when
+     * virtual threads are requested on a JVM without them.
+     *
+     * @param what           what the executor runs, for the log line (e.g. {@code "connections"})
+     * @param modeName       {@code platform}, {@code pooled} or {@code virtual} (unknown names mean platform)
+     * @param maxConnections most tasks running at once
+     * @return the executor
+     */
+    static TaskExecutor connectionExecutor(String what, String modeName, int maxConnections) {
+        TaskExecutor.Mode mode;
+        try {
+            mode = TaskExecutor.Mode.parse(modeName);
+        } catch (IllegalArgumentException e) {
+            log("Unknown --exec=%s, using platform threads", modeName);
+            mode = TaskExecutor.Mode.PLATFORM;
+        }
+        if (!mode.isAvailable()) {
+            log("Virtual threads need Java 21 (running %s), using pooled threads", System.getProperty("java.version"));
+            mode = TaskExecutor.Mode.POOLED;
+        }
+        log("Serving %s on %s threads (max %d at once)", what, mode.name().toLowerCase(), maxConnections);
+        return new TaskExecutor(mode, what.replace(' ', '-'), maxConnections);
+    }
+
+    /**
+     * Runs the blocking accept loop: one reader task per inbound connection, which negotiates the
+     * connection's codec and then handles each frame inline. Tasks run on {@code executor}, which
+     * makes the loop wait once its connection limit is reached. Replies to client requests are
+     * written back on the same connection.
+     *
+     * @param paxos    the handler that receives every inbound message
+     * @param executor runs one task per connection
+     * @throws IOException if the server socket cannot be bound
+     */
+    private static void serveBlocking(PaxosHandler paxos, TaskExecutor executor) throws IOException {
+        WireProtocol wire = paxos.getWireProtocol();
+        ServerSocket serverSocket = new ServerSocket(port);
+        while (true) {
+            Socket socket = serverSocket.accept();
+            try {
+                executor.execute(() -> {
+                    try (Socket s = socket;
+                         BufferedInputStream in = new BufferedInputStream(s.getInputStream())) {
+                        MessageCodec codec = wire.accept(in, s.getOutputStream());
+                        if (codec == null) return;
+                        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+                        Consumer<Message> reply = m -> {
+                            synchronized (out) {
+                                try {
+                                    wire.writeFrame(out, codec, codec.encode(m));
+                                    out.flush();
+                                } catch (IOException e) {
+                                    // the client went away; its requests are retried elsewhere
+                                }
+                            }
+                        };
+                        WireProtocol.FrameReader frames = new WireProtocol.FrameReader(in, codec);
+                        Message msg;
+                        while ((msg = nextMessage(frames)) != null) {
+                            paxos.handleMessage(msg, reply);
                         }
                     } catch (IOException e) {
                         System.err.println("Error handling socket: " + e.getMessage());
                     }
-                }).start();
+                });
+            } catch (RejectedExecutionException e) {
+                // Interrupted or shut down while waiting for a slot: drop this connection only.
+                log("Connection from %s not served: %s", socket.getRemoteSocketAddress(), e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                if (Thread.currentThread().isInterrupted()) return;
+            }
+        }
+    }
+
+    /**
+     * Reads the next message, skipping (and reporting) frames that fail to decode.
+     *
+     * @param frames the connection's frame reader
+     * @return the next message, or {@code null} at end of stream
+     * @throws IOException on I/O failure
+     */
+    private static Message nextMessage(WireProtocol.FrameReader frames) throws IOException {
+        while (true) {
+            try {
+                return frames.next();
+            } catch (IllegalArgumentException e) {
+                System.err.println("Dropping undecodable message: " + e.getMessage());
             }
-        } catch (Exception e) {
-            System.err.println("Startup error: " + e.getMessage());
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parses a positive integer option, falling back to a default on bad input.
+     *
+     * @param raw      the option value
+     * @param fallback value returned when {@code raw} is not a positive integer
+     * @return the parsed value or {@code fallback}
+     */
+    private static int parsePositive(String raw, int fallback) {
+        try {
+            int v = Integer.parseInt(raw.trim());
+            return v > 0 ? v : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
         }
     }
 
@@ -135,22 +381,89 @@ public class CouncilMember {
      * <ul>
      *   <li>Type any non-empty string (e.g., {@code LEADER_M3}) to initiate a proposal.</li>
      *   <li>{@code /help} — display brief usage information.</li>
+     *   <li>{@code /stats} — print timer metrics (queue depth, firing lag), fault counters and,
+     *   with the UDP transport, datagram counters.</li>
+     *   <li>{@code /metrics} — print every metric in the Prometheus text format.</li>
+     *   <li>{@code /fault <member|*> <rule>} — change the network faults injected on this node's
+     *   link to one peer (or on every link), see {@link FaultInjectingTransport.LinkRule#parse};
+     *   {@code /fault partition <member>...} cuts links, {@code /fault heal} drops every per-link
+     *   rule and {@code /fault} lists the rules.</li>
+     *   <li>{@code /read} — read the current Council President linearizably (lease read on the
+     *   leader, ReadIndex on a follower).</li>
+     *   <li>{@code /put <key> <value>}, {@code /cas <key> <expected|-> <value>} — propose a
+     *   key-value command ({@code -} expects the key to be absent); {@code /get <key>} reads a key
+     *   linearizably. Only with {@code --state-machine=kv}.</li>
      *   <li>{@code /q} or {@code exit} — stop reading further input.</li>
      * </ul>
      * </p>
      *
      * @param paxos the {@link PaxosHandler} instance to which manual proposals are submitted
+     * @param udp   the UDP transport, or {@code null} when peers are reached over TCP
      */
-    private static void startInteractiveProposer(PaxosHandler paxos) {
+    private static void startInteractiveProposer(PaxosHandler paxos, UdpTransport udp) {
         Thread t = new Thread(() -> {
+            String clientId = memberId + "-console-" + System.currentTimeMillis();
+            long seq = 0;
             try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
-                log("Type a value to propose (ex: LEADER_M5). Commands: /help, /q");
+                log("Type a value to propose (ex: LEADER_M5). Commands: /help, /stats, /metrics, /fault, /read, /put, /cas, /get, /q");
                 String line;
                 while ((line = br.readLine()) != null) {
                     String v = line.trim();
                     if (v.isEmpty()) continue;
                     if (v.equalsIgnoreCase("/help")) {
-                        log("Enter a value to propose (e.g., LEADER_M3). Commands: /q to stop input on this node.");
+                        log("Enter a value to propose (e.g., LEADER_M3). Commands: /stats for timer metrics, /metrics for all metrics, /fault <member|*> <rule> | /fault heal to inject network faults on this node's outbound links, /read for the current president, /put /cas /get with --state-machine=kv, /q to stop input on this node.");
+                        continue;
+                    }
+                    if (v.equalsIgnoreCase("/stats")) {
+                        log("%s", paxos.getTimers().stats());
+                        log("%s", paxos.getFaults().stats());
+                        if (udp != null) log("%s", udp.stats());
+                        continue;
+                    }
+                    if (v.equalsIgnoreCase("/metrics")) {
+                        NodeLogger.flush();
+                        System.out.print(paxos.getMetrics().text());
+                        continue;
+                    }
+                    if (v.equalsIgnoreCase("/fault") || v.startsWith("/fault ")) {
+                        fault(paxos.getFaults(), v.substring("/fault".length()).trim());
+                        continue;
+                    }
+                    if (v.equalsIgnoreCase("/read")) {
+                        paxos.read().whenComplete((president, e) -> {
+                            if (e != null) {
+                                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                log("READ failed: %s", cause.getMessage());
+                            } else {
+                                log("READ president=%s", president);
+                            }
+                        });
+                        continue;
+                    }
+                    if (v.startsWith("/put ") || v.startsWith("/cas ") || v.startsWith("/get ")) {
+                        if (!(paxos.getStateMachine() instanceof KeyValueStore)) {
+                            log("Key-value commands need --state-machine=kv");
+                            continue;
+                        }
+                        String[] parts = v.split("\\s+", v.startsWith("/cas ") ? 4 : 3);
+                        if (v.startsWith("/get ")) {
+                            String key = parts[1];
+                            paxos.read(sm -> ((KeyValueStore) sm).read(key)).whenComplete((value, e) -> {
+                                if (e != null) {
+                                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                    log("GET %s failed: %s", key, cause.getMessage());
+                                } else {
+                                    log("GET %s=%s", key, value);
+                                }
+                            });
+                        } else if (v.startsWith("/put ") && parts.length == 3) {
+                            paxos.propose(KeyValueStore.put(clientId, seq++, parts[1], parts[2]));
+                        } else if (v.startsWith("/cas ") && parts.length == 4) {
+                            String expected = parts[2].equals("-") ? null : parts[2];
+                            paxos.propose(KeyValueStore.cas(clientId, seq++, parts[1], expected, parts[3]));
+                        } else {
+                            log("Usage: /put <key> <value> | /cas <key> <expected|-> <value> | /get <key>");
+                        }
                         continue;
                     }
                     if (v.equalsIgnoreCase("/q") || v.equalsIgnoreCase("exit")) {
@@ -167,4 +480,34 @@ public class CouncilMember {
         t.setDaemon(true);  //won’t block process exit
         t.start();
     }
+    /**
+     * Applies a {@code /fault} console command to the node's fault injector.
+     *
+     * @param faults the fault-injecting transport
+     * @param args   the command arguments: empty, {@code heal}, {@code partition <member>...} or
+     *               {@code <member|*> <rule>}
+     */
+    private static void fault(FaultInjectingTransport faults, String args) {
+        String[] parts = args.isEmpty() ? new String[0] : args.split("\\s+");
+        try {
+            if (parts.length == 1 && parts[0].equalsIgnoreCase("heal")) {
+                faults.heal();
+            } else if (parts.length >= 2 && parts[0].equalsIgnoreCase("partition")) {
+                faults.partition(Arrays.asList(parts).subList(1, parts.length));
+            } else if (parts.length == 2 && parts[0].equals("*")) {
+                faults.setDefault(FaultInjectingTransport.LinkRule.parse(parts[1]));
+            } else if (parts.length == 2 && config.getAllMembers().contains(parts[0])) {
+                faults.setLink(parts[0], FaultInjectingTransport.LinkRule.parse(parts[1]));
+            } else if (parts.length != 0) {
+                log("Usage: /fault <member|*> <rule> | /fault partition <member>... | /fault heal"
+                        + " (rule: reliable|standard|latent|failure|partition"
+                        + " or delay=<min>-<max>,dist=<uniform|exp>,drop=<rate>,dup=<rate>,reorder=<rate>)");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            log("Bad fault rule: %s", e.getMessage());
+            return;
+        }
+        for (String line : faults.rules().split(System.lineSeparator())) log("%s", line);
+    }
 }
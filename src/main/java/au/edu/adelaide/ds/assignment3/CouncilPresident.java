@@ -0,0 +1,38 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The default {@link StateMachine}: the Council President is the latest value decided.
+ * <p>
+ * Its snapshot is the president's name in UTF-8 (empty before the first decision).
+ * </p>
+ */
+public final class CouncilPresident implements StateMachine {
+
+    private volatile String president;
+
+    @Override
+    public String apply(long slot, String command) {
+        president = command;
+        return null;
+    }
+
+    @Override
+    public byte[] snapshot() {
+        String p = president;
+        return p == null ? new byte[0] : p.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void restore(byte[] state) {
+        president = state.length == 0 ? null : new String(state, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the current president, or {@code null} if none is decided yet
+     */
+    public String president() {
+        return president;
+    }
+}
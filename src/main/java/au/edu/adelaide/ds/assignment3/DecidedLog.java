@@ -0,0 +1,493 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable store for the decided (learned) part of the replicated log.
+ * <p>
+ * Decided values are appended in slot order to fixed-size, memory-mapped segment files named after
+ * their first slot. Each segment starts with a slot index (one record offset per slot it can hold),
+ * so a value is found with one map lookup for the segment and one index read inside it. A segment is
+ * sealed and a new one started when it is full, or when the next slot does not follow on (after a
+ * snapshot installed from another member, which covers the gap).
+ * </p>
+ * <p>
+ * Periodically the caller stores a snapshot of the state obtained by applying the log up to some
+ * slot; segments wholly covered by the latest snapshot are then deleted. Recovery reads the snapshot
+ * and scans only the segments after it, and at most {@link #OPEN_SEGMENTS} sealed segments stay
+ * mapped at a time, so startup time and resident memory are bounded by the snapshot interval rather
+ * than by how long the member has been running.
+ * </p>
+ * <p>
+ * Written pages survive a process crash through the page cache; they are forced to disk when a
+ * segment is sealed, when a snapshot is taken and on {@link #close()}.
+ * </p>
+ */
+public class DecidedLog implements Closeable {
+
+    //Defaults used by CouncilMember.
+    static final int DEFAULT_SEGMENT_BYTES = 8 << 20;
+    static final int DEFAULT_SLOTS_PER_SEGMENT = 1 << 14;
+    static final long DEFAULT_SNAPSHOT_INTERVAL = 1 << 16;
+
+    //Sealed segments kept mapped for lookups; older ones are unmapped and re-mapped on demand.
+    static final int OPEN_SEGMENTS = 4;
+
+    private static final int MAGIC = 0x50584C47; // "PXLG"
+    private static final int SEGMENT_HEADER = 16; // magic:int, slotsPerSegment:int, firstSlot:long
+    private static final int RECORD_HEADER = 8;   // length:int, crc32c:int
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String SNAPSHOT_FILE = "snapshot";
+
+    private final Path dir;
+    private final NodeLogger logger;
+    private final int segmentBytes;
+    private final int slotsPerSegment;
+    private final long snapshotInterval;
+
+    //All segments on disk by first slot; only the active one and the LRU below hold a mapping.
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final LinkedHashMap<Long, Segment> mapped = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Segment> eldest) {
+            if (size() <= OPEN_SEGMENTS) return false;
+            eldest.getValue().buf = null; // unmapped once collected
+            return true;
+        }
+    };
+    private Segment active;
+    private long nextSlot;
+
+    //Latest snapshot: every slot up to snapshotSlot is covered by snapshotState.
+    private long snapshotSlot = -1;
+    private byte[] snapshotState;
+
+    /**
+     * Receives decided entries during {@link #replay(long, SlotConsumer)}.
+     */
+    public interface SlotConsumer {
+        /**
+         * @param slot  the decided slot
+         * @param value its value
+         */
+        void accept(long slot, String value);
+    }
+
+    /**
+     * Opens the log in the given directory with default segment size and snapshot interval.
+     *
+     * @param logger member logger
+     * @param dir    directory holding the segments and snapshot
+     * @throws IOException if existing segments cannot be read
+     */
+    DecidedLog(NodeLogger logger, Path dir) throws IOException {
+        this(logger, dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SLOTS_PER_SEGMENT, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Opens (creating if necessary) the log in the given directory, loading the latest snapshot and
+     * scanning the segments after it.
+     *
+     * @param logger           member logger
+     * @param dir              directory holding the segments and snapshot
+     * @param segmentBytes     size of each new segment file
+     * @param slotsPerSegment  slots indexed by each new segment
+     * @param snapshotInterval slots between snapshots, see {@link #snapshotDue(long)}
+     * @throws IOException if existing segments cannot be read
+     */
+    DecidedLog(NodeLogger logger, Path dir, int segmentBytes, int slotsPerSegment, long snapshotInterval)
+            throws IOException {
+        if (segmentBytes < dataStart(slotsPerSegment) + RECORD_HEADER) {
+            throw new IllegalArgumentException("segment of " + segmentBytes + " bytes cannot index "
+                    + slotsPerSegment + " slots");
+        }
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.logger = logger;
+        this.segmentBytes = segmentBytes;
+        this.slotsPerSegment = slotsPerSegment;
+        this.snapshotInterval = snapshotInterval;
+        recover();
+    }
+
+    // -----------------------------
+    // Appending and lookup
+    // -----------------------------
+    /**
+     * Appends a decided value. Slots must increase; skipping ahead starts a new segment.
+     *
+     * @param slot  the decided slot, at least {@link #nextSlot()}
+     * @param value its value
+     * @throws IllegalArgumentException if the slot was already appended or the value cannot fit a segment
+     */
+    public synchronized void append(long slot, String value) {
+        if (slot < nextSlot) {
+            throw new IllegalArgumentException("slot " + slot + " already in log (next is " + nextSlot + ")");
+        }
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        int need = RECORD_HEADER + v.length;
+        if (need > segmentBytes - dataStart(slotsPerSegment)) {
+            throw new IllegalArgumentException("value of " + v.length + " bytes exceeds segment size");
+        }
+        if (active == null || slot != nextSlot || active.count == active.slots || active.writePos + need > active.size) {
+            roll(slot);
+        }
+
+        MappedByteBuffer buf = active.buf;
+        int off = active.writePos;
+        CRC32C crc = new CRC32C();
+        crc.update(v, 0, v.length);
+        buf.putInt(off, v.length);
+        buf.putInt(off + 4, (int) crc.getValue());
+        ByteBuffer dst = buf.duplicate();
+        dst.position(off + RECORD_HEADER);
+        dst.put(v);
+        // Index entry last: a slot is present once its offset is non-zero.
+        buf.putInt(SEGMENT_HEADER + active.count * 4, off);
+
+        active.count++;
+        active.writePos = off + need;
+        nextSlot = slot + 1;
+    }
+
+    /**
+     * Looks up a decided value.
+     *
+     * @param slot the slot
+     * @return its value, or {@code null} if the slot is not in the log (never appended, or
+     * truncated after a snapshot)
+     */
+    public synchronized String get(long slot) {
+        Map.Entry<Long, Segment> e = segments.floorEntry(slot);
+        if (e == null) return null;
+        Segment seg = e.getValue();
+        if (slot >= seg.firstSlot + seg.count) return null;
+        try {
+            return read(map(seg), (int) (slot - seg.firstSlot));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Feeds every retained entry from {@code fromSlot} onwards, in slot order, to a consumer.
+     * Entries covered by the latest snapshot are skipped.
+     *
+     * @param fromSlot first slot of interest
+     * @param consumer receives each entry
+     */
+    public synchronized void replay(long fromSlot, SlotConsumer consumer) {
+        long from = Math.max(fromSlot, snapshotSlot + 1);
+        Long start = segments.floorKey(from);
+        try {
+            for (Segment seg : segments.tailMap(start == null ? from : start, true).values()) {
+                MappedByteBuffer buf = map(seg);
+                for (int i = (int) Math.max(0, from - seg.firstSlot); i < seg.count; i++) {
+                    consumer.accept(seg.firstSlot + i, read(buf, i));
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the slot after the last appended one
+     */
+    public synchronized long nextSlot() {
+        return nextSlot;
+    }
+
+    /**
+     * @return the lowest slot still readable with {@link #get(long)}, or {@link #nextSlot()} if none is
+     */
+    public synchronized long firstSlot() {
+        return segments.isEmpty() ? nextSlot : segments.firstKey();
+    }
+
+    // -----------------------------
+    // Snapshots
+    // -----------------------------
+    /**
+     * @return the last slot covered by the latest snapshot, or {@code -1} if there is none
+     */
+    public synchronized long snapshotSlot() {
+        return snapshotSlot;
+    }
+
+    /**
+     * @return the state stored with the latest snapshot, or {@code null} if there is none
+     */
+    public synchronized byte[] snapshotState() {
+        return snapshotState;
+    }
+
+    /**
+     * Tells whether enough slots were applied since the latest snapshot to take a new one.
+     *
+     * @param appliedSlot last slot applied to the caller's state
+     * @return {@code true} once the snapshot interval has passed
+     */
+    public synchronized boolean snapshotDue(long appliedSlot) {
+        return appliedSlot - snapshotSlot >= snapshotInterval;
+    }
+
+    /**
+     * Atomically stores the state obtained by applying every slot up to {@code lastSlot}, then deletes
+     * the segments it makes redundant.
+     *
+     * @param lastSlot last slot reflected in {@code state}
+     * @param state    serialized applied state
+     * @throws UncheckedIOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot(long lastSlot, byte[] state) {
+        if (lastSlot <= snapshotSlot) return;
+        try {
+            if (active != null) active.buf.force();
+
+            ByteBuffer buf = ByteBuffer.allocate(4 + 8 + 4 + 4 + state.length);
+            CRC32C crc = new CRC32C();
+            crc.update(state, 0, state.length);
+            buf.putInt(MAGIC).putLong(lastSlot).putInt(state.length).putInt((int) crc.getValue()).put(state);
+            buf.flip();
+            Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) out.write(buf);
+                out.force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // Flush the rename before deleting segments, or a crash could leave the old snapshot without them.
+            try (FileChannel parent = FileChannel.open(dir, StandardOpenOption.READ)) {
+                parent.force(true);
+            }
+            snapshotSlot = lastSlot;
+            snapshotState = state.clone();
+
+            for (Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+                Segment seg = it.next();
+                if (seg == active || seg.firstSlot + seg.count - 1 > lastSlot) break;
+                it.remove();
+                mapped.remove(seg.firstSlot);
+                seg.buf = null;
+                Files.deleteIfExists(seg.path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("snapshot failed", e);
+        }
+    }
+
+    /**
+     * Forces the active segment to disk and releases all mappings.
+     */
+    @Override
+    public synchronized void close() {
+        if (active != null) active.buf.force();
+        for (Segment seg : segments.values()) seg.buf = null;
+        mapped.clear();
+        active = null;
+    }
+
+    // -----------------------------
+    // Segments
+    // -----------------------------
+    /**
+     * Seals the active segment and starts a new one at {@code slot}.
+     */
+    private void roll(long slot) {
+        try {
+            if (active != null) {
+                active.buf.force();
+                mapped.put(active.firstSlot, active);
+            }
+            Path path = dir.resolve(String.format("%020d%s", slot, SEGMENT_SUFFIX));
+            Segment seg = new Segment(path, slot, slotsPerSegment, segmentBytes);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                seg.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            seg.buf.putInt(0, MAGIC);
+            seg.buf.putInt(4, slotsPerSegment);
+            seg.buf.putLong(8, slot);
+            seg.writePos = dataStart(slotsPerSegment);
+            segments.put(slot, seg);
+            active = seg;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create segment at slot " + slot, e);
+        }
+    }
+
+    /**
+     * Returns the mapping of a segment, mapping it (and possibly unmapping the least recently used
+     * sealed one) if needed.
+     */
+    private MappedByteBuffer map(Segment seg) throws IOException {
+        if (seg == active) return seg.buf;
+        Segment cached = mapped.get(seg.firstSlot);
+        if (cached != null && cached.buf != null) return cached.buf;
+        try (FileChannel ch = FileChannel.open(seg.path, StandardOpenOption.READ)) {
+            seg.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, seg.size);
+        }
+        mapped.put(seg.firstSlot, seg);
+        return seg.buf;
+    }
+
+    /**
+     * Reads the value at a segment-relative index that is known to be present.
+     */
+    private static String read(ByteBuffer buf, int index) {
+        int off = buf.getInt(SEGMENT_HEADER + index * 4);
+        int len = buf.getInt(off);
+        byte[] v = new byte[len];
+        ByteBuffer src = buf.duplicate();
+        src.position(off + RECORD_HEADER);
+        src.get(v);
+        return new String(v, StandardCharsets.UTF_8);
+    }
+
+    private static int dataStart(int slotsPerSegment) {
+        return SEGMENT_HEADER + slotsPerSegment * 4;
+    }
+
+    // -----------------------------
+    // Recovery
+    // -----------------------------
+    private void recover() throws IOException {
+        loadSnapshot();
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path p : ds) files.add(p);
+        }
+        files.sort(null); // zero-padded first slots sort numerically
+
+        nextSlot = snapshotSlot + 1;
+        Segment last = null;
+        for (Path path : files) {
+            Segment seg = scan(path);
+            if (seg == null) {
+                logger.warn("[LEARNER] Decided log: ignoring unreadable segment %s", path);
+                continue;
+            }
+            if (seg.count == 0 || seg.firstSlot + seg.count - 1 <= snapshotSlot) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            segments.put(seg.firstSlot, seg);
+            nextSlot = Math.max(nextSlot, seg.firstSlot + seg.count);
+            if (last != null) last.buf = null;
+            last = seg;
+        }
+        // Keep appending to the newest segment; its mapping from the scan is reused.
+        if (last != null) {
+            try (FileChannel ch = FileChannel.open(last.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                last.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, last.size);
+            }
+            active = last;
+        }
+        logger.log("[LEARNER] Decided log %s: snapshot through slot %d, %d segments, next slot %d",
+                dir, snapshotSlot, segments.size(), nextSlot);
+    }
+
+    private void loadSnapshot() throws IOException {
+        Path path = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) return;
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buf.remaining() < 20 || buf.getInt() != MAGIC) {
+            logger.warn("[LEARNER] Decided log: ignoring malformed snapshot %s", path);
+            return;
+        }
+        long slot = buf.getLong();
+        int len = buf.getInt();
+        int crc = buf.getInt();
+        if (len < 0 || len > buf.remaining()) {
+            logger.warn("[LEARNER] Decided log: ignoring truncated snapshot %s", path);
+            return;
+        }
+        byte[] state = new byte[len];
+        buf.get(state);
+        CRC32C check = new CRC32C();
+        check.update(state, 0, len);
+        if ((int) check.getValue() != crc) {
+            logger.warn("[LEARNER] Decided log: ignoring corrupt snapshot %s", path);
+            return;
+        }
+        snapshotSlot = slot;
+        snapshotState = state;
+    }
+
+    /**
+     * Maps a segment and counts its valid entries, stopping at the first missing or corrupt one.
+     *
+     * @return the segment (left mapped), or {@code null} if its header is invalid
+     */
+    private static Segment scan(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < SEGMENT_HEADER || size > Integer.MAX_VALUE) return null;
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int slots = buf.getInt(4);
+        if (buf.getInt(0) != MAGIC || slots <= 0 || dataStart(slots) > size) return null;
+
+        Segment seg = new Segment(path, buf.getLong(8), slots, (int) size);
+        seg.buf = buf;
+        int pos = dataStart(slots);
+        CRC32C crc = new CRC32C();
+        while (seg.count < slots) {
+            int off = buf.getInt(SEGMENT_HEADER + seg.count * 4);
+            if (off != pos || off + RECORD_HEADER > size) break;
+            int len = buf.getInt(off);
+            if (len < 0 || off + RECORD_HEADER + (long) len > size) break;
+            ByteBuffer value = buf.duplicate();
+            value.position(off + RECORD_HEADER).limit(off + RECORD_HEADER + len);
+            crc.reset();
+            crc.update(value);
+            if ((int) crc.getValue() != buf.getInt(off + 4)) break;
+            seg.count++;
+            pos = off + RECORD_HEADER + len;
+        }
+        seg.writePos = pos;
+        return seg;
+    }
+
+    /**
+     * One segment file: the slots {@code [firstSlot, firstSlot + count)}.
+     */
+    private static final class Segment {
+        final Path path;
+        final long firstSlot;
+        final int slots;
+        final int size;
+        int count;
+        int writePos;
+        MappedByteBuffer buf;
+
+        Segment(Path path, long firstSlot, int slots, int size) {
+            this.path = path;
+            this.firstSlot = firstSlot;
+            this.slots = slots;
+            this.size = size;
+        }
+    }
+}
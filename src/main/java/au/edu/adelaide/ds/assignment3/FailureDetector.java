@@ -0,0 +1,110 @@
+package au.edu.adelaide.ds.assignment3;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.) over the HEARTBEATs of the current leader.
+ * <p>
+ * Instead of a fixed timeout, the detector keeps the recent intervals between heartbeats and
+ * reports how unlikely it is, given their mean and spread, that the next one is merely late:
+ * {@code phi = -log10(P(interval > time since the last heartbeat))}. A phi of 8 means the silence
+ * would be a one-in-10^8 delay for this link; above the threshold the leader is suspected. A
+ * jittery link (e.g. the latent profile) widens the estimated spread and so is given more slack
+ * than a steady one, without tuning a timeout per link.
+ * </p>
+ * <p>
+ * The history follows one member: a heartbeat from a different leader starts it afresh from the
+ * configured interval. Thread-safe; every method holds the detector's monitor briefly.
+ * </p>
+ */
+final class FailureDetector {
+
+    //Heartbeat intervals kept for the estimate
+    private static final int WINDOW = 100;
+
+    private long intervalMs;
+    private double threshold;
+
+    private String monitored;
+    private long lastAt;
+    private final long[] intervals = new long[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double sumSquares;
+
+    /**
+     * @param intervalMs the leader's heartbeat interval, assumed until heartbeats are measured
+     * @param threshold  phi above which the leader is suspected
+     */
+    FailureDetector(long intervalMs, double threshold) {
+        configure(intervalMs, threshold);
+    }
+
+    /**
+     * Changes the expected heartbeat interval and the suspicion threshold.
+     *
+     * @param intervalMs the leader's heartbeat interval
+     * @param threshold  phi above which the leader is suspected; higher detects later and wrongly less often
+     */
+    synchronized void configure(long intervalMs, double threshold) {
+        this.intervalMs = Math.max(1, intervalMs);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Records a heartbeat.
+     *
+     * @param member the leader that sent it
+     * @param nowMs  the member's clock, in milliseconds
+     */
+    synchronized void heartbeat(String member, long nowMs) {
+        if (!member.equals(monitored)) {
+            monitored = member;
+            count = next = 0;
+            sum = sumSquares = 0;
+        } else {
+            long interval = Math.max(0, nowMs - lastAt);
+            if (count == WINDOW) {
+                long old = intervals[next];
+                sum -= old;
+                sumSquares -= (double) old * old;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumSquares += (double) interval * interval;
+        }
+        lastAt = nowMs;
+    }
+
+    /**
+     * Returns the suspicion level of a member.
+     *
+     * @param member a member
+     * @param nowMs  the member's clock, in milliseconds
+     * @return phi, or {@link Double#POSITIVE_INFINITY} if no heartbeat from it has been recorded
+     */
+    synchronized double phi(String member, long nowMs) {
+        if (!member.equals(monitored)) return Double.POSITIVE_INFINITY;
+        double mean = count == 0 ? intervalMs : sum / count;
+        double variance = count == 0 ? 0 : sumSquares / count - mean * mean;
+        // The spread never drops below a quarter interval, so a few punctual heartbeats on an idle
+        // link do not make a single late one look like a failure.
+        double stdDev = Math.max(Math.sqrt(Math.max(0, variance)), intervalMs / 4.0);
+        double y = (nowMs - lastAt - mean) / stdDev;
+        // Logistic approximation of the normal distribution's tail (as in Akka and Cassandra).
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double tail = y > 0 ? e / (1 + e) : 1 - 1 / (1 + e);
+        return tail <= 0 ? Double.POSITIVE_INFINITY : -Math.log10(tail);
+    }
+
+    /**
+     * @param member a member
+     * @param nowMs  the member's clock, in milliseconds
+     * @return {@code true} if the member has sent heartbeats and is not suspected
+     */
+    synchronized boolean isAvailable(String member, long nowMs) {
+        return phi(member, nowMs) < threshold;
+    }
+}
@@ -0,0 +1,313 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Transport} decorator that injects network faults into a member's outbound links.
+ * <p>
+ * Every link (this member to one peer) follows a {@link LinkRule}: a latency distribution, drop,
+ * duplication and reordering rates, or a partition. Delayed messages are handed to the wrapped
+ * transport from the member's {@link TimerService} rather than by sleeping, so each message is
+ * delayed on its own and a slow link holds up nothing else. A link without faults passes
+ * messages straight through, in order.
+ * </p>
+ * <p>
+ * Rules can be changed at any time ({@link #setDefault}, {@link #setLink}, {@link #partition},
+ * {@link #heal}); messages already scheduled keep the delay they were given.
+ * </p>
+ */
+public class FaultInjectingTransport implements Transport {
+
+    //Extra hold-back, in milliseconds, of a message picked for reordering (on top of its delay)
+    static final long REORDER_HOLD_MS = 200;
+
+    private final Transport delegate;
+    private final TimerService timers;
+
+    //Rule for links without their own, and per-peer overrides
+    private volatile LinkRule defaultRule;
+    private final Map<String, LinkRule> links = new ConcurrentHashMap<>();
+
+    //Metrics
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+
+    /**
+     * Wraps a transport.
+     *
+     * @param delegate    the transport that actually sends
+     * @param timers      the member's timer service, which delays messages and draws the random choices
+     * @param defaultRule rule for every link without its own
+     */
+    public FaultInjectingTransport(Transport delegate, TimerService timers, LinkRule defaultRule) {
+        this.delegate = delegate;
+        this.timers = timers;
+        this.defaultRule = defaultRule;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendAsync(String targetMember, Message msg) {
+        LinkRule rule = links.getOrDefault(targetMember, defaultRule);
+        if (rule.isReliable()) {
+            passed.increment();
+            return delegate.sendAsync(targetMember, msg);
+        }
+        Random random = timers.random();
+        if (rule.partitioned || (rule.dropRate > 0 && random.nextDouble() < rule.dropRate)) {
+            dropped.increment();
+            return CompletableFuture.completedFuture(true); // lost on the wire: the sender cannot tell
+        }
+        CompletableFuture<Boolean> sent = deliver(targetMember, msg, rule, random);
+        if (rule.duplicateRate > 0 && random.nextDouble() < rule.duplicateRate) {
+            duplicated.increment();
+            deliver(targetMember, msg, rule, random);
+        }
+        return sent;
+    }
+
+    /**
+     * Hands one copy of a message to the wrapped transport after a delay drawn from the rule.
+     */
+    private CompletableFuture<Boolean> deliver(String targetMember, Message msg, LinkRule rule, Random random) {
+        long delay = rule.sampleDelayMs(random);
+        if (rule.reorderRate > 0 && random.nextDouble() < rule.reorderRate) {
+            reordered.increment();
+            delay += 1 + random.nextInt((int) REORDER_HOLD_MS);
+        }
+        if (delay == 0) {
+            passed.increment();
+            return delegate.sendAsync(targetMember, msg);
+        }
+        delayed.increment();
+        CompletableFuture<Boolean> sent = new CompletableFuture<>();
+        timers.schedule(delay, () -> delegate.sendAsync(targetMember, msg).whenComplete((ok, e) ->
+                sent.complete(e == null && ok)));
+        return sent;
+    }
+
+    @Override
+    public void closeAll() {
+        delegate.closeAll();
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("paxos_fault_dropped_total", "Messages dropped by injected faults (loss or partition)", dropped::sum);
+        metrics.counter("paxos_fault_delayed_total", "Messages delayed by injected faults", delayed::sum);
+        metrics.counter("paxos_fault_duplicated_total", "Messages duplicated by injected faults", duplicated::sum);
+        metrics.counter("paxos_fault_reordered_total", "Messages held back for reordering by injected faults", reordered::sum);
+        delegate.registerMetrics(metrics);
+    }
+
+    /**
+     * @return the wrapped transport
+     */
+    public Transport getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Replaces the rule of every link that has no rule of its own.
+     *
+     * @param rule the new default rule
+     */
+    public void setDefault(LinkRule rule) {
+        defaultRule = rule;
+    }
+
+    /**
+     * Sets the rule of the link to one peer, overriding the default.
+     *
+     * @param member the peer
+     * @param rule   the rule, or {@code null} to fall back to the default
+     */
+    public void setLink(String member, LinkRule rule) {
+        if (rule == null) {
+            links.remove(member);
+        } else {
+            links.put(member, rule);
+        }
+    }
+
+    /**
+     * Cuts the links to the given peers (messages to them are dropped) until {@link #heal()}.
+     * Partitioning both sides needs the same call on the members across the cut.
+     *
+     * @param members the peers to cut off
+     */
+    public void partition(Iterable<String> members) {
+        for (String m : members) links.put(m, LinkRule.PARTITIONED);
+    }
+
+    /**
+     * Removes every per-link rule, so all links follow the default again.
+     */
+    public void heal() {
+        links.clear();
+    }
+
+    /**
+     * @return the default rule and every per-link rule, one per line
+     */
+    public String rules() {
+        StringBuilder sb = new StringBuilder("faults: * ").append(defaultRule);
+        for (Map.Entry<String, LinkRule> e : new TreeMap<>(links).entrySet()) {
+            sb.append(System.lineSeparator()).append("faults: ").append(e.getKey()).append(' ').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return one-line summary of the fault counters
+     */
+    public String stats() {
+        return String.format("faults: passed=%d delayed=%d dropped=%d duplicated=%d reordered=%d",
+                passed.sum(), delayed.sum(), dropped.sum(), duplicated.sum(), reordered.sum());
+    }
+
+    /**
+     * How one link misbehaves. Immutable; {@link #parse} reads the form {@link #toString} writes.
+     */
+    public static final class LinkRule {
+
+        /** A link that delivers everything at once. */
+        public static final LinkRule RELIABLE = new LinkRule(0, 0, false, 0, 0, 0, false);
+        /** A link that delivers nothing. */
+        public static final LinkRule PARTITIONED = new LinkRule(0, 0, false, 0, 0, 0, true);
+
+        private final long minDelayMs;
+        private final long maxDelayMs;
+        //Exponential instead of uniform delays: mostly near the minimum, with a long tail
+        private final boolean exponential;
+        private final double dropRate;
+        private final double duplicateRate;
+        private final double reorderRate;
+        private final boolean partitioned;
+
+        /**
+         * @param minDelayMs    smallest delay in milliseconds
+         * @param maxDelayMs    largest uniform delay in milliseconds (exclusive), or the minimum
+         *                      plus twice the mean of exponential delays
+         * @param exponential   whether delays are exponential rather than uniform
+         * @param dropRate      chance a message is lost
+         * @param duplicateRate chance a message is delivered twice, each copy delayed on its own
+         * @param reorderRate   chance a message is held back up to
+         *                      {@value FaultInjectingTransport#REORDER_HOLD_MS}ms more
+         * @param partitioned   whether the link delivers nothing
+         */
+        public LinkRule(long minDelayMs, long maxDelayMs, boolean exponential, double dropRate,
+                        double duplicateRate, double reorderRate, boolean partitioned) {
+            if (minDelayMs < 0 || maxDelayMs < minDelayMs) {
+                throw new IllegalArgumentException("Bad delay range " + minDelayMs + "-" + maxDelayMs);
+            }
+            this.minDelayMs = minDelayMs;
+            this.maxDelayMs = maxDelayMs;
+            this.exponential = exponential;
+            this.dropRate = checkRate(dropRate);
+            this.duplicateRate = checkRate(duplicateRate);
+            this.reorderRate = checkRate(reorderRate);
+            this.partitioned = partitioned;
+        }
+
+        private static double checkRate(double rate) {
+            if (!(rate >= 0 && rate <= 1)) throw new IllegalArgumentException("Bad rate " + rate);
+            return rate;
+        }
+
+        /**
+         * The link behaviour of a member profile: its delay range and drop rate.
+         *
+         * @param profile the profile
+         * @return the rule
+         */
+        public static LinkRule of(Profile profile) {
+            return new LinkRule(profile.minDelayMs(), profile.maxDelayMs(), false, profile.dropRate(), 0, 0, false);
+        }
+
+        /**
+         * Parses a rule: a profile name ({@code reliable}, {@code standard}, {@code latent},
+         * {@code failure}), {@code partition}, or comma-separated settings
+         * {@code delay=<min>-<max>}, {@code dist=<uniform|exp>}, {@code drop=<rate>},
+         * {@code dup=<rate>}, {@code reorder=<rate>}, e.g. {@code delay=20-80,drop=0.05,reorder=0.1}.
+         *
+         * @param spec the rule
+         * @return the parsed rule
+         * @throws IllegalArgumentException if the rule is malformed
+         */
+        public static LinkRule parse(String spec) {
+            String s = spec.trim().toLowerCase();
+            if (s.equals("partition")) return PARTITIONED;
+            if (!s.contains("=")) return of(Profile.fromString(s));
+
+            long min = 0, max = 0;
+            boolean exponential = false;
+            double drop = 0, dup = 0, reorder = 0;
+            for (String part : s.split(",")) {
+                String[] kv = part.split("=", 2);
+                if (kv.length != 2) throw new IllegalArgumentException("Bad fault setting: " + part);
+                String key = kv[0].trim();
+                String value = kv[1].trim();
+                try {
+                    switch (key) {
+                        case "delay":
+                            int dash = value.indexOf('-');
+                            min = Long.parseLong(dash < 0 ? value : value.substring(0, dash).trim());
+                            max = dash < 0 ? min : Long.parseLong(value.substring(dash + 1).trim());
+                            break;
+                        case "dist":
+                            if (!value.equals("uniform") && !value.equals("exp")) {
+                                throw new IllegalArgumentException("Unknown delay distribution: " + value);
+                            }
+                            exponential = value.equals("exp");
+                            break;
+                        case "drop": drop = Double.parseDouble(value); break;
+                        case "dup": dup = Double.parseDouble(value); break;
+                        case "reorder": reorder = Double.parseDouble(value); break;
+                        default: throw new IllegalArgumentException("Unknown fault setting: " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad number in fault setting: " + part);
+                }
+            }
+            return new LinkRule(min, max, exponential, drop, dup, reorder, false);
+        }
+
+        /**
+         * @return {@code true} if the link neither delays nor loses, duplicates or reorders anything
+         */
+        boolean isReliable() {
+            return !partitioned && maxDelayMs == 0 && dropRate == 0 && duplicateRate == 0 && reorderRate == 0;
+        }
+
+        /**
+         * Draws the delay of one message.
+         *
+         * @param random the random source
+         * @return the delay in milliseconds
+         */
+        long sampleDelayMs(Random random) {
+            if (maxDelayMs == minDelayMs) return minDelayMs;
+            if (exponential) {
+                double mean = (maxDelayMs - minDelayMs) / 2.0;
+                return minDelayMs + (long) (-mean * Math.log(1 - random.nextDouble()));
+            }
+            return minDelayMs + (long) (random.nextDouble() * (maxDelayMs - minDelayMs));
+        }
+
+        @Override
+        public String toString() {
+            if (partitioned) return "partition";
+            if (isReliable()) return "reliable";
+            return String.format("delay=%d-%d,dist=%s,drop=%s,dup=%s,reorder=%s", minDelayMs, maxDelayMs,
+                    exponential ? "exp" : "uniform", dropRate, duplicateRate, reorderRate);
+        }
+    }
+}
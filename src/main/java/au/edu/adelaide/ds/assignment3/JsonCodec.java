@@ -0,0 +1,64 @@
+package au.edu.adelaide.ds.assignment3;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original Gson-based, newline-delimited JSON wire format.
+ * <p>
+ * Kept as a human-readable debug codec and as the format spoken by connections that do not
+ * negotiate a codec (e.g. {@link ProposerClient}, {@link PaxosClient}, or older members).
+ * </p>
+ */
+public class JsonCodec implements MessageCodec {
+
+    public static final byte ID = 1;
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean lineDelimited() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        return gson.toJson(msg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message decode(byte[] buf, int off, int len) {
+        return decode(new String(buf, off, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a JSON message that has already been read as a string.
+     *
+     * @param json the JSON text of one message
+     * @return the decoded message
+     * @throws IllegalArgumentException if the text is not a valid message
+     */
+    public Message decode(String json) {
+        try {
+            Message msg = gson.fromJson(json, Message.class);
+            if (msg == null) {
+                throw new IllegalArgumentException("empty JSON message");
+            }
+            return msg;
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("malformed JSON message: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A replicated in-memory key-value store: a {@link StateMachine} whose commands are get, put and
+ * compare-and-set.
+ * <p>
+ * Commands are built with {@link #get}, {@link #put} and {@link #cas} and proposed like any other
+ * value. Like {@link Batch}, a command starts with a NUL marker followed by {@code <length>:<field>}
+ * for each field ({@code -1:} for an absent one); values without the marker (e.g. a
+ * {@code LEADER_M5} election) are ignored.
+ * </p>
+ * <p>
+ * Every command carries a client ID and a sequence number, so a command proposed twice (a client
+ * retrying after a timeout, or a value re-proposed by a new leader) is applied once; the duplicate
+ * gets the first result back. Results are kept for the last {@value #DEDUP_WINDOW} sequence numbers
+ * of each client, so a client may have that many commands in flight; an older duplicate is
+ * ignored with a {@code null} result.
+ * </p>
+ * <p>
+ * Reads ({@link #read}) run concurrently with applies and see each key's latest applied value.
+ * </p>
+ */
+public final class KeyValueStore implements StateMachine {
+
+    //Sequence numbers per client whose results are kept for duplicates.
+    static final int DEDUP_WINDOW = 1024;
+
+    private static final String MARKER = "\u0000KV:";
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Builds a GET command. Applying it returns the key's value, in log order with the writes.
+     *
+     * @param clientId submitting client
+     * @param seq      the client's sequence number for this command
+     * @param key      the key
+     * @return the command to propose
+     */
+    public static String get(String clientId, long seq, String key) {
+        return encode("GET", clientId, seq, key, null, null);
+    }
+
+    /**
+     * Builds a PUT command. Applying it returns the previous value ({@code null} if there was none).
+     *
+     * @param clientId submitting client
+     * @param seq      the client's sequence number for this command
+     * @param key      the key
+     * @param value    the new value
+     * @return the command to propose
+     */
+    public static String put(String clientId, long seq, String key, String value) {
+        if (value == null) throw new IllegalArgumentException("value must not be null");
+        return encode("PUT", clientId, seq, key, value, null);
+    }
+
+    /**
+     * Builds a compare-and-set command. Applying it sets the key to {@code update} only if its value
+     * equals {@code expected}, and returns {@code "true"} if it did, {@code "false"} otherwise.
+     *
+     * @param clientId submitting client
+     * @param seq      the client's sequence number for this command
+     * @param key      the key
+     * @param expected the value the key must have, or {@code null} if it must be absent
+     * @param update   the new value
+     * @return the command to propose
+     */
+    public static String cas(String clientId, long seq, String key, String expected, String update) {
+        if (update == null) throw new IllegalArgumentException("update must not be null");
+        return encode("CAS", clientId, seq, key, update, expected);
+    }
+
+    /**
+     * @param value a decided or proposed value
+     * @return {@code true} if it is a key-value command
+     */
+    public static boolean isCommand(String value) {
+        return value != null && value.startsWith(MARKER);
+    }
+
+    /**
+     * Renders a command for log output, e.g. {@code PUT color=red (M4-console#3)}.
+     *
+     * @param command a key-value command
+     * @return a readable form, or the command itself if it is not well formed
+     */
+    public static String describe(String command) {
+        String[] f;
+        try {
+            f = decode(command);
+        } catch (IllegalArgumentException e) {
+            return command;
+        }
+        String body;
+        if (f[0].equals("PUT")) {
+            body = f[3] + "=" + f[4];
+        } else if (f[0].equals("CAS")) {
+            body = f[3] + "=" + f[4] + " if " + (f[5] == null ? "absent" : f[5]);
+        } else {
+            body = f[3];
+        }
+        return f[0] + " " + body + " (" + f[1] + "#" + f[2] + ")";
+    }
+
+    @Override
+    public String apply(long slot, String command) {
+        if (!isCommand(command)) return null;
+        String[] f = decode(command);
+        String op = f[0];
+        String clientId = f[1];
+        long seq = Long.parseLong(f[2]);
+        String key = f[3];
+
+        Session session = sessions.computeIfAbsent(clientId, id -> new Session());
+        synchronized (session) {
+            if (session.isDuplicate(seq)) {
+                return session.results.get(seq);
+            }
+            String result;
+            switch (op) {
+                case "GET":
+                    result = data.get(key);
+                    break;
+                case "PUT":
+                    result = data.put(key, f[4]);
+                    break;
+                case "CAS":
+                    boolean matches = f[5] == null ? !data.containsKey(key) : f[5].equals(data.get(key));
+                    if (matches) data.put(key, f[4]);
+                    result = Boolean.toString(matches);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown key-value operation " + op);
+            }
+            session.record(seq, result);
+            return result;
+        }
+    }
+
+    /**
+     * Reads a key's latest applied value without going through the log. Combine with a
+     * linearizable read barrier ({@link PaxosHandler#read(java.util.function.Function)}) for a
+     * linearizable get.
+     *
+     * @param key the key
+     * @return its value, or {@code null} if absent
+     */
+    public String read(String key) {
+        return data.get(key);
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns the result a client's command produced, if it is still remembered.
+     *
+     * @param clientId the client
+     * @param seq      its sequence number
+     * @return the result, or {@code null} if none is remembered (or the result was {@code null})
+     */
+    public String result(String clientId, long seq) {
+        Session session = sessions.get(clientId);
+        if (session == null) return null;
+        synchronized (session) {
+            return session.results.get(seq);
+        }
+    }
+
+    @Override
+    public byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SNAPSHOT_VERSION);
+            Map<String, String> copy = new TreeMap<>(data);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, String> e : copy.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+            out.writeInt(sessions.size());
+            for (Map.Entry<String, Session> e : sessions.entrySet()) {
+                Session s = e.getValue();
+                synchronized (s) {
+                    writeString(out, e.getKey());
+                    out.writeLong(s.highest);
+                    out.writeInt(s.results.size());
+                    for (Map.Entry<Long, String> r : s.results.entrySet()) {
+                        out.writeLong(r.getKey());
+                        writeString(out, r.getValue());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void restore(byte[] state) {
+        data.clear();
+        sessions.clear();
+        if (state.length == 0) return;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            int version = in.readUnsignedByte();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IllegalArgumentException("Not a key-value snapshot (version " + version + ")");
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                data.put(readString(in), readString(in));
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String clientId = readString(in);
+                Session s = new Session();
+                s.highest = in.readLong();
+                for (int r = in.readInt(); r > 0; r--) {
+                    s.results.put(in.readLong(), readString(in));
+                }
+                sessions.put(clientId, s);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated key-value snapshot", e);
+        }
+    }
+
+    private static String encode(String op, String clientId, long seq, String key, String value, String expected) {
+        if (clientId == null || key == null) throw new IllegalArgumentException("clientId and key are required");
+        StringBuilder sb = new StringBuilder(MARKER.length() + 32 + clientId.length() + key.length()
+                + (value == null ? 0 : value.length()) + (expected == null ? 0 : expected.length()))
+                .append(MARKER);
+        for (String field : new String[]{op, clientId, Long.toString(seq), key, value, expected}) {
+            if (field == null) {
+                sb.append("-1:");
+            } else {
+                sb.append(field.length()).append(':').append(field);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits a command into op, client ID, sequence number, key, value and expected value.
+     */
+    private static String[] decode(String command) {
+        List<String> fields = new ArrayList<>(6);
+        int pos = MARKER.length();
+        try {
+            while (pos < command.length()) {
+                int colon = command.indexOf(':', pos);
+                int len = Integer.parseInt(command.substring(pos, colon));
+                if (len < 0) {
+                    fields.add(null);
+                    pos = colon + 1;
+                } else {
+                    fields.add(command.substring(colon + 1, colon + 1 + len));
+                    pos = colon + 1 + len;
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed key-value command at offset " + pos, e);
+        }
+        if (fields.size() != 6) {
+            throw new IllegalArgumentException("Malformed key-value command: " + fields.size() + " fields");
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) return null;
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One client's applied sequence numbers: the highest, and the results of the last
+     * {@value #DEDUP_WINDOW} below it. Guarded by itself.
+     */
+    private static final class Session {
+        long highest = -1;
+        final TreeMap<Long, String> results = new TreeMap<>();
+
+        boolean isDuplicate(long seq) {
+            return seq <= highest - DEDUP_WINDOW || results.containsKey(seq);
+        }
+
+        void record(long seq, String result) {
+            results.put(seq, result);
+            if (seq > highest) {
+                highest = seq;
+                results.headMap(highest - DEDUP_WINDOW, true).clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear histogram of non-negative values (e.g. latencies in nanoseconds), in the style of
+ * HdrHistogram.
+ * <p>
+ * Values below {@code 256} are counted exactly; above that each power of two is split into
+ * {@code 128} equal buckets, so a reported percentile is at most 0.8% above the recorded value.
+ * The whole {@code long} range fits in about 7,400 counters.
+ * </p>
+ * <p>
+ * {@link #record} is lock-free and may be called from any number of threads; reads taken while
+ * values are being recorded see some consistent prefix of them.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    //Values below 2^SUB_BITS are exact; each higher power of two gets HALF buckets.
+    private static final int SUB_BITS = 8;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB >>> 1;
+    private static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value.
+     *
+     * @param value the value; negative values are recorded as {@code 0}
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        total.increment();
+        sum.add(v);
+        if (v > max.get()) max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return largest value recorded, or {@code 0} if none
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return sum of the values recorded
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return mean of the values recorded, or {@code 0} if none
+     */
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the value at a percentile: the highest value equivalent to the smallest recorded
+     * value that at least {@code percentile}% of all values are at or below.
+     *
+     * @param percentile between {@code 0} and {@code 100}, e.g. {@code 99.9}
+     * @return the value, or {@code 0} if nothing has been recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS + 1;
+        return SUB + (shift - 1) * HALF + (int) ((v >>> shift) - HALF);
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < SUB) return index;
+        int shift = (index - SUB) / HALF + 1;
+        long mantissa = (index - SUB) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,531 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Learner role of one member: counts ACCEPTED votes per slot and ballot, records decisions and
+ * applies the decided prefix of the log in slot order.
+ * <p>
+ * Guarded by its own monitor, which is never held while calling into the other roles or sending;
+ * a decision is handed back to the caller to settle. The first undecided slot is also readable
+ * without the lock, so acceptors can skip decided slots cheaply.
+ * </p>
+ * <p>
+ * Decided values are kept in a fixed-size {@link SlotWindow}. The decided prefix is applied to a
+ * {@link StateMachine} (by default the {@link CouncilPresident}); with a {@link DecidedLog} each
+ * applied entry is also stored on disk and the state machine is snapshotted periodically.
+ * </p>
+ * <p>
+ * The window never slides past a slot that is not yet applied: a slot decided a full window or
+ * more past the first undecided one is held aside until the prefix catches up. A member that has
+ * fallen behind what its peers still retain instead installs a peer's snapshot with
+ * {@link #install(long, byte[])}.
+ * </p>
+ */
+final class Learner {
+
+    //Default number of most recent decided slots kept in memory.
+    static final int DECIDED_WINDOW = 1 << 16;
+
+    private final NodeLogger logger;
+    private final NetworkConfig config;
+    private final QuorumSystem quorums;
+    private final DecidedLog decidedLog;
+    private final StateMachine stateMachine;
+
+    private final SlotWindow<String> decided;
+    private final Map<Long, SlotVotes> votes = new HashMap<>();
+    //Decided slots too far past the first undecided one to enter the window yet
+    private final TreeMap<Long, String> ahead = new TreeMap<>();
+    private volatile long firstUndecided = 0;
+    private long highestDecided = -1;
+
+    //Reads waiting for the applied prefix to reach a slot, and client requests waiting for their
+    //command to be applied
+    private final TreeMap<Long, List<CompletableFuture<Void>>> appliedWaiters = new TreeMap<>();
+    private final Map<String, List<CompletableFuture<String>>> resultWaiters = new HashMap<>();
+
+    //Completions released by the last decision, run once the monitor is released
+    private List<Runnable> released = new ArrayList<>();
+
+    /**
+     * A slot that has just been decided.
+     */
+    static final class Decision {
+        final long slot;
+        final String value;
+        final long ballot;
+        //First undecided slot after this decision; every slot below it is settled.
+        final long firstUndecided;
+
+        Decision(long slot, String value, long ballot, long firstUndecided) {
+            this.slot = slot;
+            this.value = value;
+            this.ballot = ballot;
+            this.firstUndecided = firstUndecided;
+        }
+    }
+
+    /**
+     * The applied state as of a slot, for a member that needs slots no longer retained here.
+     */
+    static final class Snapshot {
+        final long lastSlot;
+        final byte[] state;
+
+        Snapshot(long lastSlot, byte[] state) {
+            this.lastSlot = lastSlot;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Creates the learner, restoring the decided prefix from the decided log if there is one.
+     *
+     * @param logger       member logger
+     * @param config       network configuration (for voter indices)
+     * @param quorums      which voters decide a slot (its phase 2 quorums)
+     * @param decidedLog   store for decided entries, or {@code null} to keep them in memory only
+     * @param stateMachine the state decided values are applied to
+     */
+    Learner(NodeLogger logger, NetworkConfig config, QuorumSystem quorums, DecidedLog decidedLog,
+            StateMachine stateMachine) {
+        this(logger, config, quorums, decidedLog, stateMachine, DECIDED_WINDOW);
+    }
+
+    /**
+     * Creates the learner with a given in-memory window; a small one makes lagging members need
+     * snapshots sooner (see {@link Simulator}).
+     *
+     * @param logger        member logger
+     * @param config        network configuration (for voter indices)
+     * @param quorums       which voters decide a slot (its phase 2 quorums)
+     * @param decidedLog    store for decided entries, or {@code null} to keep them in memory only
+     * @param stateMachine  the state decided values are applied to
+     * @param decidedWindow number of most recent decided slots kept in memory
+     */
+    Learner(NodeLogger logger, NetworkConfig config, QuorumSystem quorums, DecidedLog decidedLog,
+            StateMachine stateMachine, int decidedWindow) {
+        this.decided = new SlotWindow<>(decidedWindow);
+        this.logger = logger;
+        this.config = config;
+        this.quorums = quorums;
+        this.decidedLog = decidedLog;
+        this.stateMachine = stateMachine;
+        if (decidedLog != null) {
+            recoverDecided();
+        }
+    }
+
+    /**
+     * Restores the applied state and the decided prefix from the decided log: the snapshot first,
+     * then every entry after it (at most one snapshot interval's worth).
+     */
+    private void recoverDecided() {
+        long snap = decidedLog.snapshotSlot();
+        long next = 0;
+        if (snap >= 0) {
+            stateMachine.restore(decidedLog.snapshotState());
+            decided.advanceTo(snap + 1);
+            next = snap + 1;
+        }
+        long[] last = {next - 1};
+        decidedLog.replay(next, (slot, value) -> {
+            decided.put(slot, value);
+            last[0] = slot;
+            applyValues(slot, value);
+        });
+        firstUndecided = last[0] + 1;
+        highestDecided = last[0];
+        if (firstUndecided > 0) {
+            logger.log("Recovered decided log: %d slots", firstUndecided);
+        }
+    }
+
+    /**
+     * Records an ACCEPTED vote. Reads and client requests released by a resulting decision are
+     * completed after the monitor is released.
+     *
+     * @param msg the ACCEPTED message
+     * @return the decision if this vote completed a phase 2 quorum, otherwise {@code null}
+     */
+    Decision onAccepted(Message msg) {
+        Decision d;
+        List<Runnable> ready;
+        synchronized (this) {
+            d = vote(msg);
+            ready = released;
+            if (!ready.isEmpty()) released = new ArrayList<>();
+        }
+        for (Runnable r : ready) r.run();
+        return d;
+    }
+
+    private Decision vote(Message msg) {
+        long slot = msg.getSlot();
+        if (isDecided(slot)) return null;
+
+        int idx = config.indexOf(msg.getSenderId());
+        if (idx < 0) return null;
+
+        SlotVotes v = votes.computeIfAbsent(slot, k -> new SlotVotes());
+        if (!quorums.isPhase2(v.add(msg.getProposalNumber(), idx))) return null;
+        return decide(slot, msg.getValue(), msg.getProposalNumber());
+    }
+
+    /**
+     * Records decisions learned from another member (a DECIDE answering a catch-up request).
+     * Slots already decided here are skipped; reads and client requests released are completed
+     * after the monitor is released.
+     *
+     * @param entries decided entries in slot order
+     * @return the slots newly decided here, in slot order
+     */
+    List<Decision> learn(List<Message.Entry> entries) {
+        List<Decision> learned = new ArrayList<>();
+        List<Runnable> ready;
+        synchronized (this) {
+            for (Message.Entry e : entries) {
+                long slot = e.getSlot();
+                if (e.getValue() == null || isDecided(slot)) continue;
+                learned.add(decide(slot, e.getValue(), e.getBallot()));
+            }
+            ready = released;
+            if (!ready.isEmpty()) released = new ArrayList<>();
+        }
+        for (Runnable r : ready) r.run();
+        return learned;
+    }
+
+    /**
+     * Records a decided slot, releases its votes and applies any newly contiguous prefix.
+     */
+    private Decision decide(long slot, String value, long proposalNum) {
+        if (slot < firstUndecided + decided.capacity()) {
+            decided.put(slot, value);
+        } else {
+            ahead.put(slot, value);
+        }
+        votes.remove(slot);
+        highestDecided = Math.max(highestDecided, slot);
+        long next = applyPrefix();
+
+        if (PaxosHandler.NO_OP.equals(value)) {
+            logger.debug("[LEARNER][CONSENSUS] slot=%d no-op proposal=%B", slot, proposalNum);
+        } else {
+            if (slot == 0 && stateMachine instanceof CouncilPresident) {
+                logger.log("CONSENSUS: %s has been elected Council President.", Batch.last(value));
+            }
+            if (NodeLogger.isEnabled(NodeLogger.Level.DEBUG)) {
+                for (String v : Batch.decode(value)) {
+                    logger.debug("[LEARNER][CONSENSUS] slot=%d value=%V proposal=%B", slot, v, proposalNum);
+                }
+            }
+        }
+        return new Decision(slot, value, proposalNum, next);
+    }
+
+    /**
+     * Applies the decided slots from the first undecided one on while they are contiguous, moving
+     * held-aside slots into the window as it frees up, and releases reads now covered.
+     *
+     * @return the new first undecided slot
+     */
+    private long applyPrefix() {
+        long next = firstUndecided;
+        while (true) {
+            while (!ahead.isEmpty() && ahead.firstKey() < next + decided.capacity()) {
+                Map.Entry<Long, String> e = ahead.pollFirstEntry();
+                decided.put(e.getKey(), e.getValue());
+            }
+            String v = decided.get(next);
+            if (v == null) break;
+            apply(next, v);
+            next++;
+        }
+        firstUndecided = next;
+        Map<Long, List<CompletableFuture<Void>>> due = appliedWaiters.headMap(next, true);
+        for (List<CompletableFuture<Void>> waiting : due.values()) {
+            for (CompletableFuture<Void> f : waiting) released.add(() -> f.complete(null));
+        }
+        due.clear();
+        return next;
+    }
+
+    /**
+     * Installs another member's snapshot when this member needs slots that member no longer
+     * retains: the state machine is restored, every slot up to {@code lastSlot} counts as decided
+     * and applied, and any decided slots after it are applied. Ignored if this member has already
+     * applied {@code lastSlot}.
+     *
+     * @param lastSlot last slot the snapshot covers
+     * @param state    the state machine snapshot
+     * @return {@code true} if the snapshot was installed
+     * @throws IllegalArgumentException if the bytes are not a snapshot of this state machine
+     */
+    boolean install(long lastSlot, byte[] state) {
+        List<Runnable> ready;
+        synchronized (this) {
+            if (lastSlot < firstUndecided) return false;
+            stateMachine.restore(state);
+            decided.advanceTo(lastSlot + 1);
+            ahead.headMap(lastSlot, true).clear();
+            votes.keySet().removeIf(s -> s <= lastSlot);
+            firstUndecided = lastSlot + 1;
+            highestDecided = Math.max(highestDecided, lastSlot);
+            if (decidedLog != null) decidedLog.snapshot(lastSlot, state);
+            applyPrefix();
+            ready = released;
+            if (!ready.isEmpty()) released = new ArrayList<>();
+        }
+        for (Runnable r : ready) r.run();
+        return true;
+    }
+
+    /**
+     * Returns a snapshot of the applied state if {@code from} is no longer retained here, so a
+     * member asking for it must install the snapshot instead.
+     *
+     * @param from   lowest slot the asking member needs
+     * @param cached a snapshot taken here earlier, or {@code null}
+     * @return {@code cached} if the slots after it are still retained, else the state through the
+     *         slot before the first undecided one; {@code null} if {@code from} can still be
+     *         served entry by entry
+     */
+    synchronized Snapshot snapshotBelow(long from, Snapshot cached) {
+        if (from >= retained() || firstUndecided == 0) return null;
+        if (cached != null && cached.lastSlot + 1 >= retained()) return cached;
+        return new Snapshot(firstUndecided - 1, stateMachine.snapshot());
+    }
+
+    /**
+     * @return the lowest slot from which every decided value can still be read here; the decided
+     *         log is only relied on after its snapshot, as an installed snapshot leaves a gap below
+     */
+    private long retained() {
+        if (decidedLog == null) return decided.base();
+        return Math.min(decided.base(), Math.max(decidedLog.firstSlot(), decidedLog.snapshotSlot() + 1));
+    }
+
+    /**
+     * Applies a decided slot once every slot before it is decided: applies its values to the state
+     * machine, stores the entry in the decided log and snapshots when the interval has passed.
+     *
+     * @param slot  the next slot of the decided prefix
+     * @param value its value
+     */
+    private void apply(long slot, String value) {
+        applyValues(slot, value);
+        if (decidedLog == null) return;
+        decidedLog.append(slot, value);
+        if (decidedLog.snapshotDue(slot)) {
+            decidedLog.snapshot(slot, stateMachine.snapshot());
+            logger.log("[LEARNER] Snapshot through slot=%d", slot);
+        }
+    }
+
+    /**
+     * Applies each value of a slot to the state machine in order; no-ops are skipped, and a
+     * value the state machine rejects is logged and skipped so it cannot stall the log.
+     */
+    private void applyValues(long slot, String value) {
+        if (PaxosHandler.NO_OP.equals(value)) return;
+        for (String v : Batch.decode(value)) {
+            String result;
+            try {
+                result = stateMachine.apply(slot, v);
+            } catch (RuntimeException e) {
+                logger.warn("[LEARNER] slot=%d not applied: %s", slot, e.getMessage());
+                result = null;
+            }
+            if (!resultWaiters.isEmpty()) {
+                List<CompletableFuture<String>> waiting = resultWaiters.remove(v);
+                if (waiting != null) {
+                    for (CompletableFuture<String> f : waiting) {
+                        String r = result;
+                        released.add(() -> f.complete(r));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first slot this member has not learned a decision for (lock-free read)
+     */
+    long firstUndecided() {
+        return firstUndecided;
+    }
+
+    /**
+     * Returns a future that completes once every slot below {@code index} is decided and applied.
+     *
+     * @param index read index
+     * @return a future, already complete if the applied prefix reaches {@code index}
+     */
+    CompletableFuture<Void> awaitApplied(long index) {
+        if (firstUndecided >= index) return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        synchronized (this) {
+            if (firstUndecided >= index) return CompletableFuture.completedFuture(null);
+            appliedWaiters.computeIfAbsent(index, k -> new ArrayList<>()).add(f);
+        }
+        return f;
+    }
+
+    /**
+     * Stops waiting for the applied prefix, e.g. after a read timed out.
+     *
+     * @param index the index passed to {@link #awaitApplied}
+     * @param f     the future it returned
+     */
+    synchronized void cancelApplied(long index, CompletableFuture<Void> f) {
+        List<CompletableFuture<Void>> waiting = appliedWaiters.get(index);
+        if (waiting != null && waiting.remove(f) && waiting.isEmpty()) {
+            appliedWaiters.remove(index);
+        }
+    }
+
+    /**
+     * Returns a future that completes with the state machine's result when {@code command} is next
+     * applied. Register before proposing the command, so the decision cannot be missed.
+     *
+     * @param command the value about to be proposed
+     * @return completes with the result (possibly {@code null}) of applying it
+     */
+    synchronized CompletableFuture<String> awaitResult(String command) {
+        CompletableFuture<String> f = new CompletableFuture<>();
+        resultWaiters.computeIfAbsent(command, k -> new ArrayList<>()).add(f);
+        return f;
+    }
+
+    /**
+     * Stops waiting for a command, e.g. after a client request timed out.
+     *
+     * @param command the command passed to {@link #awaitResult}
+     * @param f       the future it returned
+     */
+    synchronized void cancelResult(String command, CompletableFuture<String> f) {
+        List<CompletableFuture<String>> waiting = resultWaiters.get(command);
+        if (waiting != null && waiting.remove(f) && waiting.isEmpty()) {
+            resultWaiters.remove(command);
+        }
+    }
+
+    /**
+     * Tells whether a slot is decided (or so old it is no longer retained, which only happens once
+     * it has been applied).
+     *
+     * @param slot the slot
+     * @return {@code true} if the slot is settled
+     */
+    synchronized boolean isDecided(long slot) {
+        return slot < decided.base() || decided.get(slot) != null || ahead.containsKey(slot);
+    }
+
+    /**
+     * Returns the decided value of a slot, from memory or the decided log.
+     *
+     * @param slot log slot
+     * @return the decided slot value, or {@code null}
+     */
+    synchronized String get(long slot) {
+        String v = decided.get(slot);
+        if (v == null) v = ahead.get(slot);
+        if (v == null && decidedLog != null && slot < decided.base()) v = decidedLog.get(slot);
+        return v;
+    }
+
+    /**
+     * Lists known decided entries from {@code from} onwards as {@link Ballot#DECIDED} markers.
+     *
+     * @param from lowest slot to report, normally a {@link #promiseFloor(long, int)}
+     * @return the entries in slot order
+     */
+    synchronized List<Message.Entry> decidedFrom(long from) {
+        return decidedFrom(from, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lists known decided entries from {@code from} onwards, up to a count and a total value size.
+     *
+     * @param from       lowest slot to report
+     * @param maxEntries most entries returned
+     * @param maxChars   value characters after which no further entry is added
+     * @return the entries in slot order
+     */
+    synchronized List<Message.Entry> decidedFrom(long from, int maxEntries, int maxChars) {
+        List<Message.Entry> entries = new ArrayList<>();
+        int chars = 0;
+        for (long s = from; s <= highestDecided && entries.size() < maxEntries && chars < maxChars; s++) {
+            String v = get(s);
+            if (v != null) {
+                entries.add(new Message.Entry(s, Ballot.DECIDED, v));
+                chars += v.length();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the highest slot decided here, or -1; above {@link #firstUndecided()} there are gaps
+     */
+    synchronized long highestDecided() {
+        return highestDecided;
+    }
+
+    /**
+     * Returns the lowest slot a PROMISE for {@code from} reports on: no lower than what is retained
+     * and no more than {@code max} slots below the first undecided one.
+     *
+     * @param from lowest slot requested
+     * @param max  how far below the first undecided slot to reach
+     * @return the first slot covered
+     */
+    synchronized long promiseFloor(long from, int max) {
+        return Math.max(from, Math.max(retained(), firstUndecided - max));
+    }
+
+    /**
+     * @return the state machine decided values are applied to
+     */
+    StateMachine stateMachine() {
+        return stateMachine;
+    }
+
+    /**
+     * Learner votes for one undecided slot, grouped by ballot (usually exactly one).
+     */
+    private static final class SlotVotes {
+        private long[] ballots = new long[1];
+        private BitSet[] voters = new BitSet[1];
+        private int size;
+
+        /**
+         * Records a vote and returns the distinct members that accepted that ballot.
+         */
+        BitSet add(long ballot, int voter) {
+            for (int i = 0; i < size; i++) {
+                if (ballots[i] == ballot) {
+                    voters[i].set(voter);
+                    return voters[i];
+                }
+            }
+            if (size == ballots.length) {
+                ballots = Arrays.copyOf(ballots, size * 2);
+                voters = Arrays.copyOf(voters, size * 2);
+            }
+            ballots[size] = ballot;
+            voters[size] = new BitSet();
+            voters[size].set(voter);
+            return voters[size++];
+        }
+    }
+}
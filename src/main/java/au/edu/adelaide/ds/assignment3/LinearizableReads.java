@@ -0,0 +1,196 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Linearizable reads of the applied state without a Paxos round.
+ * <p>
+ * A read first obtains a read index — a slot such that every value decided before the read
+ * started lies below it — and then waits until this member has applied every slot below it:
+ * </p>
+ * <ul>
+ *     <li>the leader uses its own next slot while it holds a read lease
+ *     ({@link Proposer#leaseReadIndex()}), so with nothing in flight a read is a local lookup;</li>
+ *     <li>a follower asks the leader with a READ_INDEX message (ReadIndex), which the leader
+ *     answers from its lease; reads that arrive while a request is outstanding share the next one,
+ *     so followers add one small round trip per batch of reads, not per read.</li>
+ * </ul>
+ * <p>
+ * A follower whose applied prefix is below the read index it got tells {@link CatchUp}, so slots
+ * it missed (a lost ACCEPTED) are fetched rather than waited for; a read that still does not
+ * catch up in time fails and stops waiting.
+ * </p>
+ */
+final class LinearizableReads {
+
+    //How long a read may wait for a read index, and then for the applied prefix to catch up.
+    static final long READ_TIMEOUT_MS = 2000;
+
+    private final String memberId;
+    private final Proposer proposer;
+    private final Learner learner;
+    private final TimerService timers;
+    private final BiConsumer<String, Message> sendTo;
+    private final LongConsumer behind;
+
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<Long>> awaitingIndex = new ConcurrentHashMap<>();
+
+    //Follower batching: the READ_INDEX request in flight and the one collecting reads meanwhile
+    private CompletableFuture<Long> outstanding;
+    private CompletableFuture<Long> next;
+
+    /**
+     * @param memberId this member's ID
+     * @param proposer source of the lease and the known leader
+     * @param learner  applied state
+     * @param timers   shared timer for read timeouts
+     * @param sendTo   sends a message to one member
+     * @param behind   told a read index above the applied prefix, see {@link CatchUp#behind(long)}
+     */
+    LinearizableReads(String memberId, Proposer proposer, Learner learner, TimerService timers,
+                      BiConsumer<String, Message> sendTo, LongConsumer behind) {
+        this.memberId = memberId;
+        this.proposer = proposer;
+        this.learner = learner;
+        this.timers = timers;
+        this.sendTo = sendTo;
+        this.behind = behind;
+    }
+
+    /**
+     * Returns a future that completes once this member's applied state reflects every value
+     * decided before the call; reading the state then is linearizable.
+     *
+     * @return the read barrier; fails with {@link IllegalStateException} when no leader with a
+     * lease can be reached, or {@link TimeoutException} if the state does not catch up in time
+     */
+    CompletableFuture<Void> barrier() {
+        long index = proposer.leaseReadIndex();
+        if (index >= 0) {
+            return applied(index);
+        }
+        String leader = proposer.knownLeader();
+        if (leader == null || leader.equals(memberId)) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("no leader holding a read lease"));
+            return failed;
+        }
+        return followerIndex(leader).thenCompose(readIndex -> {
+            behind.accept(readIndex);
+            return applied(readIndex);
+        });
+    }
+
+    /**
+     * Answers a follower's READ_INDEX from this member's lease.
+     *
+     * @param msg the READ_INDEX
+     */
+    void onReadIndex(Message msg) {
+        long index = proposer.leaseReadIndex();
+        Message reply = new Message();
+        reply.setType(Message.MessageType.READ_INDEX_REPLY);
+        reply.setSenderId(memberId);
+        reply.setSlot(msg.getSlot());
+        reply.setValue(index >= 0 ? Long.toString(index) : null);
+        sendTo.accept(msg.getSenderId(), reply);
+    }
+
+    /**
+     * Completes the read requests waiting for a READ_INDEX_REPLY.
+     *
+     * @param msg the READ_INDEX_REPLY
+     */
+    void onReadIndexReply(Message msg) {
+        CompletableFuture<Long> f = awaitingIndex.remove(msg.getSlot());
+        if (f == null) return;
+        if (msg.getValue() == null) {
+            f.completeExceptionally(new IllegalStateException(msg.getSenderId() + " holds no read lease"));
+        } else {
+            try {
+                f.complete(Long.parseLong(msg.getValue()));
+            } catch (NumberFormatException e) {
+                f.completeExceptionally(new IllegalStateException("bad read index " + msg.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Returns a read index from the leader obtained after this call: joins the request collecting
+     * reads if one is in flight, otherwise sends one.
+     */
+    private synchronized CompletableFuture<Long> followerIndex(String leader) {
+        if (outstanding == null) {
+            outstanding = request(leader, new CompletableFuture<>());
+            return outstanding;
+        }
+        if (next == null) {
+            next = new CompletableFuture<>();
+        }
+        return next;
+    }
+
+    private CompletableFuture<Long> request(String leader, CompletableFuture<Long> f) {
+        long id = requestIds.incrementAndGet();
+        awaitingIndex.put(id, f);
+        TimerService.Timeout timeout = timers.schedule(READ_TIMEOUT_MS, () -> {
+            if (awaitingIndex.remove(id) != null) {
+                f.completeExceptionally(new TimeoutException("no READ_INDEX_REPLY from " + leader));
+            }
+        });
+        f.whenComplete((v, e) -> {
+            timeout.cancel();
+            sendNext();
+        });
+
+        Message m = new Message();
+        m.setType(Message.MessageType.READ_INDEX);
+        m.setSenderId(memberId);
+        m.setSlot(id);
+        sendTo.accept(leader, m);
+        return f;
+    }
+
+    /**
+     * Sends the READ_INDEX for reads that arrived while the previous one was in flight.
+     */
+    private void sendNext() {
+        CompletableFuture<Long> f;
+        String leader = proposer.knownLeader();
+        boolean noLeader = leader == null || leader.equals(memberId);
+        synchronized (this) {
+            outstanding = null;
+            f = next;
+            next = null;
+            if (f == null) return;
+            if (!noLeader) outstanding = f;
+        }
+        if (noLeader) {
+            f.completeExceptionally(new IllegalStateException("no leader holding a read lease"));
+        } else {
+            request(leader, f);
+        }
+    }
+
+    /**
+     * Waits for the applied prefix to reach a read index, giving up (and no longer waiting in the
+     * learner) after {@link #READ_TIMEOUT_MS}.
+     */
+    private CompletableFuture<Void> applied(long index) {
+        CompletableFuture<Void> f = learner.awaitApplied(index);
+        if (f.isDone()) return f;
+        TimerService.Timeout timeout = timers.schedule(READ_TIMEOUT_MS, () -> {
+            learner.cancelApplied(index, f);
+            f.completeExceptionally(new TimeoutException("read index " + index + " not applied in time"));
+        });
+        f.whenComplete((v, e) -> timeout.cancel());
+        return f;
+    }
+}
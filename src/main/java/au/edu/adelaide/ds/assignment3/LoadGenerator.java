@@ -0,0 +1,317 @@
+package au.edu.adelaide.ds.assignment3;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives proposals against a running council through {@link PaxosClient} and reports decision
+ * latency percentiles and decisions per second.
+ * <p>
+ * Two load shapes are supported:
+ * </p>
+ * <ul>
+ *     <li><b>closed loop</b> ({@code --mode=closed}): {@code --concurrency} requests are kept
+ *     outstanding and each completion immediately issues the next, so the offered load follows the
+ *     cluster's throughput. Latency is measured from each request's send.</li>
+ *     <li><b>open loop</b> ({@code --mode=open}): requests are issued on a fixed schedule of
+ *     {@code --rate} per second whatever the cluster does, with at most {@code --concurrency}
+ *     outstanding. Latency is measured from each request's <i>scheduled</i> send time, so a request
+ *     held back because the generator fell behind or the window was full is charged for the wait
+ *     (the correction for coordinated omission); a stall shows up in the tail rather than as a
+ *     gap in the samples.</li>
+ * </ul>
+ * <p>
+ * Only requests scheduled after {@code --warmup} seconds are measured. Requests still outstanding
+ * when the run ends are waited for, so the slowest ones are not dropped from the tail.
+ * </p>
+ * <p>
+ * A one-line JSON summary is printed to standard output; a readable summary and progress go to
+ * standard error.
+ * </p>
+ * <p>
+ * Usage: {@code java LoadGenerator [--mode=closed|open] [--concurrency=N] [--rate=N]
+ * [--duration=S] [--warmup=S] [--value-bytes=N] [--workload=kv|value] [--clients=N]
+ * [--member=M1]}
+ * </p>
+ */
+public class LoadGenerator {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    //How long to wait for outstanding requests once the run is over.
+    private static final long DRAIN_MS = PaxosClient.DEFAULT_TIMEOUT_MS * 2;
+
+    private final Settings settings;
+    private final List<PaxosClient> clients = new ArrayList<>();
+    private final List<Semaphore> windows = new ArrayList<>();
+    private final int perClient;
+    private final String runId;
+    private final String padding;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong issued = new AtomicLong();
+
+    //Nanosecond bounds of the run; requests scheduled in [measureFrom, endAt) are measured
+    private long measureFrom;
+    private long endAt;
+
+    private LoadGenerator(Settings settings, NetworkConfig config) {
+        this.settings = settings;
+        this.runId = Long.toString(System.currentTimeMillis(), 36);
+        this.perClient = (settings.concurrency + settings.clients - 1) / settings.clients;
+        for (int i = 0; i < settings.clients; i++) {
+            clients.add(new PaxosClient("load-" + runId + "-" + i, config, settings.member,
+                    PaxosClient.DEFAULT_TIMEOUT_MS));
+            windows.add(new Semaphore(perClient));
+        }
+        char[] pad = new char[settings.valueBytes];
+        Arrays.fill(pad, 'x');
+        this.padding = new String(pad);
+    }
+
+    /**
+     * Runs the load and returns the summary.
+     */
+    private Map<String, Object> run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSec);
+        endAt = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSec);
+
+        Thread progress = new Thread(this::reportProgress, "load-progress");
+        progress.setDaemon(true);
+        progress.start();
+
+        if (settings.open) {
+            runOpen(start);
+        } else {
+            runClosed();
+        }
+        long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MS);
+        for (int i = 0; i < clients.size(); i++) {
+            long left = drainUntil - System.nanoTime();
+            if (left <= 0 || !windows.get(i).tryAcquire(perClient, left, TimeUnit.NANOSECONDS)) break;
+        }
+        progress.interrupt();
+        return summary();
+    }
+
+    /**
+     * One thread per client keeps its share of the window full.
+     */
+    private void runClosed() throws InterruptedException {
+        List<Thread> drivers = new ArrayList<>();
+        for (int i = 0; i < clients.size(); i++) {
+            int c = i;
+            Thread t = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < endAt) {
+                        windows.get(c).acquire();
+                        long sentAt = System.nanoTime();
+                        issue(c, sentAt);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "load-driver-" + i);
+            drivers.add(t);
+            t.start();
+        }
+        for (Thread t : drivers) t.join();
+    }
+
+    /**
+     * Issues request {@code n} at {@code start + n / rate}, round robin over the clients. A
+     * request that cannot be sent on time keeps its scheduled time as its start.
+     */
+    private void runOpen(long start) throws InterruptedException {
+        double interval = (double) NANOS_PER_SECOND / settings.rate;
+        for (long n = 0; ; n++) {
+            long scheduledAt = start + (long) (n * interval);
+            if (scheduledAt >= endAt) return;
+            long wait = scheduledAt - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+            int c = (int) (n % clients.size());
+            windows.get(c).acquire();
+            issue(c, scheduledAt);
+        }
+    }
+
+    private void issue(int c, long startedAt) {
+        long n = issued.getAndIncrement();
+        PaxosClient client = clients.get(c);
+        String value = padding.isEmpty() ? Long.toString(n) : n + "-" + padding;
+        CompletableFuture<String> f = settings.kv
+                ? client.put("load-" + (n & 1023), value)
+                : client.submit("LOAD_" + runId + "_" + value);
+        f.whenComplete((r, e) -> {
+            long done = System.nanoTime();
+            if (startedAt >= measureFrom && startedAt < endAt) {
+                if (e != null) {
+                    failed.incrementAndGet();
+                } else {
+                    completed.incrementAndGet();
+                    latency.record(done - startedAt);
+                }
+            }
+            windows.get(c).release();
+        });
+    }
+
+    private void reportProgress() {
+        long last = 0;
+        try {
+            while (true) {
+                Thread.sleep(1000);
+                long now = issued.get();
+                int outstanding = 0;
+                for (PaxosClient c : clients) outstanding += c.outstanding();
+                System.err.printf("[LOAD] %d req/s issued, %d outstanding, leader %s%n",
+                        now - last, outstanding, clients.get(0).target());
+                last = now;
+            }
+        } catch (InterruptedException e) {
+            // run finished
+        }
+    }
+
+    private Map<String, Object> summary() {
+        double seconds = (double) (endAt - measureFrom) / NANOS_PER_SECOND;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("mode", settings.open ? "open" : "closed");
+        out.put("workload", settings.kv ? "kv" : "value");
+        out.put("concurrency", settings.concurrency);
+        if (settings.open) out.put("targetRate", settings.rate);
+        out.put("clients", settings.clients);
+        out.put("valueBytes", settings.valueBytes);
+        out.put("durationSec", settings.durationSec);
+        out.put("completed", completed.get());
+        out.put("failed", failed.get());
+        out.put("decisionsPerSec", Math.round(completed.get() / seconds * 10) / 10.0);
+        Map<String, Object> us = new LinkedHashMap<>();
+        us.put("p50", micros(latency.valueAtPercentile(50)));
+        us.put("p90", micros(latency.valueAtPercentile(90)));
+        us.put("p99", micros(latency.valueAtPercentile(99)));
+        us.put("p999", micros(latency.valueAtPercentile(99.9)));
+        us.put("max", micros(latency.max()));
+        us.put("mean", micros(Math.round(latency.mean())));
+        out.put("latencyUs", us);
+        return out;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private void close() {
+        for (PaxosClient c : clients) c.close();
+    }
+
+    /**
+     * Command-line settings.
+     */
+    private static final class Settings {
+        boolean open;
+        boolean kv = true;
+        int concurrency = 16;
+        int rate = 1000;
+        int durationSec = 30;
+        int warmupSec = 5;
+        int valueBytes = 16;
+        int clients = 1;
+        String member;
+    }
+
+    /**
+     * Entry point: parses the flags, runs the load against the members in {@code network.config},
+     * and prints the summary.
+     *
+     * @param args command-line flags, see the class description
+     * @throws IOException          if the network configuration cannot be loaded
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Settings s = new Settings();
+        for (String a : args) {
+            if (a.startsWith("--mode=")) {
+                String mode = a.substring("--mode=".length()).trim().toLowerCase();
+                if (!mode.equals("open") && !mode.equals("closed")) {
+                    System.err.println("Unknown mode " + mode + " (expected closed or open)");
+                    return;
+                }
+                s.open = mode.equals("open");
+            } else if (a.startsWith("--workload=")) {
+                s.kv = !a.substring("--workload=".length()).trim().equalsIgnoreCase("value");
+            } else if (a.startsWith("--concurrency=")) {
+                s.concurrency = parsePositive(a.substring("--concurrency=".length()), s.concurrency);
+            } else if (a.startsWith("--rate=")) {
+                s.rate = parsePositive(a.substring("--rate=".length()), s.rate);
+            } else if (a.startsWith("--duration=")) {
+                s.durationSec = parsePositive(a.substring("--duration=".length()), s.durationSec);
+            } else if (a.startsWith("--warmup=")) {
+                try {
+                    s.warmupSec = Math.max(0, Integer.parseInt(a.substring("--warmup=".length()).trim()));
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a.startsWith("--value-bytes=")) {
+                try {
+                    s.valueBytes = Math.max(0, Integer.parseInt(a.substring("--value-bytes=".length()).trim()));
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a.startsWith("--clients=")) {
+                s.clients = parsePositive(a.substring("--clients=".length()), s.clients);
+            } else if (a.startsWith("--member=")) {
+                s.member = a.substring("--member=".length()).trim();
+            } else {
+                System.err.println("Usage: java LoadGenerator [--mode=closed|open] [--concurrency=N] [--rate=N]"
+                        + " [--duration=S] [--warmup=S] [--value-bytes=N] [--workload=kv|value] [--clients=N] [--member=M1]");
+                return;
+            }
+        }
+        s.clients = Math.min(s.clients, s.concurrency);
+        // The key-value store remembers results for a bounded window of each client's sequence
+        // numbers; more outstanding requests than that could have a retry ignored as too old.
+        if (s.kv && (s.concurrency + s.clients - 1) / s.clients > KeyValueStore.DEDUP_WINDOW) {
+            s.clients = (s.concurrency + KeyValueStore.DEDUP_WINDOW - 1) / KeyValueStore.DEDUP_WINDOW;
+        }
+
+        NetworkConfig config = NetworkConfig.load();
+        LoadGenerator gen = new LoadGenerator(s, config);
+        System.err.printf("[LOAD] %s loop, %d outstanding%s, %ds (+%ds warmup), %d-byte values, %d client(s)%n",
+                s.open ? "open" : "closed", s.concurrency, s.open ? " max at " + s.rate + " req/s" : "",
+                s.durationSec, s.warmupSec, s.valueBytes, s.clients);
+        Map<String, Object> summary;
+        try {
+            summary = gen.run();
+        } finally {
+            gen.close();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> us = (Map<String, Object>) summary.get("latencyUs");
+        System.err.printf("[LOAD] %s decisions/s, %s completed, %s failed; latency us p50=%s p99=%s p999=%s max=%s%n",
+                summary.get("decisionsPerSec"), summary.get("completed"), summary.get("failed"),
+                us.get("p50"), us.get("p99"), us.get("p999"), us.get("max"));
+        System.out.println(new GsonBuilder().disableHtmlEscaping().create().toJson(summary));
+    }
+
+    private static int parsePositive(String s, int fallback) {
+        try {
+            int v = Integer.parseInt(s.trim());
+            return v > 0 ? v : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
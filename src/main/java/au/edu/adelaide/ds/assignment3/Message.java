@@ -1,11 +1,28 @@
 package au.edu.adelaide.ds.assignment3;
 
+import com.google.gson.annotations.JsonAdapter;
+
+import java.util.List;
+
 /**
  * Represents a message exchanged between Paxos nodes.
  * <p>
  * Each message carries information relevant to a specific phase of the Paxos protocol,
  * such as proposal numbers, values, and previous acceptor state.
  * </p>
+ * <p>
+ * Proposal numbers are held as packed {@link Ballot}s; the JSON form still carries them as
+ * {@code "round.memberId"} strings.
+ * </p>
+ * <p>
+ * Every message refers to a {@code slot} of the replicated log. A PREPARE covers its slot and
+ * every later one; the matching PROMISE lists the acceptor's accepted (and known decided) entries
+ * from that slot on.
+ * </p>
+ * <p>
+ * A message that is part of a traced consensus instance carries a {@link Trace}: the trace it
+ * belongs to, the span that sent it and when (see {@link Tracer}).
+ * </p>
  */
 public class Message {
 
@@ -16,22 +33,156 @@ public class Message {
      *     <li>{@code PROMISE} — sent by acceptor in response to PREPARE</li>
      *     <li>{@code ACCEPT_REQUEST} — sent by proposer to request acceptance of a value</li>
      *     <li>{@code ACCEPTED} — sent by acceptor upon accepting a proposal</li>
-     *     <li>{@code DECIDE} — optional final decision notification (unused in basic Paxos)</li>
+     *     <li>{@code DECIDE} — answer to a CATCH_UP: {@code entries} are decided slots from the requested
+     *     one on, and {@code slot} is the sender's first undecided slot; if the sender no longer
+     *     retains the requested slot, {@code value} is instead a Base64 snapshot of its state
+     *     through {@code slot - 1}</li>
+     *     <li>{@code CATCH_UP} — a member that missed decisions asks for the decided slots from
+     *     {@code slot} on</li>
+     *     <li>{@code HEARTBEAT} — sent by the leader; {@code slot} is its first undecided slot and
+     *     {@code value} a heartbeat sequence number</li>
+     *     <li>{@code HEARTBEAT_ACK} — an acceptor's lease grant, echoing the heartbeat's ballot and value</li>
+     *     <li>{@code READ_INDEX} — a follower asks the leader for a read index; {@code slot} is a request ID</li>
+     *     <li>{@code READ_INDEX_REPLY} — the leader's answer to a READ_INDEX with the same {@code slot};
+     *     {@code value} is the read index, or absent if the leader holds no lease</li>
+     *     <li>{@code CLIENT_REQUEST} — a client submits the command in {@code value}; {@code slot} is
+     *     the client's request ID and {@code senderId} its client ID</li>
+     *     <li>{@code CLIENT_REPLY} — the command with request ID {@code slot} was applied; {@code value}
+     *     is the state machine's result</li>
+     *     <li>{@code CLIENT_REDIRECT} — the request with ID {@code slot} was not handled here; retry at
+     *     the member in {@code value} (the leader), or at any member if it is absent</li>
+     *     <li>{@code FORWARD} — a follower hands the values in {@code value} (a {@link Batch}) to the
+     *     leader to propose</li>
      * </ul>
+     * New types are only ever appended: the binary codec sends the ordinal.
      */
     public enum MessageType {
         PREPARE,
         PROMISE,
         ACCEPT_REQUEST,
         ACCEPTED,
-        DECIDE
+        DECIDE,
+        CATCH_UP,
+        HEARTBEAT,
+        HEARTBEAT_ACK,
+        READ_INDEX,
+        READ_INDEX_REPLY,
+        CLIENT_REQUEST,
+        CLIENT_REPLY,
+        CLIENT_REDIRECT,
+        FORWARD
     }
 
     private MessageType type;
-    private String proposalNumber;
+    @JsonAdapter(Ballot.JsonAdapter.class)
+    private long proposalNumber;
     private String senderId;
     private String value;
-    private String prevAcceptedN;
+    private long slot;
+    private List<Entry> entries;
+    private Trace trace;
+
+    /**
+     * Trace context of a message: the trace, the sender's span that produced the message, and
+     * the sender's clock (microseconds since the epoch) when it was sent. Immutable, so one
+     * instance can be shared by every copy of a broadcast.
+     */
+    public static final class Trace {
+        private long traceId;
+        private long spanId;
+        private long sentAtMicros;
+
+        /**
+         * Creates an empty trace context (used by deserializers).
+         */
+        public Trace() {
+        }
+
+        /**
+         * Creates a trace context.
+         *
+         * @param traceId      the trace
+         * @param spanId       the sending span
+         * @param sentAtMicros send time, in microseconds since the epoch
+         */
+        public Trace(long traceId, long spanId, long sentAtMicros) {
+            this.traceId = traceId;
+            this.spanId = spanId;
+            this.sentAtMicros = sentAtMicros;
+        }
+
+        /**
+         * @return the trace ID
+         */
+        public long getTraceId() {
+            return traceId;
+        }
+
+        /**
+         * @return the ID of the span that sent the message
+         */
+        public long getSpanId() {
+            return spanId;
+        }
+
+        /**
+         * @return when the message was sent, in microseconds since the epoch
+         */
+        public long getSentAtMicros() {
+            return sentAtMicros;
+        }
+    }
+
+    /**
+     * One log entry an acceptor reports in a PROMISE: the highest-ballot value it accepted for a
+     * slot, or a value it already knows is decided (reported with {@link Ballot#DECIDED}).
+     */
+    public static class Entry {
+        private long slot;
+        @JsonAdapter(Ballot.JsonAdapter.class)
+        private long ballot;
+        private String value;
+
+        /**
+         * Creates an empty entry (used by deserializers).
+         */
+        public Entry() {
+        }
+
+        /**
+         * Creates an entry.
+         *
+         * @param slot   log slot
+         * @param ballot ballot the value was accepted in, or {@link Ballot#DECIDED}
+         * @param value  the accepted value
+         */
+        public Entry(long slot, long ballot, String value) {
+            this.slot = slot;
+            this.ballot = ballot;
+            this.value = value;
+        }
+
+        /**
+         * @return the log slot
+         */
+        public long getSlot() {
+            return slot;
+        }
+
+        /**
+         * @return the ballot the value was accepted in, or {@link Ballot#DECIDED}
+         */
+        public long getBallot() {
+            return ballot;
+        }
+
+        /**
+         * @return the accepted value
+         */
+        public String getValue() {
+            return value;
+        }
+    }
 
     /**
      * Returns the type of this Paxos message.
@@ -54,18 +205,18 @@ public class Message {
     /**
      * Returns the proposal number associated with this message.
      *
-     * @return the proposal number string (e.g., "2.4")
+     * @return the packed ballot (see {@link Ballot}), or {@link Ballot#NONE}
      */
-    public String getProposalNumber() {
+    public long getProposalNumber() {
         return proposalNumber;
     }
 
     /**
      * Sets the proposal number for this message.
      *
-     * @param proposalNumber the proposal number to assign
+     * @param proposalNumber the packed ballot to assign
      */
-    public void setProposalNumber(String proposalNumber) {
+    public void setProposalNumber(long proposalNumber) {
         this.proposalNumber = proposalNumber;
     }
 
@@ -106,23 +257,59 @@ public class Message {
     }
 
     /**
-     * Returns the proposal number of the previously accepted value (if any).
+     * Returns the log slot this message refers to.
      * <p>
-     * Used in PROMISE messages to inform proposers of earlier acceptances.
+     * For PREPARE/PROMISE this is the first slot covered by the promise.
      * </p>
      *
-     * @return the previously accepted proposal number, or {@code null}
+     * @return the slot index (0 for the first decision)
+     */
+    public long getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the log slot this message refers to.
+     *
+     * @param slot the slot index
+     */
+    public void setSlot(long slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Returns the accepted/decided entries reported in a PROMISE.
+     *
+     * @return the entries, or {@code null} if there are none
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Sets the accepted/decided entries reported in a PROMISE.
+     *
+     * @param entries the entries (may be {@code null})
+     */
+    public void setEntries(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the trace context, if this message is traced.
+     *
+     * @return the trace context, or {@code null}
      */
-    public String getPrevAcceptedN() {
-        return prevAcceptedN;
+    public Trace getTrace() {
+        return trace;
     }
 
     /**
-     * Sets the previously accepted proposal number (used in PROMISE messages).
+     * Sets the trace context.
      *
-     * @param prevAcceptedN the prior accepted proposal number
+     * @param trace the trace context, or {@code null} for an untraced message
      */
-    public void setPrevAcceptedN(String prevAcceptedN) {
-        this.prevAcceptedN = prevAcceptedN;
+    public void setTrace(Trace trace) {
+        this.trace = trace;
     }
 }
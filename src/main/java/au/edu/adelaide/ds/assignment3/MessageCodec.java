@@ -0,0 +1,52 @@
+package au.edu.adelaide.ds.assignment3;
+
+/**
+ * Converts {@link Message} objects to and from their wire representation.
+ * <p>
+ * Implementations only deal with a single message payload; framing (newline-terminated lines
+ * for text codecs, varint length prefixes for binary codecs) and per-connection codec
+ * negotiation are handled by {@link WireProtocol}.
+ * </p>
+ */
+public interface MessageCodec {
+
+    /**
+     * Returns the identifier sent during connection negotiation.
+     *
+     * @return a codec ID unique among the codecs known to {@link WireProtocol}
+     */
+    byte id();
+
+    /**
+     * Returns a human-readable name (as accepted by {@code --codec=}).
+     *
+     * @return the codec name, e.g. {@code "binary"}
+     */
+    String name();
+
+    /**
+     * Indicates how frames produced by this codec are delimited on a stream.
+     *
+     * @return {@code true} for newline-terminated text frames, {@code false} for length-prefixed frames
+     */
+    boolean lineDelimited();
+
+    /**
+     * Encodes a message into a new payload array (without any framing).
+     *
+     * @param msg the message to encode
+     * @return the encoded payload
+     */
+    byte[] encode(Message msg);
+
+    /**
+     * Decodes one payload produced by {@link #encode(Message)}.
+     *
+     * @param buf source array
+     * @param off offset of the payload in {@code buf}
+     * @param len payload length in bytes
+     * @return the decoded message
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    Message decode(byte[] buf, int off, int len);
+}
@@ -0,0 +1,293 @@
+package au.edu.adelaide.ds.assignment3;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A member's metrics registry: counters, gauges and latency histograms, read out as text in the
+ * Prometheus exposition format ({@link #text()}, served by {@link #serveHttp}) or as JMX
+ * attributes ({@link #registerMBean}).
+ * <p>
+ * Recording never takes a lock: counters are {@link LongAdder}s (striped, so threads on different
+ * cores do not contend) and histograms are {@link LatencyHistogram}s. Gauges and counters kept
+ * elsewhere are registered as suppliers and only read when the metrics are. Series are registered
+ * once at startup; a name may carry labels, e.g. {@code paxos_send_retries_total{peer="M2"}}.
+ * </p>
+ */
+public final class Metrics {
+
+    //Percentiles reported for every histogram
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private enum Type { COUNTER, GAUGE, SUMMARY }
+
+    /**
+     * One registered series: a value supplier, or a histogram.
+     */
+    private static final class Series {
+        final Type type;
+        final String help;
+        final LongSupplier value;
+        final LatencyHistogram histogram;
+
+        Series(Type type, String help, LongSupplier value, LatencyHistogram histogram) {
+            this.type = type;
+            this.help = help;
+            this.value = value;
+            this.histogram = histogram;
+        }
+    }
+
+    //Sorted by name, so the series of one metric are listed together
+    private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers a counter.
+     *
+     * @param name series name, optionally with labels
+     * @param help what it counts
+     * @return the counter to increment
+     */
+    public LongAdder counter(String name, String help) {
+        LongAdder counter = new LongAdder();
+        register(name, new Series(Type.COUNTER, help, counter::sum, null));
+        return counter;
+    }
+
+    /**
+     * Registers a counter kept elsewhere.
+     *
+     * @param name  series name, optionally with labels
+     * @param help  what it counts
+     * @param value reads the current count
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        register(name, new Series(Type.COUNTER, help, value, null));
+    }
+
+    /**
+     * Registers a gauge.
+     *
+     * @param name  series name, optionally with labels
+     * @param help  what it measures
+     * @param value reads the current value
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        register(name, new Series(Type.GAUGE, help, value, null));
+    }
+
+    /**
+     * Registers a histogram, reported as count, sum and percentiles.
+     *
+     * @param name series name without labels, ending in its unit (e.g. {@code _us})
+     * @param help what it measures
+     * @return the histogram to record into
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        if (name.indexOf('{') >= 0) throw new IllegalArgumentException("Histogram names take no labels: " + name);
+        LatencyHistogram histogram = new LatencyHistogram();
+        register(name, new Series(Type.SUMMARY, help, null, histogram));
+        return histogram;
+    }
+
+    private void register(String name, Series s) {
+        if (series.putIfAbsent(name, s) != null) {
+            throw new IllegalArgumentException("Metric already registered: " + name);
+        }
+    }
+
+    /**
+     * Reads the current value of a counter or gauge.
+     *
+     * @param name series name, with its labels
+     * @return the value, or {@code -1} if there is no such counter or gauge
+     */
+    public long value(String name) {
+        Series s = series.get(name);
+        return s == null || s.value == null ? -1 : s.value.getAsLong();
+    }
+
+    /**
+     * Reads a histogram.
+     *
+     * @param name series name
+     * @return the histogram, or {@code null} if there is no such histogram
+     */
+    public LatencyHistogram getHistogram(String name) {
+        Series s = series.get(name);
+        return s == null ? null : s.histogram;
+    }
+
+    /**
+     * Renders every series in the Prometheus text exposition format.
+     *
+     * @return the metrics, one sample per line
+     */
+    public String text() {
+        StringBuilder sb = new StringBuilder(4096);
+        String lastBase = null;
+        for (Map.Entry<String, Series> e : series.entrySet()) {
+            String name = e.getKey();
+            Series s = e.getValue();
+            String base = baseName(name);
+            if (!base.equals(lastBase)) {
+                sb.append("# HELP ").append(base).append(' ').append(s.help).append('\n');
+                sb.append("# TYPE ").append(base).append(' ').append(s.type.name().toLowerCase()).append('\n');
+                lastBase = base;
+            }
+            if (s.histogram == null) {
+                sb.append(name).append(' ').append(s.value.getAsLong()).append('\n');
+                continue;
+            }
+            LatencyHistogram h = s.histogram;
+            for (double q : QUANTILES) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(h.valueAtPercentile(q * 100)).append('\n');
+            }
+            sb.append(name).append("_sum ").append(h.sum()).append('\n');
+            sb.append(name).append("_count ").append(h.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String baseName(String name) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name : name.substring(0, brace);
+    }
+
+    /**
+     * Serves {@link #text()} at {@code http://127.0.0.1:<port>/metrics} from the JDK's built-in
+     * HTTP server. Only the loopback interface is bound.
+     *
+     * @param port the port to listen on ({@code 0} for any free port)
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public HttpServer serveHttp(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = text().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as one MBean whose attributes are the
+     * series: counters and gauges as they are, histograms as {@code _count}, {@code _mean},
+     * {@code _p50}, {@code _p99} and {@code _max} attributes. Labels become part of the
+     * attribute name ({@code paxos_send_retries_total_peer_M2}).
+     *
+     * @param objectName the MBean's name, e.g. {@code au.edu.adelaide.ds.assignment3:type=Metrics,member=M1}
+     * @throws JMException if the name is malformed or already registered
+     */
+    public void registerMBean(String objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName(objectName));
+    }
+
+    private static String attributeName(String name) {
+        return name.replaceAll("[{}\"]", "").replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    /**
+     * Read-only view of the series as JMX attributes.
+     */
+    private final class MBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Map.Entry<String, Series> e : series.entrySet()) {
+                String attr = attributeName(e.getKey());
+                Series s = e.getValue();
+                if (s.histogram == null) {
+                    if (attr.equals(attribute)) return s.value.getAsLong();
+                    continue;
+                }
+                if (!attribute.startsWith(attr + "_")) continue;
+                LatencyHistogram h = s.histogram;
+                switch (attribute.substring(attr.length() + 1)) {
+                    case "count": return h.count();
+                    case "mean": return h.mean();
+                    case "p50": return h.valueAtPercentile(50);
+                    case "p99": return h.valueAtPercentile(99);
+                    case "max": return h.max();
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                    // leave it out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Map.Entry<String, Series> e : series.entrySet()) {
+                String attr = attributeName(e.getKey());
+                Series s = e.getValue();
+                if (s.histogram == null) {
+                    attrs.add(new MBeanAttributeInfo(attr, "long", s.help, true, false, false));
+                    continue;
+                }
+                attrs.add(new MBeanAttributeInfo(attr + "_count", "long", s.help + " (count)", true, false, false));
+                attrs.add(new MBeanAttributeInfo(attr + "_mean", "double", s.help + " (mean)", true, false, false));
+                attrs.add(new MBeanAttributeInfo(attr + "_p50", "long", s.help + " (median)", true, false, false));
+                attrs.add(new MBeanAttributeInfo(attr + "_p99", "long", s.help + " (99th percentile)", true, false, false));
+                attrs.add(new MBeanAttributeInfo(attr + "_max", "long", s.help + " (maximum)", true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Paxos member metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
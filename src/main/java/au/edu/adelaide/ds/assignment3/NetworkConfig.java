@@ -12,17 +12,32 @@ import java.util.*;
  * <p>
  * Example line: {@code M1,localhost,9001}
  * </p>
+ * <p>
+ * Optional {@code key=value} lines choose the {@link QuorumSystem}: {@code quorum=flexible,7,3}
+ * (or {@code majority}, {@code grid,<rows>}, {@code weighted,<w1>,<w2>}), {@code weight=M1,2} per
+ * weighted member, and {@code thrifty=true}. Every member must load the same settings; they are
+ * checked for safety when the file is loaded.
+ * </p>
  */
 public class NetworkConfig {
-    private final Map<String, String> memberHosts = new HashMap<>();
-    private final Map<String, Integer> memberPorts = new HashMap<>();
+    private final Map<String, String> memberHosts = new LinkedHashMap<>();
+    private final Map<String, Integer> memberPorts = new LinkedHashMap<>();
+    private final Map<String, Integer> memberIndex = new HashMap<>();
+    private final List<String> memberOrder = new ArrayList<>();
+
+    //Quorum settings; the quorum system is built from them (and the members) on first use
+    private String quorumSpec;
+    private final Map<String, Integer> weights = new HashMap<>();
+    private boolean thrifty;
+    private QuorumSystem quorums;
 
     /**
      * Loads the {@code network.config} file from the classpath and parses each line
      * into member host and port mappings.
      *
      * @return a fully populated {@code NetworkConfig} instance
-     * @throws IOException if the file is missing or cannot be read properly
+     * @throws IOException if the file is missing or cannot be read properly, or its quorum
+     *                     settings are malformed or unsafe
      */
     public static NetworkConfig load() throws IOException {
         NetworkConfig config = new NetworkConfig();
@@ -37,21 +52,99 @@ public class NetworkConfig {
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty() || line.startsWith("#")) continue; // skip comments or blank lines
+                int eq = line.indexOf('=');
+                if (eq > 0) {
+                    config.setOption(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                    continue;
+                }
                 String[] parts = line.split(",");
                 if (parts.length == 3) {
                     String memberId = parts[0].trim();
                     String host = parts[1].trim();
                     int port = Integer.parseInt(parts[2].trim());
 
-                    config.memberHosts.put(memberId, host);
-                    config.memberPorts.put(memberId, port);
+                    config.addMember(memberId, host, port);
                 }
             }
         }
 
+        try {
+            config.quorums();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("network.config: " + e.getMessage(), e);
+        }
         return config;
     }
 
+    /**
+     * Applies a {@code key=value} line of the configuration file.
+     *
+     * @throws IOException if the key is unknown or the value malformed
+     */
+    private void setOption(String key, String value) throws IOException {
+        switch (key) {
+            case "quorum":
+                setQuorum(value);
+                break;
+            case "thrifty":
+                setThrifty(Boolean.parseBoolean(value));
+                break;
+            case "weight": {
+                String[] parts = value.split(",");
+                try {
+                    if (parts.length != 2) throw new NumberFormatException(value);
+                    setWeight(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("network.config: expected weight=<MemberID>,<weight>, got weight=" + value);
+                }
+                break;
+            }
+            default:
+                throw new IOException("network.config: unknown setting " + key);
+        }
+    }
+
+    /**
+     * Registers a member's address. Used by {@link #load()} and by in-process tools
+     * (benchmarks, simulations) that build a configuration programmatically.
+     *
+     * @param memberId the ID of the member (e.g., "M3")
+     * @param host     the member's hostname
+     * @param port     the member's port
+     */
+    void addMember(String memberId, String host, int port) {
+        quorums = null;
+        memberHosts.put(memberId, host);
+        memberPorts.put(memberId, port);
+        if (!memberIndex.containsKey(memberId)) {
+            memberIndex.put(memberId, memberOrder.size());
+            memberOrder.add(memberId);
+        }
+    }
+
+    /**
+     * Returns the position of a member in file order. Every node loading the same
+     * {@code network.config} agrees on these indices, so they can stand in for member IDs on the wire.
+     *
+     * @param memberId the ID of the member
+     * @return the zero-based index, or {@code -1} if the member is not configured
+     */
+    public int indexOf(String memberId) {
+        Integer i = memberIndex.get(memberId);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the member ID at the given position in file order.
+     *
+     * @param index zero-based index as returned by {@link #indexOf(String)}
+     * @return the canonical member ID string
+     * @throws IndexOutOfBoundsException if no member has that index
+     */
+    public String memberAt(int index) {
+        return memberOrder.get(index);
+    }
+
     /**
      * Returns the hostname for the given member ID.
      *
@@ -78,7 +171,7 @@ public class NetworkConfig {
     }
 
     /**
-     * Returns a set of all member IDs defined in the configuration.
+     * Returns a set of all member IDs defined in the configuration, in file order.
      *
      * @return a {@code Set<String>} of member IDs
      */
@@ -103,4 +196,50 @@ public class NetworkConfig {
     public Map<String, String> getMemberHosts() {
         return memberHosts;
     }
+
+    /**
+     * Sets the quorum system, as on a {@code quorum=} line; used by {@link #load()} and by
+     * in-process tools. It is validated once {@link #quorums()} is called.
+     *
+     * @param spec e.g. {@code "flexible,7,3"}, or {@code null} for majority
+     */
+    void setQuorum(String spec) {
+        quorumSpec = spec;
+        quorums = null;
+    }
+
+    /**
+     * Sets a member's weight for {@code weighted} quorums, as on a {@code weight=} line.
+     *
+     * @param memberId the ID of the member
+     * @param weight   its weight (members not given one weigh 1)
+     */
+    void setWeight(String memberId, int weight) {
+        weights.put(memberId, weight);
+        quorums = null;
+    }
+
+    /**
+     * Sets whether a leader first sends ACCEPT_REQUESTs to one phase 2 quorum only, as on a
+     * {@code thrifty=} line.
+     *
+     * @param thrifty {@code true} to send to a quorum, {@code false} to every member
+     */
+    void setThrifty(boolean thrifty) {
+        this.thrifty = thrifty;
+        quorums = null;
+    }
+
+    /**
+     * Returns the phase 1 and phase 2 quorums of the configured members.
+     *
+     * @return the quorum system, majority unless configured otherwise
+     * @throws IllegalArgumentException if the quorum settings are malformed or unsafe for these members
+     */
+    synchronized QuorumSystem quorums() {
+        if (quorums == null) {
+            quorums = QuorumSystem.parse(quorumSpec, memberOrder, weights, thrifty);
+        }
+        return quorums;
+    }
 }
@@ -0,0 +1,491 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking, selector-based alternative to {@link CouncilMember}'s thread-per-connection
+ * accept loop.
+ * <p>
+ * The calling thread accepts connections and hands them round-robin to a small, fixed set of
+ * I/O threads. Each I/O thread owns a {@link Selector} and one reusable direct read buffer, and
+ * splits the inbound byte stream into frames of the connection's negotiated codec. Frames are
+ * decoded and handled on a shared worker pool, so slow message handling never blocks the I/O
+ * threads. Each connection queues its frames and has at most one worker task draining them, so
+ * a connection's messages are handled one at a time and in the order they arrived, as the
+ * blocking accept loop does. A connection whose queue is full stops being read until a worker
+ * catches up, which pushes back on that peer alone through TCP flow control.
+ * </p>
+ * <p>
+ * Idle connections hold no buffers: partial frames are only buffered per connection while a
+ * frame is split across reads.
+ * </p>
+ * <p>
+ * The handler also gets a reply path for each message, which writes frames back on the same
+ * connection in its codec (used to answer client requests). A reply the socket cannot take at
+ * once is queued and written by the I/O thread when the connection becomes writable.
+ * </p>
+ */
+public class NioServer {
+
+    //Size of each I/O thread's reusable direct read buffer.
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    //Frames one worker task handles before yielding the worker to other connections.
+    private static final int FRAMES_PER_TASK = 64;
+
+    //Unwritten reply bytes a connection may hold before its client is taken to have stopped reading.
+    private static final int MAX_PENDING_REPLY_BYTES = 4 << 20;
+
+    private final int port;
+    private final int maxQueuedFrames;
+    private final WireProtocol wire;
+    private final BiConsumer<Message, Consumer<Message>> handler;
+    private final IoLoop[] loops;
+    private final ThreadPoolExecutor workers;
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+
+    /**
+     * Creates a selector-based server.
+     *
+     * @param port            TCP port to listen on
+     * @param ioThreads       number of selector/I/O threads
+     * @param workerThreads   number of threads that run {@code handler}
+     * @param maxQueuedFrames decoded frames a connection may have waiting before it is no longer read
+     * @param wire            framing and codec negotiation
+     * @param handler         callback invoked with each decoded message and its connection's reply path
+     */
+    public NioServer(int port, int ioThreads, int workerThreads, int maxQueuedFrames,
+                     WireProtocol wire, BiConsumer<Message, Consumer<Message>> handler) {
+        this.port = port;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.wire = wire;
+        this.handler = handler;
+        this.loops = new IoLoop[ioThreads];
+        // Unbounded, but each connection has at most one task queued or running.
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "nio-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Registers the number of frames waiting for a worker and the busy workers.
+     *
+     * @param metrics the member's metrics
+     */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("paxos_inbound_queue_depth", "Decoded frames waiting for a worker", queuedFrames::get);
+        metrics.gauge("paxos_inbound_workers_busy", "Workers handling a frame", workers::getActiveCount);
+    }
+
+    /**
+     * Binds the server socket, starts the I/O threads and runs the accept loop on the calling
+     * thread. This method does not return under normal operation.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+            Thread t = new Thread(loops[i], "nio-io-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+            while (true) {
+                SocketChannel ch = server.accept();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                loops[next].register(ch);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    /**
+     * One selector thread. Owns its channels' selection keys and decoders; the queues a
+     * connection shares with workers are guarded by the connection.
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        //Connections whose interest set may have changed on a worker (queue drained, reply queued)
+        private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            pending.add(ch);
+            selector.wakeup();
+        }
+
+        void update(Connection conn) {
+            changed.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    SocketChannel ch;
+                    while ((ch = pending.poll()) != null) {
+                        Connection conn = new Connection(this, ch);
+                        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+                    }
+                    Connection conn;
+                    while ((conn = changed.poll()) != null) {
+                        conn.updateInterest();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        conn = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(conn);
+                            }
+                        } catch (CancelledKeyException e) {
+                            // closed by a worker meanwhile
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("NIO selector error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void read(Connection conn) {
+            try {
+                int n = 0;
+                while (!conn.full() && (n = conn.channel.read(readBuffer)) > 0) {
+                    readBuffer.flip();
+                    conn.decode(readBuffer);
+                    readBuffer.clear();
+                }
+                if (n < 0) {
+                    conn.close();
+                    return;
+                }
+                conn.updateInterest();
+            } catch (IOException e) {
+                readBuffer.clear();
+                System.err.println("Error handling socket: " + e.getMessage());
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * One connection: answers an optional codec offer (see {@link WireProtocol}), then splits the
+     * byte stream into newline-terminated or varint length-prefixed frames. Bytes of an
+     * incomplete frame are carried over in a lazily allocated heap buffer until the rest arrives.
+     * Decoding runs on the I/O thread only; the frame and reply queues are guarded by the
+     * connection itself.
+     */
+    private final class Connection {
+        private static final int NEW = 0, AWAIT_CODEC = 1, LINES = 2, LENGTH = 3, PAYLOAD = 4;
+
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private int state = NEW;
+        private MessageCodec codec;
+
+        //Line mode: bytes of a line split across reads.
+        private ByteArrayOutputStream partial;
+
+        //Length-prefixed mode: header accumulator and the payload being filled.
+        private long length;
+        private int lengthShift;
+        private byte[] payload;
+        private int filled;
+
+        //Guarded by "this": frames waiting for the handler, whether a worker task is draining them,
+        //and reply bytes the socket has not taken yet
+        private final ArrayDeque<byte[]> inbox = new ArrayDeque<>();
+        private boolean draining;
+        private final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+        private int outboxBytes;
+        private boolean closed;
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void decode(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                switch (state) {
+                    case NEW:
+                        if ((buf.get(buf.position()) & 0xFF) == WireProtocol.PREAMBLE) {
+                            buf.get();
+                            state = AWAIT_CODEC;
+                        } else {
+                            codec = wire.json();
+                            state = LINES;
+                        }
+                        break;
+                    case AWAIT_CODEC:
+                        MessageCodec offered = wire.byId(buf.get() & 0xFF);
+                        codec = offered != null ? offered : wire.json();
+                        send(ByteBuffer.wrap(new byte[]{codec.id()}));
+                        state = codec.lineDelimited() ? LINES : LENGTH;
+                        break;
+                    case LINES:
+                        decodeLines(buf);
+                        break;
+                    case LENGTH:
+                        int b = buf.get() & 0xFF;
+                        length |= (long) (b & 0x7F) << lengthShift;
+                        lengthShift += 7;
+                        if ((b & 0x80) == 0) {
+                            if (length > WireProtocol.MAX_FRAME_BYTES) {
+                                throw new IOException("frame exceeds " + WireProtocol.MAX_FRAME_BYTES + " bytes");
+                            }
+                            if (length > 0) {
+                                payload = new byte[(int) length];
+                                filled = 0;
+                                state = PAYLOAD;
+                            }
+                            length = 0;
+                            lengthShift = 0;
+                        } else if (lengthShift > 28) {
+                            throw new IOException("frame header too long");
+                        }
+                        break;
+                    case PAYLOAD:
+                        int n = Math.min(buf.remaining(), payload.length - filled);
+                        buf.get(payload, filled, n);
+                        filled += n;
+                        if (filled == payload.length) {
+                            dispatch(payload);
+                            payload = null;
+                            state = LENGTH;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("bad decoder state " + state);
+                }
+            }
+        }
+
+        private void decodeLines(ByteBuffer buf) throws IOException {
+            int start = buf.position();
+            int end = indexOfNewline(buf, start, buf.limit());
+            if (end < 0) {
+                append(buf, start, buf.limit());
+                buf.position(buf.limit());
+                return;
+            }
+            byte[] line;
+            if (partial == null || partial.size() == 0) {
+                line = new byte[end - start];
+                slice(buf, start).get(line);
+            } else {
+                append(buf, start, end);
+                line = partial.toByteArray();
+                partial = null;
+            }
+            buf.position(end + 1);
+            int len = line.length;
+            if (len > 0 && line[len - 1] == '\r') len--;
+            if (len > 0) {
+                dispatch(len == line.length ? line : Arrays.copyOf(line, len));
+            }
+        }
+
+        /**
+         * Queues a frame for the handler, starting a worker task unless one is already draining
+         * this connection.
+         */
+        private void dispatch(byte[] frame) {
+            boolean start;
+            synchronized (this) {
+                inbox.add(frame);
+                start = !draining;
+                draining = true;
+            }
+            queuedFrames.incrementAndGet();
+            if (start) workers.execute(this::drain);
+        }
+
+        synchronized boolean full() {
+            return inbox.size() >= maxQueuedFrames;
+        }
+
+        /**
+         * Handles queued frames in order on a worker; after {@link #FRAMES_PER_TASK} frames it
+         * requeues itself so one busy connection cannot hold a worker.
+         */
+        private void drain() {
+            for (int handled = 0; handled < FRAMES_PER_TASK; handled++) {
+                byte[] frame;
+                boolean resume;
+                synchronized (this) {
+                    frame = inbox.poll();
+                    if (frame == null) {
+                        draining = false;
+                        return;
+                    }
+                    resume = inbox.size() == maxQueuedFrames - 1;
+                }
+                queuedFrames.decrementAndGet();
+                if (resume) loop.update(this); // reading was paused at the limit
+                try {
+                    handler.accept(codec.decode(frame, 0, frame.length), this::reply);
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling message: " + e.getMessage());
+                }
+            }
+            workers.execute(this::drain);
+        }
+
+        /**
+         * Writes one framed message back to the peer. Called from worker threads; what the
+         * socket does not take at once is left to the I/O thread.
+         */
+        void reply(Message msg) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            try {
+                wire.writeFrame(frame, codec, codec.encode(msg));
+            } catch (IOException e) {
+                return; // not thrown by an in-memory stream
+            }
+            send(ByteBuffer.wrap(frame.toByteArray()));
+        }
+
+        private void send(ByteBuffer buf) {
+            synchronized (this) {
+                if (closed) return;
+                try {
+                    if (outbox.isEmpty()) channel.write(buf);
+                } catch (IOException e) {
+                    closeChannel();
+                    return;
+                }
+                if (!buf.hasRemaining()) return;
+                if (outboxBytes + buf.remaining() > MAX_PENDING_REPLY_BYTES) {
+                    closeChannel(); // the client stopped reading
+                    return;
+                }
+                outbox.add(buf);
+                outboxBytes += buf.remaining();
+                if (outbox.size() > 1) return; // OP_WRITE already requested
+            }
+            loop.update(this);
+        }
+
+        /**
+         * Writes queued replies when the socket is writable (I/O thread).
+         */
+        void flush() {
+            synchronized (this) {
+                try {
+                    while (!outbox.isEmpty()) {
+                        ByteBuffer buf = outbox.peek();
+                        outboxBytes -= channel.write(buf);
+                        if (buf.hasRemaining()) break;
+                        outbox.poll();
+                    }
+                } catch (IOException e) {
+                    closeChannel();
+                    return;
+                }
+            }
+            updateInterest();
+        }
+
+        /**
+         * Reads while there is room for more frames, and writes while replies are queued (I/O
+         * thread).
+         */
+        void updateInterest() {
+            if (!key.isValid()) return;
+            int ops = 0;
+            synchronized (this) {
+                if (inbox.size() < maxQueuedFrames) ops |= SelectionKey.OP_READ;
+                if (!outbox.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            }
+            try {
+                key.interestOps(ops);
+            } catch (CancelledKeyException e) {
+                // closed by a worker meanwhile
+            }
+        }
+
+        /**
+         * Closes the connection; frames already queued are still handled, but their replies are
+         * dropped.
+         */
+        synchronized void close() {
+            key.cancel();
+            closeChannel();
+        }
+
+        private void closeChannel() {
+            closed = true;
+            outbox.clear();
+            outboxBytes = 0;
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+
+        private void append(ByteBuffer buf, int from, int to) throws IOException {
+            if (partial == null) {
+                partial = new ByteArrayOutputStream(Math.max(64, to - from));
+            }
+            if (partial.size() + (to - from) > WireProtocol.MAX_FRAME_BYTES) {
+                throw new IOException("frame exceeds " + WireProtocol.MAX_FRAME_BYTES + " bytes");
+            }
+            byte[] chunk = new byte[to - from];
+            slice(buf, from).get(chunk);
+            partial.write(chunk);
+        }
+    }
+
+    private static int indexOfNewline(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int from) {
+        ByteBuffer view = buf.duplicate();
+        view.position(from);
+        return view;
+    }
+}
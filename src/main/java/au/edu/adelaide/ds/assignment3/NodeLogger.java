@@ -0,0 +1,299 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timestamped, member-prefixed console logging ({@code [M4][123ms] ...}) shared by the
+ * Paxos role components of one member.
+ * <p>
+ * Logging never formats or writes on the calling thread. An event (time, member, format
+ * and its arguments) is copied into a preallocated ring buffer shared by every logger in the
+ * process, and one background thread formats the events and writes them to {@code System.out}
+ * in batches, in the order they were logged. Events below the current {@link #setLevel level}
+ * are skipped before anything is recorded. When the ring is full the logging thread waits for
+ * the writer rather than losing lines.
+ * </p>
+ * <p>
+ * Formats take {@code %s} and {@code %d}, plus two conversions that defer work to the writer:
+ * {@code %B} renders a packed ballot ({@link Ballot#toString(long)}) and {@code %V} a proposed
+ * value as the proposer shows it (no-ops, batches and key-value commands summarised).
+ * </p>
+ */
+final class NodeLogger {
+
+    /**
+     * Severity of a log event. {@code DEBUG} is per-message protocol traffic, {@code INFO}
+     * protocol milestones (leadership, decisions, timeouts) and {@code WARN} problems.
+     */
+    enum Level {
+        DEBUG, INFO, WARN, OFF;
+
+        /**
+         * Parses a level name, case-insensitively.
+         *
+         * @param name the level name
+         * @return the level
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        static Level parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    //Events at or above this level are logged (process-wide; DEBUG keeps every line)
+    private static volatile Level threshold = Level.DEBUG;
+
+    private static final Writer WRITER = new Writer(8192);
+
+    private final String memberId;
+    private final TimerService clock;
+
+    /**
+     * @param memberId member ID used as the log prefix
+     * @param clock    the member's clock, for the timestamps
+     */
+    NodeLogger(String memberId, TimerService clock) {
+        this.memberId = memberId;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the lowest level that is logged, for every logger in the process.
+     *
+     * @param level the level; {@link Level#OFF} disables logging
+     */
+    static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * @param level a level
+     * @return {@code true} if events at {@code level} are logged
+     */
+    static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * Logs per-message protocol traffic.
+     *
+     * @param fmt  the message format string
+     * @param args arguments for message formatting
+     */
+    void debug(String fmt, Object... args) {
+        if (isEnabled(Level.DEBUG)) WRITER.publish(memberId, now(), fmt, args);
+    }
+
+    /**
+     * Logs a timestamped, node-prefixed protocol milestone.
+     *
+     * @param fmt  the message format string
+     * @param args arguments for message formatting
+     */
+    void log(String fmt, Object... args) {
+        if (isEnabled(Level.INFO)) WRITER.publish(memberId, now(), fmt, args);
+    }
+
+    /**
+     * Logs a problem.
+     *
+     * @param fmt  the message format string
+     * @param args arguments for message formatting
+     */
+    void warn(String fmt, Object... args) {
+        if (isEnabled(Level.WARN)) WRITER.publish(memberId, now(), fmt, args);
+    }
+
+    private long now() {
+        return clock.currentTimeMillis() - CouncilMember.T0;
+    }
+
+    /**
+     * Logs a line regardless of the level, e.g. console output meant for the user.
+     *
+     * @param memberId member ID used as the log prefix
+     * @param timeMs   milliseconds since startup
+     * @param fmt      the message format string
+     * @param args     arguments for message formatting
+     */
+    static void print(String memberId, long timeMs, String fmt, Object... args) {
+        WRITER.publish(memberId, timeMs, fmt, args);
+    }
+
+    /**
+     * Waits until every event logged so far has been written, e.g. before writing to
+     * {@code System.out} directly or replacing it.
+     */
+    static void flush() {
+        WRITER.flush();
+    }
+
+    /**
+     * The ring buffer and its writer thread.
+     * <p>
+     * Producers claim a sequence number, wait for its slot to be free, fill it and publish it by
+     * writing the sequence into the slot. The writer consumes slots in sequence order and frees
+     * each one once formatted, so the arrays in a slot are reused and a logged line allocates
+     * nothing beyond its arguments.
+     * </p>
+     */
+    private static final class Writer implements Runnable {
+
+        //Arguments copied into a slot's own array; longer argument lists are referenced instead
+        private static final int MAX_ARGS = 8;
+        //Formatted bytes buffered before a write even if more events are waiting
+        private static final int BATCH_CHARS = 64 * 1024;
+
+        private static final class Slot {
+            volatile long published = -1;
+            String memberId;
+            long timeMs;
+            String fmt;
+            final Object[] args = new Object[MAX_ARGS];
+            Object[] overflow;
+            int argc;
+        }
+
+        private final Slot[] slots;
+        private final int mask;
+        private final AtomicLong claimed = new AtomicLong();
+        //Next sequence to format; every slot before it is free
+        private volatile long consumed;
+        //Every sequence before this has reached System.out
+        private volatile long written;
+        private volatile boolean sleeping;
+        private volatile Thread thread;
+
+        private final StringBuilder line = new StringBuilder(BATCH_CHARS + 1024);
+
+        Writer(int capacity) {
+            slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) slots[i] = new Slot();
+            mask = capacity - 1;
+        }
+
+        void publish(String memberId, long timeMs, String fmt, Object[] args) {
+            Thread t = thread;
+            if (t == null) t = start();
+            long seq = claimed.getAndIncrement();
+            while (seq - consumed >= slots.length) {
+                LockSupport.unpark(t);
+                LockSupport.parkNanos(50_000);
+            }
+            Slot s = slots[(int) seq & mask];
+            s.memberId = memberId;
+            s.timeMs = timeMs;
+            s.fmt = fmt;
+            s.argc = args.length;
+            if (args.length <= MAX_ARGS) {
+                System.arraycopy(args, 0, s.args, 0, args.length);
+            } else {
+                s.overflow = args;
+            }
+            s.published = seq;
+            if (sleeping) LockSupport.unpark(t);
+        }
+
+        private synchronized Thread start() {
+            if (thread == null) {
+                Thread t = new Thread(this, "node-logger");
+                t.setDaemon(true);
+                t.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "node-logger-flush"));
+                thread = t;
+            }
+            return thread;
+        }
+
+        void flush() {
+            Thread t = thread;
+            if (t == null || t == Thread.currentThread()) return;
+            long target = claimed.get();
+            while (written < target) {
+                LockSupport.unpark(t);
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                Slot s = slots[(int) next & mask];
+                if (s.published != next) {
+                    if (line.length() > 0) write(next);
+                    sleeping = true;
+                    if (s.published != next) LockSupport.parkNanos(1_000_000);
+                    sleeping = false;
+                    continue;
+                }
+                format(s);
+                s.fmt = null;
+                s.memberId = null;
+                s.overflow = null;
+                Arrays.fill(s.args, 0, Math.min(s.argc, MAX_ARGS), null);
+                consumed = ++next;
+                if (line.length() >= BATCH_CHARS) write(next);
+            }
+        }
+
+        private void write(long upTo) {
+            PrintStream out = System.out;
+            out.append(line);
+            out.flush();
+            line.setLength(0);
+            written = upTo;
+        }
+
+        private void format(Slot s) {
+            StringBuilder sb = line;
+            sb.append('[').append(s.memberId).append("][").append(s.timeMs).append("ms] ");
+            Object[] args = s.overflow != null ? s.overflow : s.args;
+            String fmt = s.fmt;
+            int arg = 0;
+            int n = fmt.length();
+            for (int i = 0; i < n; i++) {
+                char c = fmt.charAt(i);
+                if (c != '%' || i + 1 == n) {
+                    sb.append(c);
+                    continue;
+                }
+                char conv = fmt.charAt(++i);
+                switch (conv) {
+                    case '%': sb.append('%'); continue;
+                    case 'n': sb.append(System.lineSeparator()); continue;
+                    default: break;
+                }
+                Object a = arg < s.argc ? args[arg++] : null;
+                switch (conv) {
+                    case 's':
+                    case 'd':
+                        sb.append(a);
+                        break;
+                    case 'B':
+                        sb.append(a instanceof Long ? Ballot.toString((Long) a) : String.valueOf(a));
+                        break;
+                    case 'V':
+                        sb.append(a instanceof String ? Proposer.show((String) a) : String.valueOf(a));
+                        break;
+                    default:
+                        // width, precision or another conversion: let Formatter handle this one
+                        int end = i;
+                        while (end < n && !Character.isLetter(fmt.charAt(end))) end++;
+                        if (end == n) {
+                            sb.append(fmt, i - 1, n);
+                            i = n;
+                            break;
+                        }
+                        sb.append(String.format(fmt.substring(i - 1, end + 1), a));
+                        i = end;
+                        break;
+                }
+            }
+            sb.append(System.lineSeparator());
+        }
+    }
+}
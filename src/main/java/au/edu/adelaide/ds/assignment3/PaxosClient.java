@@ -1,48 +1,440 @@
 package au.edu.adelaide.ds.assignment3;
 
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A simple test client that connects to a Paxos CouncilMember and sends a static PREPARE message.
+ * Client library for submitting commands to the council.
  * <p>
- * This is primarily intended for manual testing or debugging. It can be used to
- * directly send Paxos messages (in JSON format) to a running node and observe its output.
+ * Commands are sent as CLIENT_REQUEST messages over one long-lived connection per member (the
+ * members' own port and codec negotiation, see {@link WireProtocol}). A member that is not the
+ * leader answers with a CLIENT_REDIRECT and the request is re-sent to the leader, which then
+ * receives every later request directly. The leader answers with a CLIENT_REPLY carrying the state
+ * machine's result once the command is applied.
+ * </p>
+ * <p>
+ * Any number of requests may be outstanding: each carries a request ID, replies are matched to
+ * it, and each completes its own {@link CompletableFuture}. A request unanswered within the
+ * timeout, or whose connection breaks, is re-sent to the next member; after
+ * {@value #MAX_ATTEMPTS} attempts it fails. Re-sent commands may be applied twice unless the state
+ * machine de-duplicates them, as {@link KeyValueStore} does for commands built by {@link #put},
+ * {@link #get} and {@link #cas}.
+ * </p>
+ * <p>
+ * Requests outstanding at the same time may be applied in any order (a retried request can land
+ * after a later one); wait for a completion before submitting a command that depends on it.
  * </p>
  */
-public class PaxosClient {
+public class PaxosClient implements AutoCloseable {
+
+    //How long one member may leave a request unanswered; above the members' own timeout, so their
+    //redirect normally arrives first.
+    public static final long DEFAULT_TIMEOUT_MS = PaxosHandler.CLIENT_TIMEOUT_MS + 1000;
+
+    //Members a request is sent to (redirects included) before it fails.
+    static final int MAX_ATTEMPTS = 16;
+
+    //Connect timeout so a dead member cannot stall a request indefinitely.
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    //Pause before retrying after a failed connection or while no leader is known; doubles per
+    //attempt up to MAX_BACKOFF_MS, so a dead leader is outlived by the members' staleness check.
+    private static final long RETRY_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    private final String clientId;
+    private final NetworkConfig config;
+    private final WireProtocol wire;
+    private final long timeoutMs;
+    private final TimerService timers;
+    private final List<String> members;
+
+    private final AtomicLong requestIds = new AtomicLong();
+    private final AtomicLong seqs = new AtomicLong();
+    private final Map<Long, Request> pending = new ConcurrentHashMap<>();
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    //Member new requests are sent to: the last leader a redirect named, or the first member tried
+    private volatile String target;
+    private volatile boolean closed;
 
     /**
-     * Entry point for the client program.
-     * <p>
-     * Connects to a specified CouncilMember node (defaults to {@code M1} if no argument is provided),
-     * sends a static {@code PREPARE} Paxos message, and prints any responses received.
-     * </p>
+     * Creates a client that starts with the first member in the configuration.
      *
-     * @param args optional: first argument specifies the target member ID (e.g., {@code M4})
-     * @throws IOException if socket communication fails
+     * @param clientId unique ID of this client (de-duplication is per client ID)
+     * @param config   the council's network configuration
      */
-    public static void main(String[] args) throws IOException {
-        //which member to poke (default M1)
-        String targetMember = (args.length > 0) ? args[0] : "M1";
+    public PaxosClient(String clientId, NetworkConfig config) {
+        this(clientId, config, null, DEFAULT_TIMEOUT_MS);
+    }
 
-        //load port from classpath resource
-        NetworkConfig cfg = NetworkConfig.load();
-        int port = cfg.getPort(targetMember);
+    /**
+     * Creates a client.
+     *
+     * @param clientId  unique ID of this client (de-duplication is per client ID)
+     * @param config    the council's network configuration
+     * @param member    member to send the first request to, or {@code null} for the first configured one
+     * @param timeoutMs how long one member may leave a request unanswered
+     */
+    public PaxosClient(String clientId, NetworkConfig config, String member, long timeoutMs) {
+        this.clientId = clientId;
+        this.config = config;
+        this.wire = new WireProtocol(config);
+        this.timeoutMs = timeoutMs;
+        this.timers = new TimerService(clientId + "-timers");
+        this.members = new ArrayList<>(config.getAllMembers());
+        if (members.isEmpty()) throw new IllegalArgumentException("no members configured");
+        members.sort(null);
+        this.target = member != null ? member : members.get(0);
+    }
 
-        System.out.println("[CLIENT] Connecting to " + targetMember + " on port " + port);
+    /**
+     * Submits a command (any value, e.g. {@code LEADER_M5}).
+     *
+     * @param command the value to propose
+     * @return completes with the state machine's result once the command is applied, or fails
+     * with {@link TimeoutException} after {@value #MAX_ATTEMPTS} unsuccessful attempts
+     */
+    public CompletableFuture<String> submit(String command) {
+        Request r = new Request(requestIds.incrementAndGet(), command);
+        if (closed) {
+            r.future.completeExceptionally(new IllegalStateException("client closed"));
+            return r.future;
+        }
+        pending.put(r.id, r);
+        send(r, target);
+        return r.future;
+    }
 
-        try (Socket socket = new Socket("localhost", port);
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    /**
+     * Puts a key in the replicated {@link KeyValueStore}.
+     *
+     * @param key   the key
+     * @param value the new value
+     * @return completes with the previous value ({@code null} if there was none)
+     */
+    public CompletableFuture<String> put(String key, String value) {
+        return submit(KeyValueStore.put(clientId, seqs.getAndIncrement(), key, value));
+    }
 
-            //Match your Message.java fields: type, proposalNumber, value, senderId
-            String msg = "{\"type\":\"PREPARE\",\"proposalNumber\":1,\"value\":null,\"senderId\":\"CLIENT\"}";
-            out.println(msg);
+    /**
+     * Reads a key through the log, so the result reflects every command applied before it.
+     *
+     * @param key the key
+     * @return completes with the value, or {@code null} if absent
+     */
+    public CompletableFuture<String> get(String key) {
+        return submit(KeyValueStore.get(clientId, seqs.getAndIncrement(), key));
+    }
+
+    /**
+     * Compare-and-sets a key in the replicated {@link KeyValueStore}.
+     *
+     * @param key      the key
+     * @param expected the value it must have, or {@code null} if it must be absent
+     * @param update   the new value
+     * @return completes with {@code true} if the key was updated
+     */
+    public CompletableFuture<Boolean> cas(String key, String expected, String update) {
+        return submit(KeyValueStore.cas(clientId, seqs.getAndIncrement(), key, expected, update))
+                .thenApply(Boolean::parseBoolean);
+    }
+
+    /**
+     * @return the member new requests are sent to (the leader, once a redirect named it)
+     */
+    public String target() {
+        return target;
+    }
+
+    /**
+     * @return requests sent but not yet completed
+     */
+    public int outstanding() {
+        return pending.size();
+    }
+
+    /**
+     * Closes every connection and fails the requests still outstanding.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection c : connections.values()) c.close();
+        for (Request r : pending.values()) {
+            r.future.completeExceptionally(new IllegalStateException("client closed"));
+        }
+        pending.clear();
+        timers.shutdown();
+    }
+
+    // -----------------------------
+    // Sending and retrying
+    // -----------------------------
+    private void send(Request r, String member) {
+        int attempt;
+        synchronized (r) {
+            if (r.future.isDone()) return;
+            if (r.attempts == MAX_ATTEMPTS) {
+                pending.remove(r.id);
+                r.future.completeExceptionally(new TimeoutException(
+                        "no member applied the request after " + MAX_ATTEMPTS + " attempts"));
+                return;
+            }
+            attempt = ++r.attempts;
+            r.member = member;
+            if (r.timeout != null) r.timeout.cancel();
+            r.timeout = timers.schedule(timeoutMs, () -> retry(r, attempt, null));
+        }
+
+        Message m = new Message();
+        m.setType(Message.MessageType.CLIENT_REQUEST);
+        m.setSenderId(clientId);
+        m.setSlot(r.id);
+        m.setValue(r.command);
+        try {
+            connection(member).write(m);
+        } catch (IOException e) {
+            dropConnection(member);
+            timers.schedule(backoff(attempt), () -> retry(r, attempt, null));
+        }
+    }
+
+    private static long backoff(int attempt) {
+        return Math.min(RETRY_BACKOFF_MS << Math.min(attempt, 10), MAX_BACKOFF_MS);
+    }
 
+    /**
+     * Re-sends a request if {@code attempt} is still its latest one: to {@code leader} if a
+     * redirect named one, otherwise to the member after the one that failed.
+     */
+    private void retry(Request r, int attempt, String leader) {
+        String next;
+        synchronized (r) {
+            if (r.attempts != attempt || r.future.isDone()) return;
+            next = leader != null ? leader : nextMember(r.member);
+        }
+        if (leader != null) {
+            target = leader;
+        } else if (r.member.equals(target)) {
+            target = next;
+        }
+        send(r, next);
+    }
+
+    private String nextMember(String member) {
+        int i = members.indexOf(member);
+        return members.get((i + 1) % members.size());
+    }
+
+    private void onReply(Message m) {
+        Request r = pending.remove(m.getSlot());
+        if (r == null) return;
+        synchronized (r) {
+            if (r.timeout != null) r.timeout.cancel();
+        }
+        r.future.complete(m.getValue());
+    }
+
+    private void onRedirect(Message m) {
+        Request r = pending.get(m.getSlot());
+        if (r == null) return;
+        String leader = m.getValue();
+        int attempt;
+        synchronized (r) {
+            attempt = r.attempts;
+            if (r.timeout != null) r.timeout.cancel();
+        }
+        if (leader != null && config.indexOf(leader) >= 0 && !leader.equals(m.getSenderId())) {
+            retry(r, attempt, leader);
+        } else {
+            // No leader known yet (an election is running): back off, then try another member.
+            timers.schedule(backoff(attempt), () -> retry(r, attempt, null));
+        }
+    }
+
+    /**
+     * Re-sends every request waiting on a member whose connection broke.
+     */
+    private void onConnectionLost(String member) {
+        if (closed) return;
+        for (Request r : pending.values()) {
+            int attempt;
+            synchronized (r) {
+                if (!member.equals(r.member)) continue;
+                attempt = r.attempts;
+            }
+            timers.schedule(backoff(attempt), () -> retry(r, attempt, null));
+        }
+    }
+
+    private Connection connection(String member) throws IOException {
+        Connection c = connections.get(member);
+        if (c != null) return c;
+        synchronized (connections) {
+            c = connections.get(member);
+            if (c == null) {
+                c = new Connection(member);
+                connections.put(member, c);
+            }
+            return c;
+        }
+    }
+
+    private void dropConnection(String member) {
+        Connection c = connections.remove(member);
+        if (c != null) c.close();
+    }
+
+    /**
+     * A submitted command awaiting its reply. Attempt state is guarded by the request itself.
+     */
+    private static final class Request {
+        final long id;
+        final String command;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        int attempts;
+        String member;
+        TimerService.Timeout timeout;
+
+        Request(long id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+    }
+
+    /**
+     * One connection to a member: requests are written by the submitting threads, replies are read
+     * by the connection's own thread.
+     */
+    private final class Connection {
+        private final String member;
+        private final Socket socket;
+        private final OutputStream out;
+        private final MessageCodec codec;
+
+        Connection(String member) throws IOException {
+            this.member = member;
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(config.getHost(member), config.getPort(member)), CONNECT_TIMEOUT_MS);
+                OutputStream o = new BufferedOutputStream(s.getOutputStream());
+                this.codec = wire.offer(s, o, wire.byName("binary"));
+                this.out = o;
+                this.socket = s;
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            Thread reader = new Thread(this::readReplies, clientId + "-replies-" + member);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized void write(Message m) throws IOException {
+            wire.writeFrame(out, codec, codec.encode(m));
+            out.flush();
+        }
+
+        private void readReplies() {
+            try (BufferedInputStream in = new BufferedInputStream(socket.getInputStream())) {
+                WireProtocol.FrameReader frames = new WireProtocol.FrameReader(in, codec);
+                Message m;
+                while ((m = frames.next()) != null) {
+                    if (m.getType() == Message.MessageType.CLIENT_REPLY) {
+                        onReply(m);
+                    } else if (m.getType() == Message.MessageType.CLIENT_REDIRECT) {
+                        onRedirect(m);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // fall through: the connection is gone
+            }
+            connections.remove(member, this);
+            close();
+            onConnectionLost(member);
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Interactive client: submits each line read from standard input and prints the result.
+     * <p>
+     * Usage: {@code java PaxosClient [MemberID] [--client-id=<id>]}
+     * </p>
+     * <ul>
+     *     <li>any other line is submitted as a value (e.g. {@code LEADER_M3});</li>
+     *     <li>{@code /put <key> <value>}, {@code /cas <key> <expected|-> <value>} and
+     *     {@code /get <key>} are key-value commands (members started with {@code --state-machine=kv});</li>
+     *     <li>{@code /q} exits.</li>
+     * </ul>
+     *
+     * @param args optional: the member to contact first, and a client ID
+     * @throws IOException if the network configuration cannot be loaded
+     */
+    public static void main(String[] args) throws IOException {
+        String member = null;
+        String clientId = "client-" + System.currentTimeMillis();
+        for (String a : args) {
+            if (a.startsWith("--client-id=")) {
+                clientId = a.substring("--client-id=".length()).trim();
+            } else {
+                member = a.trim();
+            }
+        }
+
+        NetworkConfig cfg = NetworkConfig.load();
+        try (PaxosClient client = new PaxosClient(clientId, cfg, member, DEFAULT_TIMEOUT_MS);
+             BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+            System.out.println("[CLIENT] " + clientId + " sending to " + client.target()
+                    + ". Type a value, /put, /cas, /get or /q.");
             String line;
             while ((line = in.readLine()) != null) {
-                System.out.println("[CLIENT] Received: " + line);
+                String v = line.trim();
+                if (v.isEmpty()) continue;
+                if (v.equalsIgnoreCase("/q")) break;
+                String[] parts = v.split("\\s+", v.startsWith("/cas ") ? 4 : 3);
+                CompletableFuture<?> result;
+                if (v.startsWith("/put ") && parts.length == 3) {
+                    result = client.put(parts[1], parts[2]);
+                } else if (v.startsWith("/get ") && parts.length == 2) {
+                    result = client.get(parts[1]);
+                } else if (v.startsWith("/cas ") && parts.length == 4) {
+                    result = client.cas(parts[1], parts[2].equals("-") ? null : parts[2], parts[3]);
+                } else if (v.startsWith("/")) {
+                    System.out.println("[CLIENT] Usage: /put <key> <value> | /cas <key> <expected|-> <value> | /get <key> | /q");
+                    continue;
+                } else {
+                    result = client.submit(v);
+                }
+                result.whenComplete((r, e) -> {
+                    if (e != null) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        System.out.println("[CLIENT] " + v + " failed: " + cause.getMessage());
+                    } else {
+                        System.out.println("[CLIENT] " + v + " -> " + r + " (leader " + client.target() + ")");
+                    }
+                });
+            }
+            while (client.outstanding() > 0) {
+                try { Thread.sleep(50); } catch (InterruptedException e) { break; }
             }
         }
     }
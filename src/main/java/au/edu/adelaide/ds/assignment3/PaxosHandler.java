@@ -1,112 +1,409 @@
 package au.edu.adelaide.ds.assignment3;
 
-import com.google.gson.Gson;
-import java.io.BufferedWriter;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Handles all Paxos protocol logic for a single CouncilMember node.
  * <p>
- * This class encapsulates the roles of proposer, acceptor, and learner
- * within the Paxos algorithm. It manages message parsing, proposal
- * generation, state tracking, and quorum-based decision making.
+ * This class wires together the roles of proposer, acceptor, and learner
+ * within the Paxos algorithm and routes each incoming message to the role
+ * that handles it.
+ * </p>
+ * <p>
+ * Decisions form a slot-indexed replicated log (Multi-Paxos). A proposer runs PREPARE once for
+ * every slot from its first undecided one onwards; after a phase 1 quorum of PROMISEs it is the leader for
+ * that ballot and streams ACCEPT_REQUESTs for new values, so each steady-state decision costs a
+ * single round trip. The leader falls back to PREPARE with a higher ballot when an accept times out
+ * or it sees a higher ballot. Only the leader proposes: followers forward submitted values to the
+ * leader they trust, judged by a failure detector on its heartbeats, and stand for election in
+ * turn once it is suspected (see {@link Proposer}). Slot 0 is the Council President election. The decided log is applied
+ * to a {@link StateMachine}: the {@link CouncilPresident} by default, or e.g. a {@link KeyValueStore}.
+ * </p>
+ * <p>
+ * Which sets of PROMISEs and ACCEPTEDs count as a quorum comes from the {@link QuorumSystem} in
+ * {@code network.config}: majorities by default, or e.g. a small phase 2 quorum backed by a large
+ * phase 1 quorum, so the stable leader's decisions wait for fewer acceptors.
+ * </p>
+ * <p>
+ * The roles are separate components with their own synchronization: the {@link Acceptor} is
+ * lock-free (compare-and-set on the promise and per-slot state), and the {@link Proposer} and
+ * {@link Learner} each have their own monitor. No network I/O happens while any of them is held.
+ * Sends go to per-peer queues that are written concurrently, so a slow or dead peer delays only
+ * its own queue and a broadcast completes with the quorum-th fastest peer.
  * </p>
  */
 public class PaxosHandler {
-    private final String memberId;
-    private final NetworkConfig config;
-    private final Profile profile;
-    private final Gson gson = new Gson();
 
-    //Acceptor state
-    private String promisedN = null;
-    private String acceptedN = null;
-    private String acceptedValue = null;
+    //Value proposed to fill log gaps found during leader takeover; never reported as a decision.
+    static final String NO_OP = "\u0000NOOP";
+
+    //Cap on decided entries echoed back in a single PROMISE.
+    private static final int MAX_PROMISE_ENTRIES = 1024;
 
-    //Learner state
-    private final Map<String, Integer> acceptedCounts = new HashMap<>();
-    private boolean consensusReached = false;
+    //Batching defaults (see configureProposer).
+    static final int DEFAULT_BATCH_SIZE = 64;
+    static final long DEFAULT_LINGER_MS = 0;
+    static final int DEFAULT_WINDOW = 32;
 
-    //Majority tracking
-    private final int quorumSize;
+    //Leader election defaults (see configureElection).
+    static final long DEFAULT_HEARTBEAT_MS = 1000;
+    static final double DEFAULT_PHI_THRESHOLD = 8.0;
 
-    //Proposer state
-    private String currentProposalN = null;
-    private String myProposedValue = null;
-    private int promises = 0;
-    private String highestAcceptedNSeen = null;
-    private String valueSuggestedByAcceptors = null;
-    private int localRound = 0;
+    //How long a submitted command may take to be applied before the request is given up.
+    static final long CLIENT_TIMEOUT_MS = 5000;
+
+    private final String memberId;
+    private final NetworkConfig config;
+    private final WireProtocol wire;
+    //Outbound path, with the profile's (and any runtime) network faults injected
+    private final FaultInjectingTransport transport;
+    private final TimerService timers;
+    private final NodeLogger logger;
+    private final QuorumSystem quorums;
+
+    //Roles
+    private final Acceptor acceptor;
+    private final Learner learner;
+    private final Proposer proposer;
+    private final LinearizableReads reads;
+    private final CatchUp catchUp;
+
+    //Spans of traced consensus instances; off until startTracing
+    private final Tracer tracer;
+
+    //Writes client replies, so a slow client never holds up a thread handling Paxos messages
+    private final ExecutorService clientReplies;
+
+    //Metrics: messages received by type, messages being handled, ballots rejected, decisions
+    private final Metrics metrics = new Metrics();
+    private final Map<Message.MessageType, LongAdder> received = new EnumMap<>(Message.MessageType.class);
+    private final LongAdder inbound = new LongAdder();
+    private final LongAdder rejectedPrepares;
+    private final LongAdder rejectedAccepts;
+    private final LongAdder decisions;
 
     /**
      * Constructs a new PaxosHandler for a CouncilMember.
      *
      * @param memberId unique identifier for this node
      * @param config   network configuration containing all peers and ports
-     * @param profile  reliability/latency behavior profile for network simulation
+     * @param profile  latency/loss profile of this member's outbound links
      */
     public PaxosHandler(String memberId, NetworkConfig config, Profile profile) {
+        this(memberId, config, profile, null);
+    }
+
+    /**
+     * Constructs a new PaxosHandler that offers the given codec on its outbound connections.
+     *
+     * @param memberId unique identifier for this node
+     * @param config   network configuration containing all peers and ports
+     * @param profile  latency/loss profile of this member's outbound links
+     * @param codec    codec to offer to peers, or {@code null} for the default (binary)
+     */
+    public PaxosHandler(String memberId, NetworkConfig config, Profile profile, MessageCodec codec) {
+        this(memberId, config, profile, codec, null);
+    }
+
+    /**
+     * Constructs a new PaxosHandler whose acceptor state is made durable in a write-ahead log.
+     * <p>
+     * State recovered from the log (promise, accepted entries and the last ballot this member
+     * used) is restored before any message is handled.
+     * </p>
+     *
+     * @param memberId unique identifier for this node
+     * @param config   network configuration containing all peers and ports
+     * @param profile  latency/loss profile of this member's outbound links
+     * @param codec    codec to offer to peers, or {@code null} for the default (binary)
+     * @param wal      write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     */
+    public PaxosHandler(String memberId, NetworkConfig config, Profile profile, MessageCodec codec,
+                        WriteAheadLog wal) {
+        this(memberId, config, profile, codec, wal, null);
+    }
+
+    /**
+     * Constructs a new PaxosHandler that also keeps decided entries and snapshots on disk.
+     * <p>
+     * The applied state is restored from the latest snapshot and the decided entries after it
+     * before acceptor state is recovered from the write-ahead log.
+     * </p>
+     *
+     * @param memberId   unique identifier for this node
+     * @param config     network configuration containing all peers and ports
+     * @param profile    latency/loss profile of this member's outbound links
+     * @param codec      codec to offer to peers, or {@code null} for the default (binary)
+     * @param wal        write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     * @param decidedLog store for decided entries, or {@code null} to keep them in memory only
+     */
+    public PaxosHandler(String memberId, NetworkConfig config, Profile profile, MessageCodec codec,
+                        WriteAheadLog wal, DecidedLog decidedLog) {
+        this(memberId, config, profile, new PeerConnectionManager(memberId, config, new WireProtocol(config), codec),
+                wal, decidedLog);
+    }
+
+    /**
+     * Constructs a new PaxosHandler that sends through the given transport, e.g. a
+     * {@link UdpTransport} instead of pooled TCP connections.
+     *
+     * @param memberId   unique identifier for this node
+     * @param config     network configuration containing all peers and ports
+     * @param profile    latency/loss profile of this member's outbound links
+     * @param transport  outbound path to the peers
+     * @param wal        write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     * @param decidedLog store for decided entries, or {@code null} to keep them in memory only
+     */
+    public PaxosHandler(String memberId, NetworkConfig config, Profile profile, Transport transport,
+                        WriteAheadLog wal, DecidedLog decidedLog) {
+        this(memberId, config, profile, transport, wal, decidedLog, new CouncilPresident());
+    }
+
+    /**
+     * Constructs a new PaxosHandler that applies decided values to the given state machine.
+     * <p>
+     * The state machine is restored from the latest snapshot and the decided entries after it.
+     * </p>
+     *
+     * @param memberId     unique identifier for this node
+     * @param config       network configuration containing all peers and ports
+     * @param profile      latency/loss profile of this member's outbound links
+     * @param transport    outbound path to the peers
+     * @param wal          write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     * @param decidedLog   store for decided entries, or {@code null} to keep them in memory only
+     * @param stateMachine the state decided values are applied to
+     */
+    public PaxosHandler(String memberId, NetworkConfig config, Profile profile, Transport transport,
+                        WriteAheadLog wal, DecidedLog decidedLog, StateMachine stateMachine) {
+        this(memberId, config, profile, transport, wal, decidedLog, stateMachine, new TimerService(memberId + "-timers"));
+    }
+
+    /**
+     * Constructs a new PaxosHandler whose timeouts, clock and timing jitter come from the given
+     * timer service, e.g. a virtual one driven by the {@link Simulator}.
+     *
+     * @param memberId     unique identifier for this node
+     * @param config       network configuration containing all peers and ports
+     * @param profile      latency/loss profile of this member's outbound links
+     * @param transport    outbound path to the peers
+     * @param wal          write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     * @param decidedLog   store for decided entries, or {@code null} to keep them in memory only
+     * @param stateMachine the state decided values are applied to
+     * @param timers       the member's timer service
+     */
+    PaxosHandler(String memberId, NetworkConfig config, Profile profile, Transport transport,
+                 WriteAheadLog wal, DecidedLog decidedLog, StateMachine stateMachine, TimerService timers) {
+        this(memberId, config, profile, transport, wal, decidedLog, stateMachine, timers, Learner.DECIDED_WINDOW);
+    }
+
+    /**
+     * Constructs a new PaxosHandler that keeps a given number of decided slots in memory; the
+     * {@link Simulator} shrinks it so lagging members need snapshots.
+     *
+     * @param memberId      unique identifier for this node
+     * @param config        network configuration containing all peers and ports
+     * @param profile       latency/loss profile of this member's outbound links
+     * @param transport     outbound path to the peers
+     * @param wal           write-ahead log for acceptor state, or {@code null} to keep it in memory only
+     * @param decidedLog    store for decided entries, or {@code null} to keep them in memory only
+     * @param stateMachine  the state decided values are applied to
+     * @param timers        the member's timer service
+     * @param decidedWindow number of most recent decided slots the learner keeps in memory
+     */
+    PaxosHandler(String memberId, NetworkConfig config, Profile profile, Transport transport,
+                 WriteAheadLog wal, DecidedLog decidedLog, StateMachine stateMachine, TimerService timers,
+                 int decidedWindow) {
         this.memberId = memberId;
         this.config = config;
-        this.profile = profile;
-        this.quorumSize = (config.getAllMembers().size() / 2) + 1;
+        this.wire = new WireProtocol(config);
+        this.transport = new FaultInjectingTransport(transport, timers, FaultInjectingTransport.LinkRule.of(profile));
+        this.timers = timers;
+        this.logger = new NodeLogger(memberId, timers);
+        this.tracer = new Tracer(memberId, config.indexOf(memberId) + 1, timers);
+
+        this.quorums = config.quorums();
+        this.learner = new Learner(logger, config, quorums, decidedLog, stateMachine, decidedWindow);
+        this.acceptor = new Acceptor(wal, learner.firstUndecided(), logger, timers);
+        this.proposer = new Proposer(memberId, logger, config, quorums, acceptor, learner, wal, timers,
+                this::sendFromProposer, this::sendFromProposer, this::sendTo, metrics, tracer);
+        LongAdder snapshotsInstalled = metrics.counter("paxos_snapshots_installed_total",
+                "Snapshots installed from another member's catch-up reply");
+        this.catchUp = new CatchUp(memberId, logger, config, learner, proposer, timers, this::sendTo, this::settle,
+                slot -> {
+                    acceptor.forgetBelow(slot + 1);
+                    snapshotsInstalled.increment();
+                });
+        this.reads = new LinearizableReads(memberId, proposer, learner, timers, this::sendTo, catchUp::behind);
+        this.clientReplies = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, memberId + "-client-replies");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (Message.MessageType type : Message.MessageType.values()) {
+            LongAdder count = metrics.counter("paxos_messages_received_total{type=\"" + type + "\"}",
+                    "Messages received, by type");
+            received.put(type, count);
+        }
+        metrics.gauge("paxos_inbound_in_progress", "Inbound messages being handled right now", inbound::sum);
+        rejectedPrepares = metrics.counter("paxos_rejected_total{phase=\"prepare\"}",
+                "PREPAREs ignored for a ballot below the promised one");
+        rejectedAccepts = metrics.counter("paxos_rejected_total{phase=\"accept\"}",
+                "ACCEPT_REQUESTs ignored for a ballot below the promised one");
+        decisions = metrics.counter("paxos_decisions_total", "Slots this member learned were decided");
+        metrics.gauge("paxos_first_undecided_slot", "Lowest slot not yet decided here", learner::firstUndecided);
+        metrics.gauge("paxos_timer_queue_depth", "Protocol timeouts (and delayed messages) scheduled", timers::queueDepth);
+        metrics.counter("paxos_timers_fired_total", "Protocol timeouts that ran", timers::firedCount);
+        this.transport.registerMetrics(metrics);
+    }
+
+    /**
+     * Sets the proposer's batching and pipelining tunables.
+     *
+     * @param batchSize most values packed into one slot
+     * @param lingerMs  how long a partial batch may wait for more values while the window has room
+     *                  (0 sends it at once)
+     * @param window    most slots this member keeps in flight as leader
+     */
+    public void configureProposer(int batchSize, long lingerMs, int window) {
+        proposer.configure(batchSize, lingerMs, window);
+    }
+
+    /**
+     * Sets the leader election tunables, which bound how long the council takes to replace a
+     * failed leader: about the time the failure detector needs to suspect it (a heartbeat
+     * interval or two past its last heartbeat at the default threshold) plus a PREPARE round trip.
+     *
+     * @param heartbeatMs  interval between the leader's HEARTBEATs (at most half a read lease)
+     * @param phiThreshold suspicion threshold of the failure detector; lower fails over sooner
+     *                     but suspects a merely slow leader more often
+     */
+    public void configureElection(long heartbeatMs, double phiThreshold) {
+        proposer.configureElection(heartbeatMs, phiThreshold);
     }
 
-    // -----------------------------
-    // Local logging with timestamp
-    // -----------------------------
     /**
-     * Prints a timestamped, node-prefixed log message for this PaxosHandler.
+     * Returns the framing/codec layer used by this handler, so inbound transports can decode
+     * with the same codecs.
      *
-     * @param fmt  the message format string
-     * @param args arguments for message formatting
+     * @return the wire protocol
      */
-    private void log(String fmt, Object... args) {
-        long t = System.currentTimeMillis() - CouncilMember.T0;
-        String prefix = String.format("[%s][%dms] ", memberId, t);
-        System.out.printf(prefix + fmt + "%n", args);
+    public WireProtocol getWireProtocol() {
+        return wire;
     }
 
     // -----------------------------
     // Message handling entry point
     // -----------------------------
     /**
-     * Entry point for handling an incoming Paxos message.
-     * <p>
-     * Deserializes the JSON, applies simulated delay/drop based on profile,
-     * and delegates to the appropriate role handler.
-     * </p>
+     * Entry point for handling an incoming JSON-encoded Paxos message.
      *
      * @param rawJson raw JSON string received from a peer node
      */
     public void handleMessage(String rawJson) {
-        profile.simulateNetworkDelay();
-        if (profile.shouldDrop()) {
-            log("(DROP) Ignoring message due to failure profile");
+        handleMessage(wire.json().decode(rawJson));
+    }
+
+    /**
+     * Entry point for handling an incoming, already decoded Paxos message.
+     * <p>
+     * Delegates to the appropriate role handler. Simulated delays and drops are applied on the
+     * sending side (see {@link FaultInjectingTransport}), so nothing waits here.
+     * </p>
+     *
+     * @param msg message received from a peer node
+     */
+    public void handleMessage(Message msg) {
+        handleMessage(msg, null);
+    }
+
+    /**
+     * Handles a message that arrived on a connection able to carry replies back, so client
+     * requests on it are answered (see {@link #handleClientRequest}).
+     *
+     * @param msg     message received from a peer node or client
+     * @param replyTo writes a message back on the same connection, or {@code null} if there is no
+     *                reply path (client requests are then only proposed)
+     */
+    public void handleMessage(Message msg, Consumer<Message> replyTo) {
+        Message.MessageType type = msg.getType();
+        if (type == null) {
+            logger.warn("Unknown message type: %s", type);
             return;
         }
+        received.get(type).increment();
+        inbound.increment();
+        Tracer.Span hop = tracer.receive(msg);
+        try {
+            dispatch(msg, replyTo, hop);
+        } finally {
+            tracer.end(hop);
+            inbound.decrement();
+        }
+    }
 
-        Message msg = gson.fromJson(rawJson, Message.class);
+    /**
+     * Hands a received message to the role that handles its type.
+     *
+     * @param msg     message received from a peer node or client
+     * @param replyTo reply path for client requests, or {@code null}
+     * @param hop     span of handling the message, or {@code null} if it is not traced
+     */
+    private void dispatch(Message msg, Consumer<Message> replyTo, Tracer.Span hop) {
         Message.MessageType type = msg.getType();
-
         switch (type) {
             case PREPARE:
-                handlePrepare(msg);
+                handlePrepare(msg, hop);
                 break;
             case PROMISE:
-                handlePromise(msg);
+                proposer.onPromise(msg);
+                // Slots below a PROMISE's slot are decided at its sender, which may no longer report them.
+                catchUp.behind(msg.getSlot());
                 break;
             case ACCEPT_REQUEST:
-                handleAcceptRequest(msg);
+                handleAcceptRequest(msg, hop);
                 break;
             case ACCEPTED:
-                handleAccepted(msg);
+                handleAccepted(msg, hop);
+                break;
+            case CATCH_UP:
+                catchUp.onCatchUp(msg);
+                break;
+            case DECIDE:
+                catchUp.onDecide(msg);
+                break;
+            case HEARTBEAT:
+                handleHeartbeat(msg);
+                break;
+            case HEARTBEAT_ACK:
+                proposer.onHeartbeatAck(msg);
+                break;
+            case READ_INDEX:
+                reads.onReadIndex(msg);
+                break;
+            case READ_INDEX_REPLY:
+                reads.onReadIndexReply(msg);
+                break;
+            case CLIENT_REQUEST:
+                handleClientRequest(msg, replyTo);
+                break;
+            case FORWARD:
+                proposer.onForward(msg);
                 break;
             default:
-                log("Unknown message type: %s", type);
+                logger.warn("Unknown message type: %s", type);
         }
     }
 
@@ -114,110 +411,114 @@ public class PaxosHandler {
     // Proposer logic
     // -----------------------------
     /**
-     * Extracts the numeric component of this member's ID ("M4" → 4).
+     * Submits a value to the replicated log.
+     * <p>
+     * The value is queued without waiting for any lock; whichever caller finds no drain in
+     * progress moves every queued value to the proposer. A leader packs them into batches and
+     * sends ACCEPT_REQUESTs while its window has room. A follower forwards them to the leader it
+     * trusts. With no live leader, this member stands for election after its candidacy delay
+     * unless a leader appears first; queued values are assigned slots once a quorum of PROMISEs
+     * makes it leader. Retries with a higher proposal number if no quorum is reached within a
+     * timeout window.
+     * </p>
      *
-     * @return integer ID component of this member
+     * @param value the proposed value ("LEADER_M5")
      */
-    private int myNumericId() {
-        return Integer.parseInt(memberId.replaceAll("\\D+", ""));
+    public void propose(String value) {
+        proposer.propose(value);
     }
 
     /**
-     * Generates the next unique proposal number for this proposer.
+     * Proposes a command and reports the state machine's result once this member applies it.
      * <p>
-     * Follows the format {@code round.memberId} ("2.4").
+     * Unlike {@link #propose}, which only queues the value, this tells the caller when the command
+     * took effect. Submitting on a member that is not the leader forwards the command to the
+     * leader; remote clients are redirected to the leader instead (see {@link #handleClientRequest}).
      * </p>
      *
-     * @return proposal number string
+     * @param command the value to propose, e.g. a {@link KeyValueStore} command
+     * @return completes with the result of applying it, or fails with {@link TimeoutException} if
+     * it is not applied within {@value #CLIENT_TIMEOUT_MS} ms (it may still be applied later)
      */
-    private String nextProposalNumber() {
-        localRound++;
-        return localRound + "." + myNumericId();
+    public CompletableFuture<String> submit(String command) {
+        CompletableFuture<String> result = learner.awaitResult(command);
+        TimerService.Timeout timeout = timers.schedule(CLIENT_TIMEOUT_MS, () -> {
+            learner.cancelResult(command, result);
+            result.completeExceptionally(new TimeoutException("not applied within " + CLIENT_TIMEOUT_MS + " ms"));
+        });
+        result.whenComplete((r, e) -> timeout.cancel());
+        proposer.propose(command);
+        return result;
     }
 
     /**
-     * Initiates a new proposal round for the given value.
+     * Reads the applied state linearizably, without a Paxos round.
      * <p>
-     * Sends PREPARE messages to all peers and waits for quorum PROMISE responses.
-     * Automatically retries with a higher proposal number if no quorum is reached
-     * within a timeout window.
+     * The leader answers from its read lease once it has applied everything it has proposed; a
+     * follower gets a read index from the leader and answers once it has applied that far.
      * </p>
      *
-     * @param value the proposed value ("LEADER_M5")
+     * @param query reads the state machine; runs once the applied state is current
+     * @param <T>   result type
+     * @return the query's result as of some point during the call; fails if no leader holding a
+     * lease can be reached or this member does not catch up within {@link LinearizableReads#READ_TIMEOUT_MS}
      */
-    public synchronized void propose(String value) {
-        if (consensusReached) {
-            log("[PROPOSER] Consensus already reached; ignoring new proposal.");
-            return;
-        }
-        this.myProposedValue = value;
-        this.currentProposalN = nextProposalNumber();
-        this.promises = 0;
-        this.highestAcceptedNSeen = null;
-        this.valueSuggestedByAcceptors = null;
-
-        Message m = new Message();
-        m.setType(Message.MessageType.PREPARE);
-        m.setSenderId(memberId);
-        m.setProposalNumber(currentProposalN);
-        sendToAllExceptSelf(gson.toJson(m));
-        log("[PROPOSER][PREPARE] n=%s v=%s", currentProposalN, myProposedValue);
-
-        // timeout & re-propose with higher n if no quorum in time
-        new Thread(() -> {
-            try { Thread.sleep(3000); } catch (InterruptedException ignored) {}
-            synchronized (PaxosHandler.this) {
-                if (!consensusReached && currentProposalN != null && promises < quorumSize) {
-                    log("[PROPOSER] Timeout waiting for quorum; re-proposing with higher n");
-                    propose(this.myProposedValue);
-                }
-            }
-        }, "proposer-timeout").start();
+    public <T> CompletableFuture<T> read(Function<? super StateMachine, T> query) {
+        return reads.barrier().thenApply(v -> query.apply(learner.stateMachine()));
     }
 
     /**
-     * Handles a PROMISE message received in response to a PREPARE.
-     * <p>
-     * Tracks received promises and determines whether to proceed with
-     * an ACCEPT_REQUEST once quorum is achieved.
-     * </p>
+     * Reads the Council President linearizably; see {@link #read(Function)}.
      *
-     * @param msg the PROMISE message received from an acceptor
+     * @return the president, or {@code null} if none is decided or the member runs another state machine
      */
-    private synchronized void handlePromise(Message msg) {
-        if (currentProposalN == null || !currentProposalN.equals(msg.getProposalNumber())) {
-            log("[PROPOSER][PROMISE] ignoring: for different proposal n=%s", msg.getProposalNumber());
+    public CompletableFuture<String> read() {
+        return read(sm -> sm instanceof CouncilPresident ? ((CouncilPresident) sm).president() : null);
+    }
+
+    // -----------------------------
+    // Client requests
+    // -----------------------------
+    /**
+     * Handles a CLIENT_REQUEST. A member that knows of another live leader answers with a
+     * CLIENT_REDIRECT naming it; otherwise the command is submitted here and answered with a
+     * CLIENT_REPLY once applied, or with a CLIENT_REDIRECT (to retry) if it times out. Many
+     * requests may be outstanding on one connection; replies carry the request ID and may arrive
+     * in any order.
+     *
+     * @param msg     the CLIENT_REQUEST
+     * @param replyTo the client connection, or {@code null} to only propose the command
+     */
+    private void handleClientRequest(Message msg, Consumer<Message> replyTo) {
+        String command = msg.getValue();
+        if (command == null) return;
+        if (replyTo == null) {
+            proposer.propose(command);
             return;
         }
-        promises++;
-
-        String prevN = msg.getPrevAcceptedN();
-        String prevV = msg.getValue();
-        if (prevN != null) {
-            if (highestAcceptedNSeen == null || compareProposal(prevN, highestAcceptedNSeen) > 0) {
-                highestAcceptedNSeen = prevN;
-                valueSuggestedByAcceptors = prevV;
-            }
+        String leader = proposer.currentLeader();
+        if (leader != null && !leader.equals(memberId)) {
+            replyTo.accept(clientReply(Message.MessageType.CLIENT_REDIRECT, msg.getSlot(), leader));
+            return;
         }
+        submit(command).whenCompleteAsync((result, e) -> {
+            if (e == null) {
+                replyTo.accept(clientReply(Message.MessageType.CLIENT_REPLY, msg.getSlot(), result));
+            } else {
+                String current = proposer.currentLeader();
+                replyTo.accept(clientReply(Message.MessageType.CLIENT_REDIRECT, msg.getSlot(),
+                        memberId.equals(current) ? null : current));
+            }
+        }, clientReplies);
+    }
 
-        log("[PROPOSER][PROMISE RECEIVED] from=%s count=%d/%d%s",
-                msg.getSenderId(), promises, quorumSize,
-                (prevN != null ? (" prev=(" + prevN + "," + prevV + ")") : ""));
-
-        if (promises >= quorumSize) {
-            String valueToPropose = (valueSuggestedByAcceptors != null)
-                    ? valueSuggestedByAcceptors
-                    : myProposedValue;
-
-            Message acc = new Message();
-            acc.setType(Message.MessageType.ACCEPT_REQUEST);
-            acc.setSenderId(memberId);
-            acc.setProposalNumber(currentProposalN);
-            acc.setValue(valueToPropose);
-
-            sendToAllExceptSelf(gson.toJson(acc));
-            log("[PROPOSER][ACCEPT_REQUEST] n=%s v=%s", currentProposalN, valueToPropose);
-        }
+    private Message clientReply(Message.MessageType type, long requestId, String value) {
+        Message reply = new Message();
+        reply.setType(type);
+        reply.setSenderId(memberId);
+        reply.setSlot(requestId);
+        reply.setValue(value);
+        return reply;
     }
 
     // -----------------------------
@@ -227,30 +528,61 @@ public class PaxosHandler {
      * Handles a PREPARE message received from a proposer.
      * <p>
      * Replies with a PROMISE if this proposal number is higher than any previously
-     * promised number; otherwise, the message is ignored.
+     * promised number; otherwise, the message is ignored. The promise covers the requested slot
+     * and all later ones, and reports every accepted or known decided entry in that range.
+     * With a write-ahead log, the promise is durable before the reply is sent.
+     * </p>
+     * <p>
+     * Promising also grants the proposer a read lease. While another member's lease is still
+     * running here the promise is recorded at once but the PROMISE is held back until the lease
+     * expires, so the proposer cannot take over while that leader serves lease reads.
      * </p>
      *
      * @param msg the PREPARE message received
+     * @param hop span of handling it, or {@code null}; the PROMISE continues its trace
      */
-    private synchronized void handlePrepare(Message msg) {
-        String proposalNum = msg.getProposalNumber();
+    private void handlePrepare(Message msg, Tracer.Span hop) {
+        long proposalNum = msg.getProposalNumber();
         String sender = msg.getSenderId();
 
-        if (promisedN == null || compareProposal(proposalNum, promisedN) > 0) {
-            promisedN = proposalNum;
-
-            Message promise = new Message();
-            promise.setType(Message.MessageType.PROMISE);
-            promise.setSenderId(memberId);
-            promise.setProposalNumber(proposalNum);
-            promise.setValue(acceptedValue);
-            promise.setPrevAcceptedN(acceptedN);
+        long seq = acceptor.promise(proposalNum);
+        if (seq == Acceptor.REJECTED) {
+            rejectedPrepares.increment();
+            logger.debug("[ACCEPTOR][IGNORE] n=%B < promisedN=%B", proposalNum, acceptor.promised());
+            return;
+        }
+        proposer.observePrepare(proposalNum);
+        long leaseWait = acceptor.leaseWaitMs(proposalNum);
+        if (!acceptor.grantLease(proposalNum)) {
+            return; // a higher ballot was promised meanwhile; this PROMISE would be useless
+        }
 
-            sendTo(sender, gson.toJson(promise));
-            log("[ACCEPTOR][PROMISE] to=%s n=%s%s", sender, proposalNum,
-                    (acceptedN != null ? (" prev=(" + acceptedN + "," + acceptedValue + ")") : ""));
+        // Read after the promise is in place, so every acceptance it does not reject is reported.
+        long from = learner.promiseFloor(msg.getSlot(), MAX_PROMISE_ENTRIES);
+        List<Message.Entry> entries = learner.decidedFrom(from);
+        entries.addAll(acceptor.acceptedFrom(from));
+
+        Message promise = new Message();
+        promise.setType(Message.MessageType.PROMISE);
+        promise.setSenderId(memberId);
+        promise.setProposalNumber(proposalNum);
+        promise.setSlot(from);
+        promise.setEntries(entries.isEmpty() ? null : entries);
+
+        acceptor.awaitDurable(seq);
+        tracer.stamp(promise, hop);
+        if (leaseWait > 0) {
+            logger.debug("[ACCEPTOR][PROMISE] to=%s n=%B held %dms for another member's read lease", sender,
+                    proposalNum, leaseWait);
+            timers.schedule(leaseWait, () -> sendTo(sender, promise));
+        } else {
+            sendTo(sender, promise);
+        }
+        if (entries.isEmpty()) {
+            logger.debug("[ACCEPTOR][PROMISE] to=%s n=%B slot>=%d", sender, proposalNum, from);
         } else {
-            log("[ACCEPTOR][IGNORE] n=%s < promisedN=%s", proposalNum, promisedN);
+            logger.debug("[ACCEPTOR][PROMISE] to=%s n=%B slot>=%d prev=%d entries", sender, proposalNum, from,
+                    entries.size());
         }
     }
 
@@ -258,32 +590,62 @@ public class PaxosHandler {
      * Handles an ACCEPT_REQUEST message from a proposer.
      * <p>
      * If the proposal number is at least as large as any previously promised number,
-     * the value is accepted and an ACCEPTED message is broadcast to all peers.
-     * Otherwise, the request is rejected.
+     * the value is accepted for the slot and an ACCEPTED message is broadcast to all peers and
+     * counted by this member's own learner.
+     * Otherwise, the request is rejected. With a write-ahead log, the acceptance is durable
+     * before ACCEPTED is sent.
      * </p>
      *
      * @param msg the ACCEPT_REQUEST message received
+     * @param hop span of handling it, or {@code null}; the ACCEPTED continues its trace
      */
-    private synchronized void handleAcceptRequest(Message msg) {
-        String proposalNum = msg.getProposalNumber();
+    private void handleAcceptRequest(Message msg, Tracer.Span hop) {
+        long proposalNum = msg.getProposalNumber();
+        long slot = msg.getSlot();
         String value = msg.getValue();
 
-        if (promisedN == null || compareProposal(proposalNum, promisedN) >= 0) {
-            promisedN = proposalNum;
-            acceptedN = proposalNum;
-            acceptedValue = value;
-
-            Message accepted = new Message();
-            accepted.setType(Message.MessageType.ACCEPTED);
-            accepted.setSenderId(memberId);
-            accepted.setProposalNumber(acceptedN);
-            accepted.setValue(acceptedValue);
-
-            sendToAllExceptSelf(gson.toJson(accepted));
-            log("[ACCEPTOR][ACCEPTED] value=%s n=%s", acceptedValue, acceptedN);
-        } else {
-            log("[ACCEPTOR][REJECTED] n=%s < promisedN=%s", proposalNum, promisedN);
+        long seq = acceptor.accept(slot, proposalNum, value, slot < learner.firstUndecided());
+        if (seq == Acceptor.REJECTED) {
+            rejectedAccepts.increment();
+            logger.debug("[ACCEPTOR][REJECTED] slot=%d n=%B < promisedN=%B", slot, proposalNum, acceptor.promised());
+            return;
         }
+        proposer.observe(proposalNum);
+
+        Message ack = new Message();
+        ack.setType(Message.MessageType.ACCEPTED);
+        ack.setSenderId(memberId);
+        ack.setProposalNumber(proposalNum);
+        ack.setSlot(slot);
+        ack.setValue(value);
+
+        acceptor.awaitDurable(seq);
+        tracer.stamp(ack, hop);
+        sendToAllExceptSelf(ack);
+        logger.debug("[ACCEPTOR][ACCEPTED] slot=%d value=%V n=%B", slot, value, proposalNum);
+        handleAccepted(ack, hop); // our own vote; in a 3-member cluster a follower cannot learn without it
+    }
+
+    /**
+     * Handles a HEARTBEAT from a leader: renews its read lease and acknowledges the grant.
+     * Heartbeats below the promised ballot come from a deposed leader and are ignored. A leader
+     * that has decided further than this member has learned prompts a catch-up.
+     *
+     * @param msg the HEARTBEAT message
+     */
+    private void handleHeartbeat(Message msg) {
+        long ballot = msg.getProposalNumber();
+        if (ballot < acceptor.promised()) return;
+        proposer.onHeartbeat(msg);
+        catchUp.behind(msg.getSlot());
+        if (!acceptor.grantLease(ballot)) return;
+
+        Message ack = new Message();
+        ack.setType(Message.MessageType.HEARTBEAT_ACK);
+        ack.setSenderId(memberId);
+        ack.setProposalNumber(ballot);
+        ack.setValue(msg.getValue());
+        sendTo(msg.getSenderId(), ack);
     }
 
     // -----------------------------
@@ -292,86 +654,206 @@ public class PaxosHandler {
     /**
      * Handles an ACCEPTED message from another node.
      * <p>
-     * Tracks how many nodes have accepted each value and declares
-     * consensus once a quorum agrees on the same value.
+     * The learner tracks, per slot and ballot, which nodes have accepted and declares the slot
+     * decided once a phase 2 quorum accepted the same ballot. A decision then releases the acceptor's
+     * state for settled slots and lets the proposer settle its own proposal for the slot. A
+     * decision above a gap prompts a catch-up for the missing slots (see {@link CatchUp}).
      * </p>
      *
      * @param msg the ACCEPTED message received from a peer
+     * @param hop span of handling it, or {@code null}; marked if this vote decided the slot
      */
-    private synchronized void handleAccepted(Message msg) {
-        if (consensusReached) return;
+    private void handleAccepted(Message msg, Tracer.Span hop) {
+        Learner.Decision d = learner.onAccepted(msg);
+        if (d == null) return;
+        if (hop != null) hop.outcome("decided");
+        settle(d);
+        catchUp.afterDecision();
+    }
 
-        String value = msg.getValue();
-        acceptedCounts.put(value, acceptedCounts.getOrDefault(value, 0) + 1);
+    /**
+     * Settles a slot this member has just learned was decided, by ACCEPTED votes or from a DECIDE.
+     *
+     * @param d the decision
+     */
+    private void settle(Learner.Decision d) {
+        decisions.increment();
+        acceptor.forget(d.slot);
+        acceptor.forgetBelow(d.firstUndecided);
+        proposer.onDecided(d);
+    }
 
-        if (acceptedCounts.get(value) >= quorumSize) {
-            consensusReached = true;
-            log("CONSENSUS: %s has been elected Council President.", value);
-            log("[LEARNER][CONSENSUS] value=%s proposal=%s", value, msg.getProposalNumber());
-        }
+    /**
+     * Returns the decided value of a slot, if this member has learned it and still retains it
+     * (in memory, or in the decided log).
+     *
+     * @param slot log slot
+     * @return the decided value (a {@link Batch} if several values share the slot), or {@code null}
+     */
+    public String getDecided(long slot) {
+        String v = learner.get(slot);
+        return NO_OP.equals(v) ? null : v;
+    }
+
+    /**
+     * Returns the applied state: the Council President as of the decided prefix of the log.
+     *
+     * @return the latest decided value, or {@code null} if none is applied yet or the member runs
+     * another state machine
+     */
+    public String getPresident() {
+        StateMachine sm = learner.stateMachine();
+        return sm instanceof CouncilPresident ? ((CouncilPresident) sm).president() : null;
+    }
+
+    /**
+     * @return the state machine decided values are applied to (read it through {@link #read(Function)}
+     * for linearizable results)
+     */
+    public StateMachine getStateMachine() {
+        return learner.stateMachine();
+    }
+
+    /**
+     * Returns the first slot this member has not learned a decision for.
+     *
+     * @return the length of the contiguous decided prefix of the log
+     */
+    public long getFirstUndecided() {
+        return learner.firstUndecided();
+    }
+
+    /**
+     * @return {@code true} while this member leads (has completed phase 1 for its ballot)
+     */
+    public boolean isLeader() {
+        return proposer.isLeader();
+    }
+
+    /**
+     * Returns the shared protocol timer, e.g. for its metrics.
+     *
+     * @return the timer service
+     */
+    public TimerService getTimers() {
+        return timers;
+    }
+
+    /**
+     * Starts recording spans of traced consensus instances into a Chrome trace file (see
+     * {@link Tracer}); merge the files of several members with {@link TraceMerge}.
+     *
+     * @param file       the trace file, replaced if it exists
+     * @param sampleRate fraction of PREPARE rounds and proposed slots to trace, from 0 to 1
+     * @throws IOException if the file cannot be created
+     */
+    public void startTracing(Path file, double sampleRate) throws IOException {
+        tracer.start(file, sampleRate);
+        metrics.counter("paxos_trace_spans_dropped_total", "Trace spans lost because the export fell behind",
+                tracer::dropped);
+    }
+
+    /**
+     * Returns the node's metrics: protocol, transport and timer counters, gauges and latencies.
+     *
+     * @return the metrics registry
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the fault injector on the outbound links, e.g. to change its rules at runtime.
+     *
+     * @return the fault-injecting transport
+     */
+    public FaultInjectingTransport getFaults() {
+        return transport;
     }
 
     // -----------------------------
     // Network utilities
     // -----------------------------
     /**
-     * Sends a JSON-encoded message to a specific target member, retrying several times on failure.
+     * Queues a message for a specific target member on the transport. Replies never wait
+     * for the write, so a slow or dead proposer cannot hold up the handler thread.
      *
      * @param targetMember the member ID to send the message to
-     * @param messageJson  serialized JSON message payload
-     */
-    private void sendTo(String targetMember, String messageJson) {
-        String host = config.getHost(targetMember);
-        int port = config.getPort(targetMember);
-
-        int attempts = 5;
-        for (int i = 1; i <= attempts; i++) {
-            try (Socket socket = new Socket(host, port);
-                 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
-                out.write(messageJson);
-                out.newLine();
-                out.flush();
-                return; // success
-            } catch (Exception e) {
-                if (i == attempts) {
-                    System.err.printf("[%s] Failed to send to %s after %d tries: %s%n",
-                            memberId, targetMember, attempts, e.getMessage());
-                } else {
-                    try { Thread.sleep(200L * i); } catch (InterruptedException ignored) {}
-                }
-            }
+     * @param msg          the message to send
+     */
+    private void sendTo(String targetMember, Message msg) {
+        if (targetMember.equals(memberId)) {
+            proposer.onPromise(msg); // only our own acceptor's PROMISE is ever addressed to us
+            return;
         }
+        transport.sendAsync(targetMember, msg);
     }
 
     /**
-     * Sends a message to all peers in the configuration except this node.
+     * Sends a message from this member's proposer to all peers, and hands PREPARE and
+     * ACCEPT_REQUEST to this member's own acceptor as well: the proposer counts its own promise
+     * and acceptance like any other, so a bare quorum of the council can still decide.
      *
-     * @param messageJson serialized JSON message payload
+     * @param msg the message to send
      */
-    private void sendToAllExceptSelf(String messageJson) {
-        for (String target : config.getAllMembers()) {
-            if (!target.equals(memberId)) {
-                sendTo(target, messageJson);
-            }
-        }
+    private void sendFromProposer(Message msg) {
+        sendToAllExceptSelf(msg);
+        deliverToOwnAcceptor(msg);
+    }
+
+    /**
+     * Sends a message from this member's proposer to some peers only, e.g. a thrifty leader's
+     * ACCEPT_REQUEST to its phase 2 quorum, and to this member's own acceptor.
+     *
+     * @param msg   the message to send
+     * @param peers the other members to send it to
+     */
+    private void sendFromProposer(Message msg, List<String> peers) {
+        transport.broadcast(peers, msg, peers.size()).thenAccept(ok -> {
+            if (!ok) logger.warn("[NET] %s slot=%d did not reach all of %s", msg.getType(), msg.getSlot(), peers);
+        });
+        deliverToOwnAcceptor(msg);
     }
 
     /**
-     * Compares two proposal numbers of the form "round.memberId".
+     * Hands PREPARE and ACCEPT_REQUEST from this member's proposer to its own acceptor.
      *
-     * @param a first proposal number string
-     * @param b second proposal number string
-     * @return positive if {@code a > b}, negative if {@code a < b}, or zero if equal
+     * @param msg the message sent
      */
-    private int compareProposal(String a, String b) {
-        String[] aParts = a.split("\\.");
-        String[] bParts = b.split("\\.");
-        int roundA = Integer.parseInt(aParts[0]);
-        int idA = Integer.parseInt(aParts[1]);
-        int roundB = Integer.parseInt(bParts[0]);
-        int idB = Integer.parseInt(bParts[1]);
+    private void deliverToOwnAcceptor(Message msg) {
+        Tracer.Span hop;
+        switch (msg.getType()) {
+            case PREPARE:
+                hop = tracer.receive(msg);
+                handlePrepare(msg, hop);
+                tracer.end(hop);
+                break;
+            case ACCEPT_REQUEST:
+                hop = tracer.receive(msg);
+                handleAcceptRequest(msg, hop);
+                tracer.end(hop);
+                break;
+            default:
+                break;
+        }
+    }
 
-        if (roundA != roundB) return Integer.compare(roundA, roundB);
-        return Integer.compare(idA, idB);
+    /**
+     * Sends a message to all peers in the configuration except this node, concurrently: each
+     * peer has its own queue and retry state, so an unreachable member delays nobody else.
+     *
+     * @param msg the message to send
+     * @return completes with {@code true} once enough peers for either phase's quorum have been
+     * written to, or {@code false} once that is no longer possible
+     */
+    private CompletableFuture<Boolean> sendToAllExceptSelf(Message msg) {
+        List<String> peers = new ArrayList<>(config.getAllMembers());
+        peers.remove(memberId);
+        int needed = Math.max(quorums.phase1Size(), quorums.phase2Size());
+        CompletableFuture<Boolean> quorum = transport.broadcast(peers, msg, needed);
+        quorum.thenAccept(ok -> {
+            if (!ok) logger.warn("[NET] %s slot=%d reached fewer than %d peers", msg.getType(), msg.getSlot(), needed);
+        });
+        return quorum;
     }
 }
@@ -1,17 +1,22 @@
 package au.edu.adelaide.ds.assignment3;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Represents a Paxos node that communicates over UDP and handles incoming Paxos messages.
  * <p>
- * This node delegates logic to a {@link PaxosHandler} while managing its own network sockets,
- * message delivery, and concurrency via a thread pool.
+ * This node delegates logic to a {@link PaxosHandler}, which both receives and sends through a
+ * {@link UdpTransport} (one long-lived socket, coalesced and acknowledged datagrams). Received
+ * messages are handled on a {@link TaskExecutor} (platform, pooled or virtual threads, with a cap
+ * on concurrently running tasks).
+ * </p>
+ * <p>
+ * Peers address the node by the port configured for it in {@code network.config}, so a node
+ * started on a different port can send but not be reached.
  * </p>
  */
 public class PaxosNode {
@@ -22,8 +27,11 @@ public class PaxosNode {
     //Unique node identifier
     private final String nodeId;
 
-    //Executor service for handling incoming and outgoing messages concurrently.
-    private final ExecutorService executor;
+    //Executor for handling incoming messages concurrently.
+    private final TaskExecutor executor;
+
+    //Datagram transport shared by the inbound and outbound paths.
+    private final UdpTransport transport;
 
     //Paxos logic handler shared by proposer, acceptor, and learner roles.
     private final PaxosHandler handler;
@@ -35,82 +43,78 @@ public class PaxosNode {
      * @param port    the port this node should listen on
      * @param config  the network configuration (e.g., peer mapping)
      * @param profile the profile controlling latency/failure simulation
+     * @throws IOException if the UDP port cannot be bound
      */
-    public PaxosNode(String nodeId, int port, NetworkConfig config, Profile profile) {
+    public PaxosNode(String nodeId, int port, NetworkConfig config, Profile profile) throws IOException {
+        this(nodeId, port, config, profile, new TaskExecutor(TaskExecutor.Mode.POOLED, nodeId + "-task",
+                TaskExecutor.DEFAULT_MAX_TASKS), UdpTransport.DEFAULT_DATAGRAM_BYTES);
+    }
+
+    /**
+     * Constructs a PaxosNode that handles received messages on the given executor.
+     *
+     * @param nodeId        the unique ID of this node
+     * @param port          the port this node should listen on
+     * @param config        the network configuration (e.g., peer mapping)
+     * @param profile       the profile controlling latency/failure simulation
+     * @param executor      runs one task per received datagram
+     * @param datagramBytes target size of coalesced datagrams
+     * @throws IOException if the UDP port cannot be bound
+     */
+    public PaxosNode(String nodeId, int port, NetworkConfig config, Profile profile, TaskExecutor executor,
+                     int datagramBytes) throws IOException {
         this.port = port;
         this.nodeId = nodeId;
-        this.executor = Executors.newCachedThreadPool();
-        this.handler = new PaxosHandler(nodeId, config, profile);
+        this.executor = executor;
+        this.transport = new UdpTransport(nodeId, config, port, datagramBytes);
+        this.handler = new PaxosHandler(nodeId, config, profile, transport, null, null);
     }
 
     /**
-     * Starts the PaxosNode by binding a UDP socket on the given port and
-     * continuously receiving and dispatching packets for processing.
+     * Starts the PaxosNode: the transport's I/O thread begins receiving and dispatching
+     * datagrams to the handler.
      */
     public void start() {
-        executor.submit(() -> {
-            try (DatagramSocket socket = new DatagramSocket(port)) {
-                System.out.println("[" + nodeId + "] Listening on port " + port);
-                byte[] buffer = new byte[4096];
-                while (true) {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    executor.submit(() -> handlePacket(packet));
-                }
-            } catch (IOException e) {
-                System.err.println("[" + nodeId + "] Socket error: " + e.getMessage());
-            }
+        // Never block the I/O thread: a datagram refused at the task limit is retransmitted later.
+        transport.start(handler::handleMessage, task -> {
+            if (!executor.tryExecute(task)) throw new RejectedExecutionException("task limit reached");
         });
+        System.out.println("[" + nodeId + "] Listening on UDP port " + port + " (" + executor.mode() + " threads)");
     }
 
     /**
-     * Handles a received UDP packet by converting it into a string and passing
-     * it to the PaxosHandler for processing.
+     * Sends a message to a peer member.
      *
-     * @param packet the incoming UDP packet
+     * @param targetMember destination member ID
+     * @param msg          the message
+     * @return completes with {@code true} once the peer acknowledged it
      */
-    private void handlePacket(DatagramPacket packet) {
-        try {
-            String msg = new String(packet.getData(), 0, packet.getLength());
-            handler.handleMessage(msg);
-        } catch (Exception e) {
-            System.err.println("[" + nodeId + "] Failed to handle packet: " + e.getMessage());
-        }
+    public CompletableFuture<Boolean> send(String targetMember, Message msg) {
+        return transport.sendAsync(targetMember, msg);
     }
 
     /**
-     * Sends a message to a target IP address and port using UDP.
-     * <p>
-     * This method runs asynchronously in a thread from the executor pool.
-     * </p>
+     * Submits a value to this node's proposer.
      *
-     * @param targetIp   destination IP
-     * @param targetPort destination UDP port
-     * @param message    the message string to send
+     * @param value the value to propose
      */
-    public void send(String targetIp, int targetPort, String message) {
-        executor.submit(() -> {
-            try (DatagramSocket socket = new DatagramSocket()) {
-                byte[] data = message.getBytes();
-                DatagramPacket packet = new DatagramPacket(
-                        data,
-                        data.length,
-                        InetAddress.getByName(targetIp),
-                        targetPort
-                );
-                socket.send(packet);
-                System.out.println("[" + nodeId + "] Sent to " + targetIp + ":" + targetPort + " => " + message);
-            } catch (IOException e) {
-                System.err.println("[" + nodeId + "] Failed to send: " + e.getMessage());
-            }
-        });
+    public void propose(String value) {
+        handler.propose(value);
     }
 
     /**
-     * Shuts down the node by forcefully terminating all background tasks.
+     * @return one-line summary of the transport counters
+     */
+    public String stats() {
+        return transport.stats();
+    }
+
+    /**
+     * Shuts down the node: closes the socket and stops the executor.
      */
     public void shutdown() {
-        executor.shutdownNow();
+        transport.closeAll();
+        executor.shutdown();
         System.out.println("[" + nodeId + "] Node shut down.");
     }
 
@@ -122,14 +126,19 @@ public class PaxosNode {
      *     <li>{@code <nodeId>} — the identifier for this node</li>
      *     <li>{@code <port>} — the UDP port this node should bind to</li>
      *     <li>{@code --profile=<type>} — one of reliable, standard, latent, or failure</li>
+     *     <li>(optional) {@code --exec=<platform|pooled|virtual>} — threads for received messages (default pooled)</li>
+     *     <li>(optional) {@code --max-tasks=<n>} — most message tasks running at once</li>
+     *     <li>(optional) {@code --udp-datagram-bytes=<n>} — target size of coalesced datagrams</li>
      * </ul>
+     * Each line read from standard input is proposed; {@code /stats} prints the transport counters.
      * </p>
      *
      * @param args command line arguments as described above
      */
     public static void main(String[] args) {
         if (args.length < 3) {
-            System.out.println("Usage: java PaxosNode <nodeId> <port> --profile=<reliable|standard|latent|failure>");
+            System.out.println("Usage: java PaxosNode <nodeId> <port> --profile=<reliable|standard|latent|failure>"
+                    + " [--exec=<platform|pooled|virtual>] [--max-tasks=<n>] [--udp-datagram-bytes=<n>]");
             return;
         }
 
@@ -145,13 +154,39 @@ public class PaxosNode {
             String profileStr = profileArg.substring("--profile=".length());
             Profile profile = Profile.fromString(profileStr);
 
+            TaskExecutor.Mode mode = TaskExecutor.Mode.POOLED;
+            int maxTasks = TaskExecutor.DEFAULT_MAX_TASKS;
+            int datagramBytes = UdpTransport.DEFAULT_DATAGRAM_BYTES;
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].startsWith("--exec=")) {
+                    mode = TaskExecutor.Mode.parse(args[i].substring("--exec=".length()));
+                } else if (args[i].startsWith("--max-tasks=")) {
+                    maxTasks = Integer.parseInt(args[i].substring("--max-tasks=".length()).trim());
+                } else if (args[i].startsWith("--udp-datagram-bytes=")) {
+                    datagramBytes = Integer.parseInt(args[i].substring("--udp-datagram-bytes=".length()).trim());
+                }
+            }
+
             // Load network config
             NetworkConfig config = NetworkConfig.load();
 
             // Start the node
-            PaxosNode node = new PaxosNode(nodeId, port, config, profile);
+            PaxosNode node = new PaxosNode(nodeId, port, config, profile,
+                    new TaskExecutor(mode, nodeId + "-task", maxTasks), datagramBytes);
             node.start();
 
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String v = line.trim();
+                    if (v.isEmpty()) continue;
+                    if (v.equalsIgnoreCase("/stats")) {
+                        System.out.println("[" + nodeId + "] " + node.stats());
+                    } else {
+                        node.propose(v);
+                    }
+                }
+            }
         } catch (Exception e) {
             System.err.println("[ERROR] Failed to start PaxosNode: " + e.getMessage());
         }
@@ -0,0 +1,296 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps one long-lived outbound connection open to each peer in the {@link NetworkConfig}.
+ * <p>
+ * All message types for a given peer are multiplexed over the same socket, so a Paxos round no
+ * longer pays for a TCP handshake (and a reader thread on the receiving side) per message. Each
+ * connection negotiates its codec once when it is opened (see {@link WireProtocol}). Broken
+ * connections are dropped and re-established lazily on the next send, with the same bounded
+ * retry/backoff the original per-message sender used.
+ * </p>
+ * <p>
+ * {@link #sendAsync} (and so {@link Transport#broadcast}) hands messages to a per-peer queue
+ * drained by that peer's own sender thread, so peers are written to concurrently and a dead or
+ * slow member only
+ * delays its own queue. Each peer also keeps its own retry state: once a peer has exhausted its
+ * attempts it is marked down and later messages get a single attempt until one succeeds, so a
+ * backlog for an unreachable member drains quickly instead of sleeping through every retry.
+ * </p>
+ */
+public class PeerConnectionManager implements Transport {
+
+    //Number of attempts made for a single frame before giving up.
+    private static final int SEND_ATTEMPTS = 5;
+
+    //Connect timeout so a dead host cannot stall a sender indefinitely.
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    //Most messages queued for one peer; the oldest is dropped (and reported undelivered) beyond it.
+    private static final int MAX_QUEUED = 4096;
+
+    //Consecutive unanswered codec offers before a peer is taken for a legacy (JSON-only) member.
+    private static final int LEGACY_AFTER_TIMEOUTS = 3;
+
+    private final String memberId;
+    private final NetworkConfig config;
+    private final WireProtocol wire;
+    private final MessageCodec preferredCodec;
+    private final Map<String, PeerConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a connection manager for the given member that offers the binary codec.
+     *
+     * @param memberId ID of the local member (used for error reporting)
+     * @param config   network configuration used to resolve peer addresses
+     */
+    public PeerConnectionManager(String memberId, NetworkConfig config) {
+        this(memberId, config, new WireProtocol(config), null);
+    }
+
+    /**
+     * Creates a connection manager for the given member.
+     *
+     * @param memberId       ID of the local member (used for error reporting)
+     * @param config         network configuration used to resolve peer addresses
+     * @param wire           framing and codec negotiation
+     * @param preferredCodec codec offered on every new connection ({@code null} for binary)
+     */
+    public PeerConnectionManager(String memberId, NetworkConfig config, WireProtocol wire, MessageCodec preferredCodec) {
+        this.memberId = memberId;
+        this.config = config;
+        this.wire = wire;
+        this.preferredCodec = preferredCodec != null ? preferredCodec : wire.byName("binary");
+    }
+
+    /**
+     * Queues one message for the target member and returns at once. The peer's sender thread
+     * writes it in queue order, reconnecting and retrying with linear backoff if the connection
+     * is (or becomes) unusable.
+     *
+     * @param targetMember the member ID to send the message to
+     * @param msg          the message to send
+     * @return completes with {@code true} once written, {@code false} if it was given up or dropped
+     */
+    @Override
+    public CompletableFuture<Boolean> sendAsync(String targetMember, Message msg) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        connections.computeIfAbsent(targetMember, PeerConnection::new).enqueue(msg, done);
+        return done;
+    }
+
+    /**
+     * @param targetMember a member ID
+     * @return messages waiting in that peer's send queue
+     */
+    public int queued(String targetMember) {
+        PeerConnection conn = connections.get(targetMember);
+        return conn == null ? 0 : conn.queued();
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        for (String peer : config.getAllMembers()) {
+            if (peer.equals(memberId)) continue;
+            String label = "{peer=\"" + peer + "\"}";
+            metrics.counter("paxos_send_retries_total" + label, "Writes to a peer retried after a connection error",
+                    () -> peerStat(peer, c -> c.retries.sum()));
+            metrics.counter("paxos_send_failures_total" + label, "Messages given up after exhausting their attempts",
+                    () -> peerStat(peer, c -> c.failures.sum()));
+            metrics.counter("paxos_send_queue_dropped_total" + label, "Messages dropped from a full peer send queue",
+                    () -> peerStat(peer, c -> c.queueDropped.sum()));
+            metrics.gauge("paxos_send_queue_depth" + label, "Messages waiting in a peer's send queue",
+                    () -> queued(peer));
+        }
+    }
+
+    private long peerStat(String peer, ToLongFunction<PeerConnection> stat) {
+        PeerConnection conn = connections.get(peer);
+        return conn == null ? 0 : stat.applyAsLong(conn);
+    }
+
+    /**
+     * Closes every pooled connection. Subsequent sends will reconnect on demand.
+     */
+    @Override
+    public void closeAll() {
+        for (PeerConnection conn : connections.values()) {
+            conn.close();
+        }
+    }
+
+    /**
+     * A single lazily-connected, reconnecting channel to one peer.
+     * Writes are serialized on the connection so frames never interleave.
+     */
+    private final class PeerConnection {
+        private final String target;
+        private Socket socket;
+        private OutputStream out;
+        private MessageCodec codec;
+
+        //Codec offers the peer left unanswered in a row; at LEGACY_AFTER_TIMEOUTS connections skip
+        //the preamble. A GC pause or a full accept backlog can also delay an answer, so a legacy
+        //connection is followed by one more offer on the next reconnect.
+        private int unansweredOffers;
+
+        //Send queue drained by the sender thread, started on first use; guarded by itself
+        private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+        private Thread sender;
+
+        //Set after a message exhausted its attempts, cleared by the next successful write
+        private boolean down;
+
+        //Metrics
+        final LongAdder retries = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder queueDropped = new LongAdder();
+
+        PeerConnection(String target) {
+            this.target = target;
+        }
+
+        void enqueue(Message msg, CompletableFuture<Boolean> done) {
+            Queued dropped = null;
+            synchronized (queue) {
+                if (queue.size() >= MAX_QUEUED) {
+                    dropped = queue.poll();
+                }
+                queue.add(new Queued(msg, done));
+                if (sender == null) {
+                    sender = new Thread(this::drain, memberId + "-send-" + target);
+                    sender.setDaemon(true);
+                    sender.start();
+                }
+                queue.notify();
+            }
+            if (dropped != null) {
+                queueDropped.increment();
+                dropped.done.complete(false);
+            }
+        }
+
+        int queued() {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Queued next;
+                synchronized (queue) {
+                    while (queue.isEmpty()) {
+                        try {
+                            queue.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    next = queue.poll();
+                }
+                next.done.complete(deliver(next.msg));
+            }
+        }
+
+        /**
+         * Writes one queued message, retrying with linear backoff unless the peer is already
+         * known to be down.
+         */
+        private boolean deliver(Message msg) {
+            int attempts = down ? 1 : SEND_ATTEMPTS;
+            for (int i = 1; i <= attempts; i++) {
+                try {
+                    write(msg);
+                    down = false;
+                    return true;
+                } catch (IOException e) {
+                    close();
+                    if (i == attempts) {
+                        failures.increment();
+                        if (!down) {
+                            System.err.printf("[%s] Failed to send to %s after %d tries: %s%n",
+                                    memberId, target, attempts, e.getMessage());
+                        }
+                        down = true;
+                    } else {
+                        retries.increment();
+                        try {
+                            Thread.sleep(200L * i);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        synchronized void write(Message msg) throws IOException {
+            if (out == null) {
+                connect();
+            }
+            wire.writeFrame(out, codec, codec.encode(msg));
+            out.flush();
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                s.connect(new InetSocketAddress(config.getHost(target), config.getPort(target)), CONNECT_TIMEOUT_MS);
+                OutputStream o = new BufferedOutputStream(s.getOutputStream());
+                boolean legacy = unansweredOffers >= LEGACY_AFTER_TIMEOUTS;
+                try {
+                    codec = wire.offer(s, o, legacy ? wire.json() : preferredCodec);
+                } catch (SocketTimeoutException e) {
+                    unansweredOffers++; // an older member never answers; retry without the preamble
+                    throw e;
+                }
+                unansweredOffers = legacy ? LEGACY_AFTER_TIMEOUTS - 1 : 0;
+                out = o;
+                socket = s;
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        synchronized void close() {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+            socket = null;
+            out = null;
+            codec = null;
+        }
+    }
+
+    /**
+     * A message waiting in a peer's send queue, with the future reporting its delivery.
+     */
+    private static final class Queued {
+        final Message msg;
+        final CompletableFuture<Boolean> done;
+
+        Queued(Message msg, CompletableFuture<Boolean> done) {
+            this.msg = msg;
+            this.done = done;
+        }
+    }
+}
@@ -3,12 +3,21 @@ package au.edu.adelaide.ds.assignment3;
 import java.util.Random;
 
 public enum Profile {
-    RELIABLE,
-    STANDARD,
-    LATENT,
-    FAILURE;
+    RELIABLE(0, 0, 0),
+    STANDARD(50, 150, 0),
+    LATENT(500, 1500, 0),
+    FAILURE(100, 300, 0.2);
 
-    private static final Random rand = new Random();
+    //Delay range in milliseconds [min, max) and the chance a message is dropped, on this member's links
+    private final int minDelayMs;
+    private final int maxDelayMs;
+    private final double dropRate;
+
+    Profile(int minDelayMs, int maxDelayMs, double dropRate) {
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.dropRate = dropRate;
+    }
 
     public static Profile fromString(String str) {
         switch (str.toLowerCase()) {
@@ -20,28 +29,44 @@ public enum Profile {
         }
     }
 
-    public void simulateNetworkDelay() {
-        try {
-            switch (this) {
-                case RELIABLE:
-                    break;
-                case STANDARD:
-                    Thread.sleep(50 + rand.nextInt(100));
-                    break;
-                case LATENT:
-                    Thread.sleep(500 + rand.nextInt(1000));
-                    break;
-                case FAILURE:
-                    Thread.sleep(100 + rand.nextInt(200));
-                    break;
-            }
-        } catch (InterruptedException ignored) {}
+    /**
+     * @return smallest delay in milliseconds
+     */
+    long minDelayMs() {
+        return minDelayMs;
     }
 
-    public boolean shouldDrop() {
-        if (this == FAILURE) {
-            return rand.nextDouble() < 0.2;
-        }
-        return false;
+    /**
+     * @return largest delay in milliseconds (exclusive)
+     */
+    long maxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * @return chance a message is dropped
+     */
+    double dropRate() {
+        return dropRate;
+    }
+
+    /**
+     * Draws how long a message is delayed under this profile.
+     *
+     * @param random the random source
+     * @return the delay in milliseconds
+     */
+    public long sampleDelayMs(Random random) {
+        return maxDelayMs == 0 ? 0 : minDelayMs + random.nextInt(maxDelayMs - minDelayMs);
+    }
+
+    /**
+     * Draws whether a message is dropped under this profile.
+     *
+     * @param random the random source
+     * @return {@code true} to drop it
+     */
+    public boolean sampleDrop(Random random) {
+        return dropRate > 0 && random.nextDouble() < dropRate;
     }
 }
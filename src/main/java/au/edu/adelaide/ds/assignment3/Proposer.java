@@ -0,0 +1,1277 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Proposer role of one member: runs phase 1 for every slot from the first undecided one, then,
+ * as leader, streams batched ACCEPT_REQUESTs for queued values through a window of in-flight slots.
+ * <p>
+ * Guarded by its own monitor. Messages produced while holding it are collected in an outbox and
+ * broadcast only after the monitor is released, so a slow peer never stalls the proposer (or the
+ * acceptor and learner, which have their own synchronization). Lock order is proposer, then
+ * learner; the learner never calls back in while holding its lock.
+ * </p>
+ * <p>
+ * All timeouts run on the member's shared {@link TimerService} and are cancelled once moot: PREPARE
+ * retries use randomized exponential backoff so duelling proposers drift apart, unanswered
+ * ACCEPT_REQUESTs are re-sent a few times before falling back to PREPARE, and a leader sends
+ * periodic HEARTBEATs so stale proposers learn of its ballot.
+ * </p>
+ * <p>
+ * Only the leader proposes. A follower feeds the leader's HEARTBEATs to a {@link FailureDetector}
+ * and, while it trusts the leader, forwards submitted values to it in a FORWARD instead of running
+ * PREPARE, so values submitted anywhere are decided in the leader's single round trip rather than
+ * by duelling proposers. It keeps what it forwarded until it learns it decided, and routes it
+ * again if the leader changes or it is not decided in time (values are decided at least once).
+ * Once the leader is suspected, members stand for election in turn, the one after the old leader
+ * in the configuration first and each later one a stagger later; a candidate that sees another's
+ * PREPARE, or hears from a new leader, stands down.
+ * </p>
+ * <p>
+ * Phase 1 completes on a phase 1 quorum of PROMISEs and a slot is decided by a phase 2 quorum of
+ * ACCEPTEDs, as chosen by the {@link QuorumSystem}. With a thrifty quorum system a leader sends
+ * each ACCEPT_REQUEST first to one phase 2 quorum of the members that acknowledged its recent
+ * HEARTBEATs, and re-sends to everyone if that goes unanswered.
+ * </p>
+ * <p>
+ * Every phase 2 quorum of HEARTBEAT_ACKs (and the PROMISEs, if they form one) renews the leader's
+ * read lease (see {@link Acceptor#grantLease(long)}): it intersects every phase 1 quorum, so no
+ * other member can take over while it runs. The lease is timed from when the PREPARE or HEARTBEAT
+ * was queued and shortened by a margin for clock drift. {@link #leaseReadIndex()} reads it
+ * without the lock.
+ * </p>
+ */
+final class Proposer {
+
+    //How long a proposer first waits for a PROMISE quorum; later attempts back off exponentially up to the cap.
+    private static final long PROPOSAL_TIMEOUT_MS = 3000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    //Unanswered ACCEPT_REQUESTs are re-sent this often, this many times, before re-running PREPARE.
+    private static final long ACCEPT_RETRY_MS = 1000;
+    private static final int MAX_ACCEPT_RETRIES = 2;
+
+    //Forwarded values not decided within this long are routed again.
+    private static final long FORWARD_TIMEOUT_MS = 4000;
+
+    //Part of a lease the leader does not rely on, covering clock drift between members.
+    private static final long LEASE_MARGIN_MS = 200;
+
+    //Heartbeat rounds kept waiting for a quorum of acknowledgements.
+    private static final int LEASE_ROUNDS = 4;
+
+    //Members that acknowledged none of this many recent heartbeats are left out of thrifty ACCEPT_REQUESTs.
+    private static final int RESPONSIVE_ROUNDS = 2;
+
+    //Upper bound on the encoded size of one batch, well below WireProtocol.MAX_FRAME_BYTES.
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+
+    private final String memberId;
+    private final NodeLogger logger;
+    private final NetworkConfig config;
+    private final QuorumSystem quorums;
+    private final int myIndex;
+    private final int myNumericId;
+    private final Acceptor acceptor;
+    private final Learner learner;
+    private final WriteAheadLog wal;
+    private final TimerService timers;
+    private final Consumer<Message> broadcast;
+    private final BiConsumer<Message, List<String>> multicast;
+    private final BiConsumer<String, Message> sendTo;
+    private final Tracer tracer;
+
+    //Messages to broadcast once the monitor is released, and ACCEPT_REQUESTs for the thrifty phase 2 quorum only
+    private final List<Message> outbox = new ArrayList<>();
+    private final List<Message> quorumOutbox = new ArrayList<>();
+
+    //Thrifty leader: when each member last acknowledged a HEARTBEAT (or promised), and the other
+    //members of the phase 2 quorum picked from them (null to send to everyone)
+    private final long[] heardAt;
+    private List<String> phase2Peers;
+
+    //Ballot state; "ballot" and "leader" are volatile so preemption checks and client requests can skip the lock
+    private volatile long ballot = Ballot.NONE;
+    private boolean preparing = false;
+    //Set when a higher ballot is seen while preparing: the PREPARE can no longer win and only its timeout retries
+    private boolean preempted = false;
+    private volatile boolean leader = false;
+    private long localRound;
+    private final BitSet promisers = new BitSet();
+    private long promiseFrom = 0;
+    private final Map<Long, Message.Entry> promisedEntries = new HashMap<>();
+
+    //Queued values and slots in flight
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final Map<Long, InFlight> inFlight = new HashMap<>();
+    //Written under the monitor; volatile for lease reads
+    private volatile long nextSlot;
+
+    //Front-end: values submitted by any thread, drained into "pending" by one at a time
+    private final Queue<String> submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    //Batching and pipelining tunables
+    private int maxBatch = PaxosHandler.DEFAULT_BATCH_SIZE;
+    private long lingerMs = PaxosHandler.DEFAULT_LINGER_MS;
+    private int window = PaxosHandler.DEFAULT_WINDOW;
+    private long lingerUntil = 0;
+
+    //Pending timeouts (null when not armed) and consecutive PREPAREs that did not lead to leadership
+    private TimerService.Timeout prepareTimeout;
+    private TimerService.Timeout heartbeat;
+    private TimerService.Timeout linger;
+    private int failedPrepares = 0;
+
+    //Root span of the running PREPARE round, or null if it is not traced
+    private Tracer.Span prepareSpan;
+
+    //Metrics: phase latencies in microseconds, rounds per election and per decided slot
+    private final LatencyHistogram prepareLatency;
+    private final LatencyHistogram acceptLatency;
+    private final LatencyHistogram prepareRounds;
+    private final LatencyHistogram acceptRounds;
+    private final LongAdder prepares;
+    private final LongAdder acceptRetries;
+    private final LongAdder preemptions;
+
+    //Latest leader heard from through a HEARTBEAT, and when (ms)
+    private volatile String knownLeader;
+    private volatile long lastHeartbeatAt;
+
+    //Election: heartbeat interval, the detector fed by the leader's HEARTBEATs, the pending
+    //candidacy, when another member's PREPARE was last seen (nanoTime, 0 for never), and the
+    //leader suspected last (with when it was last heard from, ms) until a new one is known
+    private long heartbeatMs = PaxosHandler.DEFAULT_HEARTBEAT_MS;
+    private final FailureDetector detector =
+            new FailureDetector(PaxosHandler.DEFAULT_HEARTBEAT_MS, PaxosHandler.DEFAULT_PHI_THRESHOLD);
+    private TimerService.Timeout leaderCheck;
+    private TimerService.Timeout candidacy;
+    private volatile long campaignSeenAt;
+    private String suspected;
+    private long suspectedHeardAt;
+
+    //Values forwarded to the leader and not yet seen decided; values to forward once the monitor is released
+    private final Map<String, Forwarded> forwarded = new LinkedHashMap<>();
+    private final List<String> forwardBatch = new ArrayList<>();
+    private String forwardTo;
+
+    //Metrics: values forwarded, leader suspicions, time from a suspected leader's last heartbeat to taking over
+    private final LongAdder forwards;
+    private final LongAdder suspicions;
+    private final LatencyHistogram failover;
+
+    //Read lease: when the current PREPARE was queued, heartbeat rounds awaiting acknowledgements,
+    //and the ballot and TimerService.nanoTime() deadline of the lease held
+    private long prepareSentAt;
+    private long heartbeatSeq;
+    private final Map<Long, LeaseRound> leaseRounds = new HashMap<>();
+    private volatile long leaseBallot = Ballot.NONE;
+    private volatile long leaseUntil;
+
+    /**
+     * Creates the proposer.
+     *
+     * @param memberId   this member's ID
+     * @param logger     member logger
+     * @param config     network configuration
+     * @param quorums    which PROMISEs make this member leader, and which acknowledgements renew its lease
+     * @param acceptor   this member's acceptor (its promise bounds the next ballot)
+     * @param learner    this member's learner
+     * @param wal        write-ahead log recording own ballots, or {@code null}
+     * @param timers     shared timer service
+     * @param broadcast  sends a message to every other member and this member's own acceptor;
+     *                   never called under the monitor
+     * @param multicast  sends a message to the given other members and this member's own acceptor;
+     *                   never called under the monitor
+     * @param sendTo     sends a message to one other member; never called under the monitor
+     * @param metrics    the member's metrics, which the proposer's are registered with
+     * @param tracer     the member's tracer, which opens a span per phase
+     */
+    Proposer(String memberId, NodeLogger logger, NetworkConfig config, QuorumSystem quorums, Acceptor acceptor,
+             Learner learner, WriteAheadLog wal, TimerService timers, Consumer<Message> broadcast,
+             BiConsumer<Message, List<String>> multicast, BiConsumer<String, Message> sendTo, Metrics metrics,
+             Tracer tracer) {
+        this.memberId = memberId;
+        this.logger = logger;
+        this.config = config;
+        this.quorums = quorums;
+        this.myIndex = config.indexOf(memberId);
+        this.heardAt = new long[config.getAllMembers().size()];
+        Arrays.fill(heardAt, Long.MIN_VALUE);
+        this.myNumericId = Ballot.numericId(memberId);
+        this.acceptor = acceptor;
+        this.learner = learner;
+        this.wal = wal;
+        this.timers = timers;
+        this.broadcast = broadcast;
+        this.multicast = multicast;
+        this.sendTo = sendTo;
+        this.tracer = tracer;
+        this.localRound = wal == null ? 0 : Ballot.round(wal.recovered().getLastOwnBallot());
+        this.nextSlot = learner.firstUndecided();
+
+        this.prepareLatency = metrics.histogram("paxos_prepare_quorum_latency_us",
+                "Time from sending a PREPARE to a quorum of PROMISEs");
+        this.acceptLatency = metrics.histogram("paxos_accept_quorum_latency_us",
+                "Time from first sending an ACCEPT_REQUEST for a slot to its decision");
+        this.prepareRounds = metrics.histogram("paxos_prepare_rounds",
+                "PREPARE rounds this member ran per election it won");
+        this.acceptRounds = metrics.histogram("paxos_accept_rounds",
+                "ACCEPT_REQUEST rounds (re-sends and re-proposals included) per slot decided while in flight here");
+        this.prepares = metrics.counter("paxos_prepares_total", "PREPARE rounds started");
+        this.acceptRetries = metrics.counter("paxos_accept_retries_total", "ACCEPT_REQUESTs re-sent for lack of a quorum");
+        this.preemptions = metrics.counter("paxos_preemptions_total", "Times leadership or a PREPARE was lost to a higher ballot");
+        metrics.gauge("paxos_inflight_slots", "Slots proposed and not yet decided", this::inFlightCount);
+        metrics.gauge("paxos_pending_values", "Values waiting for a slot", this::pendingCount);
+        this.forwards = metrics.counter("paxos_forwarded_values_total", "Values forwarded to the leader (re-forwards included)");
+        this.suspicions = metrics.counter("paxos_leader_suspected_total", "Times the failure detector suspected the leader");
+        this.failover = metrics.histogram("paxos_leader_failover_ms",
+                "Time from a suspected leader's last HEARTBEAT to this member taking over");
+    }
+
+    /**
+     * Sets the batching and pipelining tunables.
+     *
+     * @param batchSize most values packed into one slot
+     * @param lingerMs  how long a partial batch may wait for more values while the window has room
+     * @param window    most slots kept in flight as leader
+     */
+    synchronized void configure(int batchSize, long lingerMs, int window) {
+        this.maxBatch = Math.max(1, batchSize);
+        this.lingerMs = Math.max(0, lingerMs);
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Sets the leader election tunables. Failover takes roughly the time phi needs to cross the
+     * threshold after the last heartbeat, plus a PREPARE round trip; a new leader's PROMISEs may
+     * also be held back until the old leader's read lease has run out.
+     *
+     * @param heartbeatMs  interval between the leader's HEARTBEATs, at most half a read lease
+     * @param phiThreshold failure detector suspicion threshold
+     */
+    synchronized void configureElection(long heartbeatMs, double phiThreshold) {
+        this.heartbeatMs = Math.max(10, Math.min(heartbeatMs, Acceptor.LEASE_MS / 2));
+        if (this.heartbeatMs != heartbeatMs) {
+            logger.warn("[PROPOSER] Heartbeat interval %dms out of range, using %dms (10ms to half the %dms read lease)",
+                    heartbeatMs, this.heartbeatMs, Acceptor.LEASE_MS);
+        }
+        detector.configure(this.heartbeatMs, phiThreshold);
+    }
+
+    // -----------------------------
+    // Entry points (lock, act, release, then send)
+    // -----------------------------
+    /**
+     * Runs an action under the monitor, then broadcasts whatever it queued.
+     *
+     * @param action the action
+     */
+    private void locked(Runnable action) {
+        List<Message> out;
+        List<Message> toQuorum = null;
+        List<String> quorumPeers = null;
+        List<Message> fwd = null;
+        String fwdTo = null;
+        synchronized (this) {
+            action.run();
+            if (!forwardBatch.isEmpty()) {
+                fwd = forwardMessages();
+                fwdTo = forwardTo;
+                forwardTo = null;
+            }
+            if (!quorumOutbox.isEmpty()) {
+                toQuorum = new ArrayList<>(quorumOutbox);
+                quorumOutbox.clear();
+                quorumPeers = phase2Peers;
+            }
+            if (outbox.isEmpty() && toQuorum == null && fwd == null) return;
+            out = new ArrayList<>(outbox);
+            outbox.clear();
+        }
+        for (Message m : out) broadcast.accept(m);
+        if (toQuorum != null) {
+            for (Message m : toQuorum) multicast.accept(m, quorumPeers);
+        }
+        if (fwd != null) {
+            for (Message m : fwd) sendTo.accept(fwdTo, m);
+        }
+    }
+
+    /**
+     * Submits a value. It is queued without waiting for the monitor; whichever caller finds no
+     * drain in progress moves every queued value to the proposer.
+     *
+     * @param value the proposed value
+     */
+    void propose(String value) {
+        submitted.add(value);
+        while (!submitted.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                locked(() -> {
+                    String v;
+                    while ((v = submitted.poll()) != null) pending.add(v);
+                    route();
+                });
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * Handles a PROMISE for this proposer's ballot.
+     *
+     * @param msg the PROMISE
+     */
+    void onPromise(Message msg) {
+        locked(() -> handlePromise(msg));
+    }
+
+    /**
+     * Counts a HEARTBEAT_ACK towards the lease round of the heartbeat it answers.
+     *
+     * @param msg the HEARTBEAT_ACK
+     */
+    void onHeartbeatAck(Message msg) {
+        locked(() -> {
+            if (!leader || msg.getProposalNumber() != ballot || msg.getValue() == null) return;
+            long seq;
+            try {
+                seq = Long.parseLong(msg.getValue());
+            } catch (NumberFormatException e) {
+                return;
+            }
+            LeaseRound round = leaseRounds.get(seq);
+            int idx = config.indexOf(msg.getSenderId());
+            if (idx >= 0) heardAt[idx] = timers.nanoTime();
+            if (round == null || idx < 0) return;
+            round.acks.set(idx);
+            if (quorums.isPhase2(round.acks)) {
+                extendLease(round.sentAt);
+                leaseRounds.keySet().removeIf(s -> s <= seq);
+            }
+        });
+    }
+
+    /**
+     * Returns the slot a linearizable read must wait for, if this member is leader and holds a
+     * read lease: every value that may have been decided before now lies below it. Lock-free.
+     *
+     * @return the read index, or -1 without a valid lease
+     */
+    long leaseReadIndex() {
+        long b = ballot;
+        if (leaseBallot != b || b == Ballot.NONE) return -1;
+        if (timers.nanoTime() - leaseUntil >= 0) return -1;
+        return nextSlot;
+    }
+
+    /**
+     * Settles whatever this proposer had in flight for a newly decided slot.
+     *
+     * @param d the decision
+     */
+    void onDecided(Learner.Decision d) {
+        locked(() -> settle(d.slot, d.value));
+    }
+
+    /**
+     * Steps down if another proposer's ballot is higher than this one's. Lock-free when it is not.
+     *
+     * @param seen a ballot seen in a PREPARE, ACCEPT_REQUEST or HEARTBEAT
+     */
+    void observe(long seen) {
+        if (seen <= ballot) return;
+        locked(() -> stepDownIfPreempted(seen));
+    }
+
+    /**
+     * Records a HEARTBEAT from a leader and steps down if its ballot is higher.
+     *
+     * @param msg the HEARTBEAT
+     */
+    void onHeartbeat(Message msg) {
+        locked(() -> {
+            String from = msg.getSenderId();
+            long now = timers.currentTimeMillis();
+            if (!from.equals(knownLeader) || from.equals(suspected)) {
+                logger.log("[FOLLOWER] Leader is %s (n=%B)", from, msg.getProposalNumber());
+            }
+            knownLeader = from;
+            lastHeartbeatAt = now;
+            suspected = null;
+            detector.heartbeat(from, now);
+            stepDownIfPreempted(msg.getProposalNumber());
+            if (leader) return;
+            armLeaderCheck();
+            if (candidacy != null) candidacy.cancel();
+            candidacy = null;
+            if (preparing && preempted) abandonPrepare();
+            route();
+        });
+    }
+
+    /**
+     * Handles values another member forwarded to this one as leader: they are proposed like
+     * values submitted here. A member that no longer leads drops them; the forwarder routes them
+     * again once it hears from the new leader.
+     *
+     * @param msg the FORWARD
+     */
+    void onForward(Message msg) {
+        List<String> values = Batch.decode(msg.getValue());
+        locked(() -> {
+            if (!leader) {
+                logger.warn("[PROPOSER] Not leading; dropped %d value(s) forwarded by %s", values.size(),
+                        msg.getSenderId());
+                return;
+            }
+            pending.addAll(values);
+            fillWindow();
+        });
+    }
+
+    /**
+     * Notes another member's PREPARE: while its campaign runs, this member does not stand for
+     * election itself. Lock-free unless the PREPARE preempts this member.
+     *
+     * @param seen the PREPARE's ballot
+     */
+    void observePrepare(long seen) {
+        if (Ballot.nodeId(seen) != myNumericId) campaignSeenAt = timers.nanoTime();
+        observe(seen);
+    }
+
+    // -----------------------------
+    // Phase 1
+    // -----------------------------
+    /**
+     * Generates the next unique proposal number for this proposer.
+     * <p>
+     * Packs {@code round} and this member's numeric ID into a {@link Ballot} (logged as "2.4").
+     * The round also jumps past any round this member has promised, so a retry can win.
+     * </p>
+     *
+     * @return the packed ballot
+     */
+    private long nextProposalNumber() {
+        localRound = Math.max(localRound, Ballot.round(acceptor.promised())) + 1;
+        return Ballot.of(localRound, myNumericId);
+    }
+
+    /**
+     * Starts phase 1 with a fresh ballot, covering every slot from the first undecided one.
+     * Pending accept retries and heartbeats of the previous ballot are cancelled; the PREPARE
+     * timeout backs off with every attempt that does not lead to leadership.
+     */
+    private void startPrepare() {
+        tracer.end(prepareSpan, preempted ? "preempted" : "timeout");
+        cancelTimers();
+        if (candidacy != null) candidacy.cancel();
+        candidacy = null;
+        dropLease();
+        ballot = nextProposalNumber();
+        if (wal != null) {
+            // Rare (once per election), so waiting under the lock is acceptable here.
+            wal.awaitDurable(wal.appendRound(ballot));
+        }
+        preparing = true;
+        preempted = false;
+        leader = false;
+        promisers.clear();
+        promisedEntries.clear();
+        long from = learner.firstUndecided();
+        promiseFrom = from;
+
+        Message m = new Message();
+        m.setType(Message.MessageType.PREPARE);
+        m.setSenderId(memberId);
+        m.setProposalNumber(ballot);
+        m.setSlot(from);
+        prepareSpan = tracer.root("phase1", from, ballot);
+        if (prepareSpan != null) prepareSpan.rounds = failedPrepares + 1;
+        tracer.stamp(m, prepareSpan);
+        prepareSentAt = timers.nanoTime();
+        prepares.increment();
+        outbox.add(m);
+        if (pending.isEmpty()) {
+            logger.log("[PROPOSER][PREPARE] n=%B slot>=%d (standing for leader)", ballot, from);
+        } else if (pending.size() > 1) {
+            logger.log("[PROPOSER][PREPARE] n=%B slot>=%d v=%V (+%d queued)", ballot, from, pending.peek(),
+                    pending.size() - 1);
+        } else {
+            logger.log("[PROPOSER][PREPARE] n=%B slot>=%d v=%V", ballot, from, pending.peek());
+        }
+
+        // timeout & re-propose with higher n if no quorum in time
+        final long prepared = ballot;
+        long delay = timers.backoff(PROPOSAL_TIMEOUT_MS, MAX_BACKOFF_MS, failedPrepares++);
+        prepareTimeout = timers.schedule(delay, () -> locked(() -> {
+            if (!preparing || ballot != prepared) return;
+            String live = preempted ? liveLeader() : null;
+            if (live != null) {
+                logger.log("[PROPOSER] Lost the election to %s; following", live);
+                abandonPrepare();
+                route();
+            } else {
+                logger.log("[PROPOSER] Timeout waiting for quorum after %dms; re-proposing with higher n", delay);
+                startPrepare();
+            }
+        }));
+    }
+
+    /**
+     * Gives up a preempted PREPARE round once another member leads. Slots still in flight from
+     * an earlier leadership lost their retries to the PREPARE; their own values are handed over
+     * to be forwarded (the new leader decides those slots).
+     */
+    private void abandonPrepare() {
+        preparing = false;
+        preempted = false;
+        failedPrepares = 0;
+        tracer.end(prepareSpan, "preempted");
+        prepareSpan = null;
+        if (prepareTimeout != null) prepareTimeout.cancel();
+        prepareTimeout = null;
+        for (InFlight f : inFlight.values()) {
+            f.cancelRetry();
+            tracer.end(f.span, "handed over");
+            if (f.own) requeue(f.value, true);
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * Cancels the PREPARE timeout, heartbeats, linger and every in-flight slot's accept retry.
+     */
+    private void cancelTimers() {
+        if (prepareTimeout != null) prepareTimeout.cancel();
+        if (heartbeat != null) heartbeat.cancel();
+        if (linger != null) linger.cancel();
+        prepareTimeout = heartbeat = linger = null;
+        for (InFlight f : inFlight.values()) f.cancelRetry();
+    }
+
+    /**
+     * Extends the read lease to {@link Acceptor#LEASE_MS} (less the drift margin) after
+     * {@code sentAt}, the time the request a quorum has just granted was queued.
+     */
+    private void extendLease(long sentAt) {
+        long until = sentAt + (Acceptor.LEASE_MS - LEASE_MARGIN_MS) * 1_000_000L;
+        if (leaseBallot != ballot || until - leaseUntil > 0) {
+            leaseUntil = until;
+        }
+        leaseBallot = ballot;
+    }
+
+    /**
+     * Gives up the read lease (on a new PREPARE or when preempted).
+     */
+    private void dropLease() {
+        leaseBallot = Ballot.NONE;
+        leaseUntil = 0;
+        leaseRounds.clear();
+    }
+
+    /**
+     * Handles a PROMISE message received in response to a PREPARE.
+     * <p>
+     * Tracks received promises and the highest-ballot entry reported for each slot, and takes
+     * over as leader once they form a phase 1 quorum.
+     * </p>
+     *
+     * @param msg the PROMISE message received from an acceptor
+     */
+    private void handlePromise(Message msg) {
+        if (!preparing || ballot != msg.getProposalNumber()) {
+            logger.debug("[PROPOSER][PROMISE] ignoring: for different proposal n=%B", msg.getProposalNumber());
+            return;
+        }
+        if (preempted) {
+            return; // a quorum of these would only elect a leader whose ACCEPT_REQUESTs are rejected
+        }
+        int idx = config.indexOf(msg.getSenderId());
+        if (idx < 0 || promisers.get(idx)) {
+            return; // unknown or duplicate promise
+        }
+        promisers.set(idx);
+
+        promiseFrom = Math.max(promiseFrom, msg.getSlot());
+        List<Message.Entry> entries = msg.getEntries();
+        if (entries != null) {
+            for (Message.Entry e : entries) {
+                Message.Entry seen = promisedEntries.get(e.getSlot());
+                if (seen == null || e.getBallot() > seen.getBallot()) {
+                    promisedEntries.put(e.getSlot(), e);
+                }
+            }
+        }
+
+        int count = promisers.cardinality();
+        if (entries != null && !entries.isEmpty()) {
+            logger.debug("[PROPOSER][PROMISE RECEIVED] from=%s count=%d/%d prev=%d entries",
+                    msg.getSenderId(), count, quorums.phase1Size(), entries.size());
+        } else {
+            logger.debug("[PROPOSER][PROMISE RECEIVED] from=%s count=%d/%d", msg.getSenderId(), count,
+                    quorums.phase1Size());
+        }
+
+        if (quorums.isPhase1(promisers)) {
+            becomeLeader();
+        }
+    }
+
+    /**
+     * Completes phase 1: re-proposes every value the promise quorum reported, fills gaps with
+     * no-ops, then assigns slots to queued values.
+     */
+    private void becomeLeader() {
+        preparing = false;
+        leader = true;
+        prepareLatency.record((timers.nanoTime() - prepareSentAt) / 1_000);
+        prepareRounds.record(failedPrepares);
+        failedPrepares = 0;
+        tracer.end(prepareSpan, "leader");
+        prepareSpan = null;
+        if (prepareTimeout != null) prepareTimeout.cancel();
+        prepareTimeout = null;
+        final long leaderBallot = ballot;
+        // Promising grants a lease too, but only a phase 2 quorum of grants is sure to hold off a rival.
+        if (quorums.isPhase2(promisers)) extendLease(prepareSentAt);
+        long now = timers.nanoTime();
+        for (int i = promisers.nextSetBit(0); i >= 0; i = promisers.nextSetBit(i + 1)) {
+            if (i < heardAt.length) heardAt[i] = now;
+        }
+        sendHeartbeat(leaderBallot);
+        heartbeat = timers.scheduleAtFixedRate(heartbeatMs, () -> locked(() -> sendHeartbeat(leaderBallot)));
+        if (leaderCheck != null) leaderCheck.cancel();
+        leaderCheck = null;
+
+        long start = Math.max(promiseFrom, learner.firstUndecided());
+        long last = start - 1;
+        for (long s : promisedEntries.keySet()) last = Math.max(last, s);
+        for (long s : inFlight.keySet()) last = Math.max(last, s);
+        if (suspected != null) {
+            long took = timers.currentTimeMillis() - suspectedHeardAt;
+            failover.record(took);
+            logger.log("[PROPOSER][LEADER] n=%B slots>=%d, took over from %s %dms after its last heartbeat", ballot,
+                    start, suspected, took);
+            suspected = null;
+        } else {
+            logger.log("[PROPOSER][LEADER] n=%B slots>=%d", ballot, start);
+        }
+        // Values forwarded to a former leader and not yet decided are this member's to propose now.
+        reclaimForwarded(null);
+
+        // Own proposals below what the quorum can vouch for: outcome unknown here, so resubmit.
+        for (Iterator<Map.Entry<Long, InFlight>> it = inFlight.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, InFlight> e = it.next();
+            if (e.getKey() < start) {
+                if (e.getValue().own) requeue(e.getValue().value, true);
+                e.getValue().cancelRetry();
+                tracer.end(e.getValue().span, "superseded");
+                it.remove();
+            }
+        }
+
+        for (long s = start; s <= last; s++) {
+            InFlight mine = inFlight.get(s);
+            if (learner.isDecided(s)) {
+                // Decided while phase 1 ran: that decision has already been delivered, so settle here.
+                if (mine != null) {
+                    inFlight.remove(s);
+                    mine.cancelRetry();
+                    tracer.end(mine.span, "decided");
+                    if (mine.own && !mine.value.equals(learner.get(s))) requeue(mine.value, true);
+                }
+                continue;
+            }
+            Message.Entry reported = promisedEntries.get(s);
+            if (reported != null) {
+                if (mine != null && mine.own && !mine.value.equals(reported.getValue())) {
+                    requeue(mine.value, true);
+                }
+                sendAcceptRequest(s, reported.getValue(), mine != null && mine.own && mine.value.equals(reported.getValue()));
+            } else if (mine != null) {
+                sendAcceptRequest(s, mine.value, mine.own);
+            } else {
+                sendAcceptRequest(s, PaxosHandler.NO_OP, false);
+            }
+        }
+        promisedEntries.clear();
+
+        nextSlot = Math.max(nextSlot, last + 1);
+        lingerUntil = 0;
+        fillWindow();
+    }
+
+    /**
+     * Gives up leadership (or a running PREPARE) after seeing a higher ballot from another proposer.
+     *
+     * @param seen the higher ballot
+     */
+    private void stepDownIfPreempted(long seen) {
+        if ((leader || preparing) && seen > ballot) {
+            logger.log("[PROPOSER] Preempted by n=%B", seen);
+            preemptions.increment();
+            leader = false;
+            preempted = preparing;
+            dropLease();
+            if (heartbeat != null) heartbeat.cancel();
+            heartbeat = null;
+        }
+    }
+
+    // -----------------------------
+    // Phase 2
+    // -----------------------------
+    /**
+     * As leader, assigns queued values to new slots, one batch per slot, until the window of
+     * in-flight slots is full. A batch smaller than the batch size waits up to the linger time
+     * for more values before it is sent.
+     */
+    private void fillWindow() {
+        while (leader && !pending.isEmpty() && inFlight.size() < window) {
+            if (pending.size() < maxBatch && lingerMs > 0) {
+                long now = timers.currentTimeMillis();
+                if (lingerUntil == 0) {
+                    lingerUntil = now + lingerMs;
+                    scheduleLinger(ballot);
+                    return;
+                }
+                if (now < lingerUntil) return;
+            }
+            lingerUntil = 0;
+
+            List<String> batch = new ArrayList<>(Math.min(maxBatch, pending.size()));
+            int chars = 0;
+            while (!pending.isEmpty() && batch.size() < maxBatch
+                    && (batch.isEmpty() || chars + pending.peek().length() <= MAX_BATCH_CHARS)) {
+                String v = pending.poll();
+                chars += v.length();
+                batch.add(v);
+            }
+            while (learner.isDecided(nextSlot)) nextSlot++; // learned before this member led
+            sendAcceptRequest(nextSlot++, Batch.encode(batch), true);
+        }
+    }
+
+    /**
+     * Sends a lingering partial batch once its linger time is up.
+     *
+     * @param leaderBallot ballot the linger was armed under
+     */
+    private void scheduleLinger(long leaderBallot) {
+        if (linger != null) linger.cancel();
+        linger = timers.schedule(lingerMs, () -> locked(() -> {
+            if (leader && ballot == leaderBallot) {
+                fillWindow();
+            } else {
+                lingerUntil = 0;
+                route();
+            }
+        }));
+    }
+
+    /**
+     * Puts the values of a displaced slot value back in the queue.
+     *
+     * @param slotValue the (possibly batched) value this member proposed
+     * @param front     whether they go ahead of values queued since
+     */
+    private void requeue(String slotValue, boolean front) {
+        List<String> values = Batch.decode(slotValue);
+        if (front) {
+            for (int i = values.size() - 1; i >= 0; i--) pending.addFirst(values.get(i));
+        } else {
+            pending.addAll(values);
+        }
+    }
+
+    /**
+     * Queues an ACCEPT_REQUEST for one slot under the current ballot and tracks it until decided,
+     * arming its accept retry.
+     *
+     * @param slot  log slot
+     * @param value value to propose
+     * @param own   whether the value was submitted to this member (and must be retried if displaced)
+     */
+    private void sendAcceptRequest(long slot, String value, boolean own) {
+        InFlight f = new InFlight(value, own);
+        InFlight old = inFlight.put(slot, f);
+        if (old != null) old.cancelRetry();
+        f.sentAt = old != null ? old.sentAt : timers.nanoTime();
+        f.rounds = (old != null ? old.rounds : 0) + 1;
+        f.span = old != null ? old.span : tracer.root("phase2", slot, ballot);
+        queueAcceptRequest(slot, value, f.span, true);
+        armAcceptRetry(slot, f, ballot);
+    }
+
+    /**
+     * Queues the ACCEPT_REQUEST for a slot under the current ballot.
+     *
+     * @param slot   log slot
+     * @param value  value to propose
+     * @param span   the slot's phase 2 span, or {@code null} if it is not traced
+     * @param thrift whether it may go to the thrifty phase 2 quorum only, rather than to everyone
+     */
+    private void queueAcceptRequest(long slot, String value, Tracer.Span span, boolean thrift) {
+        Message acc = new Message();
+        acc.setType(Message.MessageType.ACCEPT_REQUEST);
+        acc.setSenderId(memberId);
+        acc.setProposalNumber(ballot);
+        acc.setSlot(slot);
+        acc.setValue(value);
+        tracer.stamp(acc, span);
+        if (thrift && phase2Peers != null) {
+            quorumOutbox.add(acc);
+        } else {
+            outbox.add(acc);
+        }
+        logger.debug("[PROPOSER][ACCEPT_REQUEST] slot=%d n=%B v=%V", slot, ballot, value);
+    }
+
+    /**
+     * Arms the accept retry of an in-flight slot. While this member still leads with the same
+     * ballot, an unanswered ACCEPT_REQUEST is re-sent up to {@link #MAX_ACCEPT_RETRIES} times
+     * (acceptors and learners treat duplicates idempotently); after that, or once preempted,
+     * phase 1 is re-run with a higher ballot.
+     *
+     * @param slot         the in-flight slot
+     * @param f            its in-flight record; the retry is void once the slot is re-proposed or decided
+     * @param leaderBallot ballot the slot was proposed under
+     */
+    private void armAcceptRetry(long slot, InFlight f, long leaderBallot) {
+        f.retry = timers.schedule(ACCEPT_RETRY_MS, () -> locked(() -> {
+            if (inFlight.get(slot) != f || preparing || ballot != leaderBallot) return;
+            if (leader && f.attempts < MAX_ACCEPT_RETRIES) {
+                f.attempts++;
+                f.rounds++;
+                acceptRetries.increment();
+                logger.log("[PROPOSER] No ACCEPTED quorum on slot=%d yet; re-sending (retry %d/%d)",
+                        slot, f.attempts, MAX_ACCEPT_RETRIES);
+                queueAcceptRequest(slot, f.value, f.span, false);
+                armAcceptRetry(slot, f, leaderBallot);
+            } else if (!leader && liveLeader() != null) {
+                // Preempted by a leader that is alive: hand the value over rather than contend.
+                inFlight.remove(slot);
+                tracer.end(f.span, "handed over");
+                if (f.own) requeue(f.value, true);
+                route();
+            } else {
+                logger.log("[PROPOSER] Timeout waiting for ACCEPTED quorum on slot=%d; re-proposing with higher n", slot);
+                startPrepare();
+            }
+        }));
+    }
+
+    /**
+     * Queues a HEARTBEAT carrying this leader's ballot, first undecided slot and a sequence number
+     * for matching its acknowledgements (lease grants); stops once this member no longer leads
+     * with that ballot.
+     *
+     * @param leaderBallot ballot the heartbeat was started for
+     */
+    private void sendHeartbeat(long leaderBallot) {
+        if (!leader || ballot != leaderBallot) {
+            if (heartbeat != null) heartbeat.cancel();
+            heartbeat = null;
+            return;
+        }
+        Message hb = new Message();
+        hb.setType(Message.MessageType.HEARTBEAT);
+        hb.setSenderId(memberId);
+        hb.setProposalNumber(ballot);
+        hb.setSlot(learner.firstUndecided());
+        long seq = ++heartbeatSeq;
+        hb.setValue(Long.toString(seq));
+        LeaseRound round = new LeaseRound(timers.nanoTime());
+        // This member's own acceptor grants the lease too; the HEARTBEAT is not delivered to it.
+        if (acceptor.grantLease(ballot)) round.acks.set(myIndex);
+        leaseRounds.put(seq, round);
+        leaseRounds.remove(seq - LEASE_ROUNDS);
+        outbox.add(hb);
+        if (quorums.isThrifty()) pickPhase2Peers();
+    }
+
+    /**
+     * Picks the phase 2 quorum a thrifty leader sends ACCEPT_REQUESTs to from the members that
+     * acknowledged one of its last few heartbeats (or promised it, just after phase 1); with too
+     * few of them, ACCEPT_REQUESTs go to everyone.
+     */
+    private void pickPhase2Peers() {
+        if (myIndex < 0) return;
+        long since = timers.nanoTime() - RESPONSIVE_ROUNDS * heartbeatMs * 1_000_000L;
+        BitSet live = new BitSet(heardAt.length);
+        for (int i = 0; i < heardAt.length; i++) {
+            if (heardAt[i] != Long.MIN_VALUE && heardAt[i] - since >= 0) live.set(i);
+        }
+        live.set(myIndex);
+        List<String> peers = quorums.phase2Peers(myIndex, live);
+        if (peers == null && phase2Peers != null) {
+            logger.log("[PROPOSER] Too few responsive members for a phase 2 quorum; sending ACCEPT_REQUESTs to all");
+        }
+        phase2Peers = peers;
+    }
+
+    /**
+     * Settles a decided slot: a displaced own value is queued again, and the window is refilled.
+     *
+     * @param slot  the decided slot
+     * @param value the chosen value
+     */
+    private void settle(long slot, String value) {
+        if (!forwarded.isEmpty()) {
+            for (String v : Batch.decode(value)) {
+                Forwarded f = forwarded.get(v);
+                if (f != null && --f.copies == 0) forwarded.remove(v);
+            }
+        }
+        InFlight mine = inFlight.remove(slot);
+        if (mine != null) {
+            mine.cancelRetry();
+            acceptLatency.record((timers.nanoTime() - mine.sentAt) / 1_000);
+            acceptRounds.record(mine.rounds);
+            if (mine.span != null) mine.span.rounds = mine.rounds;
+            tracer.end(mine.span, mine.value.equals(value) ? "decided" : "displaced");
+        }
+        if (mine != null && mine.own && !mine.value.equals(value)) {
+            logger.log("[PROPOSER] slot=%d taken by another value; re-proposing %V", slot, mine.value);
+            requeue(mine.value, false);
+            route();
+        }
+        if (leader && nextSlot <= slot) {
+            nextSlot = slot + 1;
+        }
+        if (leader) {
+            fillWindow();
+        }
+    }
+
+    // -----------------------------
+    // Leader election and forwarding
+    // -----------------------------
+    /**
+     * Routes queued values: a leader proposes them; a follower forwards them to the leader it
+     * trusts or, with none, stands for election (unless a PREPARE of its own is already running).
+     */
+    private void route() {
+        if (leader) {
+            fillWindow();
+            return;
+        }
+        if (preparing || pending.isEmpty()) return;
+        String live = liveLeader();
+        if (live != null) {
+            forwardPending(live);
+        } else {
+            standForElection();
+        }
+    }
+
+    /**
+     * Returns the other member the failure detector trusts as leader. Lock-free.
+     *
+     * @return its member ID, or {@code null}
+     */
+    private String trustedLeader() {
+        String l = knownLeader;
+        if (l == null || l.equals(memberId) || !detector.isAvailable(l, timers.currentTimeMillis())) return null;
+        return l;
+    }
+
+    /**
+     * Returns the trusted leader, first noting (once) that the last known one is suspected.
+     *
+     * @return its member ID, or {@code null}
+     */
+    private String liveLeader() {
+        String live = trustedLeader();
+        String known = knownLeader;
+        if (live == null && known != null && !known.equals(suspected) && !leader) {
+            long now = timers.currentTimeMillis();
+            suspected = known;
+            suspectedHeardAt = lastHeartbeatAt;
+            suspicions.increment();
+            logger.log("[FOLLOWER] Leader %s suspected: silent for %dms (phi=%.1f)", known, now - lastHeartbeatAt,
+                    detector.phi(known, now));
+        }
+        return live;
+    }
+
+    /**
+     * Starts checking the leader every half heartbeat interval, unless already checking.
+     */
+    private void armLeaderCheck() {
+        if (leaderCheck == null) {
+            leaderCheck = timers.scheduleAtFixedRate(Math.max(1, heartbeatMs / 2), () -> locked(this::checkLeader));
+        }
+    }
+
+    /**
+     * Runs every half heartbeat interval on a follower that has heard from a leader: stands for
+     * election once the leader is suspected, and routes again forwarded values the leader has
+     * not decided in time or that went to a former leader.
+     */
+    private void checkLeader() {
+        if (leader) return;
+        String live = liveLeader();
+        int n = 0;
+        long now = timers.nanoTime();
+        for (Iterator<Map.Entry<String, Forwarded>> it = forwarded.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Forwarded> e = it.next();
+            Forwarded f = e.getValue();
+            if (f.to.equals(live) && now - f.at < FORWARD_TIMEOUT_MS * 1_000_000L) continue;
+            for (int i = 0; i < f.copies; i++) pending.addFirst(e.getKey());
+            n += f.copies;
+            it.remove();
+        }
+        if (n > 0) {
+            logger.log("[FOLLOWER] %d forwarded value(s) not decided; routing them again", n);
+        }
+        if (live == null && !preparing) {
+            standForElection();
+        } else {
+            route();
+        }
+    }
+
+    /**
+     * Moves forwarded values back to the queue, e.g. on becoming leader.
+     *
+     * @param keepTo leave the values forwarded to this member, or {@code null} for none
+     */
+    private void reclaimForwarded(String keepTo) {
+        for (Iterator<Map.Entry<String, Forwarded>> it = forwarded.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Forwarded> e = it.next();
+            if (e.getValue().to.equals(keepTo)) continue;
+            for (int i = 0; i < e.getValue().copies; i++) pending.addFirst(e.getKey());
+            it.remove();
+        }
+    }
+
+    /**
+     * Stands for election after this member's candidacy delay, unless a leader appears first. The
+     * delay is one stagger (a quarter heartbeat interval) per member between the last known
+     * leader and this one in the configuration, and at least until another member's campaign has
+     * had a PREPARE timeout to win.
+     */
+    private void standForElection() {
+        if (candidacy != null || preparing || leader) return;
+        int n = config.getAllMembers().size();
+        int last = knownLeader == null ? -1 : config.indexOf(knownLeader);
+        int rank = Math.floorMod(config.indexOf(memberId) - last - 1, n);
+        long delay = rank * Math.max(1, heartbeatMs / 4);
+        long seen = campaignSeenAt;
+        if (seen != 0) {
+            long campaignLeft = (seen - timers.nanoTime()) / 1_000_000L + PROPOSAL_TIMEOUT_MS;
+            delay = Math.max(delay, campaignLeft);
+        }
+        if (delay <= 0) {
+            startPrepare();
+            return;
+        }
+        logger.log("[PROPOSER] No live leader; standing for election in %dms unless one appears", delay);
+        candidacy = timers.schedule(delay, () -> locked(() -> {
+            candidacy = null;
+            if (leader || preparing) return;
+            if (liveLeader() != null) {
+                route();
+            } else if (campaignSeenAt != seen) {
+                standForElection(); // another member's campaign started meanwhile
+            } else {
+                startPrepare();
+            }
+        }));
+    }
+
+    /**
+     * Moves every queued value to the forward batch for the leader, sent once the monitor is
+     * released, and keeps track of them until they are decided.
+     *
+     * @param to the leader
+     */
+    private void forwardPending(String to) {
+        if (candidacy != null) candidacy.cancel();
+        candidacy = null;
+        if (forwardTo != null && !forwardTo.equals(to)) return; // one leader per action; the rest stay queued
+        long now = timers.nanoTime();
+        int n = pending.size();
+        if (n == 1) {
+            logger.log("[FOLLOWER] Forwarding %V to leader %s", pending.peek(), to);
+        } else {
+            logger.log("[FOLLOWER] Forwarding %V (+%d queued) to leader %s", pending.peek(), n - 1, to);
+        }
+        String v;
+        while ((v = pending.poll()) != null) {
+            forwardBatch.add(v);
+            Forwarded f = forwarded.get(v);
+            if (f == null) {
+                forwarded.put(v, new Forwarded(to, now));
+            } else {
+                f.copies++;
+                f.to = to;
+                f.at = now;
+            }
+        }
+        forwardTo = to;
+        forwards.add(n);
+        armLeaderCheck();
+    }
+
+    /**
+     * Packs the forward batch into FORWARD messages of at most {@link #MAX_BATCH_CHARS} each and
+     * clears it.
+     *
+     * @return the messages
+     */
+    private List<Message> forwardMessages() {
+        List<Message> out = new ArrayList<>(1);
+        List<String> chunk = new ArrayList<>();
+        int chars = 0;
+        for (String v : forwardBatch) {
+            if (!chunk.isEmpty() && chars + v.length() > MAX_BATCH_CHARS) {
+                out.add(forwardMessage(chunk));
+                chunk = new ArrayList<>();
+                chars = 0;
+            }
+            chunk.add(v);
+            chars += v.length();
+        }
+        out.add(forwardMessage(chunk));
+        forwardBatch.clear();
+        return out;
+    }
+
+    private Message forwardMessage(List<String> values) {
+        Message m = new Message();
+        m.setType(Message.MessageType.FORWARD);
+        m.setSenderId(memberId);
+        m.setValue(Batch.encode(values));
+        return m;
+    }
+
+    /**
+     * Formats a value for logging, showing gap-filling no-ops and batches readably.
+     *
+     * @param value a proposed value
+     * @return the printable form
+     */
+    static String show(String value) {
+        if (PaxosHandler.NO_OP.equals(value)) return "(no-op)";
+        if (Batch.isBatch(value)) {
+            List<String> values = Batch.decode(value);
+            return show(values.get(0)) + " (+" + (values.size() - 1) + " batched)";
+        }
+        return KeyValueStore.isCommand(value) ? KeyValueStore.describe(value) : value;
+    }
+
+    /**
+     * Returns the leader last heard from through a HEARTBEAT.
+     *
+     * @return its member ID, or {@code null} if none has been heard from
+     */
+    String knownLeader() {
+        return knownLeader;
+    }
+
+    /**
+     * @return slots proposed by this member and not yet decided
+     */
+    synchronized long inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return values waiting for a slot, submitted ones not yet drained included
+     */
+    synchronized long pendingCount() {
+        return pending.size() + submitted.size();
+    }
+
+    /**
+     * @return {@code true} while this member leads (phase 1 done, not preempted); lock-free
+     */
+    boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Returns the leader to redirect clients to: this member if it leads, otherwise the leader
+     * the failure detector trusts. Lock-free.
+     *
+     * @return a member ID, or {@code null} if no leader is known to be alive
+     */
+    String currentLeader() {
+        return leader ? memberId : trustedLeader();
+    }
+
+    /**
+     * One HEARTBEAT awaiting a quorum of lease grants.
+     */
+    private static final class LeaseRound {
+        final long sentAt;
+        final BitSet acks = new BitSet();
+
+        LeaseRound(long sentAt) {
+            this.sentAt = sentAt;
+        }
+    }
+
+    /**
+     * A value forwarded to the leader and not yet seen decided: how many copies, to whom and when
+     * ({@link TimerService#nanoTime()}) it was last forwarded.
+     */
+    private static final class Forwarded {
+        int copies = 1;
+        String to;
+        long at;
+
+        Forwarded(String to, long at) {
+            this.to = to;
+            this.at = at;
+        }
+    }
+
+    /**
+     * A value this proposer has sent ACCEPT_REQUESTs for and not yet seen decided.
+     */
+    private static final class InFlight {
+        final String value;
+        final boolean own;
+        int attempts;
+        TimerService.Timeout retry;
+        //First ACCEPT_REQUEST for the slot (TimerService.nanoTime()) and rounds sent since, over re-proposals
+        long sentAt;
+        int rounds;
+        //Phase 2 span of the slot, kept over re-proposals, or null if it is not traced
+        Tracer.Span span;
+
+        InFlight(String value, boolean own) {
+            this.value = value;
+            this.own = own;
+        }
+
+        void cancelRetry() {
+            if (retry != null) retry.cancel();
+            retry = null;
+        }
+    }
+}
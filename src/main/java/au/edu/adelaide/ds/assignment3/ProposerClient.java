@@ -1,77 +1,55 @@
 package au.edu.adelaide.ds.assignment3;
 
-import com.google.gson.Gson;
-
-import java.io.BufferedWriter;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 /**
- * A simple standalone client that manually triggers the PREPARE phase of Paxos
- * by sending a PREPARE message to all other council members in the network.
+ * A simple standalone client that submits one value to the council and waits for the decision.
+ * <p>
+ * The value is sent to the given member through {@link PaxosClient}, which follows redirects to
+ * the current leader (or lets the member start an election if there is none) and reports when the
+ * value has been decided and applied.
+ * </p>
  * <p>
- * Usage: {@code java ProposerClient <ProposerID> <network.config path>}
+ * Usage: {@code java ProposerClient <MemberID> [value]}
  * <br>
- * Example: {@code java ProposerClient M1 network.config}
+ * Example: {@code java ProposerClient M1 LEADER_M1}
  * </p>
  */
 public class ProposerClient {
 
     /**
      * Entry point for the proposer client.
-     * Prompts user to enter a proposal number and value, then sends
-     * a PREPARE message to all council members (excluding self).
+     * Submits the value given on the command line (or prompts for one) and prints the outcome.
      *
-     * @param args Command-line arguments: proposer ID and config file path
-     * @throws Exception if network or config loading fails
+     * @param args Command-line arguments: member to contact first, and optionally the value
+     * @throws Exception if config loading fails
      */
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.out.println("Usage: java ProposerClient <ProposerID> <network.config path>");
+        if (args.length < 1) {
+            System.out.println("Usage: java ProposerClient <MemberID> [value]");
             return;
         }
 
-        String proposerId = args[0];
-        String configPath = args[1];
+        String memberId = args[0];
+        String value;
+        if (args.length > 1) {
+            value = args[1];
+        } else {
+            System.out.print("Enter value to propose: ");
+            value = new Scanner(System.in).nextLine().trim();
+        }
 
         //Load network configuration
         NetworkConfig config = NetworkConfig.load();
-        Scanner scanner = new Scanner(System.in);
-        Gson gson = new Gson();
-
-        //Collect user input for proposal number and value
-        System.out.print("Enter proposal number (e.g. 1.0): ");
-        String proposalNum = scanner.nextLine();
 
-        System.out.print("Enter value to propose: ");
-        String value = scanner.nextLine();
-
-        //Construct PREPARE message
-        Message prepare = new Message();
-        prepare.setType(Message.MessageType.PREPARE);
-        prepare.setProposalNumber(proposalNum);
-        prepare.setSenderId(proposerId);
-        prepare.setValue(value); // optional for PREPARE
-
-        String msgJson = gson.toJson(prepare);
-
-        //Send PREPARE message to all members except self
-        for (String target : config.getAllMembers()) {
-            if (!target.equals(proposerId)) {
-                int port = config.getPort(target);
-                try (Socket socket = new Socket("localhost", port)) {
-                    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-                    out.write(msgJson);
-                    out.newLine();
-                    out.flush();
-                    System.out.printf("Sent PREPARE to %s (%d)\n", target, port);
-                } catch (Exception e) {
-                    System.err.printf("Failed to send to %s: %s\n", target, e.getMessage());
-                }
-            }
+        try (PaxosClient client = new PaxosClient("proposer-client-" + System.currentTimeMillis(), config,
+                memberId, PaxosClient.DEFAULT_TIMEOUT_MS)) {
+            System.out.printf("Submitting %s via %s%n", value, memberId);
+            client.submit(value).get();
+            System.out.printf("Decided: %s (leader %s)%n", value, client.target());
+        } catch (ExecutionException e) {
+            System.err.println("Proposal failed: " + e.getCause().getMessage());
         }
-
-        System.out.println("Prepare phase initiated.");
     }
 }
@@ -0,0 +1,360 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which sets of members form a phase 1 (PROMISE) quorum and which a phase 2 (ACCEPTED) quorum.
+ * <p>
+ * Paxos stays safe as long as every phase 1 quorum intersects every phase 2 quorum (Flexible
+ * Paxos, Howard et al.); the two need not be majorities. Since a stable leader runs phase 1 only
+ * on failover, a small phase 2 quorum paid for with a larger phase 1 quorum makes every decision
+ * wait for fewer ACCEPTEDs. The kinds, as written in {@code network.config}:
+ * </p>
+ * <ul>
+ *     <li>{@code majority} (default): more than half the members, for both phases;</li>
+ *     <li>{@code flexible,<q1>,<q2>}: any {@code q1} members for phase 1 and any {@code q2} for
+ *     phase 2, with {@code q1 + q2 > N};</li>
+ *     <li>{@code grid,<rows>}: members laid out row by row in file order; phase 1 needs a member
+ *     of every row, phase 2 a whole row;</li>
+ *     <li>{@code weighted,<w1>,<w2>}: members carry weights ({@code weight=<MemberID>,<w>},
+ *     default 1); a phase needs that much weight, with {@code w1 + w2} above the total.</li>
+ * </ul>
+ * <p>
+ * With {@code thrifty=true} the leader first sends each ACCEPT_REQUEST to one phase 2 quorum of
+ * responsive members only (see {@link #phase2Peers(int, BitSet)}), so fewer acceptors vote and
+ * fewer ACCEPTEDs are broadcast per decision; an unanswered request is re-sent to everyone.
+ * </p>
+ * <p>
+ * Immutable. Construction checks the intersection property and throws
+ * {@link IllegalArgumentException} for a configuration that could decide two values for a slot.
+ * </p>
+ */
+final class QuorumSystem {
+
+    /**
+     * The quorum kinds {@code network.config} can name.
+     */
+    enum Kind { MAJORITY, FLEXIBLE, GRID, WEIGHTED }
+
+    private final Kind kind;
+    private final List<String> members;
+    //Phase thresholds: member counts, or weights for WEIGHTED; rows for GRID (phase 2 unused)
+    private final int phase1;
+    private final int phase2;
+    //Weight of each member by index (all 1 unless WEIGHTED), and their total
+    private final int[] weights;
+    private final int totalWeight;
+    //Members per row (GRID only)
+    private final int columns;
+    private final boolean thrifty;
+
+    private QuorumSystem(Kind kind, List<String> members, int phase1, int phase2, int[] weights, int columns,
+                         boolean thrifty) {
+        this.kind = kind;
+        this.members = members;
+        this.phase1 = phase1;
+        this.phase2 = phase2;
+        this.weights = weights;
+        this.totalWeight = Arrays.stream(weights).sum();
+        this.columns = columns;
+        this.thrifty = thrifty;
+    }
+
+    /**
+     * Majority quorums for both phases.
+     *
+     * @param members member IDs in configuration order
+     * @return the quorum system
+     */
+    static QuorumSystem majority(List<String> members) {
+        int n = members.size();
+        return new QuorumSystem(Kind.MAJORITY, members, n / 2 + 1, n / 2 + 1, ones(n), 0, false);
+    }
+
+    /**
+     * Parses a {@code quorum=} specification and checks that it is safe for the given members.
+     *
+     * @param spec    e.g. {@code "flexible,7,3"}, or {@code null} for majority
+     * @param members member IDs in configuration order
+     * @param weights member weights for {@code weighted} quorums (missing members weigh 1)
+     * @param thrifty whether the leader sends ACCEPT_REQUESTs to one phase 2 quorum first
+     * @return the quorum system
+     * @throws IllegalArgumentException if the specification is malformed, or some phase 1 and
+     *                                  phase 2 quorums would not intersect
+     */
+    static QuorumSystem parse(String spec, List<String> members, Map<String, Integer> weights, boolean thrifty) {
+        List<String> ids = Collections.unmodifiableList(new ArrayList<>(members));
+        int n = ids.size();
+        if (n == 0) throw new IllegalArgumentException("no members configured");
+        String[] parts = spec == null ? new String[]{"majority"} : spec.split(",");
+        Kind kind;
+        try {
+            kind = Kind.valueOf(parts[0].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown quorum kind: " + parts[0].trim());
+        }
+        for (String id : weights.keySet()) {
+            if (kind != Kind.WEIGHTED) throw new IllegalArgumentException("weight= needs quorum=weighted");
+            if (!ids.contains(id)) throw new IllegalArgumentException("weight for unknown member " + id);
+        }
+        switch (kind) {
+            case MAJORITY: {
+                expectArgs(parts, 0);
+                return new QuorumSystem(Kind.MAJORITY, ids, n / 2 + 1, n / 2 + 1, ones(n), 0, thrifty);
+            }
+            case FLEXIBLE: {
+                expectArgs(parts, 2);
+                int q1 = number(parts[1]);
+                int q2 = number(parts[2]);
+                if (q1 < 1 || q2 < 1 || q1 > n || q2 > n) {
+                    throw new IllegalArgumentException(String.format("quorum sizes must be 1..%d, got %d and %d", n, q1, q2));
+                }
+                if (q1 + q2 <= n) {
+                    throw new IllegalArgumentException(String.format(
+                            "phase 1 (%d) and phase 2 (%d) quorums of %d members may not intersect; need q1 + q2 > %d",
+                            q1, q2, n, n));
+                }
+                return new QuorumSystem(Kind.FLEXIBLE, ids, q1, q2, ones(n), 0, thrifty);
+            }
+            case GRID: {
+                expectArgs(parts, 1);
+                int rows = number(parts[1]);
+                if (rows < 1 || n % rows != 0) {
+                    throw new IllegalArgumentException(String.format("%d members do not fill %d equal rows", n, rows));
+                }
+                return new QuorumSystem(Kind.GRID, ids, rows, n / rows, ones(n), n / rows, thrifty);
+            }
+            case WEIGHTED: {
+                expectArgs(parts, 2);
+                int[] w = new int[n];
+                for (int i = 0; i < n; i++) {
+                    w[i] = weights.getOrDefault(ids.get(i), 1);
+                    if (w[i] < 0) throw new IllegalArgumentException("negative weight for " + ids.get(i));
+                }
+                int total = Arrays.stream(w).sum();
+                int w1 = number(parts[1]);
+                int w2 = number(parts[2]);
+                if (w1 < 1 || w2 < 1 || w1 > total || w2 > total) {
+                    throw new IllegalArgumentException(String.format("quorum weights must be 1..%d, got %d and %d",
+                            total, w1, w2));
+                }
+                if (w1 + w2 <= total) {
+                    throw new IllegalArgumentException(String.format(
+                            "phase 1 (%d) and phase 2 (%d) quorums of total weight %d may not intersect; need w1 + w2 > %d",
+                            w1, w2, total, total));
+                }
+                return new QuorumSystem(Kind.WEIGHTED, ids, w1, w2, w, 0, thrifty);
+            }
+            default:
+                throw new IllegalArgumentException("unknown quorum kind: " + kind);
+        }
+    }
+
+    private static void expectArgs(String[] parts, int count) {
+        if (parts.length != count + 1) {
+            throw new IllegalArgumentException(String.format("quorum=%s takes %d argument(s)",
+                    parts[0].trim().toLowerCase(), count));
+        }
+    }
+
+    private static int number(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + s.trim());
+        }
+    }
+
+    private static int[] ones(int n) {
+        int[] w = new int[n];
+        Arrays.fill(w, 1);
+        return w;
+    }
+
+    /**
+     * Tells whether the members whose indices are set form a phase 1 quorum.
+     *
+     * @param voters member indices (see {@link NetworkConfig#indexOf(String)})
+     * @return {@code true} if they may complete a PREPARE
+     */
+    boolean isPhase1(BitSet voters) {
+        switch (kind) {
+            case GRID:
+                for (int row = 0; row < phase1; row++) {
+                    int start = row * columns;
+                    int hit = voters.nextSetBit(start);
+                    if (hit < 0 || hit >= start + columns) return false;
+                }
+                return true;
+            case WEIGHTED:
+                return weight(voters) >= phase1;
+            default:
+                return voters.cardinality() >= phase1;
+        }
+    }
+
+    /**
+     * Tells whether the members whose indices are set form a phase 2 quorum. Such a set also
+     * intersects every phase 1 quorum, so it may grant the leader a read lease.
+     *
+     * @param voters member indices (see {@link NetworkConfig#indexOf(String)})
+     * @return {@code true} if their ACCEPTEDs decide a slot
+     */
+    boolean isPhase2(BitSet voters) {
+        switch (kind) {
+            case GRID:
+                for (int start = 0; start < members.size(); start += columns) {
+                    if (voters.nextClearBit(start) >= start + columns) return true;
+                }
+                return false;
+            case WEIGHTED:
+                return weight(voters) >= phase2;
+            default:
+                return voters.cardinality() >= phase2;
+        }
+    }
+
+    private int weight(BitSet voters) {
+        int w = 0;
+        for (int i = voters.nextSetBit(0); i >= 0 && i < weights.length; i = voters.nextSetBit(i + 1)) {
+            w += weights[i];
+        }
+        return w;
+    }
+
+    /**
+     * @return the fewest members that can form a phase 1 quorum
+     */
+    int phase1Size() {
+        switch (kind) {
+            case GRID:
+                return phase1;
+            case WEIGHTED:
+                return fewestWeighing(phase1);
+            default:
+                return phase1;
+        }
+    }
+
+    /**
+     * @return the fewest members that can form a phase 2 quorum
+     */
+    int phase2Size() {
+        switch (kind) {
+            case GRID:
+                return columns;
+            case WEIGHTED:
+                return fewestWeighing(phase2);
+            default:
+                return phase2;
+        }
+    }
+
+    private int fewestWeighing(int threshold) {
+        int[] sorted = weights.clone();
+        Arrays.sort(sorted);
+        int w = 0;
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            w += sorted[i];
+            if (w >= threshold) return sorted.length - i;
+        }
+        return sorted.length;
+    }
+
+    /**
+     * Returns how many members may crash-stop, whichever they are, with both a phase 1 and a
+     * phase 2 quorum still alive, i.e. while the council can still elect a leader and decide.
+     *
+     * @return the number of crash-stops tolerated (0 if any crash may stall the council)
+     */
+    int tolerated() {
+        switch (kind) {
+            case GRID:
+                // A whole row down leaves no phase 1 quorum; a member down in every row no phase 2 quorum.
+                return Math.min(phase1, columns) - 1;
+            case WEIGHTED: {
+                int[] sorted = weights.clone();
+                Arrays.sort(sorted);
+                int left = totalWeight;
+                int need = Math.max(phase1, phase2);
+                int crashed = 0;
+                for (int i = sorted.length - 1; i >= 0 && left - sorted[i] >= need; i--) {
+                    left -= sorted[i];
+                    crashed++;
+                }
+                return crashed;
+            }
+            default:
+                return members.size() - Math.max(phase1, phase2);
+        }
+    }
+
+    /**
+     * @return whether the leader first sends ACCEPT_REQUESTs to one phase 2 quorum only
+     */
+    boolean isThrifty() {
+        return thrifty;
+    }
+
+    /**
+     * Picks the phase 2 quorum a thrifty leader sends ACCEPT_REQUESTs to: its own grid row, or
+     * itself and the responsive members after it in configuration order until they form a quorum.
+     *
+     * @param leader index of the leader
+     * @param live   indices of the members that recently answered the leader
+     * @return the other members of the quorum, or {@code null} if the live members form none
+     */
+    List<String> phase2Peers(int leader, BitSet live) {
+        int n = members.size();
+        BitSet chosen = new BitSet(n);
+        if (kind == Kind.GRID) {
+            int own = leader / columns;
+            for (int r = 0; r < phase1; r++) {
+                int start = ((own + r) % phase1) * columns;
+                if (live.nextClearBit(start) >= start + columns) {
+                    chosen.set(start, start + columns);
+                    break;
+                }
+            }
+        } else {
+            chosen.set(leader);
+            for (int i = 1; i < n && !isPhase2(chosen); i++) {
+                int m = (leader + i) % n;
+                if (live.get(m)) chosen.set(m);
+            }
+        }
+        if (!isPhase2(chosen)) return null;
+        List<String> peers = new ArrayList<>(chosen.cardinality());
+        for (int i = chosen.nextSetBit(0); i >= 0; i = chosen.nextSetBit(i + 1)) {
+            if (i != leader) peers.add(members.get(i));
+        }
+        return peers;
+    }
+
+    /**
+     * @return the configuration in {@code network.config} form, with the smallest quorums, e.g.
+     * {@code "flexible,7,3 (phase 1: 7 of 9, phase 2: 3 of 9)"}
+     */
+    @Override
+    public String toString() {
+        String spec;
+        switch (kind) {
+            case FLEXIBLE:
+            case WEIGHTED:
+                spec = kind.name().toLowerCase() + "," + phase1 + "," + phase2;
+                break;
+            case GRID:
+                spec = "grid," + phase1;
+                break;
+            default:
+                spec = "majority";
+        }
+        return String.format("%s%s (phase 1: %d of %d, phase 2: %d of %d)", spec, thrifty ? " thrifty" : "",
+                phase1Size(), members.size(), phase2Size(), members.size());
+    }
+}
@@ -0,0 +1,798 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic discrete-event simulation of a council: many {@link PaxosHandler}s in one thread,
+ * on a virtual clock, connected by a seeded simulated network.
+ * <p>
+ * Each member gets a virtual {@link TimerService} (its timeouts, clock and backoff jitter) and a
+ * {@link Transport} that delivers messages as future events instead of writing to sockets. Nothing
+ * sleeps: the simulation jumps from one event to the next, so a minute of cluster time takes
+ * milliseconds, and everything random (the network, the workload, the faults and the members' own
+ * jitter) is drawn from one {@link Random} seeded per scenario, so a seed replays the same run
+ * event for event.
+ * </p>
+ * <p>
+ * A scenario picks a cluster size and a {@link Profile} per member (the delay and drop rate of its
+ * outbound links, as in {@link FaultInjectingTransport}), then for
+ * {@value #ACTIVE_MS}ms proposes values at random members while injecting faults: link loss,
+ * partitions that come and go, and crash-stops of as many members as the {@link QuorumSystem}
+ * tolerates (a minority with majority quorums). Partitions then
+ * heal, messages stop being lost (the failure profile's drops included; delays remain) and the
+ * cluster runs for {@value #QUIET_MS}ms. At the end it checks:
+ * </p>
+ * <ul>
+ *     <li><b>safety</b>: every member that applied a slot applied the same values for it, and only
+ *     values that were proposed;</li>
+ *     <li><b>liveness</b>: every value proposed at a member that is still up was decided (applied by
+ *     some member that is still up), and every member that is still up has learned the same
+ *     prefix of the log and applied the same slots: one that missed ACCEPTEDs catches up from the
+ *     others;</li>
+ *     <li><b>reads</b> (with {@code --reads}): every read issued at a follower once the cluster has
+ *     had {@value #READ_SETTLE_MS}ms of the quiet phase to elect a leader completed, and reflected
+ *     every slot any member had learned when it was issued. Reads are only issued at members that
+ *     are not latent, while the leader and a phase 2 quorum of the members up are not latent
+ *     either: a latent member's delays alone outlast a read lease.</li>
+ * </ul>
+ * <p>
+ * With {@code --drop-accepted=P} every ACCEPTED is also lost with probability {@code P} for the
+ * whole run, quiet phase included, so members only reach the same prefix (and follower reads
+ * only complete) through catch-up. {@code --heartbeat-ms} and {@code --phi-threshold} set every
+ * member's leader election tunables, as on {@link CouncilMember}, to compare failover times.
+ * </p>
+ * <p>
+ * {@code --decided-window=N} keeps only N decided slots in each member's memory, so a member that
+ * falls further behind has to install another member's snapshot; {@code --snapshot-bytes=N} pads
+ * every snapshot by N bytes, so it travels in several chunks. Snapshots carry the values each
+ * slot applied, and installing one restores them, so the checks above also cover slots a member
+ * only learned through a snapshot.
+ * </p>
+ * <p>
+ * A protocol exception also fails the scenario. Crashed members do not restart: acceptor state is
+ * kept in memory only, and an acceptor that forgot its promises would break safety by design.
+ * </p>
+ * <p>
+ * Over all the scenarios run, it reports how long values took from being proposed to being first
+ * applied, PREPARE rounds per value (duelling proposers show up here), messages delivered per
+ * value, and how long leader failovers took, and with {@code --reads} how long reads took.
+ * </p>
+ * <p>
+ * Usage: {@code java Simulator [--scenarios=N] [--seed=S] [--members=N]
+ * [--profile=reliable|standard|latent|failure|mixed] [--values=N] [--quorum=<spec>] [--thrifty]
+ * [--reads=N] [--drop-accepted=P] [--heartbeat-ms=MS] [--phi-threshold=PHI] [--decided-window=N]
+ * [--snapshot-bytes=N] [--no-faults] [--verbose]}, where {@code <spec>} is a {@code quorum=} setting of
+ * {@code network.config}, e.g. {@code flexible,7,3} (it needs {@code --members})
+ * </p>
+ */
+public final class Simulator {
+
+    //Virtual time during which values are proposed and faults injected.
+    static final long ACTIVE_MS = 30_000;
+
+    //Fault-free virtual time after the active phase for the cluster to converge; covers a few
+    //PREPARE retries at the proposer's longest backoff.
+    static final long QUIET_MS = 300_000;
+
+    //Quiet time after which reads at followers must complete: covers a leader failover.
+    static final long READ_SETTLE_MS = 60_000;
+
+    //Link latency before the receiver's profile delay is added, in milliseconds [min, max).
+    private static final int LINK_MIN_MS = 1;
+    private static final int LINK_MAX_MS = 3;
+
+    private static final int[] SIZES = {3, 5, 7, 9};
+
+    private final long seed;
+    private final Random random;
+    private final MessageCodec codec;
+    private final QuorumSystem quorums;
+    private final double dropAccepted;
+    private final int snapshotPadding;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<String, Node> byId = new HashMap<>();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+    //Values proposed, and the member each was proposed at
+    private final Map<String, Node> proposed = new LinkedHashMap<>();
+    //When each value was proposed, and first applied by any member (virtual nanoseconds)
+    private final Map<String, Long> proposedAt = new HashMap<>();
+    private final Map<String, Long> appliedAt = new HashMap<>();
+    //Follower reads that must complete: issued, completed, and how long each took (virtual ms)
+    private int readsDue;
+    private int readsDone;
+    private final LatencyHistogram readMs = new LatencyHistogram();
+
+    //Virtual time in nanoseconds
+    private long now;
+    private long nextSeq;
+    private long processed;
+    private long delivered;
+    private long dropped;
+    private double lossRate;
+    private boolean healed;
+    private String error;
+
+    /**
+     * Builds a scenario from its seed.
+     *
+     * @param seed     the seed every random choice is drawn from
+     * @param settings fixed choices overriding the random ones
+     */
+    Simulator(long seed, Settings settings) {
+        this.seed = seed;
+        // Consecutive seeds give java.util.Random correlated first draws; spread them first.
+        this.random = new Random(seed * 0x9E3779B97F4A7C15L);
+        int n = settings.members > 0 ? settings.members : SIZES[random.nextInt(SIZES.length)];
+
+        NetworkConfig config = new NetworkConfig();
+        for (int i = 1; i <= n; i++) {
+            config.addMember("M" + i, "127.0.0.1", 0);
+        }
+        config.setQuorum(settings.quorum);
+        config.setThrifty(settings.thrifty);
+        this.quorums = config.quorums();
+        this.dropAccepted = settings.dropAccepted;
+        this.snapshotPadding = settings.snapshotPadding;
+        this.codec = new WireProtocol(config).byName("binary");
+        Profile[] profiles = Profile.values();
+        for (int i = 1; i <= n; i++) {
+            Profile p = settings.profile != null ? settings.profile : profiles[random.nextInt(profiles.length)];
+            Node node = new Node("M" + i, p);
+            node.handler = new PaxosHandler(node.id, config, Profile.RELIABLE, new NodeTransport(node), null, null,
+                    node.recorder, new NodeTimers(node), settings.decidedWindow);
+            node.handler.configureElection(settings.heartbeatMs, settings.phiThreshold);
+            nodes.add(node);
+            byId.put(node.id, node);
+        }
+
+        for (int i = 0; i < settings.values; i++) {
+            String value = "V" + i;
+            at(ms(random.nextInt((int) (ACTIVE_MS * 4 / 5))), null, () -> {
+                Node node = nodes.get(random.nextInt(nodes.size()));
+                if (node.crashed) return;
+                proposed.put(value, node);
+                proposedAt.put(value, now);
+                node.handler.propose(value);
+            });
+        }
+        for (int i = 0; i < settings.reads; i++) {
+            String value = "R" + i;
+            at(ms(ACTIVE_MS + READ_SETTLE_MS + random.nextInt((int) (QUIET_MS - READ_SETTLE_MS) / 2)), null,
+                    () -> read(value));
+        }
+        if (settings.faults) scheduleFaults();
+        at(ms(ACTIVE_MS), null, () -> {
+            for (Node node : nodes) node.side = 0;
+            lossRate = 0;
+            healed = true;
+        });
+    }
+
+    /**
+     * Proposes a value at the leader and, 50-300ms later while it is being decided, reads at a
+     * random follower that is up and not latent; skipped unless the leader can hold a read lease
+     * without latent members. The read must complete and see at least the prefix any member had
+     * learned when it was issued.
+     *
+     * @param value the value written first
+     */
+    private void read(String value) {
+        List<Node> followers = new ArrayList<>();
+        BitSet prompt = new BitSet();
+        Node leader = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node.crashed) continue;
+            if (node.handler.isLeader()) leader = node;
+            if (node.profile == Profile.LATENT) continue;
+            prompt.set(i);
+            if (!node.handler.isLeader()) followers.add(node);
+        }
+        if (leader == null || leader.profile == Profile.LATENT || followers.isEmpty() || !quorums.isPhase2(prompt)) return;
+        proposed.put(value, leader);
+        proposedAt.put(value, now);
+        leader.handler.propose(value);
+        Node node = followers.get(random.nextInt(followers.size()));
+        at(now + ms(50 + random.nextInt(250)), node, () -> readAt(node));
+    }
+
+    private void readAt(Node node) {
+        long learned = 0;
+        for (Node other : nodes) {
+            if (!other.crashed) learned = Math.max(learned, other.handler.getFirstUndecided());
+        }
+        long issued = now;
+        long mustSee = learned;
+        readsDue++;
+        node.handler.read(sm -> node.handler.getFirstUndecided()).whenComplete((seen, e) -> {
+            if (e != null) {
+                if (error == null) error = String.format("READ at %s failed: %s", node.id, e);
+            } else if (seen < mustSee) {
+                if (error == null) error = String.format("READ at %s saw slots below %d, %d were learned before it", node.id, seen, mustSee);
+            } else {
+                readsDone++;
+                readMs.record(TimeUnit.NANOSECONDS.toMillis(now - issued));
+            }
+        });
+    }
+
+    /**
+     * Link loss for the whole active phase, up to two partitions splitting the members into
+     * random sides for 1-10s, and crash-stops of up to as many members as the quorums tolerate.
+     */
+    private void scheduleFaults() {
+        lossRate = random.nextDouble() * 0.05;
+        for (int p = random.nextInt(3); p > 0; p--) {
+            long start = random.nextInt((int) ACTIVE_MS);
+            long length = 1_000 + random.nextInt(9_000);
+            at(ms(start), null, () -> {
+                for (Node node : nodes) node.side = random.nextInt(2);
+            });
+            at(ms(Math.min(start + length, ACTIVE_MS)), null, () -> {
+                for (Node node : nodes) node.side = 0;
+            });
+        }
+        List<Node> candidates = new ArrayList<>(nodes);
+        for (int c = random.nextInt(quorums.tolerated() + 1); c > 0; c--) {
+            Node victim = candidates.remove(random.nextInt(candidates.size()));
+            at(ms(random.nextInt((int) ACTIVE_MS)), null, () -> victim.crashed = true);
+        }
+    }
+
+    /**
+     * Runs the scenario to the end of the quiet phase and checks the outcome.
+     *
+     * @return {@code null} if it passed, otherwise what went wrong
+     */
+    String run() {
+        long end = ms(ACTIVE_MS + QUIET_MS);
+        Event e;
+        while (error == null && (e = events.poll()) != null && e.time <= end) {
+            if (e.cancelled || (e.owner != null && e.owner.crashed)) continue;
+            e.done = true;
+            now = e.time;
+            processed++;
+            try {
+                e.action.run();
+            } catch (RuntimeException ex) {
+                error = String.format("exception at %dms: %s", TimeUnit.NANOSECONDS.toMillis(now), ex);
+            }
+        }
+        if (error != null) return error;
+        if (readsDone < readsDue) return String.format("READ: %d of %d reads never completed", readsDue - readsDone, readsDue);
+        String unsafe = checkSafety();
+        return unsafe != null ? "SAFETY: " + unsafe : checkLiveness();
+    }
+
+    private String checkSafety() {
+        Map<Long, List<String>> chosen = new HashMap<>();
+        Map<Long, String> chosenBy = new HashMap<>();
+        for (Node node : nodes) {
+            for (Map.Entry<Long, List<String>> e : node.recorder.applied.entrySet()) {
+                long slot = e.getKey();
+                List<String> prev = chosen.putIfAbsent(slot, e.getValue());
+                if (prev == null) {
+                    chosenBy.put(slot, node.id);
+                } else if (!prev.equals(e.getValue())) {
+                    return String.format("slot %d is %s at %s but %s at %s", slot, prev, chosenBy.get(slot),
+                            e.getValue(), node.id);
+                }
+                for (String v : e.getValue()) {
+                    if (!proposed.containsKey(v)) {
+                        return String.format("slot %d at %s holds %s, which was never proposed", slot, node.id, v);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private String checkLiveness() {
+        Set<String> applied = new HashSet<>();
+        for (Node node : nodes) {
+            if (node.crashed) continue;
+            for (List<String> values : node.recorder.applied.values()) applied.addAll(values);
+        }
+        for (Map.Entry<String, Node> p : proposed.entrySet()) {
+            if (!p.getValue().crashed && !applied.contains(p.getKey())) {
+                return String.format("STALLED: %s proposed at %s was never decided", p.getKey(), p.getValue().id);
+            }
+        }
+        Node ahead = null;
+        for (Node node : nodes) {
+            if (node.crashed) continue;
+            if (ahead == null || node.handler.getFirstUndecided() > ahead.handler.getFirstUndecided()) ahead = node;
+        }
+        for (Node node : nodes) {
+            if (!node.crashed && node.handler.getFirstUndecided() < ahead.handler.getFirstUndecided()) {
+                return String.format("LAGGING: %s learned slots below %d, %s below %d", node.id,
+                        node.handler.getFirstUndecided(), ahead.id, ahead.handler.getFirstUndecided());
+            }
+        }
+        for (Node node : nodes) {
+            if (node.crashed) continue;
+            for (Long slot : ahead.recorder.applied.keySet()) {
+                if (!node.recorder.applied.containsKey(slot)) {
+                    return String.format("MISSING: slot %d applied at %s but not at %s", slot, ahead.id, node.id);
+                }
+            }
+            if (node.recorder.applied.size() != ahead.recorder.applied.size()) {
+                return String.format("MISSING: %s applied %d slots, %s %d", node.id, node.recorder.applied.size(),
+                        ahead.id, ahead.recorder.applied.size());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the scenario's shape, e.g. {@code seed=7 members=[M1:reliable, M2:latent, M3:failure]}
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder("seed=").append(seed).append(" members=[");
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (i > 0) sb.append(", ");
+            sb.append(node.id).append(':').append(node.profile.name().toLowerCase());
+            if (node.crashed) sb.append("(crashed)");
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Adds this scenario's decision latencies, PREPARE rounds, messages and leader failovers to
+     * totals reported over many scenarios.
+     *
+     * @param stats the totals
+     */
+    void collect(Stats stats) {
+        for (Map.Entry<String, Long> p : proposedAt.entrySet()) {
+            Long applied = appliedAt.get(p.getKey());
+            if (applied != null) stats.decisionMs.record(TimeUnit.NANOSECONDS.toMillis(applied - p.getValue()));
+        }
+        stats.values += proposedAt.size();
+        stats.delivered += delivered;
+        stats.reads += readsDone;
+        stats.readMs.add(readMs);
+        for (Node node : nodes) {
+            Metrics m = node.handler.getMetrics();
+            stats.prepares += Math.max(0, m.value("paxos_prepares_total"));
+            stats.snapshots += Math.max(0, m.value("paxos_snapshots_installed_total"));
+            LatencyHistogram failovers = m.getHistogram("paxos_leader_failover_ms");
+            if (failovers != null) stats.failoverMs.add(failovers);
+        }
+    }
+
+    /**
+     * @return event and message counts and slots applied per member; identical for every run of
+     * the same seed
+     */
+    String digest() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("t=%dms events=%d delivered=%d dropped=%d applied=", TimeUnit.NANOSECONDS.toMillis(now),
+                processed, delivered, dropped));
+        for (Node node : nodes) sb.append(node.recorder.applied.size()).append(' ');
+        return sb.toString().trim();
+    }
+
+    // -----------------------------
+    // Events
+    // -----------------------------
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Schedules an action at a virtual time. Actions of a member are skipped once it crashed.
+     */
+    private Event at(long time, Node owner, Runnable action) {
+        Event e = new Event(Math.max(time, now), nextSeq++, owner, action);
+        events.add(e);
+        return e;
+    }
+
+    private static boolean cancel(Event e) {
+        if (e.done || e.cancelled) return false;
+        e.cancelled = true;
+        return true;
+    }
+
+    /**
+     * A pending action, ordered by time and then by scheduling order.
+     */
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long seq;
+        final Node owner;
+        final Runnable action;
+        boolean cancelled;
+        boolean done;
+
+        Event(long time, long seq, Node owner, Runnable action) {
+            this.time = time;
+            this.seq = seq;
+            this.owner = owner;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    // -----------------------------
+    // Members
+    // -----------------------------
+    /**
+     * One simulated member: its handler, profile, partition side and what it applied.
+     */
+    private final class Node {
+        final String id;
+        final Profile profile;
+        final Recorder recorder = new Recorder();
+        PaxosHandler handler;
+        int side;
+        boolean crashed;
+
+        Node(String id, Profile profile) {
+            this.id = id;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * A member's timers and clock on virtual time.
+     */
+    private final class NodeTimers extends TimerService {
+        private final Node node;
+
+        NodeTimers(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Timeout schedule(long delayMs, Runnable task) {
+            Event e = at(now + ms(delayMs), node, task);
+            return new Timeout(() -> cancel(e));
+        }
+
+        @Override
+        public Timeout scheduleAtFixedRate(long periodMs, Runnable task) {
+            Event[] next = new Event[1];
+            Runnable[] tick = new Runnable[1];
+            tick[0] = () -> {
+                // Scheduled before running, so the task can cancel its own repetition.
+                next[0] = at(now + ms(periodMs), node, tick[0]);
+                task.run();
+            };
+            next[0] = at(now + ms(periodMs), node, tick[0]);
+            return new Timeout(() -> cancel(next[0]));
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return CouncilMember.T0 + TimeUnit.NANOSECONDS.toMillis(now);
+        }
+
+        @Override
+        protected Random random() {
+            return random;
+        }
+
+        @Override
+        public int queueDepth() {
+            int n = 0;
+            for (Event e : events) {
+                if (e.owner == node && !e.cancelled) n++;
+            }
+            return n;
+        }
+
+        @Override
+        public void shutdown() {
+            node.crashed = true;
+        }
+    }
+
+    /**
+     * A member's outbound links: each message is encoded, possibly dropped, and delivered after the
+     * link latency plus the receiver's profile delay, unless the two members are on different
+     * sides of a partition by then.
+     */
+    private final class NodeTransport implements Transport {
+        private final Node from;
+
+        NodeTransport(Node from) {
+            this.from = from;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> sendAsync(String targetMember, Message msg) {
+            Node to = byId.get(targetMember);
+            if (to == null || from.crashed) return CompletableFuture.completedFuture(false);
+            byte[] bytes = codec.encode(msg);
+            if (from.side != to.side || (!healed && from.profile.sampleDrop(random))
+                    || (lossRate > 0 && random.nextDouble() < lossRate)
+                    || (dropAccepted > 0 && msg.getType() == Message.MessageType.ACCEPTED && random.nextDouble() < dropAccepted)) {
+                dropped++;
+                return CompletableFuture.completedFuture(true);
+            }
+            long delay = ms(LINK_MIN_MS + random.nextInt(LINK_MAX_MS - LINK_MIN_MS) + from.profile.sampleDelayMs(random));
+            at(now + delay + random.nextInt(1_000_000), to, () -> {
+                if (from.side != to.side) {
+                    dropped++;
+                    return;
+                }
+                delivered++;
+                to.handler.handleMessage(codec.decode(bytes, 0, bytes.length));
+            });
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public void closeAll() {
+        }
+    }
+
+    /**
+     * State machine that records the values each slot applied, and when a value was first applied
+     * anywhere. Its snapshot holds every slot's values, then {@code snapshotPadding} filler bytes
+     * of a fixed pattern, so an installed snapshot that lost or reordered bytes fails the scenario.
+     */
+    private final class Recorder implements StateMachine {
+        final Map<Long, List<String>> applied = new HashMap<>();
+
+        @Override
+        public String apply(long slot, String command) {
+            applied.computeIfAbsent(slot, k -> new ArrayList<>(1)).add(command);
+            appliedAt.putIfAbsent(command, now);
+            return null;
+        }
+
+        @Override
+        public byte[] snapshot() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(applied.size());
+                for (Map.Entry<Long, List<String>> e : new TreeMap<>(applied).entrySet()) {
+                    out.writeLong(e.getKey());
+                    out.writeInt(e.getValue().size());
+                    for (String v : e.getValue()) out.writeUTF(v);
+                }
+                for (int i = 0; i < snapshotPadding; i++) out.writeByte(filler(i));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public void restore(byte[] state) {
+            Map<Long, List<String>> restored = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+                for (int n = in.readInt(); n > 0; n--) {
+                    long slot = in.readLong();
+                    List<String> values = new ArrayList<>();
+                    for (int c = in.readInt(); c > 0; c--) values.add(in.readUTF());
+                    restored.put(slot, values);
+                }
+                int padding = 0;
+                for (int b; (b = in.read()) >= 0; padding++) {
+                    if ((byte) b != filler(padding)) throw new IOException("padding byte " + padding + " differs");
+                }
+                if (padding != snapshotPadding) throw new IOException(padding + " padding bytes, not " + snapshotPadding);
+            } catch (IOException e) {
+                if (error == null) error = "SNAPSHOT: installed a corrupt snapshot: " + e.getMessage();
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            applied.clear();
+            applied.putAll(restored);
+        }
+
+        private byte filler(int i) {
+            return (byte) (i * 31 + 7);
+        }
+    }
+
+    /**
+     * Totals over the scenarios run: how long values took from being proposed to being applied,
+     * PREPARE rounds, messages delivered, how long leader failovers took and how long reads took.
+     */
+    static final class Stats {
+        final LatencyHistogram decisionMs = new LatencyHistogram();
+        final LatencyHistogram failoverMs = new LatencyHistogram();
+        final LatencyHistogram readMs = new LatencyHistogram();
+        long values;
+        long reads;
+        long prepares;
+        long delivered;
+        long snapshots;
+    }
+
+    /**
+     * Command-line settings.
+     */
+    static final class Settings {
+        int members;
+        Profile profile;
+        int values = 20;
+        String quorum;
+        boolean thrifty;
+        int reads;
+        double dropAccepted;
+        long heartbeatMs = PaxosHandler.DEFAULT_HEARTBEAT_MS;
+        double phiThreshold = PaxosHandler.DEFAULT_PHI_THRESHOLD;
+        int decidedWindow = Learner.DECIDED_WINDOW;
+        int snapshotPadding;
+        boolean faults = true;
+    }
+
+    /**
+     * Runs scenarios for consecutive seeds and reports the failing ones.
+     *
+     * @param args command-line flags, see the class description
+     */
+    public static void main(String[] args) {
+        Settings settings = new Settings();
+        int scenarios = 1000;
+        long firstSeed = 1;
+        boolean seedGiven = false;
+        boolean verbose = false;
+        for (String a : args) {
+            if (a.startsWith("--scenarios=")) {
+                scenarios = parsePositive(a.substring("--scenarios=".length()), scenarios);
+            } else if (a.startsWith("--seed=")) {
+                try {
+                    firstSeed = Long.parseLong(a.substring("--seed=".length()).trim());
+                    seedGiven = true;
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a.startsWith("--members=")) {
+                settings.members = parsePositive(a.substring("--members=".length()), 0);
+            } else if (a.startsWith("--profile=")) {
+                String p = a.substring("--profile=".length()).trim();
+                settings.profile = p.equalsIgnoreCase("mixed") ? null : Profile.fromString(p);
+            } else if (a.startsWith("--values=")) {
+                settings.values = parsePositive(a.substring("--values=".length()), settings.values);
+            } else if (a.startsWith("--quorum=")) {
+                settings.quorum = a.substring("--quorum=".length()).trim();
+            } else if (a.equals("--thrifty")) {
+                settings.thrifty = true;
+            } else if (a.startsWith("--reads=")) {
+                settings.reads = parsePositive(a.substring("--reads=".length()), 0);
+            } else if (a.startsWith("--drop-accepted=")) {
+                try {
+                    settings.dropAccepted = Double.parseDouble(a.substring("--drop-accepted=".length()).trim());
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a.startsWith("--heartbeat-ms=")) {
+                settings.heartbeatMs = parsePositive(a.substring("--heartbeat-ms=".length()),
+                        (int) settings.heartbeatMs);
+            } else if (a.startsWith("--phi-threshold=")) {
+                try {
+                    settings.phiThreshold = Double.parseDouble(a.substring("--phi-threshold=".length()).trim());
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else if (a.startsWith("--decided-window=")) {
+                settings.decidedWindow = parsePositive(a.substring("--decided-window=".length()), settings.decidedWindow);
+            } else if (a.startsWith("--snapshot-bytes=")) {
+                settings.snapshotPadding = parsePositive(a.substring("--snapshot-bytes=".length()), 0);
+            } else if (a.equals("--no-faults")) {
+                settings.faults = false;
+            } else if (a.equals("--verbose")) {
+                verbose = true;
+            } else {
+                System.err.println("Usage: java Simulator [--scenarios=N] [--seed=S] [--members=N]"
+                        + " [--profile=reliable|standard|latent|failure|mixed] [--values=N] [--quorum=<spec>] [--thrifty]"
+                        + " [--reads=N] [--drop-accepted=P] [--heartbeat-ms=MS] [--phi-threshold=PHI]"
+                        + " [--decided-window=N] [--snapshot-bytes=N] [--no-faults] [--verbose]");
+                return;
+            }
+        }
+        if (settings.quorum != null) {
+            if (settings.members == 0) {
+                System.err.println("--quorum needs --members");
+                return;
+            }
+            NetworkConfig check = new NetworkConfig();
+            for (int i = 1; i <= settings.members; i++) check.addMember("M" + i, "127.0.0.1", 0);
+            check.setQuorum(settings.quorum);
+            check.setThrifty(settings.thrifty);
+            try {
+                System.err.println("[SIM] Quorums: " + check.quorums());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unsafe or malformed --quorum: " + e.getMessage());
+                return;
+            }
+        }
+        if (settings.heartbeatMs > Acceptor.LEASE_MS / 2) {
+            System.err.printf("[SIM] --heartbeat-ms=%d is above half the %dms read lease; members use %dms%n",
+                    settings.heartbeatMs, Acceptor.LEASE_MS, Acceptor.LEASE_MS / 2);
+        }
+        // A given seed alone replays that one scenario.
+        if (seedGiven && Arrays.stream(args).noneMatch(a -> a.startsWith("--scenarios="))) scenarios = 1;
+
+        PrintStream out = System.out;
+        if (!verbose) {
+            NodeLogger.setLevel(NodeLogger.Level.OFF);
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        int failed = 0;
+        Stats stats = new Stats();
+        long started = System.nanoTime();
+        try {
+            for (long seed = firstSeed; seed < firstSeed + scenarios; seed++) {
+                Simulator sim = new Simulator(seed, settings);
+                String failure = sim.run();
+                NodeLogger.flush();
+                sim.collect(stats);
+                if (failure != null) {
+                    failed++;
+                    out.printf("[SIM] FAIL %s: %s (%s)%n", sim.describe(), failure, sim.digest());
+                } else if (scenarios == 1) {
+                    out.printf("[SIM] ok %s: %s%n", sim.describe(), sim.digest());
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+        double secs = (System.nanoTime() - started) / 1e9;
+        out.printf("[SIM] %d scenarios in %.1fs (%.0f/min), %d failed%n", scenarios, secs, scenarios / secs * 60, failed);
+        LatencyHistogram d = stats.decisionMs;
+        out.printf("[SIM] proposed to applied: p50 %dms, p99 %dms, max %dms; %.2f PREPARE rounds, %.1f messages per value%n",
+                d.valueAtPercentile(50), d.valueAtPercentile(99), d.max(),
+                stats.values == 0 ? 0 : (double) stats.prepares / stats.values,
+                stats.values == 0 ? 0 : (double) stats.delivered / stats.values);
+        LatencyHistogram f = stats.failoverMs;
+        if (f.count() > 0) {
+            out.printf("[SIM] %d leader failovers: p50 %dms, p99 %dms, max %dms from last heartbeat to new leader%n",
+                    f.count(), f.valueAtPercentile(50), f.valueAtPercentile(99), f.max());
+        }
+        if (stats.snapshots > 0) {
+            out.printf("[SIM] %d snapshots installed%n", stats.snapshots);
+        }
+        LatencyHistogram r = stats.readMs;
+        if (stats.reads > 0) {
+            out.printf("[SIM] %d follower reads: p50 %dms, p99 %dms, max %dms%n",
+                    stats.reads, r.valueAtPercentile(50), r.valueAtPercentile(99), r.max());
+        }
+        if (failed > 0) {
+            out.printf("[SIM] Replay one with --seed=<seed> --verbose%n");
+            System.exit(1);
+        }
+    }
+
+    private static int parsePositive(String s, int fallback) {
+        try {
+            int v = Integer.parseInt(s.trim());
+            return v > 0 ? v : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity ring of per-slot values covering the slot range {@code [base, base + capacity)}.
+ * <p>
+ * Storing a slot beyond the end slides the window forward and forgets the oldest slots, so memory
+ * stays constant no matter how many slots a member has seen. Not thread-safe; callers synchronize.
+ * </p>
+ *
+ * @param <T> per-slot value type
+ */
+public final class SlotWindow<T> {
+
+    private final Object[] ring;
+    private final int mask;
+    private long base;
+
+    /**
+     * Creates an empty window starting at slot 0.
+     *
+     * @param capacity number of slots retained; rounded up to a power of two
+     */
+    public SlotWindow(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the value stored for a slot.
+     *
+     * @param slot the slot
+     * @return the value, or {@code null} if none is stored or the slot is outside the window
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long slot) {
+        if (slot < base || slot >= base + ring.length) return null;
+        return (T) ring[(int) (slot & mask)];
+    }
+
+    /**
+     * Stores a value for a slot, sliding the window forward if the slot lies past its end.
+     *
+     * @param slot  the slot
+     * @param value the value (or {@code null} to clear)
+     * @return {@code false} if the slot is below the window and was ignored
+     */
+    public boolean put(long slot, T value) {
+        if (slot < base) return false;
+        if (slot >= base + ring.length) {
+            advanceTo(slot - ring.length + 1);
+        }
+        ring[(int) (slot & mask)] = value;
+        return true;
+    }
+
+    /**
+     * Forgets every slot below {@code newBase}.
+     *
+     * @param newBase the new lowest retained slot; ignored if not above the current base
+     */
+    public void advanceTo(long newBase) {
+        if (newBase <= base) return;
+        if (newBase - base >= ring.length) {
+            Arrays.fill(ring, null);
+        } else {
+            for (long s = base; s < newBase; s++) {
+                ring[(int) (s & mask)] = null;
+            }
+        }
+        base = newBase;
+    }
+
+    /**
+     * @return the lowest slot still retained
+     */
+    public long base() {
+        return base;
+    }
+
+    /**
+     * @return the number of slots the window can hold
+     */
+    public int capacity() {
+        return ring.length;
+    }
+}
@@ -0,0 +1,39 @@
+package au.edu.adelaide.ds.assignment3;
+
+/**
+ * Replicated state that decided values are applied to.
+ * <p>
+ * Each member's learner applies every decided value exactly once, in slot order (and, within a
+ * batch, in submission order), so members that apply the same log reach the same state. No-op
+ * slots are skipped. {@link #apply} is only called by one thread at a time, but reads of the state
+ * may run concurrently with it.
+ * </p>
+ * <p>
+ * With a {@link DecidedLog} the state is snapshotted periodically; on restart it is restored from
+ * the latest snapshot and the entries decided after it are applied again.
+ * </p>
+ */
+public interface StateMachine {
+
+    /**
+     * Applies one decided value.
+     *
+     * @param slot    the log slot it was decided in
+     * @param command the value, as proposed
+     * @return the result for whoever submitted it, or {@code null} if there is none
+     */
+    String apply(long slot, String command);
+
+    /**
+     * @return the current state, in a form {@link #restore} accepts
+     */
+    byte[] snapshot();
+
+    /**
+     * Replaces the current state with a snapshot.
+     *
+     * @param state bytes produced by {@link #snapshot()} (possibly by an earlier run)
+     * @throws IllegalArgumentException if the bytes are not a snapshot of this state machine
+     */
+    void restore(byte[] state);
+}
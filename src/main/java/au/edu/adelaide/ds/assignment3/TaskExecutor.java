@@ -0,0 +1,207 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs per-connection and per-message tasks in a selectable {@link Mode}, with at most a fixed
+ * number of tasks running at once.
+ * <p>
+ * When the limit is reached {@link #execute} blocks the submitting thread (normally an accept
+ * loop) until a task finishes, so a connection storm queues up in the kernel's backlog instead of
+ * creating unbounded threads. A thread that must not block (a UDP I/O thread, which also sends the
+ * acknowledgements) uses {@link #tryExecute} and leaves the work for later when it is refused.
+ * </p>
+ * <p>
+ * Virtual threads need a Java 21 runtime. The project still compiles for Java 11, so the virtual
+ * thread executor is looked up reflectively; {@link Mode#isAvailable()} tells whether the running
+ * JVM has it.
+ * </p>
+ */
+public class TaskExecutor implements Executor {
+
+    //Default cap on concurrently running tasks.
+    public static final int DEFAULT_MAX_TASKS = 10_000;
+
+    /**
+     * How tasks are mapped onto threads.
+     */
+    public enum Mode {
+        //A new platform thread per task (the original behaviour).
+        PLATFORM,
+        //Platform threads reused across tasks, idle ones retired after a minute.
+        POOLED,
+        //A new virtual thread per task (Java 21+).
+        VIRTUAL;
+
+        /**
+         * Parses a mode name, case-insensitively.
+         *
+         * @param name {@code platform}, {@code pooled} or {@code virtual}
+         * @return the mode
+         * @throws IllegalArgumentException for any other name
+         */
+        public static Mode parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+
+        /**
+         * @return {@code true} if the running JVM supports this mode
+         */
+        public boolean isAvailable() {
+            return this != VIRTUAL || VIRTUAL_FACTORY != null;
+        }
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21
+    private static final Method VIRTUAL_FACTORY = lookupVirtualFactory();
+
+    private final Mode mode;
+    private final String name;
+    private final int maxTasks;
+    private final Semaphore permits;
+    private final ExecutorService delegate;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    /**
+     * Creates an executor.
+     *
+     * @param mode     how tasks are mapped onto threads
+     * @param name     prefix for thread names (platform and pooled modes)
+     * @param maxTasks most tasks running at once
+     * @throws UnsupportedOperationException if the mode is not available in this JVM
+     */
+    public TaskExecutor(Mode mode, String name, int maxTasks) {
+        if (!mode.isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later (running "
+                    + System.getProperty("java.version") + ")");
+        }
+        this.mode = mode;
+        this.name = name;
+        this.maxTasks = maxTasks;
+        this.permits = new Semaphore(maxTasks);
+        this.delegate = mode == Mode.POOLED ? newPool() : mode == Mode.VIRTUAL ? newVirtual() : null;
+    }
+
+    /**
+     * Runs a task, blocking while {@code maxTasks} tasks are already running.
+     *
+     * @param task the task
+     * @throws RejectedExecutionException if interrupted while waiting, or after {@link #shutdown()}
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a task slot", e);
+        }
+        start(task);
+    }
+
+    /**
+     * Runs a task if fewer than {@code maxTasks} tasks are running, without blocking.
+     *
+     * @param task the task
+     * @return {@code false} if the limit is reached and the task was not run
+     * @throws RejectedExecutionException after {@link #shutdown()}
+     */
+    public boolean tryExecute(Runnable task) {
+        if (!permits.tryAcquire()) return false;
+        start(task);
+        return true;
+    }
+
+    /**
+     * Starts a task on the mode's threads; the caller holds a permit, released when the task ends.
+     */
+    private void start(Runnable task) {
+        Runnable bounded = () -> {
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        };
+        try {
+            if (delegate == null) {
+                Thread t = new Thread(bounded, name + "-" + threadIds.incrementAndGet());
+                t.setDaemon(true);
+                t.start();
+            } else {
+                delegate.execute(bounded);
+            }
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the execution mode
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * @return number of tasks currently running
+     */
+    public int active() {
+        return maxTasks - permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting tasks and interrupts running ones (platform-mode threads are daemons and are
+     * left to finish).
+     */
+    public void shutdown() {
+        if (delegate != null) {
+            delegate.shutdownNow();
+        }
+    }
+
+    private ExecutorService newPool() {
+        // No queue: with the permit check in front, the pool only grows to maxTasks threads. A task
+        // releases its permit just before its thread is back waiting for work, so a submit can
+        // find all maxTasks threads busy; it is then handed to the first of them to come back.
+        return new ThreadPoolExecutor(0, maxTasks, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, name + "-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, (r, pool) -> {
+            try {
+                while (!pool.getQueue().offer(r, 10, TimeUnit.MILLISECONDS)) {
+                    if (pool.isShutdown()) throw new RejectedExecutionException("Executor shut down");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while handing off a task", e);
+            }
+        });
+    }
+
+    private static ExecutorService newVirtual() {
+        try {
+            return (ExecutorService) VIRTUAL_FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    private static Method lookupVirtualFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
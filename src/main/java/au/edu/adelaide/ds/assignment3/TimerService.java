@@ -0,0 +1,213 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One timer thread shared by every protocol timeout of a member (prepare and accept retries,
+ * batch linger, leader heartbeats), instead of a sleeping thread per timeout.
+ * <p>
+ * Timeouts are cancelled as soon as they become moot, and cancelled tasks are removed from the
+ * queue at once. The service tracks its queue depth and firing lag (how late a task ran compared
+ * to its deadline — a sign the timer thread or the locks it takes are overloaded).
+ * </p>
+ * <p>
+ * The service is also the member's clock and source of randomness ({@link #nanoTime()},
+ * {@link #backoff}), so a subclass can run a member on virtual time (see {@link Simulator}).
+ * </p>
+ */
+public class TimerService {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    //Metrics
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder lagNanosTotal = new LongAdder();
+    private final AtomicLong lagNanosMax = new AtomicLong();
+
+    /**
+     * A scheduled task that can be cancelled.
+     */
+    public final class Timeout {
+        private final BooleanSupplier cancel;
+
+        /**
+         * @param cancel cancels the task, returning {@code true} if it had not run yet
+         */
+        Timeout(BooleanSupplier cancel) {
+            this.cancel = cancel;
+        }
+
+        /**
+         * Cancels the task if it has not run yet (periodic tasks stop repeating).
+         */
+        public void cancel() {
+            if (cancel.getAsBoolean()) cancelled.increment();
+        }
+    }
+
+    /**
+     * Creates the service and its (daemon) timer thread.
+     *
+     * @param name name of the timer thread
+     */
+    public TimerService(String name) {
+        executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * For subclasses that run tasks on their own schedule: starts no timer thread, and every
+     * scheduling method must be overridden.
+     */
+    protected TimerService() {
+        executor = null;
+    }
+
+    /**
+     * @return the member's monotonic clock in nanoseconds, as {@link System#nanoTime()}
+     */
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return wall-clock time in milliseconds, as {@link System#currentTimeMillis()}
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the random source for timing jitter
+     */
+    protected Random random() {
+        return ThreadLocalRandom.current();
+    }
+
+    /**
+     * Runs a task once after a delay.
+     *
+     * @param delayMs delay in milliseconds
+     * @param task    the task; exceptions are reported and do not stop the timer
+     * @return a handle to cancel it
+     */
+    public Timeout schedule(long delayMs, Runnable task) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        ScheduledFuture<?> f = executor.schedule(() -> fire(deadline, task), delayMs, TimeUnit.MILLISECONDS);
+        return new Timeout(() -> f.cancel(false));
+    }
+
+    /**
+     * Runs a task every {@code periodMs}, starting after one period.
+     *
+     * @param periodMs period in milliseconds
+     * @param task     the task; exceptions are reported and do not stop the repetition
+     * @return a handle to cancel it
+     */
+    public Timeout scheduleAtFixedRate(long periodMs, Runnable task) {
+        long period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        long[] deadline = {System.nanoTime() + period};
+        ScheduledFuture<?> f = executor.scheduleAtFixedRate(() -> {
+            fire(deadline[0], task);
+            deadline[0] += period;
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return new Timeout(() -> f.cancel(false));
+    }
+
+    /**
+     * Returns a randomized exponential backoff delay: {@code base * 2^attempt}, capped at
+     * {@code max}, then scaled by a random factor in [0.5, 1.5) so that competing proposers
+     * drift apart instead of retrying in lockstep.
+     *
+     * @param baseMs  delay for the first attempt
+     * @param maxMs   cap before randomization
+     * @param attempt number of consecutive failed attempts so far
+     * @return the delay in milliseconds
+     */
+    public long backoff(long baseMs, long maxMs, int attempt) {
+        long delay = baseMs << Math.min(attempt, 20);
+        if (delay <= 0 || delay > maxMs) delay = maxMs;
+        return (long) (delay * (0.5 + random().nextDouble()));
+    }
+
+    /**
+     * Runs a task that was due at {@code deadline} ({@link #nanoTime()}), recording its lag.
+     *
+     * @param deadline when the task was due
+     * @param task     the task; exceptions are reported and swallowed
+     */
+    protected void fire(long deadline, Runnable task) {
+        long lag = Math.max(0, nanoTime() - deadline);
+        fired.increment();
+        lagNanosTotal.add(lag);
+        lagNanosMax.accumulateAndGet(lag, Math::max);
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Timer task failed: " + e);
+        }
+    }
+
+    /**
+     * @return number of tasks waiting to fire
+     */
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of task runs so far
+     */
+    public long firedCount() {
+        return fired.sum();
+    }
+
+    /**
+     * @return number of tasks cancelled before they ran
+     */
+    public long cancelledCount() {
+        return cancelled.sum();
+    }
+
+    /**
+     * @return mean firing lag in milliseconds
+     */
+    public double meanLagMs() {
+        long n = fired.sum();
+        return n == 0 ? 0 : lagNanosTotal.sum() / (double) n / 1e6;
+    }
+
+    /**
+     * @return worst firing lag seen, in milliseconds
+     */
+    public double maxLagMs() {
+        return lagNanosMax.get() / 1e6;
+    }
+
+    /**
+     * @return a one-line summary of the metrics
+     */
+    public String stats() {
+        return String.format("timers: queued=%d fired=%d cancelled=%d lag avg=%.2fms max=%.2fms",
+                queueDepth(), firedCount(), cancelledCount(), meanLagMs(), maxLagMs());
+    }
+
+    /**
+     * Stops the timer thread; pending tasks are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
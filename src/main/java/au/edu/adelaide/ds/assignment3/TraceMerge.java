@@ -0,0 +1,237 @@
+package au.edu.adelaide.ds.assignment3;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Merges the per-member trace files written by {@link Tracer} into one timeline and reports
+ * where the time of traced consensus instances went.
+ * <p>
+ * The merged file (default {@code merged.trace.json}) opens in {@code chrome://tracing} or
+ * Perfetto with one process per member. The report on standard output lists:
+ * </p>
+ * <ul>
+ *     <li>per link and message type, the one-way hop latency (receiver's receive time minus the
+ *     sender's send time) — a slow or lossy link stands out here;</li>
+ *     <li>per member and message type, the time spent handling a message (including any fsync of
+ *     the write-ahead log before replying) — a slow acceptor stands out here;</li>
+ *     <li>per proposer, phase 1 and phase 2 durations and rounds;</li>
+ *     <li>the timelines of the slowest phases, every hop offset from the start of the phase.</li>
+ * </ul>
+ * <p>
+ * Hop latencies compare the clocks of two processes; they are accurate for members on one host,
+ * and need synchronized clocks otherwise (negative hops are reported as 0).
+ * </p>
+ * <p>
+ * Usage: {@code java TraceMerge [--out=<file>] [--slowest=N] <trace file or directory>...}; a
+ * directory contributes every {@code *.trace.json} in it.
+ * </p>
+ */
+public class TraceMerge {
+
+    /**
+     * One span read back from a trace file.
+     */
+    private static final class Event {
+        final JsonObject json;
+        final String name;
+        final long ts;
+        final long dur;
+        final String member;
+        final String trace;
+        final String from;
+        final long hopUs;
+        final int rounds;
+        final String outcome;
+
+        Event(JsonObject json) {
+            this.json = json;
+            JsonObject args = json.getAsJsonObject("args");
+            this.name = json.get("name").getAsString();
+            this.ts = json.get("ts").getAsLong();
+            this.dur = json.get("dur").getAsLong();
+            this.member = args.get("member").getAsString();
+            this.trace = args.get("trace").getAsString();
+            this.from = args.has("from") ? args.get("from").getAsString() : null;
+            this.hopUs = args.has("hopUs") ? args.get("hopUs").getAsLong() : -1;
+            this.rounds = args.has("rounds") ? args.get("rounds").getAsInt() : 0;
+            this.outcome = args.has("outcome") ? args.get("outcome").getAsString() : null;
+        }
+
+        boolean isPhase() {
+            return hopUs < 0;
+        }
+
+        String phase() {
+            int space = name.indexOf(' ');
+            return space < 0 ? name : name.substring(0, space);
+        }
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args {@code [--out=<file>] [--slowest=N]} and the trace files or directories
+     * @throws IOException if a file cannot be read or the merged file written
+     */
+    public static void main(String[] args) throws IOException {
+        Path out = Paths.get("merged.trace.json");
+        int slowest = 3;
+        List<Path> inputs = new ArrayList<>();
+        for (String a : args) {
+            if (a.startsWith("--out=")) {
+                out = Paths.get(a.substring("--out=".length()).trim());
+            } else if (a.startsWith("--slowest=")) {
+                try {
+                    slowest = Math.max(0, Integer.parseInt(a.substring("--slowest=".length()).trim()));
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else {
+                Path p = Paths.get(a);
+                if (Files.isDirectory(p)) {
+                    try (Stream<Path> files = Files.list(p)) {
+                        inputs.addAll(files.filter(f -> f.getFileName().toString().endsWith(".trace.json"))
+                                .sorted().collect(Collectors.toList()));
+                    }
+                } else {
+                    inputs.add(p);
+                }
+            }
+        }
+        inputs.remove(out);
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: java TraceMerge [--out=<file>] [--slowest=N] <trace file or directory>...");
+            return;
+        }
+
+        List<JsonObject> metadata = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        for (Path p : inputs) {
+            for (JsonElement e : read(p)) {
+                JsonObject o = e.getAsJsonObject();
+                if ("M".equals(o.get("ph").getAsString())) {
+                    metadata.add(o);
+                } else {
+                    events.add(new Event(o));
+                }
+            }
+        }
+        events.sort(Comparator.comparingLong(e -> e.ts));
+        write(out, metadata, events);
+        System.out.printf("Merged %d spans from %d files into %s%n%n", events.size(), inputs.size(), out);
+        report(System.out, events, slowest);
+    }
+
+    /**
+     * Reads a trace file, tolerating a missing closing bracket (a member that did not shut down
+     * cleanly).
+     */
+    private static JsonArray read(Path p) throws IOException {
+        String text = new String(Files.readAllBytes(p), StandardCharsets.UTF_8).trim();
+        if (!text.endsWith("]")) {
+            if (text.endsWith(",")) text = text.substring(0, text.length() - 1);
+            text += "]";
+        }
+        try {
+            return JsonParser.parseString(text).getAsJsonArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Not a trace file: " + p + " (" + e.getMessage() + ")", e);
+        }
+    }
+
+    private static void write(Path out, List<JsonObject> metadata, List<Event> events) throws IOException {
+        try (Writer w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            w.write("[\n");
+            String sep = "";
+            for (JsonObject m : metadata) {
+                w.write(sep);
+                w.write(m.toString());
+                sep = ",\n";
+            }
+            for (Event e : events) {
+                w.write(sep);
+                w.write(e.json.toString());
+                sep = ",\n";
+            }
+            w.write("\n]\n");
+        }
+    }
+
+    private static void report(PrintStream out, List<Event> events, int slowest) {
+        Map<String, LatencyHistogram> hops = new TreeMap<>();
+        Map<String, LatencyHistogram> handling = new TreeMap<>();
+        Map<String, LatencyHistogram> phases = new TreeMap<>();
+        Map<String, LatencyHistogram> rounds = new HashMap<>();
+        Map<String, List<Event>> byTrace = new HashMap<>();
+        List<Event> roots = new ArrayList<>();
+        for (Event e : events) {
+            byTrace.computeIfAbsent(e.trace, k -> new ArrayList<>()).add(e);
+            if (e.isPhase()) {
+                String key = e.member + " " + e.phase();
+                phases.computeIfAbsent(key, k -> new LatencyHistogram()).record(e.dur);
+                rounds.computeIfAbsent(key, k -> new LatencyHistogram()).record(e.rounds);
+                roots.add(e);
+                continue;
+            }
+            if (e.from != null && !e.from.equals(e.member)) {
+                hops.computeIfAbsent(e.from + "->" + e.member + " " + e.name, k -> new LatencyHistogram())
+                        .record(e.hopUs);
+            }
+            handling.computeIfAbsent(e.member + " " + e.name, k -> new LatencyHistogram()).record(e.dur);
+        }
+
+        out.println("Hop latency (send to receive, us)");
+        table(out, "link", hops);
+        out.println();
+        out.println("Handling time (receive to reply sent, us)");
+        table(out, "member", handling);
+        out.println();
+        out.println("Phases (us)");
+        out.printf("%-24s %7s %9s %9s %9s %11s%n", "proposer", "count", "p50", "p99", "max", "mean rounds");
+        for (Map.Entry<String, LatencyHistogram> e : phases.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            out.printf("%-24s %7d %9d %9d %9d %11.2f%n", e.getKey(), h.count(), h.valueAtPercentile(50),
+                    h.valueAtPercentile(99), h.max(), rounds.get(e.getKey()).mean());
+        }
+
+        roots.sort(Comparator.comparingLong((Event e) -> e.dur).reversed());
+        for (Event root : roots.subList(0, Math.min(slowest, roots.size()))) {
+            out.println();
+            out.printf("Trace %s: %s on %s, %dus, %s%s%n", root.trace, root.name, root.member, root.dur,
+                    root.outcome == null ? "unfinished" : root.outcome,
+                    root.rounds > 1 ? ", " + root.rounds + " rounds" : "");
+            for (Event e : byTrace.get(root.trace)) {
+                if (e == root) continue;
+                out.printf("  +%8dus %-4s %-15s from=%-4s hop=%6dus handled in %6dus%s%n", e.ts - root.ts,
+                        e.member, e.name, e.from, e.hopUs, e.dur, e.outcome == null ? "" : " (" + e.outcome + ")");
+            }
+        }
+    }
+
+    private static void table(PrintStream out, String keyName, Map<String, LatencyHistogram> rows) {
+        out.printf("%-32s %7s %9s %9s %9s%n", keyName, "count", "p50", "p99", "max");
+        for (Map.Entry<String, LatencyHistogram> e : rows.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            out.printf("%-32s %7d %9d %9d %9d%n", e.getKey(), h.count(), h.valueAtPercentile(50),
+                    h.valueAtPercentile(99), h.max());
+        }
+    }
+}
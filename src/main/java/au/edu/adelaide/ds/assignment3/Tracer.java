@@ -0,0 +1,300 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records spans of traced consensus instances on one member and exports them as Chrome trace
+ * events (the JSON array format read by {@code chrome://tracing} and Perfetto).
+ * <p>
+ * A proposer opens a root span for each phase it runs, one per PREPARE round ({@code phase1})
+ * and one per proposed slot ({@code phase2}), and stamps the messages of that phase with a
+ * {@link Message.Trace}. Every member that receives a stamped message records a hop span for
+ * handling it, with the one-way latency from the sender's send time, and stamps its replies
+ * with that span, so one trace covers every hop of the instance across the cluster.
+ * {@link TraceMerge} joins the per-member files into one timeline.
+ * </p>
+ * <p>
+ * Tracing is off until {@link #start}; then a sampled fraction of phases is traced. Finished
+ * spans are queued and written by a background thread; spans that find the queue full are
+ * dropped and counted. Timestamps are microseconds since the epoch, from the wall clock at
+ * startup advanced by the member's monotonic clock, so traces of members on one host line up.
+ * </p>
+ */
+final class Tracer {
+
+    //Chrome trace thread IDs, one per role
+    static final int PROPOSER = 1;
+    static final int ACCEPTOR = 2;
+    static final int LEARNER = 3;
+
+    //Finished spans waiting for the writer
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * One span: a phase run by a proposer, or the handling of one received message.
+     * Written by the thread that owns it until {@link #end}.
+     */
+    static final class Span {
+        final long traceId;
+        final long spanId;
+        final long parentId;
+        final String name;
+        final int role;
+        final long startMicros;
+        final String peer;
+        final long slot;
+        final long ballot;
+        //One-way latency from the sender, or -1 for a root span
+        final long hopMicros;
+        long endMicros;
+        String outcome;
+        int rounds;
+
+        Span(long traceId, long parentId, String name, int role, long startMicros, String peer,
+             long slot, long ballot, long hopMicros) {
+            this.traceId = traceId;
+            this.spanId = ThreadLocalRandom.current().nextLong();
+            this.parentId = parentId;
+            this.name = name;
+            this.role = role;
+            this.startMicros = startMicros;
+            this.peer = peer;
+            this.slot = slot;
+            this.ballot = ballot;
+            this.hopMicros = hopMicros;
+        }
+
+        /**
+         * Records how the span ended, e.g. {@code decided} or {@code timeout}.
+         *
+         * @param outcome the outcome
+         */
+        void outcome(String outcome) {
+            this.outcome = outcome;
+        }
+    }
+
+    private final String memberId;
+    private final int pid;
+    private final TimerService clock;
+    private final long epochMicros;
+    private final long startNanos;
+
+    private volatile boolean enabled;
+    private volatile double sampleRate;
+    private final BlockingQueue<Span> finished = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    private Thread writer;
+
+    /**
+     * @param memberId the member
+     * @param pid      process ID shown in the trace (e.g. the member's index in the configuration + 1)
+     * @param clock    the member's clock
+     */
+    Tracer(String memberId, int pid, TimerService clock) {
+        this.memberId = memberId;
+        this.pid = pid;
+        this.clock = clock;
+        this.epochMicros = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        this.startNanos = clock.nanoTime();
+    }
+
+    /**
+     * Starts tracing into a file, which is replaced. Spans are flushed as they finish and the
+     * closing bracket is written at shutdown; the file is readable without it.
+     *
+     * @param file       the trace file
+     * @param sampleRate fraction of phases to trace, from 0 to 1
+     * @throws IOException if the file cannot be created
+     */
+    synchronized void start(Path file, double sampleRate) throws IOException {
+        if (writer != null) throw new IllegalStateException("Tracing already started");
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writeMetadata(out);
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        writer = new Thread(() -> drain(out), "tracer-" + memberId);
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> close(out), "tracer-close-" + memberId));
+        enabled = true;
+    }
+
+    /**
+     * @return {@code true} once tracing has started
+     */
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return spans lost because the writer fell behind
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Opens the root span of a phase on this proposer, if the phase is sampled.
+     *
+     * @param name   the phase ({@code phase1} or {@code phase2})
+     * @param slot   first slot covered (phase 1) or the slot proposed (phase 2)
+     * @param ballot the proposer's ballot
+     * @return the span, or {@code null} if the phase is not traced
+     */
+    Span root(String name, long slot, long ballot) {
+        if (!enabled) return null;
+        double rate = sampleRate;
+        if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) return null;
+        long traceId = ThreadLocalRandom.current().nextLong();
+        return new Span(traceId, 0, name, PROPOSER, nowMicros(), null, slot, ballot, -1);
+    }
+
+    /**
+     * Opens the hop span for handling a received message, if the message is traced.
+     *
+     * @param msg the received message
+     * @return the span, or {@code null}
+     */
+    Span receive(Message msg) {
+        Message.Trace t = msg.getTrace();
+        if (t == null || !enabled) return null;
+        long now = nowMicros();
+        int role;
+        switch (msg.getType()) {
+            case PROMISE: role = PROPOSER; break;
+            case ACCEPTED: role = LEARNER; break;
+            default: role = ACCEPTOR; break;
+        }
+        return new Span(t.getTraceId(), t.getSpanId(), msg.getType().name(), role, now, msg.getSenderId(),
+                msg.getSlot(), msg.getProposalNumber(), now - t.getSentAtMicros());
+    }
+
+    /**
+     * Stamps a message about to be sent with a span's trace context. Does nothing without a span.
+     *
+     * @param msg  the outgoing message
+     * @param span the span sending it, or {@code null}
+     */
+    void stamp(Message msg, Span span) {
+        if (span != null) msg.setTrace(new Message.Trace(span.traceId, span.spanId, nowMicros()));
+    }
+
+    /**
+     * Ends a span and queues it for writing. Does nothing without a span.
+     *
+     * @param span the span, or {@code null}
+     */
+    void end(Span span) {
+        if (span == null) return;
+        span.endMicros = nowMicros();
+        if (!finished.offer(span)) dropped.increment();
+    }
+
+    /**
+     * Ends a span with an outcome. Does nothing without a span.
+     *
+     * @param span    the span, or {@code null}
+     * @param outcome how it ended
+     */
+    void end(Span span, String outcome) {
+        if (span == null) return;
+        span.outcome = outcome;
+        end(span);
+    }
+
+    private long nowMicros() {
+        return epochMicros + (clock.nanoTime() - startNanos) / 1_000;
+    }
+
+    // -----------------------------
+    // Export
+    // -----------------------------
+    private void writeMetadata(Writer out) throws IOException {
+        out.write("[\n");
+        out.write(String.format("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":%d,\"args\":{\"name\":\"%s\"}}",
+                pid, memberId));
+        String[] roles = {null, "proposer", "acceptor", "learner"};
+        for (int tid = PROPOSER; tid <= LEARNER; tid++) {
+            out.write(String.format(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                    pid, tid, roles[tid]));
+        }
+        out.flush();
+    }
+
+    private void drain(Writer out) {
+        StringBuilder sb = new StringBuilder(512);
+        try {
+            while (true) {
+                Span s = finished.take();
+                do {
+                    sb.setLength(0);
+                    append(sb, s);
+                    synchronized (out) {
+                        out.append(sb);
+                    }
+                } while ((s = finished.poll()) != null);
+                synchronized (out) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.printf("[%s] Trace export stopped: %s%n", memberId, e.getMessage());
+        }
+    }
+
+    private void close(Writer out) {
+        try {
+            // let the writer catch up with spans ended just before shutdown
+            for (int i = 0; i < 100 && !finished.isEmpty(); i++) TimeUnit.MILLISECONDS.sleep(10);
+            synchronized (out) {
+                out.write("\n]\n");
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // the file stays readable without the closing bracket
+        }
+    }
+
+    private void append(StringBuilder sb, Span s) {
+        sb.append(",\n{\"name\":\"").append(s.name);
+        if (s.hopMicros < 0) sb.append(" slot=").append(s.slot);
+        sb.append("\",\"cat\":\"paxos\",\"ph\":\"X\",\"ts\":").append(s.startMicros)
+                .append(",\"dur\":").append(Math.max(0, s.endMicros - s.startMicros))
+                .append(",\"pid\":").append(pid).append(",\"tid\":").append(s.role)
+                .append(",\"args\":{\"member\":\"").append(memberId)
+                .append("\",\"trace\":\"").append(hex(s.traceId))
+                .append("\",\"span\":\"").append(hex(s.spanId)).append('"');
+        if (s.parentId != 0) sb.append(",\"parent\":\"").append(hex(s.parentId)).append('"');
+        if (s.peer != null) sb.append(",\"from\":\"").append(s.peer).append('"');
+        sb.append(",\"slot\":").append(s.slot);
+        if (s.ballot != Ballot.NONE) sb.append(",\"ballot\":\"").append(Ballot.toString(s.ballot)).append('"');
+        if (s.hopMicros >= 0) sb.append(",\"hopUs\":").append(s.hopMicros);
+        if (s.rounds > 0) sb.append(",\"rounds\":").append(s.rounds);
+        if (s.outcome != null) sb.append(",\"outcome\":\"").append(s.outcome).append('"');
+        sb.append("}}");
+    }
+
+    /**
+     * @param id a trace or span ID
+     * @return its 16-digit hexadecimal form, as written to the trace file
+     */
+    static String hex(long id) {
+        String h = Long.toHexString(id);
+        return h.length() == 16 ? h : "0000000000000000".substring(h.length()) + h;
+    }
+}
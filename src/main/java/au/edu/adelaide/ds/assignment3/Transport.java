@@ -0,0 +1,69 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound path from a {@link PaxosHandler} to its peers.
+ * <p>
+ * {@link PeerConnectionManager} sends over pooled TCP connections; {@link UdpTransport} sends
+ * coalesced, acknowledged datagrams from a single UDP socket.
+ * </p>
+ */
+public interface Transport {
+
+    /**
+     * Queues one message for a member and returns at once.
+     *
+     * @param targetMember the member ID to send the message to
+     * @param msg          the message to send
+     * @return completes with {@code true} once delivered (as far as the transport can tell), or
+     * {@code false} if it was given up or dropped
+     */
+    CompletableFuture<Boolean> sendAsync(String targetMember, Message msg);
+
+    /**
+     * Sends one message to several members concurrently.
+     *
+     * @param targets member IDs to send to
+     * @param msg     the message to send
+     * @param quorum  deliveries that count as success (capped at the number of targets)
+     * @return completes with {@code true} as soon as {@code quorum} peers have it, or with
+     * {@code false} as soon as too many have failed for that to happen
+     */
+    default CompletableFuture<Boolean> broadcast(Collection<String> targets, Message msg, int quorum) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        int needed = Math.min(quorum, targets.size());
+        int tolerated = targets.size() - needed;
+        if (needed <= 0) {
+            result.complete(true);
+        }
+        AtomicInteger delivered = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        for (String target : targets) {
+            sendAsync(target, msg).thenAccept(ok -> {
+                if (ok) {
+                    if (delivered.incrementAndGet() == needed) result.complete(true);
+                } else if (failed.incrementAndGet() == tolerated + 1) {
+                    result.complete(false);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Releases the transport's sockets. Queued messages may be lost.
+     */
+    void closeAll();
+
+    /**
+     * Registers the transport's counters and queue depths with a member's metrics. Transports
+     * that keep none register nothing.
+     *
+     * @param metrics the member's metrics
+     */
+    default void registerMetrics(Metrics metrics) {
+    }
+}
@@ -0,0 +1,700 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sends and receives Paxos messages as UDP datagrams from one long-lived {@link DatagramChannel}.
+ * <p>
+ * One I/O thread owns the channel. Senders only encode (with the {@link BinaryCodec}) and queue;
+ * the I/O thread packs whatever is queued for a peer into as few datagrams as possible, each up to
+ * the configured datagram size, built in pooled direct buffers. A message too large for one
+ * datagram (up to {@link WireProtocol#MAX_FRAME_BYTES}) is split into fragment datagrams of that
+ * size, each sequenced, acknowledged and retransmitted on its own; the receiver reassembles the
+ * message and hands it over once the last fragment is in. A message that lost a fragment the
+ * sender gave up on is discarded when the receiver skips past it.
+ * </p>
+ * <p>
+ * Every data datagram carries the sender's epoch (random per process) and a per-peer sequence
+ * number. The receiver acknowledges each one and drops duplicates, so retransmitted datagrams
+ * are handled once; a new epoch (the sender restarted) resets that state. Unacknowledged
+ * datagrams are re-sent with exponential backoff and given up after {@link #MAX_ATTEMPTS}. Each
+ * send also carries the lowest sequence number the sender still waits on, so the receiver
+ * stops tracking the ones below it, given up or not. As
+ * with {@link PeerConnectionManager}, a peer is then marked down and later datagrams get a single
+ * attempt until it acknowledges again. At most {@link #WINDOW} datagrams per peer are
+ * unacknowledged at once.
+ * </p>
+ * <p>
+ * Datagram layout (big-endian):
+ * <pre>
+ *   DATA: [byte 1][long epoch][long seq][long lowest unacked seq][short count]
+ *         then count x [int len][binary message]
+ *   ACK:  [byte 2][long epoch][short count] then count x [long seq]
+ *   FRAGMENT: [byte 3][long epoch][long seq][long lowest unacked seq][int index][int count]
+ *             [int message length][int offset] then the message bytes from offset
+ * </pre>
+ * Fragments of one message have consecutive sequence numbers, so fragment {@code index} of one
+ * sent as {@code seq} belongs to the message whose first fragment is {@code seq - index}.
+ * Received payloads are decoded straight out of the receive buffer on the I/O thread and each
+ * datagram's messages are handed to the handler as one task on the dispatch executor. A datagram
+ * the executor refuses (all its task slots busy) is neither acknowledged nor marked received, so
+ * the sender's retransmission delivers it later.
+ * </p>
+ */
+public class UdpTransport implements Transport {
+
+    //Default target size of a coalesced datagram (bytes).
+    public static final int DEFAULT_DATAGRAM_BYTES = 8192;
+
+    //Largest UDP payload.
+    private static final int MAX_DATAGRAM = 65507;
+
+    private static final byte DATA = 1;
+    private static final byte ACK = 2;
+    private static final byte FRAGMENT = 3;
+    private static final int DATA_HEADER = 1 + 8 + 8 + 8 + 2;
+    private static final int FRAGMENT_HEADER = 1 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+    //Offset of the lowest unacknowledged sequence number, rewritten on every send.
+    private static final int LOW_OFFSET = 1 + 8 + 8;
+    private static final int ACK_HEADER = 1 + 8 + 2;
+
+    //Most unacknowledged datagrams per peer.
+    static final int WINDOW = 256;
+
+    //Sends of one datagram before it is given up.
+    static final int MAX_ATTEMPTS = 8;
+
+    //First retransmit delay, doubled per attempt up to the cap.
+    private static final long RETRANSMIT_MS = 50;
+    private static final long MAX_RETRANSMIT_MS = 800;
+
+    //Most messages waiting to be packed for one peer; the oldest is dropped beyond it.
+    private static final int MAX_QUEUED = 4096;
+
+    //Free direct buffers kept for reuse.
+    private static final int POOL_SIZE = 1024;
+
+    private final String memberId;
+    private final BinaryCodec codec;
+    private final int datagramBytes;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, Peer> peersByAddress = new ConcurrentHashMap<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile boolean closed;
+
+    //I/O thread state
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final Map<SocketAddress, Inbound> inbound = new HashMap<>();
+    private byte[] scratch = new byte[1024];
+    private Consumer<Message> handler;
+    private Executor dispatch;
+
+    //Counters
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong retransmits = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Binds the member's UDP port (the port number from {@code network.config}).
+     *
+     * @param memberId      ID of the local member
+     * @param config        network configuration used to resolve peer addresses
+     * @param datagramBytes target size of a coalesced datagram
+     * @throws IOException if the port cannot be bound
+     */
+    public UdpTransport(String memberId, NetworkConfig config, int datagramBytes) throws IOException {
+        this(memberId, config, config.getPort(memberId), datagramBytes);
+    }
+
+    /**
+     * Binds the given UDP port.
+     *
+     * @param memberId      ID of the local member
+     * @param config        network configuration used to resolve peer addresses
+     * @param port          local UDP port
+     * @param datagramBytes target size of a coalesced datagram
+     * @throws IOException if the port cannot be bound
+     */
+    public UdpTransport(String memberId, NetworkConfig config, int port, int datagramBytes) throws IOException {
+        this.memberId = memberId;
+        this.codec = new BinaryCodec(config);
+        this.datagramBytes = Math.max(DATA_HEADER + 64, Math.min(datagramBytes, MAX_DATAGRAM));
+        for (String m : config.getAllMembers()) {
+            if (m.equals(memberId)) continue;
+            Peer p = new Peer(m, new InetSocketAddress(config.getHost(m), config.getPort(m)));
+            peers.put(m, p);
+            peersByAddress.put(p.address, p);
+        }
+        this.channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 << 20);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Starts the I/O thread.
+     *
+     * @param handler  receives every inbound message
+     * @param dispatch runs the handler, one task per received datagram; called on the I/O thread,
+     *                 so it must not block, and throws {@link RejectedExecutionException} to refuse
+     *                 a task
+     */
+    public void start(Consumer<Message> handler, Executor dispatch) {
+        this.handler = handler;
+        this.dispatch = dispatch;
+        Thread t = new Thread(this::run, memberId + "-udp");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return the bound local port
+     */
+    public int localPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendAsync(String targetMember, Message msg) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Peer peer = peers.get(targetMember);
+        byte[] payload = codec.encode(msg);
+        if (peer == null || closed || payload.length > WireProtocol.MAX_FRAME_BYTES) {
+            if (peer != null && !closed) {
+                System.err.printf("[%s] Message of %d bytes too large to send to %s%n",
+                        memberId, payload.length, targetMember);
+            }
+            done.complete(false);
+            return done;
+        }
+        peer.outbox.add(new Outgoing(payload, done));
+        if (peer.queued.incrementAndGet() > MAX_QUEUED) {
+            Outgoing dropped = peer.outbox.poll();
+            if (dropped != null) {
+                peer.queued.decrementAndGet();
+                dropped.done.complete(false);
+            }
+        }
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return done;
+    }
+
+    @Override
+    public void closeAll() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("paxos_udp_datagrams_sent_total", "Datagrams sent, retransmissions included", datagramsSent::get);
+        metrics.counter("paxos_udp_messages_sent_total", "Messages sent in datagrams", messagesSent::get);
+        metrics.counter("paxos_udp_retransmits_total", "Datagrams retransmitted for lack of an acknowledgement", retransmits::get);
+        metrics.counter("paxos_udp_duplicates_total", "Duplicate datagrams received and discarded", duplicates::get);
+        metrics.counter("paxos_udp_refused_total", "Datagrams left unacknowledged because every handler task slot was busy",
+                refused::get);
+    }
+
+    /**
+     * @return one-line summary of the transport counters
+     */
+    public String stats() {
+        long d = datagramsSent.get();
+        return String.format("udp: datagrams=%d messages=%d (%.1f per datagram) retransmits=%d duplicates=%d refused=%d",
+                d, messagesSent.get(), d == 0 ? 0.0 : (double) messagesSent.get() / d, retransmits.get(),
+                duplicates.get(), refused.get());
+    }
+
+    // -----------------------------
+    // I/O thread
+    // -----------------------------
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(nextTimeoutMs());
+                wakeupPending.set(false);
+                selector.selectedKeys().clear();
+                receiveAll();
+                long now = System.currentTimeMillis();
+                for (Peer p : peers.values()) {
+                    retransmitDue(p, now);
+                    flush(p, now);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!closed) System.err.printf("[%s] UDP transport stopped: %s%n", memberId, e.getMessage());
+        } finally {
+            try { selector.close(); } catch (IOException ignored) {}
+            try { channel.close(); } catch (IOException ignored) {}
+            for (Peer p : peers.values()) p.failAll();
+        }
+    }
+
+    /**
+     * Returns how long the selector may sleep: until the earliest retransmit is due.
+     */
+    private long nextTimeoutMs() {
+        long due = Long.MAX_VALUE;
+        for (Peer p : peers.values()) {
+            for (Flight f : p.unacked.values()) {
+                due = Math.min(due, f.dueAt);
+            }
+        }
+        if (due == Long.MAX_VALUE) return 0; // no timeout: wait for a wakeup or a datagram
+        return Math.max(1, due - System.currentTimeMillis());
+    }
+
+    private void receiveAll() throws IOException {
+        Map<SocketAddress, Acks> acks = new HashMap<>();
+        SocketAddress from;
+        while (true) {
+            receiveBuffer.clear();
+            from = channel.receive(receiveBuffer);
+            if (from == null) break;
+            receiveBuffer.flip();
+            try {
+                onDatagram(from, receiveBuffer, acks);
+            } catch (RuntimeException e) {
+                System.err.printf("[%s] Dropping malformed datagram from %s: %s%n", memberId, from, e.getMessage());
+            }
+        }
+        for (Map.Entry<SocketAddress, Acks> e : acks.entrySet()) {
+            sendAcks(e.getKey(), e.getValue());
+        }
+    }
+
+    private void onDatagram(SocketAddress from, ByteBuffer buf, Map<SocketAddress, Acks> acks) throws IOException {
+        byte kind = buf.get();
+        long senderEpoch = buf.getLong();
+        if (kind == ACK) {
+            Peer p = peersByAddress.get(from);
+            if (p == null || senderEpoch != epoch) return;
+            int n = buf.getShort() & 0xFFFF;
+            for (int i = 0; i < n; i++) {
+                Flight f = p.unacked.remove(buf.getLong());
+                if (f != null) {
+                    p.down = false;
+                    f.complete(true);
+                    release(f.buffer);
+                }
+            }
+            return;
+        }
+        if (kind != DATA && kind != FRAGMENT) return;
+
+        long seq = buf.getLong();
+        long low = buf.getLong();
+        Inbound in = inbound.get(from);
+        if (in == null || in.epoch != senderEpoch) {
+            in = new Inbound(senderEpoch);
+            inbound.put(from, in);
+        }
+        in.raiseFloor(low);
+        if (in.received(seq)) {
+            duplicates.incrementAndGet();
+            ack(from, senderEpoch, seq, acks);
+            return;
+        }
+
+        if (kind == FRAGMENT) {
+            if (!onFragment(in, seq, buf)) return;
+        } else {
+            int count = buf.getShort() & 0xFFFF;
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int len = buf.getInt();
+                if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+                buf.get(scratch, 0, len);
+                messages.add(codec.decode(scratch, 0, len));
+            }
+            if (!deliver(messages)) return;
+        }
+        in.markReceived(seq);
+        ack(from, senderEpoch, seq, acks);
+    }
+
+    /**
+     * Stores a fragment, and hands its message over if this was the last one missing.
+     *
+     * @return false if the message was complete but refused, so the fragment must not be acknowledged
+     */
+    private boolean onFragment(Inbound in, long seq, ByteBuffer buf) {
+        int index = buf.getInt();
+        int count = buf.getInt();
+        int total = buf.getInt();
+        int offset = buf.getInt();
+        if (index < 0 || index >= count || total > WireProtocol.MAX_FRAME_BYTES || offset < 0
+                || offset > total - buf.remaining()) {
+            throw new IllegalArgumentException("bad fragment " + index + "/" + count + " at " + offset + " of " + total);
+        }
+        long first = seq - index;
+        Partial part = in.partials.computeIfAbsent(first, k -> new Partial(first, count, total));
+        if (part.count != count || part.bytes.length != total) {
+            throw new IllegalArgumentException("fragment " + index + " does not match message " + first);
+        }
+        buf.get(part.bytes, offset, buf.remaining());
+        if (part.have.cardinality() + 1 < count) {
+            part.have.set(index);
+            return true;
+        }
+        // Copying again on a retransmission is harmless: the bytes are the same.
+        if (!deliver(List.of(codec.decode(part.bytes, 0, total)))) return false;
+        in.partials.remove(first);
+        return true;
+    }
+
+    /**
+     * Hands one datagram's messages to the handler as one task.
+     *
+     * @return false if the executor refused it
+     */
+    private boolean deliver(List<Message> messages) {
+        try {
+            dispatch.execute(() -> {
+                for (Message m : messages) handler.accept(m);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            refused.incrementAndGet(); // not acknowledged: the sender retransmits it
+            return false;
+        }
+    }
+
+    /**
+     * Adds a sequence number to the acknowledgements batched for a sender.
+     */
+    private void ack(SocketAddress from, long senderEpoch, long seq, Map<SocketAddress, Acks> acks) throws IOException {
+        Acks pending = acks.get(from);
+        if (pending != null && pending.epoch != senderEpoch) {
+            sendAcks(from, pending); // the sender restarted mid-batch; settle the old epoch first
+            pending = null;
+        }
+        if (pending == null) {
+            pending = new Acks(senderEpoch);
+            acks.put(from, pending);
+        }
+        pending.seqs.add(seq);
+    }
+
+    private void sendAcks(SocketAddress to, Acks acks) throws IOException {
+        List<Long> seqs = acks.seqs;
+        int perDatagram = (datagramBytes - ACK_HEADER) / 8;
+        for (int start = 0; start < seqs.size(); start += perDatagram) {
+            int end = Math.min(seqs.size(), start + perDatagram);
+            ByteBuffer b = acquire();
+            b.put(ACK).putLong(acks.epoch).putShort((short) (end - start));
+            for (int i = start; i < end; i++) b.putLong(seqs.get(i));
+            b.flip();
+            channel.send(b, to);
+            release(b);
+        }
+    }
+
+    /**
+     * Packs queued messages for a peer into datagrams, or sends the next fragment of a message too
+     * large for one, while its window has room.
+     */
+    private void flush(Peer p, long now) throws IOException {
+        while (p.unacked.size() < WINDOW) {
+            if (p.split != null) {
+                sendFragment(p, now);
+                continue;
+            }
+            Outgoing first = p.next();
+            if (first == null) return;
+            if (DATA_HEADER + 4 + first.payload.length > datagramBytes) {
+                p.split = new Split(first, datagramBytes - FRAGMENT_HEADER);
+                continue;
+            }
+
+            ByteBuffer b = acquire();
+            long seq = p.nextSeq++;
+            b.put(DATA).putLong(epoch).putLong(seq).putLong(seq).putShort((short) 0);
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            Outgoing o = first;
+            do {
+                b.putInt(o.payload.length).put(o.payload);
+                futures.add(o.done);
+                o = p.next();
+            } while (o != null && futures.size() < 0xFFFF && b.position() + 4 + o.payload.length <= b.capacity());
+            p.carry = o;
+            b.putShort(DATA_HEADER - 2, (short) futures.size());
+            b.flip();
+
+            Flight f = new Flight(b, futures, p.down ? MAX_ATTEMPTS - 1 : 0, now);
+            p.unacked.put(seq, f);
+            send(f, p);
+            messagesSent.addAndGet(futures.size());
+        }
+    }
+
+    private void sendFragment(Peer p, long now) throws IOException {
+        Split split = p.split;
+        int index = split.next++;
+        int offset = index * split.chunk;
+        int len = Math.min(split.chunk, split.payload.length - offset);
+        ByteBuffer b = acquire();
+        long seq = p.nextSeq++;
+        b.put(FRAGMENT).putLong(epoch).putLong(seq).putLong(seq).putInt(index).putInt(split.parts.size())
+                .putInt(split.payload.length).putInt(offset).put(split.payload, offset, len);
+        b.flip();
+
+        Flight f = new Flight(b, List.of(split.parts.get(index)), p.down ? MAX_ATTEMPTS - 1 : 0, now);
+        p.unacked.put(seq, f);
+        send(f, p);
+        if (split.next == split.parts.size()) {
+            p.split = null;
+            messagesSent.incrementAndGet();
+        }
+    }
+
+    private void retransmitDue(Peer p, long now) throws IOException {
+        Iterator<Flight> it = p.unacked.values().iterator();
+        while (it.hasNext()) {
+            Flight f = it.next();
+            if (f.dueAt > now) continue;
+            if (f.attempts >= MAX_ATTEMPTS) {
+                it.remove();
+                if (!p.down) {
+                    System.err.printf("[%s] No acknowledgement from %s after %d sends%n", memberId, p.member, f.attempts);
+                }
+                p.down = true;
+                f.complete(false);
+                release(f.buffer);
+                continue;
+            }
+            retransmits.incrementAndGet();
+            send(f, p);
+        }
+    }
+
+    private void send(Flight f, Peer p) throws IOException {
+        // f is in unacked, which is in sequence order.
+        f.buffer.putLong(LOW_OFFSET, p.unacked.keySet().iterator().next());
+        ByteBuffer b = f.buffer.duplicate();
+        channel.send(b, p.address); // a full socket buffer drops the datagram; the retransmit covers it
+        datagramsSent.incrementAndGet();
+        f.attempts++;
+        f.dueAt = System.currentTimeMillis()
+                + Math.min(MAX_RETRANSMIT_MS, RETRANSMIT_MS << Math.min(f.attempts - 1, 16));
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer b = pool.poll();
+        if (b == null) b = ByteBuffer.allocateDirect(datagramBytes);
+        b.clear();
+        return b;
+    }
+
+    private void release(ByteBuffer b) {
+        if (b.capacity() == datagramBytes && pool.size() < POOL_SIZE) pool.push(b);
+    }
+
+    /**
+     * Send state of one peer. The outbox is filled by any thread; the rest belongs to the I/O thread.
+     */
+    private static final class Peer {
+        final String member;
+        final InetSocketAddress address;
+        final ConcurrentLinkedQueue<Outgoing> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        final LinkedHashMap<Long, Flight> unacked = new LinkedHashMap<>();
+        long nextSeq;
+        boolean down;
+        //Taken from the outbox but did not fit the previous datagram
+        Outgoing carry;
+        //Message being sent in fragments
+        Split split;
+
+        Peer(String member, InetSocketAddress address) {
+            this.member = member;
+            this.address = address;
+        }
+
+        Outgoing next() {
+            Outgoing o = carry;
+            if (o != null) {
+                carry = null;
+                return o;
+            }
+            o = outbox.poll();
+            if (o != null) queued.decrementAndGet();
+            return o;
+        }
+
+        void failAll() {
+            for (Flight f : unacked.values()) f.complete(false);
+            unacked.clear();
+            if (split != null) {
+                for (CompletableFuture<Boolean> part : split.parts) part.complete(false);
+                split = null;
+            }
+            Outgoing o;
+            while ((o = next()) != null) o.done.complete(false);
+        }
+    }
+
+    /**
+     * An encoded message waiting to be packed.
+     */
+    private static final class Outgoing {
+        final byte[] payload;
+        final CompletableFuture<Boolean> done;
+
+        Outgoing(byte[] payload, CompletableFuture<Boolean> done) {
+            this.payload = payload;
+            this.done = done;
+        }
+    }
+
+    /**
+     * A message sent in fragments of {@code chunk} bytes; it is delivered once every fragment is.
+     */
+    private static final class Split {
+        final byte[] payload;
+        final int chunk;
+        final List<CompletableFuture<Boolean>> parts;
+        //Index of the next fragment to send
+        int next;
+
+        Split(Outgoing o, int chunk) {
+            this.payload = o.payload;
+            this.chunk = chunk;
+            int count = (payload.length + chunk - 1) / chunk;
+            this.parts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) parts.add(new CompletableFuture<>());
+            CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> o.done.complete(parts.stream().allMatch(CompletableFuture::join)));
+        }
+    }
+
+    /**
+     * A sent, not yet acknowledged datagram.
+     */
+    private static final class Flight {
+        final ByteBuffer buffer;
+        final List<CompletableFuture<Boolean>> futures;
+        int attempts;
+        long dueAt;
+
+        Flight(ByteBuffer buffer, List<CompletableFuture<Boolean>> futures, int attempts, long dueAt) {
+            this.buffer = buffer;
+            this.futures = futures;
+            this.attempts = attempts;
+            this.dueAt = dueAt;
+        }
+
+        void complete(boolean ok) {
+            for (CompletableFuture<Boolean> f : futures) f.complete(ok);
+        }
+    }
+
+    /**
+     * Sequence numbers received from one sender epoch in this pass, acknowledged together.
+     */
+    private static final class Acks {
+        final long epoch;
+        final List<Long> seqs = new ArrayList<>();
+
+        Acks(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Fragments received so far of one message, keyed by the sequence number of its first.
+     */
+    private static final class Partial {
+        final long first;
+        final int count;
+        final byte[] bytes;
+        final BitSet have = new BitSet();
+
+        Partial(long first, int count, int total) {
+            this.first = first;
+            this.count = count;
+            this.bytes = new byte[total];
+        }
+    }
+
+    /**
+     * Duplicate filter for datagrams from one sender epoch: every sequence number below
+     * {@code floor} has been seen or given up by the sender, plus the ones in {@code above}.
+     * Also holds the messages whose fragments are still arriving.
+     */
+    private static final class Inbound {
+        final long epoch;
+        long floor;
+        final Set<Long> above = new HashSet<>();
+        final Map<Long, Partial> partials = new HashMap<>();
+
+        Inbound(long epoch) {
+            this.epoch = epoch;
+        }
+
+        boolean received(long seq) {
+            return seq < floor || above.contains(seq);
+        }
+
+        void markReceived(long seq) {
+            above.add(seq);
+            while (above.remove(floor)) floor++;
+        }
+
+        /**
+         * Skips the sequence numbers below the sender's lowest unacknowledged one: it no longer
+         * retransmits them, so a gap there would hold {@code floor} back for good.
+         */
+        void raiseFloor(long low) {
+            if (low <= floor) return;
+            floor = low;
+            above.removeIf(s -> s < low);
+            while (above.remove(floor)) floor++;
+            // A message missing a fragment below the floor can no longer complete.
+            partials.values().removeIf(part -> {
+                int missing = part.have.nextClearBit(0);
+                return missing < part.count && part.first + missing < floor;
+            });
+        }
+    }
+}
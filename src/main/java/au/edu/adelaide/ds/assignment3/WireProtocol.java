@@ -0,0 +1,247 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Connection-level framing and codec negotiation shared by every TCP transport.
+ * <p>
+ * A connection that wants a codec other than JSON opens with a two-byte preamble
+ * {@code [PREAMBLE, codecId]}; the receiver answers with a single byte naming the codec it will
+ * decode (its own JSON codec if the offer is unknown). Connections without a preamble, such as
+ * those from {@link ProposerClient} or members predating codec negotiation, speak
+ * newline-delimited JSON. If no answer arrives within {@link #HANDSHAKE_TIMEOUT_MS}, the sender
+ * assumes an older peer and falls back to JSON.
+ * </p>
+ * <p>
+ * Frames are newline-terminated for line-delimited codecs and varint length-prefixed otherwise.
+ * </p>
+ */
+public class WireProtocol {
+
+    //First byte of a negotiating connection; can never start a JSON line.
+    static final int PREAMBLE = 0xC0;
+
+    //How long a sender waits for the receiver's codec answer.
+    static final int HANDSHAKE_TIMEOUT_MS = 500;
+
+    //Upper bound on a single frame payload.
+    static final int MAX_FRAME_BYTES = 1 << 20;
+
+    private final JsonCodec json = new JsonCodec();
+    private final BinaryCodec binary;
+
+    /**
+     * Creates the protocol with the codecs supported by this build.
+     *
+     * @param config network configuration used by codecs that intern member IDs
+     */
+    public WireProtocol(NetworkConfig config) {
+        this.binary = new BinaryCodec(config);
+    }
+
+    /**
+     * Returns the always-available JSON codec.
+     *
+     * @return the JSON codec
+     */
+    public JsonCodec json() {
+        return json;
+    }
+
+    /**
+     * Looks up a codec by its negotiation ID.
+     *
+     * @param id codec ID
+     * @return the codec, or {@code null} if unsupported
+     */
+    public MessageCodec byId(int id) {
+        if (id == JsonCodec.ID) return json;
+        if (id == BinaryCodec.ID) return binary;
+        return null;
+    }
+
+    /**
+     * Looks up a codec by name, as given on the command line.
+     *
+     * @param name codec name ({@code json} or {@code binary})
+     * @return the codec
+     * @throws IllegalArgumentException if no codec has that name
+     */
+    public MessageCodec byName(String name) {
+        if (json.name().equalsIgnoreCase(name)) return json;
+        if (binary.name().equalsIgnoreCase(name)) return binary;
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    // -----------------------------
+    // Negotiation
+    // -----------------------------
+    /**
+     * Sender side: offers {@code preferred} on a freshly connected socket and returns the codec the
+     * receiver agreed to.
+     *
+     * @param socket    the connected socket
+     * @param out       the socket's (buffered) output stream
+     * @param preferred the codec this node would like to use
+     * @return the negotiated codec
+     * @throws IOException if the receiver closes the connection or does not answer in time
+     */
+    public MessageCodec offer(Socket socket, OutputStream out, MessageCodec preferred) throws IOException {
+        if (preferred.lineDelimited() && preferred.id() == JsonCodec.ID) {
+            return json; // legacy format needs no preamble
+        }
+        out.write(PREAMBLE);
+        out.write(preferred.id());
+        out.flush();
+
+        int previousTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            int answer = socket.getInputStream().read();
+            if (answer < 0) {
+                throw new EOFException("peer closed during codec negotiation");
+            }
+            MessageCodec agreed = byId(answer);
+            return agreed != null ? agreed : json;
+        } catch (SocketTimeoutException e) {
+            throw new SocketTimeoutException("no codec answer within " + HANDSHAKE_TIMEOUT_MS + " ms");
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+    }
+
+    /**
+     * Receiver side: inspects the first byte of a new connection and, if it is a codec offer,
+     * answers it.
+     *
+     * @param in  the connection's input stream (must support mark/reset)
+     * @param out the connection's output stream
+     * @return the codec to decode this connection with, or {@code null} if it closed immediately
+     * @throws IOException on I/O failure
+     */
+    public MessageCodec accept(BufferedInputStream in, OutputStream out) throws IOException {
+        in.mark(1);
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        if (first != PREAMBLE) {
+            in.reset();
+            return json;
+        }
+        int offered = in.read();
+        MessageCodec codec = offered < 0 ? null : byId(offered);
+        if (codec == null) {
+            codec = json;
+        }
+        out.write(codec.id());
+        out.flush();
+        return codec;
+    }
+
+    // -----------------------------
+    // Framing
+    // -----------------------------
+    /**
+     * Writes one framed payload.
+     *
+     * @param out     destination stream (not flushed)
+     * @param codec   the codec that produced {@code payload}
+     * @param payload encoded message
+     * @throws IOException on I/O failure
+     */
+    public void writeFrame(OutputStream out, MessageCodec codec, byte[] payload) throws IOException {
+        if (codec.lineDelimited()) {
+            out.write(payload);
+            out.write('\n');
+        } else {
+            byte[] header = new byte[5];
+            int n = BinaryCodec.writeVarint(header, 0, payload.length);
+            out.write(header, 0, n);
+            out.write(payload);
+        }
+    }
+
+    /**
+     * Reads frames from a blocking stream. One instance per connection; reuses its buffer.
+     */
+    public static final class FrameReader {
+        private final InputStream in;
+        private final MessageCodec codec;
+        private byte[] buf = new byte[256];
+
+        /**
+         * @param in    the connection's input stream, positioned after negotiation
+         * @param codec the negotiated codec
+         */
+        public FrameReader(InputStream in, MessageCodec codec) {
+            this.in = in;
+            this.codec = codec;
+        }
+
+        /**
+         * Reads and decodes the next message.
+         *
+         * @return the next message, or {@code null} at end of stream
+         * @throws IOException on I/O failure or an oversized frame
+         */
+        public Message next() throws IOException {
+            while (true) {
+                int len = codec.lineDelimited() ? readLine() : readLengthPrefixed();
+                if (len < 0) return null;
+                if (len == 0) continue; // blank line
+                return codec.decode(buf, 0, len);
+            }
+        }
+
+        private int readLine() throws IOException {
+            int len = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) return len == 0 ? -1 : len;
+                ensure(len + 1);
+                buf[len++] = (byte) b;
+            }
+            if (len > 0 && buf[len - 1] == '\r') len--;
+            return len;
+        }
+
+        private int readLengthPrefixed() throws IOException {
+            long len = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    if (shift == 0) return -1;
+                    throw new EOFException("truncated frame header");
+                }
+                len |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                if (shift > 28) throw new IOException("frame header too long");
+            }
+            ensure((int) Math.min(len, Integer.MAX_VALUE));
+            int read = 0;
+            while (read < len) {
+                int n = in.read(buf, read, (int) len - read);
+                if (n < 0) throw new EOFException("truncated frame");
+                read += n;
+            }
+            return (int) len;
+        }
+
+        private void ensure(int size) throws IOException {
+            if (size > MAX_FRAME_BYTES) {
+                throw new IOException("frame exceeds " + MAX_FRAME_BYTES + " bytes");
+            }
+            if (size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(size, buf.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable, append-only log of acceptor (and proposer ballot) state.
+ * <p>
+ * Each record is {@code [length:int][crc32c:int][payload]}. Callers append a record and get a
+ * sequence number back, then {@link #awaitDurable(long) wait} for it outside any lock before
+ * replying to the proposer. A single writer thread drains everything appended since its last
+ * flush, writes it in one go and issues one {@code fsync} for the whole batch (group commit), so
+ * concurrent PREPARE/ACCEPT_REQUESTs share a disk flush instead of queueing for one each.
+ * </p>
+ * <p>
+ * On startup the log is replayed up to the first torn or corrupt record, and the tail is cut off.
+ * Once the file outgrows {@link #COMPACT_BYTES}, the writer rewrites it from an in-memory mirror
+ * of the live state (promise, own ballot, highest accepted entry of each undecided slot).
+ * </p>
+ */
+public class WriteAheadLog {
+
+    private static final byte REC_PROMISE = 1;
+    private static final byte REC_ACCEPT = 2;
+    private static final byte REC_ROUND = 3;
+
+    private static final int HEADER_BYTES = 8;
+
+    //Log size that triggers a rewrite from the live state.
+    static final long COMPACT_BYTES = 64L << 20;
+
+    private final Path file;
+    private final NodeLogger logger;
+    private final long compactBytes;
+    private final Thread writer;
+    private FileChannel channel;
+
+    //Guarded by "this": records waiting for the writer, and sequence bookkeeping.
+    private List<byte[]> queue = new ArrayList<>();
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+    private IOException failure;
+    private boolean closed;
+
+    //Mirror of live state, used for compaction. Touched only under "this".
+    private final State mirror;
+
+    /**
+     * Live acceptor state as reconstructed from the log.
+     */
+    public static final class State {
+        long promisedN = Ballot.NONE;
+        long lastOwnBallot = Ballot.NONE;
+        final Map<Long, Message.Entry> accepted = new HashMap<>();
+
+        /**
+         * @return the highest ballot promised
+         */
+        public long getPromisedN() {
+            return promisedN;
+        }
+
+        /**
+         * @return the highest ballot this member used as a proposer
+         */
+        public long getLastOwnBallot() {
+            return lastOwnBallot;
+        }
+
+        /**
+         * @return the highest-ballot accepted entry per slot
+         */
+        public Map<Long, Message.Entry> getAccepted() {
+            return accepted;
+        }
+    }
+
+    /**
+     * Opens (creating if necessary) {@code acceptor.wal} in the given directory, replays it and
+     * starts the writer thread.
+     *
+     * @param logger member logger
+     * @param dir    directory holding this member's log
+     * @throws IOException if the log cannot be read or opened for append
+     */
+    WriteAheadLog(NodeLogger logger, Path dir) throws IOException {
+        this(logger, dir, COMPACT_BYTES);
+    }
+
+    /**
+     * Opens the log with a given compaction threshold (small ones exercise compaction, see
+     * {@link WriteAheadLogCheck}).
+     *
+     * @param logger       member logger
+     * @param dir          directory holding this member's log
+     * @param compactBytes log size that triggers a rewrite from the live state
+     * @throws IOException if the log cannot be read or opened for append
+     */
+    WriteAheadLog(NodeLogger logger, Path dir, long compactBytes) throws IOException {
+        Files.createDirectories(dir);
+        this.file = dir.resolve("acceptor.wal");
+        this.logger = logger;
+        this.compactBytes = compactBytes;
+        this.mirror = replay(file);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+
+        writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the state recovered at startup (and kept current since).
+     *
+     * @return the live state mirror; callers must not modify it
+     */
+    public synchronized State recovered() {
+        return mirror;
+    }
+
+    // -----------------------------
+    // Appending
+    // -----------------------------
+    /**
+     * Appends a promise record.
+     *
+     * @param ballot the promised ballot
+     * @return the sequence number to wait for
+     */
+    public long appendPromise(long ballot) {
+        return append(encode(REC_PROMISE, ballot, 0, null), () -> mirror.promisedN = Math.max(mirror.promisedN, ballot));
+    }
+
+    /**
+     * Appends an accept record (which also implies a promise of the same ballot).
+     *
+     * @param slot   log slot
+     * @param ballot accepted ballot
+     * @param value  accepted value
+     * @return the sequence number to wait for
+     */
+    public long appendAccept(long slot, long ballot, String value) {
+        return append(encode(REC_ACCEPT, ballot, slot, value), () -> {
+            mirror.promisedN = Math.max(mirror.promisedN, ballot);
+            // Racing accepts of one slot can be appended in either ballot order; keep the highest, as replay does.
+            mirror.accepted.merge(slot, new Message.Entry(slot, ballot, value),
+                    (prev, next) -> next.getBallot() >= prev.getBallot() ? next : prev);
+        });
+    }
+
+    /**
+     * Appends the ballot this member is about to use as a proposer, so a restart never reuses it.
+     *
+     * @param ballot the new own ballot
+     * @return the sequence number to wait for
+     */
+    public long appendRound(long ballot) {
+        return append(encode(REC_ROUND, ballot, 0, null), () -> mirror.lastOwnBallot = Math.max(mirror.lastOwnBallot, ballot));
+    }
+
+    /**
+     * Drops a decided slot from the compaction mirror. Not logged: replaying a stale accepted
+     * entry after a crash is harmless.
+     *
+     * @param slot the decided slot
+     */
+    public synchronized void forget(long slot) {
+        mirror.accepted.remove(slot);
+    }
+
+    /**
+     * Blocks until every record up to {@code seq} has been fsynced.
+     *
+     * @param seq sequence number returned by an append
+     * @throws UncheckedIOException if the log can no longer be written
+     */
+    public synchronized void awaitDurable(long seq) {
+        boolean interrupted = false;
+        while (durableSeq < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (durableSeq < seq) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * Writes the records appended so far (and any compaction they trigger), then stops the
+     * writer and closes the file. Nothing may be appended afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private synchronized long append(byte[] record, Runnable applyToMirror) {
+        applyToMirror.run();
+        queue.add(record);
+        appendedSeq++;
+        notifyAll();
+        return appendedSeq;
+    }
+
+    // -----------------------------
+    // Writer thread (group commit)
+    // -----------------------------
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long batchSeq;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    if (closed) return;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = queue;
+                batchSeq = appendedSeq;
+                queue = new ArrayList<>();
+            }
+            try {
+                int total = 0;
+                for (byte[] r : batch) total += r.length;
+                ByteBuffer buf = ByteBuffer.allocate(total);
+                for (byte[] r : batch) buf.put(r);
+                buf.flip();
+                while (buf.hasRemaining()) channel.write(buf);
+                channel.force(false);
+                synchronized (this) {
+                    durableSeq = batchSeq;
+                    notifyAll();
+                }
+                if (channel.size() > compactBytes) {
+                    compact();
+                }
+            } catch (IOException e) {
+                logger.warn("[WAL] Write-ahead log failure: %s", e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log as a minimal set of records describing the live state, then atomically
+     * replaces the old file and flushes the directory entry. Runs on the writer thread, so no appends are written meanwhile;
+     * records queued during compaction are written to the new file afterwards.
+     */
+    private void compact() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        synchronized (this) {
+            // Everything applied to the mirror so far is durable, or still queued and written after.
+            if (mirror.lastOwnBallot != Ballot.NONE) records.add(encode(REC_ROUND, mirror.lastOwnBallot, 0, null));
+            if (mirror.promisedN != Ballot.NONE) records.add(encode(REC_PROMISE, mirror.promisedN, 0, null));
+            for (Message.Entry e : mirror.accepted.values()) {
+                records.add(encode(REC_ACCEPT, e.getBallot(), e.getSlot(), e.getValue()));
+            }
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] r : records) {
+                ByteBuffer buf = ByteBuffer.wrap(r);
+                while (buf.hasRemaining()) out.write(buf);
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename lives in the directory; until that is flushed a crash can bring back the old file.
+        try (FileChannel parent = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            parent.force(true);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // -----------------------------
+    // Encoding / replay
+    // -----------------------------
+    private static byte[] encode(byte type, long ballot, long slot, String value) {
+        byte[] v = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 8 + 8 + 4 + (v == null ? 0 : v.length);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + payload);
+        buf.putInt(payload);
+        buf.putInt(0); // crc placeholder
+        buf.put(type).putLong(ballot).putLong(slot);
+        if (v == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(v.length).put(v);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), HEADER_BYTES, payload);
+        buf.putInt(4, (int) crc.getValue());
+        return buf.array();
+    }
+
+    private State replay(Path file) throws IOException {
+        State state = new State();
+        if (!Files.exists(file)) return state;
+
+        long valid = 0;
+        int records = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (valid + HEADER_BYTES <= size) {
+                header.clear();
+                ch.read(header, valid);
+                header.flip();
+                int len = header.getInt();
+                int crc = header.getInt();
+                if (len < 21 || valid + HEADER_BYTES + len > size) break;
+                ByteBuffer payload = ByteBuffer.allocate(len);
+                ch.read(payload, valid + HEADER_BYTES);
+                CRC32C check = new CRC32C();
+                check.update(payload.array(), 0, len);
+                if ((int) check.getValue() != crc) break;
+
+                payload.flip();
+                byte type = payload.get();
+                long ballot = payload.getLong();
+                long slot = payload.getLong();
+                int vlen = payload.getInt();
+                String value = null;
+                if (vlen >= 0) {
+                    if (vlen > payload.remaining()) break;
+                    value = new String(payload.array(), payload.position(), vlen, StandardCharsets.UTF_8);
+                }
+                switch (type) {
+                    case REC_PROMISE:
+                        state.promisedN = Math.max(state.promisedN, ballot);
+                        break;
+                    case REC_ACCEPT:
+                        state.promisedN = Math.max(state.promisedN, ballot);
+                        Message.Entry prev = state.accepted.get(slot);
+                        if (prev == null || ballot >= prev.getBallot()) {
+                            state.accepted.put(slot, new Message.Entry(slot, ballot, value));
+                        }
+                        break;
+                    case REC_ROUND:
+                        state.lastOwnBallot = Math.max(state.lastOwnBallot, ballot);
+                        break;
+                    default:
+                        break;
+                }
+                valid += HEADER_BYTES + len;
+                records++;
+            }
+            if (valid < size) {
+                logger.warn("[WAL] %s: discarding %d bytes after last valid record", file, size - valid);
+            }
+        }
+        if (valid < Files.size(file)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+                ch.force(true);
+            }
+        }
+        logger.log("[WAL] %s: replayed %d records", file, records);
+        return state;
+    }
+}
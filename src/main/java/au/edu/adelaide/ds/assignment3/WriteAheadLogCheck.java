@@ -0,0 +1,191 @@
+package au.edu.adelaide.ds.assignment3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Concurrency, replay and compaction check for the acceptor's {@link WriteAheadLog}.
+ * <p>
+ * Each round opens a log in a fresh directory with a compaction threshold of a few records, so
+ * the writer keeps rewriting it from its in-memory mirror, and has several threads send
+ * ACCEPT_REQUESTs for a handful of slots through an {@link Acceptor}, in bursts, as concurrent
+ * handler threads do. Ballots mostly rise but overlap between threads, so accepts of different
+ * ballots for one slot race each other. Every acceptance the acceptor acknowledged (after waiting
+ * for it to be durable) is recorded. After each burst the log's live state, which the next
+ * compaction writes out, and at the end the state replayed from the closed log must hold for
+ * every slot an entry at least as high as the highest acknowledged one, and a promise at least
+ * that high. An acceptor that recovered a lower entry would report a stale value in its PROMISEs.
+ * </p>
+ * <p>
+ * Usage: {@code java WriteAheadLogCheck [--rounds=N] [--threads=N] [--slots=N] [--accepts=N]
+ * [--seed=S]}; {@code --accepts} is per thread and burst. Exits with status 1 if a round fails.
+ * </p>
+ */
+public final class WriteAheadLogCheck {
+
+    //Compaction threshold: a few dozen records, so most rounds compact many times.
+    private static final long COMPACT_BYTES = 2 * 1024;
+
+    //Bursts of concurrent accepts per round; the live state is checked after each.
+    private static final int BURSTS = 10;
+
+    private WriteAheadLogCheck() {
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args see the class description
+     * @throws Exception if a log cannot be created or a check thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        int rounds = 200;
+        int threads = 4;
+        int slots = 4;
+        int accepts = 20;
+        long seed = 1;
+        for (String a : args) {
+            if (a.startsWith("--rounds=")) {
+                rounds = parsePositive(a.substring("--rounds=".length()), rounds);
+            } else if (a.startsWith("--threads=")) {
+                threads = parsePositive(a.substring("--threads=".length()), threads);
+            } else if (a.startsWith("--slots=")) {
+                slots = parsePositive(a.substring("--slots=".length()), slots);
+            } else if (a.startsWith("--accepts=")) {
+                accepts = parsePositive(a.substring("--accepts=".length()), accepts);
+            } else if (a.startsWith("--seed=")) {
+                try {
+                    seed = Long.parseLong(a.substring("--seed=".length()).trim());
+                } catch (NumberFormatException ignore) { /* keep default */ }
+            } else {
+                System.err.println("Usage: java WriteAheadLogCheck [--rounds=N] [--threads=N] [--slots=N]"
+                        + " [--accepts=N] [--seed=S]");
+                return;
+            }
+        }
+
+        NodeLogger.setLevel(NodeLogger.Level.WARN);
+        TimerService clock = new TimerService("wal-check-timers");
+        NodeLogger logger = new NodeLogger("wal-check", clock);
+        int failed = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            String problem = round(logger, clock, seed + r, threads, slots, accepts);
+            if (problem != null) {
+                failed++;
+                System.err.printf("[WAL] FAILED seed=%d: %s%n", seed + r, problem);
+            }
+        }
+        NodeLogger.flush();
+        System.err.printf("[WAL] %d rounds (%d bursts of %d threads x %d accepts on %d slots) in %.1fs, %d failed%n",
+                rounds, BURSTS, threads, accepts, slots, (System.nanoTime() - start) / 1e9, failed);
+        if (failed > 0) System.exit(1);
+    }
+
+    /**
+     * Runs one round.
+     *
+     * @return {@code null} if the replayed state covers every acknowledged acceptance, else what differs
+     */
+    private static String round(NodeLogger logger, TimerService clock, long seed, int threads, int slots,
+                                int accepts) throws Exception {
+        Path dir = Files.createTempDirectory("wal-check");
+        try {
+            WriteAheadLog wal = new WriteAheadLog(logger, dir, COMPACT_BYTES);
+            Acceptor acceptor = new Acceptor(wal, 0, logger, clock);
+            Map<Long, Long> acked = new ConcurrentHashMap<>();
+            AtomicLong round = new AtomicLong();
+            Random random = new Random(seed);
+            for (int burst = 0; burst < BURSTS; burst++) {
+                List<Thread> workers = new ArrayList<>();
+                List<Throwable> errors = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    Random own = new Random(random.nextLong());
+                    Thread worker = new Thread(() -> {
+                        for (int i = 0; i < accepts; i++) {
+                            long slot = own.nextInt(slots);
+                            // Ballots overlap across threads: each draws just above or below the shared round.
+                            long ballot = Math.max(1, round.incrementAndGet() / threads + own.nextInt(5) - 2);
+                            long seq = acceptor.accept(slot, ballot, value(slot, ballot), false);
+                            if (seq == Acceptor.REJECTED) continue;
+                            acceptor.awaitDurable(seq);
+                            acked.merge(slot, ballot, Math::max);
+                        }
+                    }, "wal-check-" + t);
+                    worker.setUncaughtExceptionHandler((th, e) -> {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    });
+                    workers.add(worker);
+                }
+                for (Thread w : workers) w.start();
+                for (Thread w : workers) w.join();
+                if (!errors.isEmpty()) return "acceptor thread failed: " + errors.get(0);
+                // What the next compaction would write from.
+                String problem = covers("live state", wal.recovered(), acked);
+                if (problem != null) {
+                    wal.close();
+                    return problem;
+                }
+            }
+            wal.close();
+            WriteAheadLog reopened = new WriteAheadLog(logger, dir, COMPACT_BYTES);
+            String problem = covers("replayed state", reopened.recovered(), acked);
+            reopened.close();
+            return problem;
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return {@code null} if {@code state} holds, for every slot, an entry at least as high as
+     * the highest acknowledged acceptance and a promise at least that high; else what differs
+     */
+    private static String covers(String what, WriteAheadLog.State state, Map<Long, Long> acked) {
+        for (Map.Entry<Long, Long> e : acked.entrySet()) {
+            long slot = e.getKey();
+            long ballot = e.getValue();
+            Message.Entry entry = state.getAccepted().get(slot);
+            if (entry == null || entry.getBallot() < ballot) {
+                return String.format("slot %d acknowledged at ballot %d, %s has %s", slot, ballot, what,
+                        entry == null ? "nothing" : "ballot " + entry.getBallot());
+            }
+            if (!value(slot, entry.getBallot()).equals(entry.getValue())) {
+                return String.format("slot %d: %s has value %s for ballot %d", slot, what, entry.getValue(),
+                        entry.getBallot());
+            }
+            if (state.getPromisedN() < ballot) {
+                return String.format("%s has promise %d below acknowledged ballot %d", what, state.getPromisedN(),
+                        ballot);
+            }
+        }
+        return null;
+    }
+
+    private static String value(long slot, long ballot) {
+        return "v" + slot + "." + ballot;
+    }
+
+    private static int parsePositive(String s, int fallback) {
+        try {
+            int v = Integer.parseInt(s.trim());
+            return v > 0 ? v : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}